@@ -24,6 +24,12 @@ android {
                 "proguard-rules.pro"
             )
         }
+        // Release-like build the startup benchmark (:macrobenchmark) installs and measures
+        create("benchmark") {
+            initWith(getByName("release"))
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
@@ -0,0 +1,105 @@
+// Per-pixel colour filter applied after YUV->RGB.
+//
+// A filter is either a 33^3 float LUT (the bundled .cube filters) or, when
+// the LUT analyzer found it separable, nine 256-entry fixed-point tables
+// plus a per-channel post-curve:
+//     s_c   = T[c][R][r] + T[c][G][g] + T[c][B][b]
+//     out_c = post[c][clamp(s_c >> FRAC_BITS)]
+// That covers per-channel curves followed by a 3x3 matrix (identity post)
+// and a 3x3 matrix followed by per-channel curves. All tables together are
+// ~7.5 KB and stay L1-resident, where the 3D LUT is 430 KB of floats.
+//
+// The legacy curve family (FilterArrays.hpp) is plain per-channel tone
+// curves, out_c = curve[c][in_c]: three lookups into 768 bytes.
+#pragma once
+
+#include <algorithm>
+#include <cstdint>
+
+typedef const float (*Lut33Ptr)[33][33][33][3];
+
+struct SeparableCurves {
+    static constexpr int FRAC_BITS = 4;
+    static constexpr int POST_SIZE = 1024;
+    // table[outChannel][inChannel][value], outChannel/inChannel in R,G,B order
+    int16_t table[3][3][256];
+    uint8_t post[3][POST_SIZE];
+};
+
+struct ChannelCurves {
+    uint8_t curve[3][256];   // [channel R/G/B][input value]
+};
+
+struct ColorFilter {
+    Lut33Ptr lut = nullptr;
+    const SeparableCurves* curves = nullptr;   // preferred over lut when set
+    const ChannelCurves* channel = nullptr;    // legacy curve family
+
+    ColorFilter() = default;
+    ColorFilter(Lut33Ptr l) : lut(l) {}
+    ColorFilter(Lut33Ptr l, const SeparableCurves* c) : lut(l), curves(c) {}
+
+    static ColorFilter FromChannelCurves(const ChannelCurves* c) {
+        ColorFilter f;
+        f.channel = c;
+        return f;
+    }
+
+    bool isIdentity() const { return !lut && !curves && !channel; }
+    bool operator==(const ColorFilter& o) const {
+        return lut == o.lut && curves == o.curves && channel == o.channel;
+    }
+    bool operator!=(const ColorFilter& o) const { return !(*this == o); }
+};
+
+enum class FilterPath { None, Lut3D, Separable, ChannelCurves };
+
+static inline FilterPath PathOf(const ColorFilter& f)
+{
+    if (f.channel) return FilterPath::ChannelCurves;
+    if (f.curves) return FilterPath::Separable;
+    if (f.lut) return FilterPath::Lut3D;
+    return FilterPath::None;
+}
+
+// Nearest-lower-node 3D lookup, as the pipeline has always done it.
+static inline void ApplyLut3D(Lut33Ptr lut, int& R, int& G, int& B)
+{
+    const int lutSize = 33;
+    int r_idx = (R * (lutSize - 1)) / 255;
+    int g_idx = (G * (lutSize - 1)) / 255;
+    int b_idx = (B * (lutSize - 1)) / 255;
+
+    const float* lut_color = (*lut)[b_idx][g_idx][r_idx];
+
+    R = static_cast<int>(std::clamp(lut_color[0] * 255.0f, 0.0f, 255.0f));
+    G = static_cast<int>(std::clamp(lut_color[1] * 255.0f, 0.0f, 255.0f));
+    B = static_cast<int>(std::clamp(lut_color[2] * 255.0f, 0.0f, 255.0f));
+}
+
+static inline void ApplySeparable(const SeparableCurves* c, int& R, int& G, int& B)
+{
+    const auto& t = c->table;
+    const int r = (t[0][0][R] + t[0][1][G] + t[0][2][B]) >> SeparableCurves::FRAC_BITS;
+    const int g = (t[1][0][R] + t[1][1][G] + t[1][2][B]) >> SeparableCurves::FRAC_BITS;
+    const int b = (t[2][0][R] + t[2][1][G] + t[2][2][B]) >> SeparableCurves::FRAC_BITS;
+    const int last = SeparableCurves::POST_SIZE - 1;
+    R = c->post[0][std::clamp(r, 0, last)];
+    G = c->post[1][std::clamp(g, 0, last)];
+    B = c->post[2][std::clamp(b, 0, last)];
+}
+
+static inline void ApplyChannelCurves(const ChannelCurves* c, int& R, int& G, int& B)
+{
+    R = c->curve[0][R];
+    G = c->curve[1][G];
+    B = c->curve[2][B];
+}
+
+template <FilterPath P>
+static inline void ApplyFilter(const ColorFilter& f, int& R, int& G, int& B)
+{
+    if constexpr (P == FilterPath::Lut3D) ApplyLut3D(f.lut, R, G, B);
+    else if constexpr (P == FilterPath::Separable) ApplySeparable(f.curves, R, G, B);
+    else if constexpr (P == FilterPath::ChannelCurves) ApplyChannelCurves(f.channel, R, G, B);
+}
@@ -0,0 +1,122 @@
+// Dirty-tile tracking for static scenes (tripod / kiosk setups).
+//
+// Each TILE x TILE block of the Y plane gets a cheap signature: every
+// SAMPLE_STEP-th luma sample in both directions. A tile is dirty when the
+// mean absolute difference of those samples against the last processed
+// version exceeds the threshold, or any single sample moved by more than
+// 4x the threshold (small objects entering a mostly-static tile). Clean tiles keep their previously
+// converted BGRA output, so only dirty tiles go through YUV->RGB->LUT.
+#pragma once
+
+#include <cstdint>
+#include <cstdlib>
+#include <vector>
+
+#include "FrameConvert.hpp"
+
+class DirtyTileTracker {
+public:
+    static constexpr int TILE = 32;
+    static constexpr int SAMPLE_STEP = 4;
+    static constexpr int SAMPLES_PER_TILE = (TILE / SAMPLE_STEP) * (TILE / SAMPLE_STEP);
+
+    // Mean absolute luma difference per sample above which a tile is reprocessed.
+    int threshold = 4;
+    // Force a full refresh every N frames so sub-threshold drift cannot accumulate.
+    int refreshInterval = 60;
+
+    /**
+     * Compare the frame against the reference signatures and fill the dirty
+     * mask. Returns the number of dirty tiles. forceAll marks every tile dirty
+     * (first frame, size/filter change); signatures are refreshed for dirty tiles only.
+     */
+    int update(const YuvFrame& f, bool forceAll) {
+        if (f.width != width || f.height != height) {
+            width = f.width;
+            height = f.height;
+            tilesX = (width + TILE - 1) / TILE;
+            tilesY = (height + TILE - 1) / TILE;
+            reference.assign(static_cast<size_t>(tilesX) * tilesY * SAMPLES_PER_TILE, 0);
+            dirty.assign(static_cast<size_t>(tilesX) * tilesY, 1);
+            forceAll = true;
+        }
+        if (++framesSinceRefresh >= refreshInterval) forceAll = true;
+        if (forceAll) framesSinceRefresh = 0;
+
+        int dirtyCount = 0;
+        for (int ty = 0; ty < tilesY; ++ty) {
+            for (int tx = 0; tx < tilesX; ++tx) {
+                const int t = ty * tilesX + tx;
+                uint8_t* ref = &reference[static_cast<size_t>(t) * SAMPLES_PER_TILE];
+                const bool d = forceAll || tileChanged(f, tx, ty, ref);
+                if (d) {
+                    storeSignature(f, tx, ty, ref);
+                    ++dirtyCount;
+                }
+                dirty[t] = d ? 1 : 0;
+            }
+        }
+        return dirtyCount;
+    }
+
+    bool isDirty(int tx, int ty) const { return dirty[ty * tilesX + tx] != 0; }
+    int tileCount() const { return tilesX * tilesY; }
+    int tilesAcross() const { return tilesX; }
+    int tilesDown() const { return tilesY; }
+
+private:
+    int width = 0;
+    int height = 0;
+    int tilesX = 0;
+    int tilesY = 0;
+    int framesSinceRefresh = 0;
+    std::vector<uint8_t> reference;
+    std::vector<uint8_t> dirty;
+
+    bool tileChanged(const YuvFrame& f, int tx, int ty, const uint8_t* ref) const {
+        const int x0 = tx * TILE, y0 = ty * TILE;
+        const int peak = threshold * 4;
+        int sad = 0, n = 0;
+        for (int sy = 0; sy < TILE; sy += SAMPLE_STEP) {
+            const int y = std::min(y0 + sy, height - 1);
+            const uint8_t* row = f.y + static_cast<size_t>(y) * f.yRowStride;
+            for (int sx = 0; sx < TILE; sx += SAMPLE_STEP) {
+                const int x = std::min(x0 + sx, width - 1) * f.yPixelStride;
+                const int d = std::abs(static_cast<int>(row[x]) - static_cast<int>(ref[n++]));
+                if (d > peak) return true;
+                sad += d;
+            }
+        }
+        return sad > threshold * SAMPLES_PER_TILE;
+    }
+
+    void storeSignature(const YuvFrame& f, int tx, int ty, uint8_t* ref) const {
+        const int x0 = tx * TILE, y0 = ty * TILE;
+        int n = 0;
+        for (int sy = 0; sy < TILE; sy += SAMPLE_STEP) {
+            const int y = std::min(y0 + sy, height - 1);
+            const uint8_t* row = f.y + static_cast<size_t>(y) * f.yRowStride;
+            for (int sx = 0; sx < TILE; sx += SAMPLE_STEP) {
+                ref[n++] = row[std::min(x0 + sx, width - 1) * f.yPixelStride];
+            }
+        }
+    }
+};
+
+/**
+ * Convert only the dirty tiles of f into dst (width*height, persistent
+ * between frames). Clean tiles keep last frame's output.
+ */
+static inline void ConvertDirtyTilesToBgra(const YuvFrame& f, const ColorFilter& filter,
+                                           const DirtyTileTracker& tracker, uint32_t* dst)
+{
+    const int T = DirtyTileTracker::TILE;
+    for (int ty = 0; ty < tracker.tilesDown(); ++ty) {
+        for (int tx = 0; tx < tracker.tilesAcross(); ++tx) {
+            if (!tracker.isDirty(tx, ty)) continue;
+            const int x0 = tx * T, y0 = ty * T;
+            ConvertYuvRectToBgra(f, filter, dst, f.width,
+                                 x0, y0, std::min(x0 + T, f.width), std::min(y0 + T, f.height));
+        }
+    }
+}
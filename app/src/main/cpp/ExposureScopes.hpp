@@ -0,0 +1,336 @@
+// Exposure tools computed as a side output of the preview conversion pass:
+// a subsampled luma histogram, a waveform (luma distribution per column),
+// and zebra stripes over clipped highlights plus a coarse mask of them.
+//
+// The taps live inside the conversion pixel loop: on every 8th row, every
+// 4th pixel is a sample, read once for both the conversion and the scopes,
+// so the luma is never walked a second time. Zebra is sampled the same way:
+// a clipped sample stripes the 4 x 8 block it starts. Row
+// bands accumulate into their own ScopePartial so bands never share
+// counters; the partials are merged once per published frame straight into
+// a double-buffered area that Java reads as direct ByteBuffers.
+#pragma once
+
+#include <algorithm>
+#include <atomic>
+#include <cstdint>
+#include <cstring>
+#include <vector>
+
+#include "FrameConvert.hpp"
+
+constexpr int kScopeBands = 4;
+constexpr int kWaveformColumns = 128;
+constexpr int kWaveformLevels = 64;            // luma >> 2
+constexpr int kZebraCols = 32;
+constexpr int kZebraRows = 18;
+
+// Publish layout, little-endian int32 header followed by the payload.
+// Mirrored by ExposureScopes.java.
+enum ScopeHeader {
+    kScopeSeq = 0,          // odd while being written, even when stable
+    kScopeFrameWidth,
+    kScopeFrameHeight,
+    kScopeSamples,
+    kScopeClipped,          // samples at or above the zebra threshold (zebra on only)
+    kScopeFlags,            // ScopeSettings bits of the producing frame
+    kScopeHeaderInts = 8
+};
+constexpr size_t kScopeHistogramOffset = kScopeHeaderInts * 4;
+constexpr size_t kScopeWaveformOffset = kScopeHistogramOffset + 256 * 4;
+constexpr size_t kScopeZebraOffset = kScopeWaveformOffset + kWaveformColumns * kWaveformLevels;
+constexpr size_t kScopeBufferBytes = kScopeZebraOffset + kZebraCols * kZebraRows;
+
+struct ScopeSettings {
+    enum : int { kHistogram = 1, kZebra = 2, kWaveform = 4 };
+    int flags = 0;
+    int zebraThreshold = 235;      // video-range luma; 235 is 100% white
+    int sampleShift = 2;           // analyse every 2^n-th column (>= 128 columns for the waveform)
+    int rowShift = 3;              // of every 2^n-th row
+
+    bool any() const { return flags != 0; }
+};
+
+struct alignas(64) ScopePartial {
+    uint32_t histogram[256];
+    uint16_t waveform[kWaveformColumns * kWaveformLevels];   // 16 KB, stays in L1; a cell sees <= 1/128 of the samples
+    uint32_t zebra[kZebraCols * kZebraRows];
+    uint32_t samples;
+    uint32_t clipped;
+
+    void clear(bool waveform) {
+        std::memset(histogram, 0, sizeof(histogram));
+        if (waveform) std::memset(this->waveform, 0, sizeof(this->waveform));
+        std::memset(zebra, 0, sizeof(zebra));
+        samples = clipped = 0;
+    }
+};
+
+/**
+ * One band's view of the scopes inside the conversion loop. Sample rows
+ * are converted by ConvertTappedRowT(), which feeds each sample to the
+ * partial (when analysing) and flags the blocks whose sample is at or
+ * above the zebra threshold; every row of a flagged block gets stripes.
+ */
+struct ScopeTap {
+    static constexpr uint32_t kStripe = 0xFF000000;      // opaque black
+
+    ScopePartial* partial = nullptr;     // null: stripes only
+    bool waveform = false;
+    int zebraThreshold = 256;            // 256: no stripes, no clip counting
+    int sampleShift = 0;
+    uint32_t colScale = 0;               // x -> waveform column, 16.16
+    uint32_t zebraColScale = 0;          // x -> zebra cell column, 16.16
+    uint32_t zebraRowScale = 0;          // y -> zebra cell row, 16.16
+    uint8_t* blocks = nullptr;           // clipped flag per block of the current block row
+    bool blockRowClipped = false;
+
+    /** False: nothing to sample, the band is a plain conversion. */
+    bool active() const { return partial || zebraThreshold < 256; }
+
+    /** Diagonal stripes, 4 px wide, over the flagged blocks of row y. */
+    void stripes(int y, int width, uint32_t* dRow) const {
+        const int step = 1 << sampleShift;
+        for (int x = 0, b = 0; x < width; x += step, ++b) {
+            if (!blocks[b]) continue;
+            for (int xi = x, xe = std::min(width, x + step); xi < xe; ++xi) {
+                if (((xi + y) >> 2) & 1) dRow[xi] = kStripe;
+            }
+        }
+    }
+};
+
+constexpr int kScopeChunk = 64;
+
+/** Convert sample row y, tapping every 2^sampleShift-th pixel as it goes. */
+template <FilterPath P, bool Analyse, bool Waveform>
+static inline void ConvertTappedRowT(const YuvFrame& frame, const YuvToRgbTable& m, const ColorFilter& filter,
+                                     int y, uint32_t* dRow, ScopeTap& tap)
+{
+    const YuvFrame f = frame;
+    const uint8_t* yRow = f.y + static_cast<size_t>(y) * f.yRowStride;
+    const uint8_t* uRow = f.u + static_cast<size_t>(y >> f.chromaShift) * f.uRowStride;
+    const uint8_t* vRow = f.v + static_cast<size_t>(y >> f.chromaShift) * f.vRowStride;
+    // Locals, so the counter stores below do not make the compiler reload them
+    const int shift = tap.sampleShift;
+    const int step = 1 << shift;
+    const int threshold = tap.zebraThreshold;
+    const uint32_t colScale = tap.colScale;
+    const uint32_t zebraColScale = tap.zebraColScale;
+    ScopePartial* p = tap.partial;
+    uint32_t* cells = Analyse ? p->zebra + ((static_cast<uint32_t>(y) * tap.zebraRowScale) >> 16) * kZebraCols : nullptr;
+    uint8_t* blocks = tap.blocks;
+    int anyClipped = 0;
+    uint32_t clippedCount = 0;
+
+    // A chunk at a time: its samples, then its pixels, both from the same luma cache lines
+    for (int x0 = 0; x0 < f.width; x0 += kScopeChunk) {
+        const int x1 = std::min(f.width, x0 + kScopeChunk);
+        for (int x = x0; x < x1; x += step) {
+            const int luma = yRow[x * f.yPixelStride];
+            const int clipped = luma >= threshold;
+            blocks[x >> shift] = static_cast<uint8_t>(clipped);
+            anyClipped |= clipped;
+            if (Analyse) {
+                p->histogram[luma]++;
+                if (Waveform) {
+                    p->waveform[((static_cast<uint32_t>(x) * colScale) >> 16) * kWaveformLevels + (luma >> 2)]++;
+                }
+                if (clipped) {
+                    clippedCount++;
+                    cells[(static_cast<uint32_t>(x) * zebraColScale) >> 16]++;
+                }
+            }
+        }
+        for (int x = x0; x < x1; ++x) dRow[x] = ConvertYuvPixelT<P>(f, m, filter, yRow, uRow, vRow, x);
+    }
+    if (Analyse) {
+        p->samples += static_cast<uint32_t>((f.width + step - 1) >> shift);
+        p->clipped += clippedCount;
+    }
+    tap.blockRowClipped = anyClipped != 0;
+}
+
+template <FilterPath P>
+static inline void ConvertTappedRowT(const YuvFrame& f, const YuvToRgbTable& m, const ColorFilter& filter,
+                                     int y, uint32_t* dRow, ScopeTap& tap)
+{
+    if (!tap.partial) ConvertTappedRowT<P, false, false>(f, m, filter, y, dRow, tap);
+    else if (tap.waveform) ConvertTappedRowT<P, true, true>(f, m, filter, y, dRow, tap);
+    else ConvertTappedRowT<P, true, false>(f, m, filter, y, dRow, tap);
+}
+
+/** Per-band partials for one frame and the merge into the publish layout. */
+class ScopeAccumulator {
+public:
+    /** Reset the partials for a width x height frame; analyse=false gives stripe-only taps. */
+    void begin(const ScopeSettings& s, int width, int height, bool analyse) {
+        settings_ = s;
+        width_ = width;
+        height_ = height;
+        analyse_ = analyse;
+        if (analyse) {
+            for (ScopePartial& p : partials_) p.clear((s.flags & ScopeSettings::kWaveform) != 0);
+        }
+        const size_t blockCount = static_cast<size_t>((width >> s.sampleShift) + 1);
+        for (std::vector<uint8_t>& b : blocks_) b.assign(blockCount, 0);
+    }
+
+    int rowShift() const { return settings_.rowShift; }
+
+    /** Tap writing into the partial of one row band. */
+    ScopeTap tap(int band) {
+        ScopeTap t;
+        t.zebraThreshold = (settings_.flags & ScopeSettings::kZebra) ? settings_.zebraThreshold : 256;
+        t.sampleShift = settings_.sampleShift;
+        t.blocks = blocks_[band].data();
+        if (!analyse_) return t;
+        t.partial = &partials_[band];
+        t.waveform = (settings_.flags & ScopeSettings::kWaveform) != 0;
+        t.colScale = Scale(kWaveformColumns, width_);
+        t.zebraColScale = Scale(kZebraCols, width_);
+        t.zebraRowScale = Scale(kZebraRows, height_);
+        return t;
+    }
+
+    /** Sum the partials into dst (kScopeBufferBytes); seq is not touched. */
+    void mergeInto(uint8_t* dst) const {
+        int32_t header[kScopeHeaderInts] = {};
+        uint32_t hist[256] = {};
+        uint32_t samples = 0, clipped = 0;
+        for (const ScopePartial& p : partials_) {
+            for (int i = 0; i < 256; ++i) hist[i] += p.histogram[i];
+            samples += p.samples;
+            clipped += p.clipped;
+        }
+        header[kScopeFrameWidth] = width_;
+        header[kScopeFrameHeight] = height_;
+        header[kScopeSamples] = static_cast<int32_t>(samples);
+        header[kScopeClipped] = static_cast<int32_t>(clipped);
+        header[kScopeFlags] = settings_.flags;
+        std::memcpy(dst + 4, header + 1, (kScopeHeaderInts - 1) * 4);
+        std::memcpy(dst + kScopeHistogramOffset, hist, sizeof(hist));
+
+        uint8_t* wave = dst + kScopeWaveformOffset;
+        if (settings_.flags & ScopeSettings::kWaveform) {
+            // Intensity relative to the samples in the column; a level holding
+            // 1/16 of them saturates, which keeps thin traces visible
+            const uint32_t perColumn = std::max<uint32_t>(1, samples / kWaveformColumns);
+            const uint64_t scale = (uint64_t{255 * 16} << 16) / perColumn;    // 16.16, no divide per cell
+            for (int i = 0; i < kWaveformColumns * kWaveformLevels; ++i) {
+                uint32_t n = 0;
+                for (const ScopePartial& p : partials_) n += p.waveform[i];
+                wave[i] = static_cast<uint8_t>(std::min<uint64_t>(255, (n * scale) >> 16));
+            }
+        } else {
+            std::memset(wave, 0, kWaveformColumns * kWaveformLevels);
+        }
+
+        // Zebra cells: share of the cell's samples that clipped
+        uint8_t* zebra = dst + kScopeZebraOffset;
+        const uint32_t perCell = std::max<uint32_t>(1, samples / (kZebraCols * kZebraRows));
+        const uint64_t cellScale = (uint64_t{255} << 16) / perCell;
+        for (int i = 0; i < kZebraCols * kZebraRows; ++i) {
+            uint32_t n = 0;
+            for (const ScopePartial& p : partials_) n += p.zebra[i];
+            zebra[i] = static_cast<uint8_t>(std::min<uint64_t>(255, (n * cellScale) >> 16));
+        }
+    }
+
+private:
+    static uint32_t Scale(int buckets, int size) {
+        return static_cast<uint32_t>((static_cast<uint64_t>(buckets) << 16) / std::max(1, size));
+    }
+
+    ScopeSettings settings_;
+    int width_ = 0, height_ = 0;
+    bool analyse_ = false;
+    ScopePartial partials_[kScopeBands];
+    std::vector<uint8_t> blocks_[kScopeBands];
+};
+
+/**
+ * Convert a frame and compute the scopes in the same pass. Sample rows go
+ * through ConvertTappedRowT(), the rows in between through the plain
+ * kernel, and rows of a block row holding a clipped sample get their
+ * stripes right after conversion, while still in cache. Bands start on a
+ * sample row and each has its own partial, so bands could be handed to
+ * separate threads without sharing a counter.
+ */
+template <FilterPath P>
+static inline void ConvertYuvToBgraWithScopesT(const YuvFrame& f, const ColorFilter& filter, uint32_t* dst,
+                                               ScopeAccumulator& acc)
+{
+    const YuvToRgbTable& m = MatrixOf(f);
+    const int mask = (1 << acc.rowShift()) - 1;
+    auto bandStart = [&](int b) { return b < kScopeBands ? (f.height * b / kScopeBands) & ~mask : f.height; };
+    for (int b = 0; b < kScopeBands; ++b) {
+        ScopeTap tap = acc.tap(b);
+        const int y0 = bandStart(b), y1 = bandStart(b + 1);
+        if (!tap.active()) {
+            ConvertYuvRectToBgraT<P>(f, filter, dst, f.width, 0, y0, f.width, y1);
+            continue;
+        }
+        for (int y = y0; y < y1; ++y) {
+            uint32_t* dRow = dst + static_cast<size_t>(y) * f.width;
+            if (!(y & mask)) ConvertTappedRowT<P>(f, m, filter, y, dRow, tap);
+            else ConvertYuvRectToBgraT<P>(f, filter, dst, f.width, 0, y, f.width, y + 1);
+            if (tap.blockRowClipped) tap.stripes(y, f.width, dRow);
+        }
+    }
+}
+
+static inline void ConvertYuvToBgraWithScopes(const YuvFrame& f, const ColorFilter& filter, uint32_t* dst,
+                                              ScopeAccumulator& acc)
+{
+    switch (PathOf(filter)) {
+        case FilterPath::ChannelCurves:
+            ConvertYuvToBgraWithScopesT<FilterPath::ChannelCurves>(f, filter, dst, acc);
+            break;
+        case FilterPath::Separable:
+            ConvertYuvToBgraWithScopesT<FilterPath::Separable>(f, filter, dst, acc);
+            break;
+        case FilterPath::Lut3D:
+            ConvertYuvToBgraWithScopesT<FilterPath::Lut3D>(f, filter, dst, acc);
+            break;
+        default:
+            ConvertYuvToBgraWithScopesT<FilterPath::None>(f, filter, dst, acc);
+            break;
+    }
+}
+
+/**
+ * Two publish buffers written alternately under a sequence number, so a
+ * reader can take the newer one without locking: it copies, re-reads the
+ * sequence and retries if it changed or is odd.
+ */
+class ScopePublisher {
+public:
+    uint8_t* buffer(int i) { return buffers_[i]; }
+
+    /** Throttle: true if at least intervalUs passed since the last publish. */
+    bool due(int64_t nowUs, int64_t intervalUs) const {
+        return lastPublishUs_ < 0 || nowUs - lastPublishUs_ >= intervalUs;
+    }
+
+    void publish(const ScopeAccumulator& acc, int64_t nowUs) {
+        uint8_t* dst = buffers_[generation_ & 1];
+        const int32_t seq = static_cast<int32_t>(generation_ * 2 + 2);
+        WriteSeq(dst, seq - 1);
+        std::atomic_thread_fence(std::memory_order_release);
+        acc.mergeInto(dst);
+        std::atomic_thread_fence(std::memory_order_release);
+        WriteSeq(dst, seq);
+        generation_++;
+        lastPublishUs_ = nowUs;
+    }
+
+    void reset() { lastPublishUs_ = -1; }
+
+private:
+    static void WriteSeq(uint8_t* dst, int32_t seq) { std::memcpy(dst, &seq, 4); }
+
+    alignas(64) uint8_t buffers_[2][kScopeBufferBytes] = {};
+    uint32_t generation_ = 0;
+    int64_t lastPublishUs_ = -1;
+};
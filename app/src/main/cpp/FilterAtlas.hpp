@@ -0,0 +1,194 @@
+// Live previews for the filter strip: every registered filter applied to one
+// small downscaled copy of the camera frame, laid out as the tiles of a
+// single atlas image the chips draw from.
+//
+// The source tile is sampled straight from the YUV frame (a 2x2 luma mean
+// and the nearest chroma sample at each cell centre), upright and mirrored
+// the way the thumbnail is, and converted once. What depends only on the
+// source pixel is then shared by all filters in one batched pass: the
+// unpacked R, G, B planes for the curve and separable tables, and the
+// distinct 3D LUT nodes the tile's pixels fall on (the nearest-lower node
+// ApplyLut3D picks). A LUT tile evaluates each distinct node once into a
+// small palette and fills its pixels from it, a curve tile costs three
+// byte lookups per pixel: together far less than one full-frame pass per
+// filter.
+#pragma once
+
+#include <algorithm>
+#include <cstdint>
+#include <vector>
+
+#include "FrameConvert.hpp"
+#include "Thumbnail.hpp"
+
+class FilterAtlas {
+public:
+    static constexpr int kColumns = 8;
+
+    /** Filters in tile order; they must stay valid while the atlas renders. */
+    void setFilters(std::vector<ColorFilter> filters) { filters_ = std::move(filters); }
+
+    int tileCount() const { return static_cast<int>(filters_.size()); }
+    int tileWidth() const { return tileW_; }
+    int tileHeight() const { return tileH_; }
+    int atlasWidth() const { return tileW_ * std::min(kColumns, std::max(1, tileCount())); }
+    int atlasHeight() const { return tileH_ * ((tileCount() + kColumns - 1) / kColumns); }
+
+    /** Tile size for frameW x frameH shown at degrees: upright, longest side maxSide. */
+    void layout(int frameW, int frameH, int degrees, int maxSide)
+    {
+        ThumbnailSize(frameW, frameH, degrees, maxSide, tileW_, tileH_);
+    }
+
+    /**
+     * Sample the unfiltered source tile from an 8-bit frame, rotated
+     * clockwise by degrees and mirrored first if mirror, as MakeThumbnail does.
+     */
+    void sample(const YuvFrame& f, int degrees, bool mirror)
+    {
+        const int dw = tileW_, dh = tileH_;
+        const size_t n = static_cast<size_t>(dw) * dh;
+        source_.resize(n);
+        r_.resize(n);
+        g_.resize(n);
+        b_.resize(n);
+        nodeOf_.resize(n);
+        nodes_.clear();
+        nodeSlot_.assign(33 * 33 * 33, kNoSlot);
+        const YuvToRgbTable& m = MatrixOf(f);
+        const bool swap = degrees == 90 || degrees == 270;
+        const int spanX = swap ? dh : dw;
+        const int spanY = swap ? dw : dh;
+
+        // Walk the frame's cells in memory order and scatter into the upright tile
+        for (int gy = 0; gy < spanY; ++gy) {
+            const int sy = std::clamp((2 * gy + 1) * f.height / (2 * spanY), 0, f.height - 2) & ~1;
+            const uint8_t* y0Row = f.y + static_cast<size_t>(sy) * f.yRowStride;
+            const uint8_t* uRow = f.u + static_cast<size_t>(sy >> f.chromaShift) * f.uRowStride;
+            const uint8_t* vRow = f.v + static_cast<size_t>(sy >> f.chromaShift) * f.vRowStride;
+            for (int gx = 0; gx < spanX; ++gx) {
+                // Top-left of the 2x2 luma block at the cell centre, kept inside the frame
+                const int sx = std::clamp((2 * gx + 1) * f.width / (2 * spanX), 0, f.width - 2) & ~1;
+                const uint8_t* y0 = y0Row + sx * f.yPixelStride;
+                const uint8_t* y1 = y0 + f.yRowStride;
+                const int Y = (y0[0] + y0[f.yPixelStride] + y1[0] + y1[f.yPixelStride] + 2) >> 2;
+                const int U = uRow[(sx >> f.chromaShift) * f.uPixelStride];
+                const int V = vRow[(sx >> f.chromaShift) * f.vPixelStride];
+                int R, G, B;
+                YuvToRgb(m, Y, U, V, R, G, B);
+
+                // Inverse of MakeThumbnail's tile -> cell mapping
+                const int cx = mirror ? spanX - 1 - gx : gx, cy = gy;
+                int tx, ty;
+                switch (degrees) {
+                    case 90:  tx = dw - 1 - cy; ty = cx;          break;
+                    case 180: tx = dw - 1 - cx; ty = dh - 1 - cy; break;
+                    case 270: tx = cy;          ty = dh - 1 - cx; break;
+                    default:  tx = cx;          ty = cy;          break;
+                }
+                const size_t i = static_cast<size_t>(ty) * dw + tx;
+                r_[i] = static_cast<uint8_t>(R);
+                g_[i] = static_cast<uint8_t>(G);
+                b_[i] = static_cast<uint8_t>(B);
+                source_[i] = Pack(R, G, B);
+
+                // The node ApplyLut3D picks, shared by every LUT; tiles hold far fewer distinct nodes than pixels
+                const int node = ((B * 32 / 255) * 33 + G * 32 / 255) * 33 + R * 32 / 255;
+                uint16_t& slot = nodeSlot_[node];
+                if (slot == kNoSlot) {
+                    slot = static_cast<uint16_t>(nodes_.size());
+                    nodes_.push_back(static_cast<uint32_t>(node * 3));
+                }
+                nodeOf_[i] = slot;
+            }
+        }
+        // Visit the nodes in table order: every LUT is then read front to back, cache lines shared
+        order_.clear();
+        for (uint16_t slot : nodeSlot_) if (slot != kNoSlot) order_.push_back(slot);
+    }
+
+    /** Distinct 3D LUT nodes in the sampled tile: what one LUT tile costs in LUT reads. */
+    int distinctNodes() const { return static_cast<int>(nodes_.size()); }
+
+    /**
+     * The filters over the sampled tile, into dst (atlasWidth() x
+     * atlasHeight(), row stride dstStride pixels): every tile, or with a
+     * wanted mask (one byte per tile) only those marked, e.g. the chips on
+     * screen; the others are left as they are. Returns the tiles drawn.
+     */
+    int render(uint32_t* dst, int dstStride, const std::vector<uint8_t>* wanted = nullptr) const
+    {
+        int drawn = 0;
+        for (int t = 0; t < tileCount(); ++t) {
+            if (wanted && (t >= static_cast<int>(wanted->size()) || !(*wanted)[t])) continue;
+            drawn++;
+            uint32_t* tile = dst + static_cast<size_t>(t / kColumns) * tileH_ * dstStride
+                             + static_cast<size_t>(t % kColumns) * tileW_;
+            const ColorFilter& filter = filters_[t];
+            switch (PathOf(filter)) {
+                case FilterPath::Lut3D:         renderLut3D(filter.lut, tile, dstStride); break;
+                case FilterPath::Separable:     renderWith<FilterPath::Separable>(filter, tile, dstStride); break;
+                case FilterPath::ChannelCurves: renderWith<FilterPath::ChannelCurves>(filter, tile, dstStride); break;
+                default:
+                    for (int y = 0; y < tileH_; ++y)
+                        std::copy_n(source_.data() + static_cast<size_t>(y) * tileW_, tileW_,
+                                    tile + static_cast<size_t>(y) * dstStride);
+                    break;
+            }
+        }
+        return drawn;
+    }
+
+    /** The unfiltered source tile, tileWidth() x tileHeight(). */
+    const std::vector<uint32_t>& source() const { return source_; }
+
+private:
+    static uint32_t Pack(int R, int G, int B)
+    {
+        return 0xFF000000 | (static_cast<uint32_t>(B) << 16) | (static_cast<uint32_t>(G) << 8) | static_cast<uint32_t>(R);
+    }
+
+    /** Evaluate the tile's distinct nodes once, then look every pixel up in that small palette. */
+    void renderLut3D(Lut33Ptr lut, uint32_t* tile, int dstStride) const
+    {
+        const float* table = &(*lut)[0][0][0][0];
+        palette_.resize(nodes_.size());
+        for (uint16_t k : order_) {
+            const float* c = table + nodes_[k];
+            palette_[k] = Pack(static_cast<int>(std::clamp(c[0] * 255.0f, 0.0f, 255.0f)),
+                               static_cast<int>(std::clamp(c[1] * 255.0f, 0.0f, 255.0f)),
+                               static_cast<int>(std::clamp(c[2] * 255.0f, 0.0f, 255.0f)));
+        }
+        for (int y = 0; y < tileH_; ++y) {
+            const uint16_t* node = nodeOf_.data() + static_cast<size_t>(y) * tileW_;
+            uint32_t* row = tile + static_cast<size_t>(y) * dstStride;
+            for (int x = 0; x < tileW_; ++x) row[x] = palette_[node[x]];
+        }
+    }
+
+    template <FilterPath P>
+    void renderWith(const ColorFilter& filter, uint32_t* tile, int dstStride) const
+    {
+        for (int y = 0; y < tileH_; ++y) {
+            const size_t i0 = static_cast<size_t>(y) * tileW_;
+            uint32_t* row = tile + static_cast<size_t>(y) * dstStride;
+            for (int x = 0; x < tileW_; ++x) {
+                int R = r_[i0 + x], G = g_[i0 + x], B = b_[i0 + x];
+                ApplyFilter<P>(filter, R, G, B);
+                row[x] = Pack(R, G, B);
+            }
+        }
+    }
+
+    std::vector<ColorFilter> filters_;
+    int tileW_ = 0, tileH_ = 0;
+    std::vector<uint32_t> source_;
+    std::vector<uint8_t> r_, g_, b_;
+    // 3D LUT nodes: node -> slot (kNoSlot if absent), slot -> float offset, pixel -> slot
+    static constexpr uint16_t kNoSlot = 0xFFFF;
+    std::vector<uint16_t> nodeSlot_;
+    std::vector<uint32_t> nodes_;
+    std::vector<uint16_t> nodeOf_;
+    std::vector<uint16_t> order_;          // slots by ascending offset
+    mutable std::vector<uint32_t> palette_;
+};
@@ -0,0 +1,136 @@
+// Filter composition graph: a linear chain of filters and adjustments that
+// is baked into a single 33^3 LUT, so per-pixel cost stays at one lookup
+// however long the chain gets.
+//
+// Evaluation happens only at bake time, in float, on the LUT grid nodes.
+// LUT filters are sampled trilinearly, tone curves are interpolated, and
+// adjustments are analytic.
+#pragma once
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "ColorFilter.hpp"
+
+struct GraphOp {
+    enum Type { Filter = 0, Exposure = 1, Contrast = 2, Saturation = 3 };
+
+    Type type = Filter;
+    ColorFilter filter;   // Filter
+    float value = 0.f;    // Exposure: stops; Contrast / Saturation: factor (1 = neutral)
+
+    bool isNeutral() const {
+        switch (type) {
+            case Filter:     return filter.isIdentity();
+            case Exposure:   return value == 0.f;
+            case Contrast:
+            case Saturation: return value == 1.f;
+        }
+        return true;
+    }
+};
+
+struct BakedLut {
+    float data[33][33][33][3];
+};
+
+namespace filtergraph {
+
+static inline float Clamp01(float v) { return std::min(std::max(v, 0.f), 1.f); }
+
+static inline float SrgbToLinear(float c)
+{
+    return c <= 0.04045f ? c / 12.92f : std::pow((c + 0.055f) / 1.055f, 2.4f);
+}
+
+static inline float LinearToSrgb(float c)
+{
+    return c <= 0.0031308f ? c * 12.92f : 1.055f * std::pow(c, 1.f / 2.4f) - 0.055f;
+}
+
+static inline void SampleLutTrilinear(Lut33Ptr lut, float rgb[3])
+{
+    const float (&L)[33][33][33][3] = *lut;
+    float pos[3];
+    int i0[3];
+    float t[3];
+    for (int c = 0; c < 3; ++c) {
+        pos[c] = Clamp01(rgb[c]) * 32.f;
+        i0[c] = std::min(static_cast<int>(pos[c]), 31);
+        t[c] = pos[c] - i0[c];
+    }
+    float out[3] = {0.f, 0.f, 0.f};
+    for (int corner = 0; corner < 8; ++corner) {
+        const int dr = corner & 1, dg = (corner >> 1) & 1, db = (corner >> 2) & 1;
+        const float w = (dr ? t[0] : 1 - t[0]) * (dg ? t[1] : 1 - t[1]) * (db ? t[2] : 1 - t[2]);
+        const float* node = L[i0[2] + db][i0[1] + dg][i0[0] + dr];
+        out[0] += w * node[0];
+        out[1] += w * node[1];
+        out[2] += w * node[2];
+    }
+    for (int c = 0; c < 3; ++c) rgb[c] = Clamp01(out[c]);
+}
+
+static inline void SampleChannelCurves(const ChannelCurves* curves, float rgb[3])
+{
+    for (int c = 0; c < 3; ++c) {
+        const float pos = Clamp01(rgb[c]) * 255.f;
+        const int i0 = std::min(static_cast<int>(pos), 254);
+        const float t = pos - i0;
+        rgb[c] = (curves->curve[c][i0] * (1 - t) + curves->curve[c][i0 + 1] * t) / 255.f;
+    }
+}
+
+static inline void ApplyOp(const GraphOp& op, float rgb[3])
+{
+    switch (op.type) {
+        case GraphOp::Filter:
+            // Separable entries keep their source LUT, which is the reference.
+            if (op.filter.channel) SampleChannelCurves(op.filter.channel, rgb);
+            else if (op.filter.lut) SampleLutTrilinear(op.filter.lut, rgb);
+            break;
+        case GraphOp::Exposure: {
+            const float gain = std::exp2(op.value);
+            for (int c = 0; c < 3; ++c) rgb[c] = Clamp01(LinearToSrgb(SrgbToLinear(rgb[c]) * gain));
+            break;
+        }
+        case GraphOp::Contrast:
+            for (int c = 0; c < 3; ++c) rgb[c] = Clamp01((rgb[c] - 0.5f) * op.value + 0.5f);
+            break;
+        case GraphOp::Saturation: {
+            const float luma = 0.2126f * rgb[0] + 0.7152f * rgb[1] + 0.0722f * rgb[2];
+            for (int c = 0; c < 3; ++c) rgb[c] = Clamp01(luma + (rgb[c] - luma) * op.value);
+            break;
+        }
+    }
+}
+
+} // namespace filtergraph
+
+/** Drop neutral ops; what remains is what actually has to be baked. */
+static inline std::vector<GraphOp> ActiveOps(const std::vector<GraphOp>& ops)
+{
+    std::vector<GraphOp> active;
+    for (const GraphOp& op : ops) {
+        if (!op.isNeutral()) active.push_back(op);
+    }
+    return active;
+}
+
+/** Evaluate the chain at every grid node into out (indexed [b][g][r], like the .cube headers). */
+static inline void BakeFilterGraph(const std::vector<GraphOp>& ops, BakedLut& out)
+{
+    for (int b = 0; b < 33; ++b) {
+        for (int g = 0; g < 33; ++g) {
+            for (int r = 0; r < 33; ++r) {
+                float rgb[3] = {r / 32.f, g / 32.f, b / 32.f};
+                for (const GraphOp& op : ops) filtergraph::ApplyOp(op, rgb);
+                float* node = out.data[b][g][r];
+                node[0] = rgb[0];
+                node[1] = rgb[1];
+                node[2] = rgb[2];
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// Bundled filters known to the native pipeline.
+//
+// Shared by the JNI layer (which builds the name -> filter map from it)
+// and the host benchmarks, so both always see the same filter set.
+#pragma once
+
+#include "ColorFilter.hpp"
+
+// Filter headers (assumed to be correct)
+#include "filters/lutify/Amy.hpp"
+#include "filters/lutify/Claire.hpp"
+#include "filters/lutify/FBoost10.hpp"
+#include "filters/lutify/FTone3.hpp"
+#include "filters/lutify/PFilm2.hpp"
+#include "filters/BlueArchitecture.hpp"
+#include "filters/HardBoost.hpp"
+#include "filters/LongBeachMorning.hpp"
+#include "filters/LushGreen.hpp"
+#include "filters/MagicHour.hpp"
+#include "filters/NaturalBoost.hpp"
+#include "filters/OrangeAndBlue.hpp"
+#include "filters/SoftBlackAndWhite.hpp"
+#include "filters/Waves.hpp"
+#include "filters/BlueHour.hpp"
+#include "filters/ColdChrome.hpp"
+#include "filters/CrispAutumn.hpp"
+#include "filters/DarkAndSomber.hpp"
+
+// Legacy per-channel tone curves (Filters::MAPS)
+#include "FilterArrays.hpp"
+
+struct BundledLut {
+    const char* name;
+    Lut33Ptr lut;
+};
+
+static const BundledLut kBundledLuts[] = {
+        {"Amy", &Amy},
+        {"Claire", &Claire},
+        {"FBoost10", &FBoost10},
+        {"FTone3", &FTone3},
+        {"PFilm2", &PFilm2},
+        {"Blue Architecture", &BlueArchitecture},
+        {"HardBoost", &HardBoost},
+        {"LongBeachMorning", &LongBeachMorning},
+        {"LushGreen", &LushGreen},
+        {"MagicHour", &MagicHour},
+        {"NaturalBoost", &NaturalBoost},
+        {"OrangeAndBlue", &OrangeAndBlue},
+        {"SoftBlackAndWhite", &SoftBlackAndWhite},
+        {"Waves", &Waves},
+        {"BlueHour", &BlueHour},
+        {"ColdChrome", &ColdChrome},
+        {"CrispAutumn", &CrispAutumn},
+        {"DarkAndSomber", &DarkAndSomber},
+};
+
+// A LUT takes the separable fast path when 99% of sampled colours land
+// within this CIE76 Delta-E of the 3D path (~2.3 is one just-noticeable difference).
+static constexpr float kSeparableToleranceDeltaE = 2.3f;
+
+// Second family: the 46 legacy tone curves, in Filters::MAPS row order.
+static const char* const kCurveFilterNames[46] = {
+        "Blue 1", "Blue 2", "Blue Selenium 1", "Blue Selenium 2",
+        "Cobalt Iron 1", "Cobalt Iron 2", "Cobalt Iron 3",
+        "Copper 1", "Copper 2", "Copper Sepia",
+        "Cyan Selenium", "Cyan Sepia", "Cyanotype",
+        "Gold 1", "Gold 2", "Gold Blue", "Gold Copper",
+        "Gold Selenium 1", "Gold Selenium 2", "Gold Sepia",
+        "JK Blue Yellow", "JK Brown Brown", "JK Red Yellow",
+        "Platinum", "Selenium 1", "Selenium 2",
+        "Sepia 1", "Sepia 2", "Sepia 3", "Sepia 4", "Sepia 5",
+        "Sepia Antique", "Sepia Blue 1", "Sepia Blue 2", "Sepia Cyan",
+        "Sepia Highlights 1", "Sepia Highlights 2", "Sepia Midtones",
+        "Sepia Selenium 1", "Sepia Selenium 2", "Sepia Selenium 3",
+        "Brannan", "BW HC Basic", "BW HC BM40", "Nashville", "Earlybird",
+};
+
+static_assert(sizeof(kCurveFilterNames) / sizeof(kCurveFilterNames[0]) ==
+              sizeof(Filters::MAPS) / sizeof(Filters::MAPS[0]),
+              "one name per Filters::MAPS row");
+
+/** Copy Filters::MAPS[type] (rows stored B, G, R) into the R, G, B byte curves the pixel loop uses. */
+static inline void BuildChannelCurves(int type, ChannelCurves& out)
+{
+    int map[256][3];
+    Filters::getFilterMap2(map, type);
+    for (int v = 0; v < 256; ++v) {
+        out.curve[0][v] = static_cast<uint8_t>(std::clamp(map[v][2], 0, 255));
+        out.curve[1][v] = static_cast<uint8_t>(std::clamp(map[v][1], 0, 255));
+        out.curve[2][v] = static_cast<uint8_t>(std::clamp(map[v][0], 0, 255));
+    }
+}
@@ -0,0 +1,159 @@
+// YUV_420_888 -> BGRA conversion with an optional colour filter.
+// Kept free of JNI/Android headers so the same kernel can be built and
+// exercised on the host (see app/src/test/cpp).
+#pragma once
+
+#include <cstdint>
+#include <algorithm>
+
+#include "ColorFilter.hpp"
+#include "YuvMatrix.hpp"
+
+// Borrowed view of one YUV_420_888 frame as delivered by ImageReader.
+struct YuvFrame {
+    const uint8_t* y = nullptr;
+    const uint8_t* u = nullptr;
+    const uint8_t* v = nullptr;
+    int yRowStride = 0;
+    int uRowStride = 0;
+    int vRowStride = 0;
+    int uPixelStride = 1;
+    int vPixelStride = 1;
+    int width = 0;
+    int height = 0;
+    int yPixelStride = 1;   // >1 only for subsampled views
+    int chromaShift = 1;    // 1 = 4:2:0 (chroma shared by 2x2 pixels), 0 = one chroma sample per pixel
+    int sampleBytes = 1;    // 2 = P010: little-endian 16-bit samples, strides in bytes (see HdrConvert.hpp)
+    const YuvToRgbTable* matrix = nullptr;   // colour space of 8-bit frames; null = BT.601 limited
+};
+
+static inline const YuvToRgbTable& MatrixOf(const YuvFrame& f)
+{
+    return f.matrix ? *f.matrix : YuvToRgbTableFor(YuvColorSpace());
+}
+
+/**
+ * Integer-decimated view of a frame (k = 1, 2 or 4) without copying.
+ * For k >= 2 every output pixel lands on its own chroma sample, so the view
+ * carries full-rate chroma and all kernels run unchanged at the reduced size.
+ */
+static inline YuvFrame SubsampledView(const YuvFrame& f, int k)
+{
+    if (k <= 1) return f;
+    YuvFrame v = f;
+    const int c = k / 2;
+    v.yPixelStride = f.yPixelStride * k;
+    v.yRowStride = f.yRowStride * k;
+    v.uPixelStride = f.uPixelStride * c;
+    v.vPixelStride = f.vPixelStride * c;
+    v.uRowStride = f.uRowStride * c;
+    v.vRowStride = f.vRowStride * c;
+    v.chromaShift = 0;
+    v.width = f.width / k;
+    v.height = f.height / k;
+    return v;
+}
+
+/** Pixel x of one row of f (its Y, U and V rows), converted and filtered. */
+template <FilterPath P>
+static inline uint32_t ConvertYuvPixelT(
+        const YuvFrame& f, const YuvToRgbTable& m, const ColorFilter& filter,
+        const uint8_t* yRow, const uint8_t* uRow, const uint8_t* vRow, int x)
+{
+    const int uvX = x >> f.chromaShift;
+    const int U = uRow[uvX * f.uPixelStride];
+    const int V = vRow[uvX * f.vPixelStride];
+    int R, G, B;
+    YuvToRgb(m, yRow[x * f.yPixelStride], U, V, R, G, B);
+
+    ApplyFilter<P>(filter, R, G, B);
+
+    // Store as ARGB (0xAARRGGBB) -> memory is [B, G, R, A]
+    return 0xFF000000 | (static_cast<uint32_t>(B) << 16) |
+           (static_cast<uint32_t>(G) << 8) | static_cast<uint32_t>(R);
+}
+
+template <FilterPath P>
+static inline void ConvertYuvRectToBgraT(
+        const YuvFrame& f,
+        const ColorFilter& filter,
+        uint32_t* dst, int dstStride,
+        int x0, int y0, int x1, int y1)
+{
+    const YuvToRgbTable& m = MatrixOf(f);
+    for (int y = y0; y < y1; y++) {
+        const uint8_t* yRow = f.y + static_cast<size_t>(y) * f.yRowStride;
+        const uint8_t* uRow = f.u + static_cast<size_t>(y >> f.chromaShift) * f.uRowStride;
+        const uint8_t* vRow = f.v + static_cast<size_t>(y >> f.chromaShift) * f.vRowStride;
+        uint32_t* dRow = dst + static_cast<size_t>(y) * dstStride;
+
+        for (int x = x0; x < x1; x++) {
+            dRow[x] = ConvertYuvPixelT<P>(f, m, filter, yRow, uRow, vRow, x);
+        }
+    }
+}
+
+/**
+ * Convert the rectangle [x0,x1) x [y0,y1) of a YUV frame into BGRA
+ * (memory order R,G,B,A as the preview window expects), applying the
+ * filter. dst is a width*height buffer with row stride dstStride.
+ * The filter path is resolved once here so the pixel loop has no branch on it.
+ */
+static inline void ConvertYuvRectToBgra(
+        const YuvFrame& f,
+        const ColorFilter& filter,
+        uint32_t* dst, int dstStride,
+        int x0, int y0, int x1, int y1)
+{
+    switch (PathOf(filter)) {
+        case FilterPath::ChannelCurves:
+            ConvertYuvRectToBgraT<FilterPath::ChannelCurves>(f, filter, dst, dstStride, x0, y0, x1, y1);
+            break;
+        case FilterPath::Separable:
+            ConvertYuvRectToBgraT<FilterPath::Separable>(f, filter, dst, dstStride, x0, y0, x1, y1);
+            break;
+        case FilterPath::Lut3D:
+            ConvertYuvRectToBgraT<FilterPath::Lut3D>(f, filter, dst, dstStride, x0, y0, x1, y1);
+            break;
+        default:
+            ConvertYuvRectToBgraT<FilterPath::None>(f, filter, dst, dstStride, x0, y0, x1, y1);
+            break;
+    }
+}
+
+static inline void ConvertYuvToBgra(const YuvFrame& f, const ColorFilter& filter, uint32_t* dst)
+{
+    ConvertYuvRectToBgra(f, filter, dst, f.width, 0, 0, f.width, f.height);
+}
+
+/**
+ * Pack a BGRA frame (memory order R,G,B,A, as produced above) into NV12 with
+ * the plane layout an encoder input buffer asks for: Y rows of yStride
+ * bytes, then sliceHeight rows later the interleaved U/V plane. Chroma is
+ * taken from the top-left pixel of each 2x2 block, converted with the
+ * encoder's colour space (BT.601 limited unless told otherwise).
+ */
+static inline void BgraToNv12(const uint32_t* src, int width, int height,
+                              uint8_t* dst, int yStride, int sliceHeight,
+                              const RgbToYuvTable& m = RgbToYuvTableFor(YuvColorSpace()))
+{
+    uint8_t* uvPlane = dst + static_cast<size_t>(yStride) * sliceHeight;
+    for (int y = 0; y < height; ++y) {
+        const uint32_t* row = src + static_cast<size_t>(y) * width;
+        uint8_t* yRow = dst + static_cast<size_t>(y) * yStride;
+        uint8_t* uvRow = uvPlane + static_cast<size_t>(y >> 1) * yStride;
+        for (int x = 0; x < width; ++x) {
+            const uint32_t p = row[x];
+            yRow[x] = SaturateFixed(m.yr[p & 0xFF] + m.yg[(p >> 8) & 0xFF] + m.yb[(p >> 16) & 0xFF]);
+        }
+        if (y & 1) continue;
+        for (int x = 0; x + 1 < width; x += 2) {
+            const uint32_t p = row[x];
+            const int r = p & 0xFF;
+            const int g = (p >> 8) & 0xFF;
+            const int b = (p >> 16) & 0xFF;
+            uvRow[x]     = SaturateFixed(m.ur[r] + m.ug[g] + m.ub[b]);
+            uvRow[x + 1] = SaturateFixed(m.vr[r] + m.vg[g] + m.vb[b]);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+// 10-bit HDR path: P010 (YCBCR_P010, BT.2020 HLG from the camera) -> a
+// 16-bit per channel RGB working format -> the same colour filters -> P010
+// for a 10-bit HEVC encoder, plus an 8-bit BGRA view for preview and photo.
+//
+// P010 carries 10 significant bits in the top of each little-endian 16-bit
+// sample; YuvFrame describes it with sampleBytes = 2 and all strides in
+// bytes (luma pixel stride 2, interleaved chroma pixel stride 4).
+//
+// Working pixels are packed into a uint64_t, R in the low 16 bits, then G,
+// B and A. Filters run on the same tables as the 8-bit path, interpolated so
+// the extra precision is not snapped to the 8-bit grid: 3D LUTs trilinearly
+// between their 33 nodes, separable and tone-curve tables linearly between
+// their 256 entries.
+#pragma once
+
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+
+#include "FrameConvert.hpp"
+
+typedef uint64_t Rgb16;
+
+static inline Rgb16 PackRgb16(int r, int g, int b)
+{
+    return static_cast<uint64_t>(r) | (static_cast<uint64_t>(g) << 16) |
+           (static_cast<uint64_t>(b) << 32) | (uint64_t{0xFFFF} << 48);
+}
+
+static inline int Rgb16R(Rgb16 p) { return static_cast<int>(p & 0xFFFF); }
+static inline int Rgb16G(Rgb16 p) { return static_cast<int>((p >> 16) & 0xFFFF); }
+static inline int Rgb16B(Rgb16 p) { return static_cast<int>((p >> 32) & 0xFFFF); }
+
+// BT.2020 non-constant luminance, limited range (Y 64..940, C 64..960 at 10 bits)
+namespace bt2020 {
+constexpr double kKr = 0.2627;
+constexpr double kKb = 0.0593;
+constexpr double kKg = 1.0 - kKr - kKb;
+constexpr double kYScale = 65535.0 / 876.0;     // 10-bit luma step -> 16-bit RGB
+constexpr double kCScale = 65535.0 / 896.0;
+
+// YUV -> RGB, 8 fractional bits
+constexpr int kY  = static_cast<int>(kYScale * 256 + 0.5);
+constexpr int kRV = static_cast<int>(2 * (1 - kKr) * kCScale * 256 + 0.5);
+constexpr int kGU = static_cast<int>(2 * kKb * (1 - kKb) / kKg * kCScale * 256 + 0.5);
+constexpr int kGV = static_cast<int>(2 * kKr * (1 - kKr) / kKg * kCScale * 256 + 0.5);
+constexpr int kBU = static_cast<int>(2 * (1 - kKb) * kCScale * 256 + 0.5);
+
+// RGB -> YUV, 20 fractional bits (three 16-bit products still fit an int32)
+constexpr double kOne = 1 << 20;
+constexpr int Fix(double v) { return static_cast<int>(v * kOne + (v < 0 ? -0.5 : 0.5)); }
+constexpr int kYR = Fix(kKr / kYScale), kYG = Fix(kKg / kYScale), kYB = Fix(kKb / kYScale);
+constexpr int kUR = Fix(-kKr / (2 * (1 - kKb)) / kCScale);
+constexpr int kUG = Fix(-kKg / (2 * (1 - kKb)) / kCScale);
+constexpr int kUB = Fix(0.5 / kCScale);
+constexpr int kVR = Fix(0.5 / kCScale);
+constexpr int kVG = Fix(-kKg / (2 * (1 - kKr)) / kCScale);
+constexpr int kVB = Fix(-kKb / (2 * (1 - kKr)) / kCScale);
+}  // namespace bt2020
+
+static inline int LoadP010(const uint8_t* p)
+{
+    uint16_t s;
+    std::memcpy(&s, p, 2);
+    return s >> 6;
+}
+
+// Trilinear 3D lookup on 16-bit input; same [b][g][r] layout as ApplyLut3D
+static inline void ApplyLut3D16(Lut33Ptr lut, int& R, int& G, int& B)
+{
+    constexpr float kToNode = 32.0f / 65535.0f;
+    const float fr = R * kToNode, fg = G * kToNode, fb = B * kToNode;
+    const int r0 = std::min(static_cast<int>(fr), 31);
+    const int g0 = std::min(static_cast<int>(fg), 31);
+    const int b0 = std::min(static_cast<int>(fb), 31);
+    const float dr = fr - r0, dg = fg - g0, db = fb - b0;
+
+    // Corner offsets in floats from the lower node
+    constexpr int kR = 3, kG = 33 * 3, kB = 33 * 33 * 3;
+    const float* p = (*lut)[b0][g0][r0];
+    float out[3];
+    for (int c = 0; c < 3; ++c) {
+        const float c00 = p[c] + (p[c + kR] - p[c]) * dr;
+        const float c01 = p[c + kG] + (p[c + kG + kR] - p[c + kG]) * dr;
+        const float c10 = p[c + kB] + (p[c + kB + kR] - p[c + kB]) * dr;
+        const float c11 = p[c + kB + kG] + (p[c + kB + kG + kR] - p[c + kB + kG]) * dr;
+        const float c0 = c00 + (c01 - c00) * dg;
+        const float c1 = c10 + (c11 - c10) * dg;
+        out[c] = c0 + (c1 - c0) * db;
+    }
+    R = static_cast<int>(std::clamp(out[0] * 65535.0f + 0.5f, 0.0f, 65535.0f));
+    G = static_cast<int>(std::clamp(out[1] * 65535.0f + 0.5f, 0.0f, 65535.0f));
+    B = static_cast<int>(std::clamp(out[2] * 65535.0f + 0.5f, 0.0f, 65535.0f));
+}
+
+// 16-bit value -> position between the entries of a 256-entry table, 8.8 fixed point (65535 -> 255.0)
+static inline int TablePos(int v)
+{
+    return static_cast<int>((static_cast<uint32_t>(v) * 65281u) >> 16);
+}
+
+static inline int InterpolateTable16(const int16_t* table, int v)
+{
+    // Result carries 8 more fractional bits than the table
+    const int p = TablePos(v);
+    const int i = p >> 8;
+    const int a = table[i];
+    return (a << 8) + (table[std::min(i + 1, 255)] - a) * (p & 0xFF);
+}
+
+static inline int InterpolatePost16(const uint8_t* post, int s)
+{
+    // s has FRAC_BITS + 8 fractional bits; interpolate the post-curve on the top 8 of them
+    constexpr int kLast = SeparableCurves::POST_SIZE - 1;
+    const int i = std::clamp(s >> (SeparableCurves::FRAC_BITS + 8), 0, kLast);
+    const int t = s < 0 ? 0 : (s >> SeparableCurves::FRAC_BITS) & 0xFF;
+    const int a = post[i];
+    const int b = post[std::min(i + 1, kLast)];
+    return std::min(((a << 8) + (b - a) * t) * 257 >> 8, 65535);
+}
+
+static inline void ApplySeparable16(const SeparableCurves* c, int& R, int& G, int& B)
+{
+    // The tables fold in +0.5 so the 8-bit path can truncate; interpolation must not round twice
+    constexpr int kRounding = 1 << (SeparableCurves::FRAC_BITS - 1 + 8);
+    const auto& t = c->table;
+    const int r = InterpolateTable16(t[0][0], R) + InterpolateTable16(t[0][1], G) + InterpolateTable16(t[0][2], B) - kRounding;
+    const int g = InterpolateTable16(t[1][0], R) + InterpolateTable16(t[1][1], G) + InterpolateTable16(t[1][2], B) - kRounding;
+    const int b = InterpolateTable16(t[2][0], R) + InterpolateTable16(t[2][1], G) + InterpolateTable16(t[2][2], B) - kRounding;
+    R = InterpolatePost16(c->post[0], r);
+    G = InterpolatePost16(c->post[1], g);
+    B = InterpolatePost16(c->post[2], b);
+}
+
+static inline int InterpolateCurve16(const uint8_t* curve, int v)
+{
+    // The result is the 8-bit curve scaled to 16 bits
+    const int p = TablePos(v);
+    const int i = p >> 8;
+    const int t = p & 0xFF;
+    const int a = curve[i];
+    const int b = curve[std::min(i + 1, 255)];
+    return ((a << 8) + (b - a) * t) * 257 >> 8;
+}
+
+static inline void ApplyChannelCurves16(const ChannelCurves* c, int& R, int& G, int& B)
+{
+    R = InterpolateCurve16(c->curve[0], R);
+    G = InterpolateCurve16(c->curve[1], G);
+    B = InterpolateCurve16(c->curve[2], B);
+}
+
+template <FilterPath P>
+static inline void ApplyFilter16(const ColorFilter& f, int& R, int& G, int& B)
+{
+    if constexpr (P == FilterPath::Lut3D) ApplyLut3D16(f.lut, R, G, B);
+    else if constexpr (P == FilterPath::Separable) ApplySeparable16(f.curves, R, G, B);
+    else if constexpr (P == FilterPath::ChannelCurves) ApplyChannelCurves16(f.channel, R, G, B);
+}
+
+/**
+ * Convert [x0,x1) x [y0,y1) of a P010 frame to 16-bit RGB, filter it, and
+ * hand each pixel to store(x, y, R, G, B). Writes nothing itself so the
+ * same loop serves the 16-bit working buffer and the 8-bit preview.
+ */
+template <FilterPath P, typename Store>
+static inline void ConvertP010RectT(const YuvFrame& f, const ColorFilter& filter,
+                                    int x0, int y0, int x1, int y1, Store&& store)
+{
+    using namespace bt2020;
+    for (int y = y0; y < y1; y++) {
+        const uint8_t* yRow = f.y + static_cast<size_t>(y) * f.yRowStride;
+        const uint8_t* uRow = f.u + static_cast<size_t>(y >> f.chromaShift) * f.uRowStride;
+        const uint8_t* vRow = f.v + static_cast<size_t>(y >> f.chromaShift) * f.vRowStride;
+
+        for (int x = x0; x < x1; x++) {
+            const int uvX = x >> f.chromaShift;
+            const int C = LoadP010(yRow + x * f.yPixelStride) - 64;
+            const int D = LoadP010(uRow + uvX * f.uPixelStride) - 512;
+            const int E = LoadP010(vRow + uvX * f.vPixelStride) - 512;
+
+            int R = std::clamp((kY * C + kRV * E + 128) >> 8, 0, 65535);
+            int G = std::clamp((kY * C - kGU * D - kGV * E + 128) >> 8, 0, 65535);
+            int B = std::clamp((kY * C + kBU * D + 128) >> 8, 0, 65535);
+
+            ApplyFilter16<P>(filter, R, G, B);
+            store(x, y, R, G, B);
+        }
+    }
+}
+
+template <typename Store>
+static inline void ConvertP010Rect(const YuvFrame& f, const ColorFilter& filter,
+                                   int x0, int y0, int x1, int y1, Store&& store)
+{
+    switch (PathOf(filter)) {
+        case FilterPath::ChannelCurves:
+            ConvertP010RectT<FilterPath::ChannelCurves>(f, filter, x0, y0, x1, y1, store);
+            break;
+        case FilterPath::Separable:
+            ConvertP010RectT<FilterPath::Separable>(f, filter, x0, y0, x1, y1, store);
+            break;
+        case FilterPath::Lut3D:
+            ConvertP010RectT<FilterPath::Lut3D>(f, filter, x0, y0, x1, y1, store);
+            break;
+        default:
+            ConvertP010RectT<FilterPath::None>(f, filter, x0, y0, x1, y1, store);
+            break;
+    }
+}
+
+/** Whole P010 frame into the 16-bit working format (width*height, tightly packed). */
+static inline void ConvertP010ToRgb16(const YuvFrame& f, const ColorFilter& filter, Rgb16* dst)
+{
+    ConvertP010Rect(f, filter, 0, 0, f.width, f.height, [dst, w = f.width](int x, int y, int R, int G, int B) {
+        dst[static_cast<size_t>(y) * w + x] = PackRgb16(R, G, B);
+    });
+}
+
+/**
+ * Whole P010 frame straight to BGRA (memory order R,G,B,A) for preview and
+ * photo. The HLG signal is shown as is, keeping the top 8 bits; an SDR
+ * display sees it slightly flat, as with any HLG source.
+ */
+static inline void ConvertP010ToBgra(const YuvFrame& f, const ColorFilter& filter, uint32_t* dst)
+{
+    ConvertP010Rect(f, filter, 0, 0, f.width, f.height, [dst, w = f.width](int x, int y, int R, int G, int B) {
+        dst[static_cast<size_t>(y) * w + x] = 0xFF000000 | (static_cast<uint32_t>(B >> 8) << 16) |
+                                              (static_cast<uint32_t>(G >> 8) << 8) | static_cast<uint32_t>(R >> 8);
+    });
+}
+
+/** Top 8 bits of a working buffer as BGRA, for side outputs such as the thumbnail. */
+static inline void Rgb16ToBgra(const Rgb16* src, size_t pixels, uint32_t* dst)
+{
+    for (size_t i = 0; i < pixels; ++i) {
+        const Rgb16 p = src[i];
+        dst[i] = 0xFF000000 | (static_cast<uint32_t>(p >> 40 & 0xFF) << 16) |
+                 (static_cast<uint32_t>(p >> 24 & 0xFF) << 8) | static_cast<uint32_t>(p >> 8 & 0xFF);
+    }
+}
+
+/**
+ * Pack a working buffer into P010 with the plane layout an encoder input
+ * buffer asks for: yStride-byte luma rows, then sliceHeight rows later the
+ * interleaved U/V plane with the same stride. Chroma is taken from the
+ * top-left pixel of each 2x2 block, as BgraToNv12 does.
+ */
+static inline void Rgb16ToP010(const Rgb16* src, int width, int height,
+                               uint8_t* dst, int yStride, int sliceHeight)
+{
+    using namespace bt2020;
+    constexpr int kHalf = 1 << 19;
+    uint8_t* uvPlane = dst + static_cast<size_t>(yStride) * sliceHeight;
+    for (int y = 0; y < height; ++y) {
+        const Rgb16* row = src + static_cast<size_t>(y) * width;
+        uint8_t* yRow = dst + static_cast<size_t>(y) * yStride;
+        uint8_t* uvRow = uvPlane + static_cast<size_t>(y >> 1) * yStride;
+        for (int x = 0; x < width; ++x) {
+            const int r = Rgb16R(row[x]), g = Rgb16G(row[x]), b = Rgb16B(row[x]);
+            const uint16_t Y = static_cast<uint16_t>(
+                    std::clamp(((kYR * r + kYG * g + kYB * b + kHalf) >> 20) + 64, 0, 1023) << 6);
+            std::memcpy(yRow + x * 2, &Y, 2);
+            if (((x | y) & 1) == 0 && x + 1 < width) {
+                const uint16_t U = static_cast<uint16_t>(
+                        std::clamp(((kUR * r + kUG * g + kUB * b + kHalf) >> 20) + 512, 0, 1023) << 6);
+                const uint16_t V = static_cast<uint16_t>(
+                        std::clamp(((kVR * r + kVG * g + kVB * b + kHalf) >> 20) + 512, 0, 1023) << 6);
+                std::memcpy(uvRow + x * 2, &U, 2);
+                std::memcpy(uvRow + x * 2 + 2, &V, 2);
+            }
+        }
+    }
+}
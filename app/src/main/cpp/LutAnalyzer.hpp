@@ -0,0 +1,238 @@
+// Load-time analysis of 33^3 LUTs for a separable fast path.
+//
+// Two separable models are fitted and the closer one is kept:
+//   curves -> matrix:  out_c = mu_c + A_c(r) + B_c(g) + C_c(b)
+//                      (least-squares on the full grid = grid mean plus
+//                      per-axis marginal means; post-curve is identity)
+//   matrix -> curves:  out_c = f_c(m_c . rgb)
+//                      (m_c by linear regression, which is exact on a full
+//                      factorial grid; f_c by binning the grid along m_c)
+// The fit is accepted when its CIE76 Delta-E against the 3D path stays
+// within tolerance on a 33^3 sample of 8-bit inputs.
+#pragma once
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "ColorFilter.hpp"
+
+struct LutAnalysis {
+    bool separable = false;
+    bool matrixFirst = false;    // which model won
+    float meanDeltaE = 0.f;
+    float p99DeltaE = 0.f;
+    float maxDeltaE = 0.f;
+};
+
+namespace lutanalyzer {
+
+static constexpr int N = 33;
+static constexpr float SCALE = static_cast<float>(1 << SeparableCurves::FRAC_BITS);
+
+static inline float SrgbToLinear(float c)
+{
+    return c <= 0.04045f ? c / 12.92f : std::pow((c + 0.055f) / 1.055f, 2.4f);
+}
+
+static inline float LabF(float t)
+{
+    return t > 0.008856f ? std::cbrt(t) : 7.787f * t + 16.f / 116.f;
+}
+
+// 8-bit sRGB (D65) -> CIELAB
+static inline void RgbToLab(int r8, int g8, int b8, float lab[3])
+{
+    const float r = SrgbToLinear(r8 / 255.f);
+    const float g = SrgbToLinear(g8 / 255.f);
+    const float b = SrgbToLinear(b8 / 255.f);
+    const float x = (0.4124f * r + 0.3576f * g + 0.1805f * b) / 0.95047f;
+    const float y = (0.2126f * r + 0.7152f * g + 0.0722f * b);
+    const float z = (0.0193f * r + 0.1192f * g + 0.9505f * b) / 1.08883f;
+    const float fx = LabF(x), fy = LabF(y), fz = LabF(z);
+    lab[0] = 116.f * fy - 16.f;
+    lab[1] = 500.f * (fx - fy);
+    lab[2] = 200.f * (fy - fz);
+}
+
+static inline float DeltaE(int r0, int g0, int b0, int r1, int g1, int b1)
+{
+    float a[3], b[3];
+    RgbToLab(r0, g0, b0, a);
+    RgbToLab(r1, g1, b1, b);
+    const float dl = a[0] - b[0], da = a[1] - b[1], db = a[2] - b[2];
+    return std::sqrt(dl * dl + da * da + db * db);
+}
+
+static inline int16_t ToFixed(float v)
+{
+    return static_cast<int16_t>(std::lround(std::clamp(v * SCALE, -32768.f, 32767.f)));
+}
+
+static inline void IdentityPost(SeparableCurves& out)
+{
+    for (int c = 0; c < 3; ++c)
+        for (int i = 0; i < SeparableCurves::POST_SIZE; ++i)
+            out.post[c][i] = static_cast<uint8_t>(std::min(i, 255));
+}
+
+// Additive model: grid mean plus per-axis marginal means, in 8-bit units.
+static inline void FitCurvesThenMatrix(const float (&L)[N][N][N][3], SeparableCurves& out)
+{
+    double mu[3] = {0, 0, 0};
+    double marg[3][3][N] = {};   // [outChannel][inAxis R/G/B][node]
+    for (int b = 0; b < N; ++b)
+        for (int g = 0; g < N; ++g)
+            for (int r = 0; r < N; ++r)
+                for (int c = 0; c < 3; ++c) {
+                    const double v = L[b][g][r][c];
+                    mu[c] += v;
+                    marg[c][0][r] += v;
+                    marg[c][1][g] += v;
+                    marg[c][2][b] += v;
+                }
+    const double plane = static_cast<double>(N) * N;
+    for (int c = 0; c < 3; ++c) {
+        mu[c] /= plane * N;
+        for (int axis = 0; axis < 3; ++axis)
+            for (int i = 0; i < N; ++i) marg[c][axis][i] = marg[c][axis][i] / plane - mu[c];
+    }
+
+    // Linear interpolation between nodes; grid mean and rounding folded into the R table.
+    for (int c = 0; c < 3; ++c) {
+        for (int axis = 0; axis < 3; ++axis) {
+            for (int v = 0; v < 256; ++v) {
+                const float pos = v * (N - 1) / 255.f;
+                const int i0 = std::min(static_cast<int>(pos), N - 2);
+                const float t = pos - i0;
+                float val = static_cast<float>(marg[c][axis][i0] * (1 - t) + marg[c][axis][i0 + 1] * t) * 255.f;
+                if (axis == 0) val += static_cast<float>(mu[c]) * 255.f + 0.5f;
+                out.table[c][axis][v] = ToFixed(val);
+            }
+        }
+    }
+    IdentityPost(out);
+}
+
+// Matrix model: project onto the regression direction, then a binned 1D curve.
+static inline void FitMatrixThenCurves(const float (&L)[N][N][N][3], SeparableCurves& out)
+{
+    const int last = SeparableCurves::POST_SIZE - 1;
+    for (int c = 0; c < 3; ++c) {
+        // On a full factorial grid the regressors are orthogonal, so each
+        // slope is cov(x_j, out) / var(x_j) with x_j the node value in 8-bit units.
+        double mean = 0, cov[3] = {0, 0, 0}, var = 0;
+        const double xm = 127.5;
+        for (int b = 0; b < N; ++b)
+            for (int g = 0; g < N; ++g)
+                for (int r = 0; r < N; ++r) {
+                    const double v = L[b][g][r][c];
+                    mean += v;
+                    cov[0] += (r * 255.0 / (N - 1) - xm) * v;
+                    cov[1] += (g * 255.0 / (N - 1) - xm) * v;
+                    cov[2] += (b * 255.0 / (N - 1) - xm) * v;
+                }
+        for (int i = 0; i < N; ++i) {
+            const double d = i * 255.0 / (N - 1) - xm;
+            var += d * d;
+        }
+        var *= static_cast<double>(N) * N;
+        double m[3] = {cov[0] / var, cov[1] / var, cov[2] / var};
+        if (std::fabs(m[0]) + std::fabs(m[1]) + std::fabs(m[2]) < 1e-9) m[0] = m[1] = m[2] = 1.0 / 3;
+
+        // Projection range over the RGB cube -> post table index range.
+        double tMin = 0, tMax = 0;
+        for (int j = 0; j < 3; ++j) {
+            if (m[j] < 0) tMin += m[j] * 255; else tMax += m[j] * 255;
+        }
+        const double idxScale = last / std::max(tMax - tMin, 1e-6);
+        for (int j = 0; j < 3; ++j) {
+            for (int v = 0; v < 256; ++v) {
+                double val = m[j] * v * idxScale;
+                if (j == 0) val += -tMin * idxScale + 0.5;
+                out.table[c][j][v] = ToFixed(static_cast<float>(val));
+            }
+        }
+
+        // Bin grid outputs along the projection; fill gaps by interpolation.
+        std::vector<double> sum(SeparableCurves::POST_SIZE, 0.0);
+        std::vector<int> count(SeparableCurves::POST_SIZE, 0);
+        for (int b = 0; b < N; ++b)
+            for (int g = 0; g < N; ++g)
+                for (int r = 0; r < N; ++r) {
+                    const double t = (m[0] * r + m[1] * g + m[2] * b) * 255.0 / (N - 1);
+                    const int idx = std::clamp(static_cast<int>((t - tMin) * idxScale + 0.5), 0, last);
+                    sum[idx] += L[b][g][r][c];
+                    count[idx]++;
+                }
+        int prev = -1;
+        for (int i = 0; i <= last; ++i) {
+            if (!count[i]) continue;
+            const double v = sum[i] / count[i];
+            if (prev < 0) {
+                for (int k = 0; k < i; ++k) sum[k] = v;
+            } else {
+                const double pv = sum[prev];
+                for (int k = prev + 1; k < i; ++k) sum[k] = pv + (v - pv) * (k - prev) / (i - prev);
+            }
+            sum[i] = v;
+            prev = i;
+        }
+        for (int k = prev + 1; k <= last; ++k) sum[k] = prev >= 0 ? sum[prev] : 0.0;
+        for (int i = 0; i <= last; ++i) {
+            out.post[c][i] = static_cast<uint8_t>(std::clamp(std::lround(sum[i] * 255.0), 0L, 255L));
+        }
+    }
+}
+
+static inline LutAnalysis Measure(Lut33Ptr lut, const SeparableCurves& curves)
+{
+    std::vector<float> errors;
+    errors.reserve(N * N * N);
+    double sum = 0.0;
+    for (int bi = 0; bi < N; ++bi)
+        for (int gi = 0; gi < N; ++gi)
+            for (int ri = 0; ri < N; ++ri) {
+                // every 8th input value, so samples sit on the LUT nodes
+                const int r8 = std::min(ri * 8, 255), g8 = std::min(gi * 8, 255), b8 = std::min(bi * 8, 255);
+                int r0 = r8, g0 = g8, b0 = b8;
+                ApplyLut3D(lut, r0, g0, b0);
+                int r1 = r8, g1 = g8, b1 = b8;
+                ApplySeparable(&curves, r1, g1, b1);
+                const float e = DeltaE(r0, g0, b0, r1, g1, b1);
+                errors.push_back(e);
+                sum += e;
+            }
+    LutAnalysis result;
+    std::sort(errors.begin(), errors.end());
+    result.meanDeltaE = static_cast<float>(sum / errors.size());
+    result.p99DeltaE = errors[errors.size() * 99 / 100];
+    result.maxDeltaE = errors.back();
+    return result;
+}
+
+} // namespace lutanalyzer
+
+/**
+ * Fit lut with both separable models, keep the closer one in out and
+ * report its error against the 3D path. out is filled either way;
+ * result.separable says whether p99 Delta-E <= tolerance.
+ */
+static inline LutAnalysis AnalyzeLut(Lut33Ptr lut, SeparableCurves& out, float tolerance)
+{
+    using namespace lutanalyzer;
+
+    static SeparableCurves candidate;   // 7.5 KB; analysis runs on one thread at load time
+    FitCurvesThenMatrix(*lut, out);
+    LutAnalysis best = Measure(lut, out);
+
+    FitMatrixThenCurves(*lut, candidate);
+    LutAnalysis alt = Measure(lut, candidate);
+    if (alt.p99DeltaE < best.p99DeltaE) {
+        out = candidate;
+        best = alt;
+        best.matrixFirst = true;
+    }
+    best.separable = best.p99DeltaE <= tolerance;
+    return best;
+}
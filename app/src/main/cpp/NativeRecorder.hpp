@@ -0,0 +1,270 @@
+// Native recording backend: AMediaCodec video encoder + AMediaMuxer.
+//
+// Filtered frames are packed straight into codec input buffers on the record
+// thread, so recording needs no JNI crossing per frame. Audio is still
+// encoded in Java and arrives through writeAudio(). Unlike the other headers
+// here this one needs the NDK media library, so it is not host-testable.
+#pragma once
+
+#include <android/log.h>
+#include <media/NdkMediaCodec.h>
+#include <media/NdkMediaFormat.h>
+#include <media/NdkMediaMuxer.h>
+
+#include <dlfcn.h>
+#include <cstdint>
+#include <mutex>
+#include <string>
+
+#include "FrameConvert.hpp"
+
+struct NativeRecorderConfig {
+    std::string codecName;      // empty: first encoder for mime
+    std::string mime = "video/avc";
+    int width = 0, height = 0;
+    int bitRate = 2000000;
+    int frameRate = 30;
+    int iFrameIntervalSec = 1;
+    int bitrateMode = -1;       // MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_*, -1 default
+    int profile = -1;           // only passed on API 29+, with B-frames disabled
+    int colorStandard = 0;      // MediaFormat COLOR_STANDARD_* / TRANSFER / RANGE; 0 leaves the key unset
+    int colorTransfer = 0;
+    int colorRange = 0;
+    int orientationDegrees = 0;
+    bool withAudio = true;
+};
+
+class NativeRecorder {
+public:
+    ~NativeRecorder() { release(); }
+
+    /** Create muxer and encoder on fd (opened read-write, owned by the caller). */
+    bool open(int fd, const NativeRecorderConfig& cfg)
+    {
+        cfg_ = cfg;
+        matrix_ = &RgbToYuvTableFor({cfg.colorStandard, cfg.colorRange});
+        muxer_ = AMediaMuxer_new(fd, AMEDIAMUXER_OUTPUT_FORMAT_MPEG_4);
+        if (!muxer_) return fail("AMediaMuxer_new");
+        AMediaMuxer_setOrientationHint(muxer_, cfg.orientationDegrees);
+
+        codec_ = cfg.codecName.empty() ? AMediaCodec_createEncoderByType(cfg.mime.c_str())
+                                       : AMediaCodec_createCodecByName(cfg.codecName.c_str());
+        if (!codec_) return fail("create codec");
+
+        // NV12 (semi-planar) is what BgraToNv12 writes; flexible usually means the same layout
+        if (!configure(kColorFormatYuv420SemiPlanar) && !configure(kColorFormatYuv420Flexible)) {
+            return fail("configure");
+        }
+        if (AMediaCodec_start(codec_) != AMEDIA_OK) return fail("start");
+        readInputLayout();
+        __android_log_print(ANDROID_LOG_DEBUG, kTag, "Native encoder %s %dx%d (stride %d, slice %d) %d kbit/s",
+                            cfg.codecName.empty() ? cfg.mime.c_str() : cfg.codecName.c_str(),
+                            cfg.width, cfg.height, stride_, sliceHeight_, cfg.bitRate / 1000);
+        return true;
+    }
+
+    /** Register the AAC track; csd is the AudioSpecificConfig (csd-0). */
+    void addAudioTrack(int sampleRate, int channels, const uint8_t* csd, size_t csdSize)
+    {
+        std::lock_guard<std::mutex> lock(muxMutex_);
+        if (!muxer_ || audioTrack_ >= 0) return;
+        AMediaFormat* fmt = AMediaFormat_new();
+        AMediaFormat_setString(fmt, AMEDIAFORMAT_KEY_MIME, "audio/mp4a-latm");
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_SAMPLE_RATE, sampleRate);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_CHANNEL_COUNT, channels);
+        if (csd && csdSize) AMediaFormat_setBuffer(fmt, "csd-0", const_cast<uint8_t*>(csd), csdSize);
+        audioTrack_ = AMediaMuxer_addTrack(muxer_, fmt);
+        AMediaFormat_delete(fmt);
+        maybeStartMuxerLocked();
+    }
+
+    /** Called from the Java audio thread; only blocks for the muxer write itself. */
+    void writeAudio(const uint8_t* data, size_t size, int64_t ptsUs, uint32_t flags)
+    {
+        std::lock_guard<std::mutex> lock(muxMutex_);
+        if (!muxerStarted_ || audioTrack_ < 0) return;
+        AMediaCodecBufferInfo info{0, static_cast<int32_t>(size), ptsUs, flags};
+        AMediaMuxer_writeSampleData(muxer_, static_cast<size_t>(audioTrack_), data, &info);
+    }
+
+    /** Encode one BGRA frame (record thread). Returns false if the codec had no free input buffer. */
+    bool encodeFrame(const uint32_t* bgra, int64_t ptsUs)
+    {
+        std::lock_guard<std::mutex> lock(codecMutex_);
+        if (finished_ || !codec_) return false;
+        const ssize_t idx = AMediaCodec_dequeueInputBuffer(codec_, kInputTimeoutUs);
+        if (idx < 0) {
+            drainLocked(false);
+            return false;
+        }
+        size_t capacity = 0;
+        uint8_t* buf = AMediaCodec_getInputBuffer(codec_, static_cast<size_t>(idx), &capacity);
+        const size_t bytes = static_cast<size_t>(stride_) * sliceHeight_ * 3 / 2;
+        if (!buf || bytes > capacity) {
+            AMediaCodec_queueInputBuffer(codec_, static_cast<size_t>(idx), 0, 0, ptsUs, 0);
+            drainLocked(false);
+            return false;
+        }
+        BgraToNv12(bgra, cfg_.width, cfg_.height, buf, stride_, sliceHeight_, *matrix_);
+        AMediaCodec_queueInputBuffer(codec_, static_cast<size_t>(idx), 0, bytes, ptsUs, 0);
+        lastPtsUs_ = ptsUs;
+        drainLocked(false);
+        return true;
+    }
+
+    /** Flush the encoder, finalize the file and release everything. Waits for an in-flight frame. */
+    void finish()
+    {
+        std::lock_guard<std::mutex> lock(codecMutex_);
+        if (finished_) return;
+        finished_ = true;
+        if (codec_) {
+            const ssize_t idx = AMediaCodec_dequeueInputBuffer(codec_, kEosTimeoutUs);
+            if (idx >= 0) {
+                AMediaCodec_queueInputBuffer(codec_, static_cast<size_t>(idx), 0, 0, lastPtsUs_,
+                                             AMEDIACODEC_BUFFER_FLAG_END_OF_STREAM);
+                drainLocked(true);
+            }
+        }
+        release();
+    }
+
+private:
+    static constexpr const char* kTag = "NativeRecorder";
+    static constexpr int32_t kColorFormatYuv420SemiPlanar = 21;
+    static constexpr int32_t kColorFormatYuv420Flexible = 0x7F420888;
+    static constexpr int64_t kInputTimeoutUs = 10000;
+    static constexpr int64_t kEosTimeoutUs = 50000;
+    static constexpr int kEosDrainTries = 100;
+
+    bool configure(int32_t colorFormat)
+    {
+        AMediaFormat* fmt = AMediaFormat_new();
+        AMediaFormat_setString(fmt, AMEDIAFORMAT_KEY_MIME, cfg_.mime.c_str());
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_WIDTH, cfg_.width);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_HEIGHT, cfg_.height);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_COLOR_FORMAT, colorFormat);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_BIT_RATE, cfg_.bitRate);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_FRAME_RATE, cfg_.frameRate);
+        AMediaFormat_setInt32(fmt, AMEDIAFORMAT_KEY_I_FRAME_INTERVAL, cfg_.iFrameIntervalSec);
+        if (cfg_.bitrateMode >= 0) AMediaFormat_setInt32(fmt, "bitrate-mode", cfg_.bitrateMode);
+        if (cfg_.profile >= 0) {
+            AMediaFormat_setInt32(fmt, "profile", cfg_.profile);
+            AMediaFormat_setInt32(fmt, "max-bframes", 0);
+        }
+        if (cfg_.colorStandard > 0) AMediaFormat_setInt32(fmt, "color-standard", cfg_.colorStandard);
+        if (cfg_.colorTransfer > 0) AMediaFormat_setInt32(fmt, "color-transfer", cfg_.colorTransfer);
+        if (cfg_.colorRange > 0) AMediaFormat_setInt32(fmt, "color-range", cfg_.colorRange);
+        const media_status_t st = AMediaCodec_configure(codec_, fmt, nullptr, nullptr,
+                                                        AMEDIACODEC_CONFIGURE_FLAG_ENCODE);
+        AMediaFormat_delete(fmt);
+        return st == AMEDIA_OK;
+    }
+
+    // AMediaCodec_getInputFormat is API 28; below that assume a tightly packed buffer
+    void readInputLayout()
+    {
+        stride_ = cfg_.width;
+        sliceHeight_ = cfg_.height;
+        using GetInputFormat = AMediaFormat* (*)(AMediaCodec*);
+        static const auto getInputFormat =
+                reinterpret_cast<GetInputFormat>(dlsym(RTLD_DEFAULT, "AMediaCodec_getInputFormat"));
+        if (!getInputFormat) return;
+        AMediaFormat* fmt = getInputFormat(codec_);
+        if (!fmt) return;
+        int32_t v = 0;
+        if (AMediaFormat_getInt32(fmt, "stride", &v) && v >= cfg_.width) stride_ = v;
+        if (AMediaFormat_getInt32(fmt, "slice-height", &v) && v >= cfg_.height) sliceHeight_ = v;
+        AMediaFormat_delete(fmt);
+    }
+
+    void drainLocked(bool endOfStream)
+    {
+        for (int tries = 0; tries < kEosDrainTries;) {
+            AMediaCodecBufferInfo info;
+            const ssize_t idx = AMediaCodec_dequeueOutputBuffer(codec_, &info, endOfStream ? kInputTimeoutUs : 0);
+            if (idx == AMEDIACODEC_INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) return;
+                tries++;
+                continue;
+            }
+            if (idx == AMEDIACODEC_INFO_OUTPUT_FORMAT_CHANGED) {
+                AMediaFormat* fmt = AMediaCodec_getOutputFormat(codec_);
+                std::lock_guard<std::mutex> lock(muxMutex_);
+                if (videoTrack_ < 0) videoTrack_ = AMediaMuxer_addTrack(muxer_, fmt);
+                AMediaFormat_delete(fmt);
+                maybeStartMuxerLocked();
+                continue;
+            }
+            if (idx < 0) continue;   // output buffers changed
+
+            size_t size = 0;
+            uint8_t* out = AMediaCodec_getOutputBuffer(codec_, static_cast<size_t>(idx), &size);
+            const bool config = (info.flags & AMEDIACODEC_BUFFER_FLAG_CODEC_CONFIG) != 0;
+            if (out && info.size > 0 && !config) {
+                std::lock_guard<std::mutex> lock(muxMutex_);
+                if (muxerStarted_) {
+                    AMediaMuxer_writeSampleData(muxer_, static_cast<size_t>(videoTrack_), out + info.offset, &info);
+                } else {
+                    droppedBeforeStart_ = true;
+                }
+            }
+            AMediaCodec_releaseOutputBuffer(codec_, static_cast<size_t>(idx), false);
+            if (info.flags & AMEDIACODEC_BUFFER_FLAG_END_OF_STREAM) return;
+        }
+    }
+
+    void maybeStartMuxerLocked()
+    {
+        if (muxerStarted_ || videoTrack_ < 0 || (cfg_.withAudio && audioTrack_ < 0)) return;
+        if (AMediaMuxer_start(muxer_) != AMEDIA_OK) {
+            __android_log_print(ANDROID_LOG_ERROR, kTag, "AMediaMuxer_start failed");
+            return;
+        }
+        muxerStarted_ = true;
+        if (droppedBeforeStart_ && codec_) {
+            // The first keyframe went by while waiting for the audio track
+            AMediaFormat* params = AMediaFormat_new();
+            AMediaFormat_setInt32(params, "request-sync", 0);
+            AMediaCodec_setParameters(codec_, params);
+            AMediaFormat_delete(params);
+        }
+    }
+
+    void release()
+    {
+        if (codec_) {
+            AMediaCodec_stop(codec_);
+            AMediaCodec_delete(codec_);
+            codec_ = nullptr;
+        }
+        std::lock_guard<std::mutex> lock(muxMutex_);
+        if (muxer_) {
+            if (muxerStarted_) AMediaMuxer_stop(muxer_);
+            AMediaMuxer_delete(muxer_);
+            muxer_ = nullptr;
+        }
+        muxerStarted_ = false;
+    }
+
+    bool fail(const char* what)
+    {
+        __android_log_print(ANDROID_LOG_ERROR, kTag, "Native recorder: %s failed", what);
+        release();
+        return false;
+    }
+
+    NativeRecorderConfig cfg_;
+    const RgbToYuvTable* matrix_ = nullptr;   // the encoder's colour space, set in open()
+    AMediaCodec* codec_ = nullptr;
+    AMediaMuxer* muxer_ = nullptr;
+    std::mutex codecMutex_;             // encodeFrame vs finish
+    std::mutex muxMutex_;               // video drain vs Java audio writes
+    ssize_t videoTrack_ = -1;
+    ssize_t audioTrack_ = -1;
+    bool muxerStarted_ = false;
+    bool droppedBeforeStart_ = false;
+    bool finished_ = false;
+    int stride_ = 0, sliceHeight_ = 0;
+    int64_t lastPtsUs_ = 0;
+};
@@ -0,0 +1,261 @@
+// Overlays burned into recordings: a watermark, a timestamp, any small
+// image the Java side rasterizes.
+//
+// Java draws each overlay into a premultiplied bitmap only when its content
+// changes (the timestamp once a second, a watermark once) and uploads it
+// here. The record worker blends the overlays into the frame it is about to
+// encode, touching only the pixels inside each overlay's box, and within a
+// box only the span of each row that is not fully transparent, so the added
+// cost per frame follows the overlay area, not the frame size.
+//
+// Overlays are placed upright, from a corner of the picture as it plays
+// back. Recordings are stored in sensor orientation with a rotation hint, so
+// each overlay is turned into frame orientation (the inverse of
+// RotateARGB90/180/270) and clipped when it, the frame size or the rotation
+// changes, never per frame. Uploads and the record worker meet under a mutex
+// that the worker takes only after a generation counter says something changed.
+#pragma once
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cstdint>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+#include "HdrConvert.hpp"
+
+static constexpr int kMaxOverlays = 4;
+
+/**
+ * One uploaded overlay, upright: premultiplied RGBA with R in the low byte,
+ * which is what Bitmap.copyPixelsToBuffer writes for ARGB_8888.
+ */
+struct OverlayImage {
+    int width = 0, height = 0;
+    std::vector<uint32_t> pixels;
+    int corner = 0;                 // 0 top-left, 1 top-right, 2 bottom-right, 3 bottom-left, as played back
+    int marginX = 0, marginY = 0;   // from that corner, in pixels of the played-back picture
+
+    bool empty() const { return width <= 0 || height <= 0; }
+};
+
+/** An overlay turned into frame orientation and clipped to the frame, in frame pixels. */
+struct OverlayLayer {
+    int x = 0, y = 0, width = 0, height = 0;
+    std::vector<uint32_t> pixels;               // width x height, alpha clamped so every channel <= alpha
+    std::vector<uint16_t> spanBegin, spanEnd;   // per row: the columns that are not fully transparent
+};
+
+/**
+ * Frame pixel (x, y) of a width x height frame that plays back turned by
+ * degrees clockwise, in played-back coordinates; the mapping RotateARGB90,
+ * 180 and 270 apply to every pixel.
+ */
+static inline void FrameToPlayback(int degrees, int width, int height, int x, int y, int& px, int& py)
+{
+    switch (degrees) {
+        case 90:  px = height - 1 - y; py = x; break;
+        case 180: px = width - 1 - x;  py = height - 1 - y; break;
+        case 270: px = y;              py = width - 1 - x; break;
+        default:  px = x;              py = y; break;
+    }
+}
+
+/** The inverse of FrameToPlayback. */
+static inline void PlaybackToFrame(int degrees, int width, int height, int px, int py, int& x, int& y)
+{
+    switch (degrees) {
+        case 90:  x = py;              y = height - 1 - px; break;
+        case 180: x = width - 1 - px;  y = height - 1 - py; break;
+        case 270: x = width - 1 - py;  y = px; break;
+        default:  x = px;              y = py; break;
+    }
+}
+
+/**
+ * image placed in a width x height frame that plays back turned by degrees;
+ * empty when it falls entirely outside the frame.
+ */
+static inline OverlayLayer LayOutOverlay(const OverlayImage& image, int width, int height, int degrees)
+{
+    OverlayLayer l;
+    if (image.empty() || width <= 0 || height <= 0) return l;
+    const bool sideways = degrees == 90 || degrees == 270;
+    const int playW = sideways ? height : width;
+    const int playH = sideways ? width : height;
+    const bool right = image.corner == 1 || image.corner == 2;
+    const bool bottom = image.corner == 2 || image.corner == 3;
+    const int px0 = right ? playW - image.marginX - image.width : image.marginX;
+    const int py0 = bottom ? playH - image.marginY - image.height : image.marginY;
+
+    // Opposite corners of the box in frame coordinates, then clip
+    int ax, ay, bx, by;
+    PlaybackToFrame(degrees, width, height, px0, py0, ax, ay);
+    PlaybackToFrame(degrees, width, height, px0 + image.width - 1, py0 + image.height - 1, bx, by);
+    const int x0 = std::max(0, std::min(ax, bx)), x1 = std::min(width, std::max(ax, bx) + 1);
+    const int y0 = std::max(0, std::min(ay, by)), y1 = std::min(height, std::max(ay, by) + 1);
+    if (x0 >= x1 || y0 >= y1) return l;
+
+    l.x = x0;
+    l.y = y0;
+    l.width = x1 - x0;
+    l.height = y1 - y0;
+    l.pixels.resize(static_cast<size_t>(l.width) * l.height);
+    l.spanBegin.assign(l.height, 0);
+    l.spanEnd.assign(l.height, 0);
+    for (int v = 0; v < l.height; ++v) {
+        uint32_t* row = l.pixels.data() + static_cast<size_t>(v) * l.width;
+        int first = l.width, last = -1;
+        for (int u = 0; u < l.width; ++u) {
+            int px, py;
+            FrameToPlayback(degrees, width, height, x0 + u, y0 + v, px, py);
+            uint32_t s = image.pixels[static_cast<size_t>(py - py0) * image.width + (px - px0)];
+            const uint32_t a = s >> 24;
+            // Not premultiplied after all: clamp, so the blend cannot carry into the next channel
+            const uint32_t r = std::min(s & 0xFF, a), g = std::min(s >> 8 & 0xFF, a), b = std::min(s >> 16 & 0xFF, a);
+            s = a << 24 | b << 16 | g << 8 | r;
+            row[u] = s;
+            if (a != 0) {
+                first = std::min(first, u);
+                last = u;
+            }
+        }
+        if (last >= 0) {
+            l.spanBegin[v] = static_cast<uint16_t>(first);
+            l.spanEnd[v] = static_cast<uint16_t>(last + 1);
+        }
+    }
+    return l;
+}
+
+/** Premultiplied s over opaque d, both R in the low byte; R and B in one multiply. */
+static inline uint32_t BlendPremultiplied(uint32_t d, uint32_t s)
+{
+    const uint32_t a = s >> 24;
+    if (a == 0xFF) return s;
+    const uint32_t ia = 255 - a;
+    // x * ia / 255, rounded, as (t + (t >> 8)) >> 8 with t = x * ia + 128
+    uint32_t rb = (d & 0x00FF00FF) * ia + 0x00800080;
+    rb = ((rb + ((rb >> 8) & 0x00FF00FF)) >> 8) & 0x00FF00FF;
+    uint32_t g = ((d >> 8) & 0xFF) * ia + 0x80;
+    g = ((g + (g >> 8)) >> 8) & 0xFF;
+    return 0xFF000000 | ((s & 0x00FFFFFF) + (rb | g << 8));
+}
+
+/** The same on the 16-bit working format of the 10-bit path; 8-bit overlay values scale by 257. */
+static inline Rgb16 BlendPremultiplied16(Rgb16 d, uint32_t s)
+{
+    const uint32_t a = s >> 24;
+    const uint32_t ia = 255 - a;
+    const int r = static_cast<int>((s & 0xFF) * 257 + (Rgb16R(d) * ia + 127) / 255);
+    const int g = static_cast<int>((s >> 8 & 0xFF) * 257 + (Rgb16G(d) * ia + 127) / 255);
+    const int b = static_cast<int>((s >> 16 & 0xFF) * 257 + (Rgb16B(d) * ia + 127) / 255);
+    return PackRgb16(std::min(r, 0xFFFF), std::min(g, 0xFFFF), std::min(b, 0xFFFF));
+}
+
+/**
+ * The overlays of the record branch. set/clear/setRotation from any thread;
+ * blend from the record worker only.
+ */
+class OverlayCompositor {
+public:
+    /** Show image as overlay id (0..kMaxOverlays-1), replacing what was there. */
+    void set(int id, OverlayImage image)
+    {
+        if (id < 0 || id >= kMaxOverlays) return;
+        auto shared = image.empty() ? nullptr : std::make_shared<const OverlayImage>(std::move(image));
+        std::lock_guard<std::mutex> lock(mutex_);
+        images_[id] = std::move(shared);
+        generation_.fetch_add(1, std::memory_order_release);
+    }
+
+    void clear(int id) { set(id, OverlayImage()); }
+
+    /** Clockwise quarter turns the recording plays back with; overlays stay upright in it. */
+    void setRotation(int degrees)
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        degrees_ = ((degrees % 360) + 360) % 360 / 90 * 90;
+        generation_.fetch_add(1, std::memory_order_release);
+    }
+
+    /** Blend into a width x height frame with rows width pixels apart. Returns whether anything was drawn. */
+    bool blend(uint32_t* frame, int width, int height)
+    {
+        if (!prepare(width, height)) return false;
+        for (const OverlayLayer& l : layers_) {
+            for (int v = 0; v < l.height; ++v) {
+                const uint32_t* s = l.pixels.data() + static_cast<size_t>(v) * l.width;
+                uint32_t* d = frame + static_cast<size_t>(l.y + v) * width + l.x;
+                for (int u = l.spanBegin[v], end = l.spanEnd[v]; u < end; ++u) d[u] = BlendPremultiplied(d[u], s[u]);
+            }
+        }
+        return true;
+    }
+
+    /** The same for the 10-bit path. */
+    bool blend(Rgb16* frame, int width, int height)
+    {
+        if (!prepare(width, height)) return false;
+        for (const OverlayLayer& l : layers_) {
+            for (int v = 0; v < l.height; ++v) {
+                const uint32_t* s = l.pixels.data() + static_cast<size_t>(v) * l.width;
+                Rgb16* d = frame + static_cast<size_t>(l.y + v) * width + l.x;
+                for (int u = l.spanBegin[v], end = l.spanEnd[v]; u < end; ++u) d[u] = BlendPremultiplied16(d[u], s[u]);
+            }
+        }
+        return true;
+    }
+
+    /** Pixels blended per frame: the sum of the row spans. */
+    size_t blendedPixels() const
+    {
+        size_t n = 0;
+        for (const OverlayLayer& l : layers_)
+            for (int v = 0; v < l.height; ++v) n += l.spanEnd[v] - l.spanBegin[v];
+        return n;
+    }
+
+    /** How often the layers were rebuilt; once per upload or size / rotation change. */
+    uint64_t rebuilds() const { return rebuilds_; }
+
+private:
+    /** Bring layers_ up to date; the common case is one atomic load. */
+    bool prepare(int width, int height)
+    {
+        const uint32_t generation = generation_.load(std::memory_order_acquire);
+        if (generation != builtGeneration_ || width != builtWidth_ || height != builtHeight_) {
+            std::array<std::shared_ptr<const OverlayImage>, kMaxOverlays> images;
+            int degrees;
+            {
+                std::lock_guard<std::mutex> lock(mutex_);
+                images = images_;
+                degrees = degrees_;
+                builtGeneration_ = generation_.load(std::memory_order_relaxed);
+            }
+            layers_.clear();
+            for (const auto& image : images) {
+                if (!image) continue;
+                OverlayLayer l = LayOutOverlay(*image, width, height, degrees);
+                if (l.width > 0) layers_.push_back(std::move(l));
+            }
+            builtWidth_ = width;
+            builtHeight_ = height;
+            rebuilds_++;
+        }
+        return !layers_.empty();
+    }
+
+    std::mutex mutex_;
+    std::array<std::shared_ptr<const OverlayImage>, kMaxOverlays> images_;  // guarded by mutex_
+    int degrees_ = 0;                                                        // guarded by mutex_
+    std::atomic<uint32_t> generation_{0};
+
+    // Record worker only
+    uint32_t builtGeneration_ = 0;
+    int builtWidth_ = 0, builtHeight_ = 0;
+    std::vector<OverlayLayer> layers_;
+    uint64_t rebuilds_ = 0;
+};
@@ -0,0 +1,315 @@
+// Picture-in-picture: a second camera stream drawn as an inset over the first.
+//
+// The inset is produced straight from the secondary YUV frame: each inset
+// pixel is sampled (bilinear luma, nearest chroma), converted with the
+// secondary's own matrix, filtered with its own filter and blended into the
+// primary in one pass. For an opaque inset the primary is converted only
+// around it, so a composited frame costs about what a single-stream frame
+// costs, instead of a full second conversion followed by a scale and a blend.
+//
+// The two cameras run at their own rates on their own threads. The secondary
+// side publishes into a triple buffer and never waits; the compositor takes
+// the newest frame when there is one and otherwise holds the last one, until
+// it is older than maxHoldUs. All buffers (frame slots, sample maps) are
+// owned here and reused, so steady-state compositing does not allocate.
+#pragma once
+
+#include <algorithm>
+#include <atomic>
+#include <cstdint>
+#include <vector>
+
+#include "FrameConvert.hpp"
+#include "PipelineBranch.hpp"
+
+/** Where the inset goes, in units independent of the output resolution. */
+struct PipPlacement {
+    int corner = 2;             // 0 top-left, 1 top-right, 2 bottom-right, 3 bottom-left, in frame coordinates
+    int sizePercent = 30;       // inset width as a share of the primary width
+    int marginPermille = 30;    // gap to the frame edges, of the primary's shorter side
+    int borderPermille = 4;     // border width, of the primary's shorter side; 0 = none
+    uint32_t borderColor = 0xFFFFFFFF;
+    int opacity = 256;          // 0..256; 256 = opaque
+    bool flipX = false;         // secondary mounted the other way round: flipX and flipY = rotated 180
+    bool flipY = false;
+};
+
+/** A placement resolved against one primary / secondary size pair, in primary pixels. */
+struct PipLayout {
+    int x = 0, y = 0, width = 0, height = 0;   // may extend past the frame; drawn clipped
+    int border = 0;
+    uint32_t borderColor = 0xFFFFFFFF;
+    int opacity = 256;
+    bool flipX = false, flipY = false;
+
+    bool empty() const { return width <= 0 || height <= 0 || opacity <= 0; }
+};
+
+/** Inset of the secondary's aspect ratio, sizePercent of the primary width wide, in the requested corner. */
+static inline PipLayout PlaceInset(const PipPlacement& p, int primaryW, int primaryH, int secondaryW, int secondaryH)
+{
+    PipLayout l;
+    if (primaryW <= 0 || primaryH <= 0 || secondaryW <= 0 || secondaryH <= 0) return l;
+    const int shortSide = std::min(primaryW, primaryH);
+    const int margin = shortSide * p.marginPermille / 1000;
+    l.width = std::max(1, primaryW * std::clamp(p.sizePercent, 1, 100) / 100);
+    l.height = std::max(1, static_cast<int>(static_cast<int64_t>(l.width) * secondaryH / secondaryW));
+    if (l.height > primaryH - 2 * margin) {
+        // Portrait secondary on a landscape primary: fit the height instead
+        l.height = std::max(1, primaryH - 2 * margin);
+        l.width = std::max(1, static_cast<int>(static_cast<int64_t>(l.height) * secondaryW / secondaryH));
+    }
+    const bool right = p.corner == 1 || p.corner == 2;
+    const bool bottom = p.corner == 2 || p.corner == 3;
+    l.x = right ? primaryW - margin - l.width : margin;
+    l.y = bottom ? primaryH - margin - l.height : margin;
+    l.border = p.borderPermille > 0 ? std::max(1, shortSide * p.borderPermille / 1000) : 0;
+    l.borderColor = p.borderColor;
+    l.opacity = std::clamp(p.opacity, 0, 256);
+    l.flipX = p.flipX;
+    l.flipY = p.flipY;
+    return l;
+}
+
+/**
+ * Latest-value handoff between one producer and one consumer thread, over
+ * three preallocated frames: one being written, one held by the consumer,
+ * one in the middle carrying the newest published frame.
+ */
+class LatestFrameSlot {
+public:
+    /** Producer: copy f in and make it the newest frame. Never blocks. */
+    void publish(const YuvFrame& f, int64_t timestampUs) {
+        slots_[back_].copyFrom(f, timestampUs);
+        const int prev = middle_.exchange(back_ | kFresh, std::memory_order_acq_rel);
+        back_ = prev & kIndexMask;
+        published_.fetch_add(1, std::memory_order_relaxed);
+    }
+
+    /**
+     * Consumer: the newest published frame, or the one returned last time if
+     * nothing was published since (fresh tells which). nullptr before the first.
+     */
+    const OwnedYuvFrame* latest(bool& fresh) {
+        fresh = (middle_.load(std::memory_order_relaxed) & kFresh) != 0;
+        if (fresh) {
+            front_ = middle_.exchange(front_, std::memory_order_acq_rel) & kIndexMask;
+            hasFrame_ = true;
+            taken_++;
+        }
+        return hasFrame_ ? &slots_[front_] : nullptr;
+    }
+
+    /** Frames published but replaced before the consumer took them. Consumer thread. */
+    uint64_t overwritten() const { return published_.load(std::memory_order_relaxed) - taken_; }
+
+private:
+    static constexpr int kFresh = 4;
+    static constexpr int kIndexMask = 3;
+
+    OwnedYuvFrame slots_[3];
+    alignas(64) std::atomic<int> middle_{1};
+    alignas(64) int back_ = 0;                  // producer-owned
+    alignas(64) int front_ = 2;                 // consumer-owned
+    bool hasFrame_ = false;
+    uint64_t taken_ = 0;                        // consumer-owned
+    std::atomic<uint64_t> published_{0};
+};
+
+struct CompositeStats {
+    uint64_t frames = 0;        // compose() calls
+    uint64_t fresh = 0;         // insets drawn from a secondary frame not used before
+    uint64_t held = 0;          // insets drawn from the held frame (secondary slower than primary)
+    uint64_t skipped = 0;       // frames drawn without inset: nothing received yet, or too old
+};
+
+class PipCompositor {
+public:
+    explicit PipCompositor(int64_t maxHoldUs = 1000000) : maxHoldUs_(maxHoldUs) {}
+
+    /** Secondary camera thread: offer its newest frame (8-bit YUV_420_888). */
+    void offerSecondary(const YuvFrame& f, int64_t timestampUs) { secondary_.publish(f, timestampUs); }
+
+    /**
+     * Convert primary into dst (primary.width x primary.height, row stride
+     * dstStride) with the inset composited. Consumer thread only. Returns
+     * false, with the primary converted alone, when there is no secondary
+     * frame younger than maxHoldUs at nowUs or the layout is empty.
+     */
+    bool compose(const YuvFrame& primary, const ColorFilter& primaryFilter,
+                 const ColorFilter& insetFilter, const PipPlacement& placement, int64_t nowUs,
+                 uint32_t* dst, int dstStride)
+    {
+        stats_.frames++;
+        bool fresh = false;
+        const OwnedYuvFrame* s = secondary_.latest(fresh);
+        if (s && nowUs - s->timestampUs > maxHoldUs_) s = nullptr;
+        const PipLayout layout = s ? PlaceInset(placement, primary.width, primary.height, s->frame.width,
+                                                s->frame.height)
+                                   : PipLayout();
+        const int x0 = std::max(layout.x, 0), x1 = std::min(layout.x + layout.width, primary.width);
+        const int y0 = std::max(layout.y, 0), y1 = std::min(layout.y + layout.height, primary.height);
+        if (layout.empty() || x0 >= x1 || y0 >= y1) {
+            stats_.skipped++;
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, 0, 0, primary.width, primary.height);
+            return false;
+        }
+        (fresh ? stats_.fresh : stats_.held)++;
+
+        // The primary is only needed under the inset when it shows through
+        const bool blend = layout.opacity < 256;
+        if (blend) {
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, 0, 0, primary.width, primary.height);
+        } else {
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, 0, 0, primary.width, y0);
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, 0, y1, primary.width, primary.height);
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, 0, y0, x0, y1);
+            ConvertYuvRectToBgra(primary, primaryFilter, dst, dstStride, x1, y0, primary.width, y1);
+        }
+
+        prepareMaps(s->frame, layout);
+        switch (PathOf(insetFilter)) {
+            case FilterPath::ChannelCurves:
+                drawInset<FilterPath::ChannelCurves>(s->frame, insetFilter, layout, blend, dst, dstStride, x0, y0, x1, y1);
+                break;
+            case FilterPath::Separable:
+                drawInset<FilterPath::Separable>(s->frame, insetFilter, layout, blend, dst, dstStride, x0, y0, x1, y1);
+                break;
+            case FilterPath::Lut3D:
+                drawInset<FilterPath::Lut3D>(s->frame, insetFilter, layout, blend, dst, dstStride, x0, y0, x1, y1);
+                break;
+            default:
+                drawInset<FilterPath::None>(s->frame, insetFilter, layout, blend, dst, dstStride, x0, y0, x1, y1);
+                break;
+        }
+        drawBorder(layout, dst, dstStride, x0, y0, x1, y1);
+        return true;
+    }
+
+    const CompositeStats& stats() const { return stats_; }
+    /** Secondary frames replaced before the compositor got to them (secondary faster than primary). */
+    uint64_t overwritten() const { return secondary_.overwritten(); }
+
+private:
+    // Source sample for one inset column or row: two luma taps (byte offsets)
+    // with the weight of the second in 1/256, and the nearest chroma sample.
+    struct Tap {
+        int32_t luma0, luma1;
+        int32_t chromaU, chromaV;
+        int32_t weight;
+    };
+
+    // What the maps were built for; rebuilt when any of it changes
+    struct MapKey {
+        int srcW = 0, srcH = 0, yPixelStride = 0, yRowStride = 0;
+        int uPixelStride = 0, vPixelStride = 0, uRowStride = 0, vRowStride = 0, chromaShift = 0;
+        int width = 0, height = 0;
+        bool flipX = false, flipY = false;
+
+        bool operator==(const MapKey& o) const {
+            return srcW == o.srcW && srcH == o.srcH && yPixelStride == o.yPixelStride &&
+                   yRowStride == o.yRowStride && uPixelStride == o.uPixelStride &&
+                   vPixelStride == o.vPixelStride && uRowStride == o.uRowStride &&
+                   vRowStride == o.vRowStride && chromaShift == o.chromaShift && width == o.width &&
+                   height == o.height && flipX == o.flipX && flipY == o.flipY;
+        }
+    };
+
+    /** Pixel-centre-aligned sample positions of n outputs over a source of size src, 8 fractional bits. */
+    static void BuildTaps(int n, int src, bool flip, int lumaStep, int uStep, int vStep, int chromaShift,
+                          std::vector<Tap>& taps)
+    {
+        taps.resize(n);
+        const int64_t last = static_cast<int64_t>(src - 1) << 8;
+        for (int i = 0; i < n; ++i) {
+            const int d = flip ? n - 1 - i : i;
+            const int64_t pos = std::clamp((static_cast<int64_t>(2 * d + 1) * src << 8) / (2 * n) - 128,
+                                           int64_t{0}, last);
+            const int s0 = static_cast<int>(pos >> 8);
+            const int s1 = std::min(s0 + 1, src - 1);
+            const int nearest = static_cast<int>((pos + 128) >> 8) >> chromaShift;
+            taps[i] = {s0 * lumaStep, s1 * lumaStep, nearest * uStep, nearest * vStep,
+                       static_cast<int32_t>(pos & 255)};
+        }
+    }
+
+    void prepareMaps(const YuvFrame& s, const PipLayout& l)
+    {
+        MapKey key;
+        key.srcW = s.width;
+        key.srcH = s.height;
+        key.yPixelStride = s.yPixelStride;
+        key.yRowStride = s.yRowStride;
+        key.uPixelStride = s.uPixelStride;
+        key.vPixelStride = s.vPixelStride;
+        key.uRowStride = s.uRowStride;
+        key.vRowStride = s.vRowStride;
+        key.chromaShift = s.chromaShift;
+        key.width = l.width;
+        key.height = l.height;
+        key.flipX = l.flipX;
+        key.flipY = l.flipY;
+        if (key == mapKey_ && !columns_.empty()) return;
+        mapKey_ = key;
+        BuildTaps(l.width, s.width, l.flipX, s.yPixelStride, s.uPixelStride, s.vPixelStride, s.chromaShift,
+                  columns_);
+        BuildTaps(l.height, s.height, l.flipY, s.yRowStride, s.uRowStride, s.vRowStride, s.chromaShift, rows_);
+    }
+
+    template <FilterPath P>
+    void drawInset(const YuvFrame& s, const ColorFilter& filter, const PipLayout& l, bool blend,
+                   uint32_t* dst, int dstStride, int x0, int y0, int x1, int y1) const
+    {
+        const YuvToRgbTable& m = MatrixOf(s);
+        const int a = l.opacity, ia = 256 - l.opacity;
+        for (int y = y0; y < y1; ++y) {
+            const Tap& row = rows_[y - l.y];
+            const uint8_t* top = s.y + row.luma0;
+            const uint8_t* bottom = s.y + row.luma1;
+            const uint8_t* uRow = s.u + row.chromaU;
+            const uint8_t* vRow = s.v + row.chromaV;
+            const int wy = row.weight;
+            uint32_t* dRow = dst + static_cast<size_t>(y) * dstStride;
+            for (int x = x0; x < x1; ++x) {
+                const Tap& col = columns_[x - l.x];
+                const int wx = col.weight;
+                const int t = top[col.luma0] * (256 - wx) + top[col.luma1] * wx;
+                const int b = bottom[col.luma0] * (256 - wx) + bottom[col.luma1] * wx;
+                const int Y = (t * (256 - wy) + b * wy + (1 << 15)) >> 16;
+                int R, G, B;
+                YuvToRgb(m, Y, uRow[col.chromaU], vRow[col.chromaV], R, G, B);
+                ApplyFilter<P>(filter, R, G, B);
+                if (blend) {
+                    const uint32_t d = dRow[x];
+                    R = (R * a + static_cast<int>(d & 0xFF) * ia + 128) >> 8;
+                    G = (G * a + static_cast<int>((d >> 8) & 0xFF) * ia + 128) >> 8;
+                    B = (B * a + static_cast<int>((d >> 16) & 0xFF) * ia + 128) >> 8;
+                }
+                dRow[x] = 0xFF000000 | (static_cast<uint32_t>(B) << 16) | (static_cast<uint32_t>(G) << 8) |
+                          static_cast<uint32_t>(R);
+            }
+        }
+    }
+
+    static void drawBorder(const PipLayout& l, uint32_t* dst, int dstStride, int x0, int y0, int x1, int y1)
+    {
+        if (l.border <= 0) return;
+        const int left = std::min(x1, l.x + l.border);
+        const int right = std::max(x0, l.x + l.width - l.border);
+        for (int y = y0; y < y1; ++y) {
+            uint32_t* dRow = dst + static_cast<size_t>(y) * dstStride;
+            if (y < l.y + l.border || y >= l.y + l.height - l.border) {
+                std::fill(dRow + x0, dRow + x1, l.borderColor);
+                continue;
+            }
+            if (left > x0) std::fill(dRow + x0, dRow + left, l.borderColor);
+            if (right < x1) std::fill(dRow + right, dRow + x1, l.borderColor);
+        }
+    }
+
+    LatestFrameSlot secondary_;
+    int64_t maxHoldUs_;
+    MapKey mapKey_;
+    std::vector<Tap> columns_, rows_;
+    CompositeStats stats_;
+};
@@ -0,0 +1,321 @@
+// A preview pipeline context: everything one stream of frames needs on its
+// way from YUV to the screen, owned by one object instead of process globals.
+//
+// A Pipeline holds its output sink (the window it draws into), the filter
+// and settings it applies, its decimation, rotation and tile-skipping
+// buffers, a pending photo request and its own metrics. Settings may be
+// changed from any thread; frames go through one thread at a time. Nothing
+// is shared between instances except the registered filter tables, which
+// are read-only, so several pipelines (the live preview, an offline
+// re-grade, a benchmark) run side by side on their own threads without
+// contending. Java holds each one as an opaque handle.
+//
+// The frame path is split so the camera thread can put its own conversions
+// (scopes, picture-in-picture, HDR) between beginFrame() and present();
+// process() is the plain path: convert with the pipeline's filter, rotate,
+// present.
+#pragma once
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cstdint>
+#include <memory>
+#include <mutex>
+#include <vector>
+
+#include "DirtyTiles.hpp"
+#include "FrameConvert.hpp"
+#include "PipelineBranch.hpp"
+
+/** Rotate an ARGB image by 90 degrees clockwise. */
+static inline void RotateARGB90(const uint32_t* src, uint32_t* dst, int width, int height)
+{
+    for (int y = 0; y < height; ++y) {
+        for (int x = 0; x < width; ++x) {
+            dst[x * height + (height - 1 - y)] = src[y * width + x];
+        }
+    }
+}
+
+/** Rotate an ARGB image by 180 degrees. */
+static inline void RotateARGB180(const uint32_t* src, uint32_t* dst, int width, int height)
+{
+    const int total = width * height;
+    for (int i = 0; i < total; ++i) {
+        dst[total - 1 - i] = src[i];
+    }
+}
+
+/** Rotate an ARGB image by 270 degrees clockwise. */
+static inline void RotateARGB270(const uint32_t* src, uint32_t* dst, int width, int height)
+{
+    // 270° CW == 90° CCW
+    for (int y = 0; y < height; ++y) {
+        for (int x = 0; x < width; ++x) {
+            dst[(width - 1 - x) * height + y] = src[y * width + x];
+        }
+    }
+}
+
+/** Where a pipeline's frames end up: a window on the device, a checksum in a test. */
+class FrameSink {
+public:
+    virtual ~FrameSink() = default;
+    /** Show width x height pixels, rows packed. */
+    virtual void present(const uint32_t* pixels, int width, int height) = 0;
+    /** Show a fully transparent frame. */
+    virtual void clear() {}
+};
+
+struct StaticSceneStats {
+    uint64_t frames = 0;
+    uint64_t tilesTotal = 0;
+    uint64_t tilesSkipped = 0;
+    double convertMs = 0.0;          // YUV->BGRA+LUT time, skipping enabled
+};
+
+/** Snapshot of a pipeline's counters, safe to take from any thread. */
+struct PipelineStats {
+    BranchMetrics preview;
+    int decimation = 1;
+    int outputWidth = 0;
+    int outputHeight = 0;
+    StaticSceneStats staticScene;
+};
+
+class Pipeline {
+public:
+    // ---- Settings: any thread ----
+
+    /** The sink frames are presented to; null unbinds (frames are still converted for other outputs). */
+    void setSink(std::shared_ptr<FrameSink> sink)
+    {
+        std::shared_ptr<FrameSink> old;
+        {
+            std::lock_guard<std::mutex> lock(sinkMutex_);
+            old.swap(sink_);
+            sink_ = std::move(sink);
+        }
+        redrawAll_.store(true, std::memory_order_release);   // a new sink starts empty
+    }
+
+    bool hasSink() const
+    {
+        std::lock_guard<std::mutex> lock(sinkMutex_);
+        return sink_ != nullptr;
+    }
+
+    /** Filter for process(); its tables must outlive the pipeline (registered filters do). */
+    void setFilter(const ColorFilter& filter)
+    {
+        std::lock_guard<std::mutex> lock(filterMutex_);
+        filter_ = filter;
+    }
+
+    ColorFilter filter() const
+    {
+        std::lock_guard<std::mutex> lock(filterMutex_);
+        return filter_;
+    }
+
+    /** Clockwise rotation from frame to screen: 0, 90, 180 or 270. */
+    void setRotation(int degrees) { degrees_.store(degrees, std::memory_order_relaxed); }
+    int rotation() const { return degrees_.load(std::memory_order_relaxed); }
+
+    /** Largest output the sink needs, either orientation; frames are decimated down to it. */
+    void setMaxSize(int maxWidth, int maxHeight)
+    {
+        maxW_.store(maxWidth, std::memory_order_relaxed);
+        maxH_.store(maxHeight, std::memory_order_relaxed);
+    }
+
+    /** Static-scene mode: reconvert only tiles whose luma changed by more than threshold. */
+    void setStaticScene(bool enabled, int threshold)
+    {
+        staticThreshold_.store(std::max(0, threshold), std::memory_order_relaxed);
+        staticEnabled_.store(enabled, std::memory_order_relaxed);
+        staticReset_.store(true, std::memory_order_release);
+    }
+
+    /** Ask for the next frame at full resolution (a photo); taken by takeCaptureRequest(). */
+    void requestCapture() { captureNext_.store(true, std::memory_order_release); }
+    bool takeCaptureRequest() { return captureNext_.exchange(false, std::memory_order_acq_rel); }
+
+    /** Post a transparent frame to the sink; the next frame is redrawn in full. */
+    void clear()
+    {
+        {
+            std::lock_guard<std::mutex> lock(sinkMutex_);
+            if (sink_) sink_->clear();
+        }
+        redrawAll_.store(true, std::memory_order_release);
+    }
+
+    PipelineStats stats() const
+    {
+        std::lock_guard<std::mutex> lock(statsMutex_);
+        return stats_;
+    }
+
+    // ---- Frames: one thread at a time ----
+
+    /**
+     * Start a frame: the decimated view of frame this pipeline converts.
+     * pixels() is then sized for it and keeps last frame's output.
+     */
+    YuvFrame beginFrame(const YuvFrame& frame)
+    {
+        t0_ = std::chrono::steady_clock::now();
+        if (staticReset_.exchange(false, std::memory_order_acq_rel)) {
+            dirtyTiles_.threshold = staticThreshold_.load(std::memory_order_relaxed);
+            lastFilter_ = ColorFilter();
+            std::lock_guard<std::mutex> lock(statsMutex_);
+            stats_.staticScene = StaticSceneStats();
+        }
+        if (redrawAll_.exchange(false, std::memory_order_acq_rel)) {
+            bgra_.clear();
+            lastFilter_ = ColorFilter();
+        }
+        decimation_ = ChoosePreviewDecimation(frame.width, frame.height,
+                                              maxW_.load(std::memory_order_relaxed),
+                                              maxH_.load(std::memory_order_relaxed));
+        const YuvFrame preview = SubsampledView(frame, decimation_);
+        width_ = preview.width;
+        height_ = preview.height;
+        const size_t pixelCount = static_cast<size_t>(width_) * height_;
+        resized_ = bgra_.size() != pixelCount;
+        if (resized_) bgra_.assign(pixelCount, 0);
+        return preview;
+    }
+
+    uint32_t* pixels() { return bgra_.data(); }
+    int width() const { return width_; }
+    int height() const { return height_; }
+    int decimation() const { return decimation_; }
+
+    /**
+     * Convert the view from beginFrame() into pixels() with filter; in
+     * static-scene mode only the tiles that changed since the last frame.
+     */
+    void convert(const YuvFrame& preview, const ColorFilter& filter)
+    {
+        if (!staticEnabled_.load(std::memory_order_relaxed)) {
+            ConvertYuvToBgra(preview, filter, bgra_.data());
+            lastFilter_ = ColorFilter();
+            return;
+        }
+        const bool force = resized_ || lastFilter_ != filter || lastMatrix_ != preview.matrix;
+        lastFilter_ = filter;
+        lastMatrix_ = preview.matrix;
+
+        const int dirtyTiles = dirtyTiles_.update(preview, force);
+        ConvertDirtyTilesToBgra(preview, filter, dirtyTiles_, bgra_.data());
+
+        std::lock_guard<std::mutex> lock(statsMutex_);
+        StaticSceneStats& s = stats_.staticScene;
+        s.frames++;
+        s.tilesTotal += dirtyTiles_.tileCount();
+        s.tilesSkipped += dirtyTiles_.tileCount() - dirtyTiles;
+        s.convertMs += std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0_).count();
+    }
+
+    /** The caller filled pixels() itself (scopes, inset, HDR): no tiles carry over to the next frame. */
+    void convertedElsewhere() { lastFilter_ = ColorFilter(); }
+
+    /** Nothing is presented this frame (no sink); the next one is redrawn in full. */
+    void skipFrame() { lastFilter_ = ColorFilter(); }
+
+    /**
+     * Rotate pixels() for the screen and hand them to the sink; records the
+     * time since beginFrame(). Returns false if there was no sink.
+     */
+    bool present()
+    {
+        const int degrees = degrees_.load(std::memory_order_relaxed);
+        const size_t pixelCount = bgra_.size();
+        output_ = bgra_.data();
+        outW_ = width_;
+        outH_ = height_;
+        if (degrees == 90 || degrees == 180 || degrees == 270) {
+            rotated_.resize(pixelCount);
+            if (degrees == 90) RotateARGB90(bgra_.data(), rotated_.data(), width_, height_);
+            else if (degrees == 180) RotateARGB180(bgra_.data(), rotated_.data(), width_, height_);
+            else RotateARGB270(bgra_.data(), rotated_.data(), width_, height_);
+            output_ = rotated_.data();
+            if (degrees != 180) std::swap(outW_, outH_);
+        }
+
+        bool shown;
+        {
+            // Held while drawing, so unbinding waits for the frame in flight
+            std::lock_guard<std::mutex> lock(sinkMutex_);
+            shown = sink_ != nullptr;
+            if (shown) sink_->present(output_, outW_, outH_);
+        }
+
+        const double ms = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0_).count();
+        metrics_.record(ms);
+        std::lock_guard<std::mutex> lock(statsMutex_);
+        stats_.preview = metrics_;
+        stats_.decimation = decimation_;
+        stats_.outputWidth = outW_;
+        stats_.outputHeight = outH_;
+        return shown;
+    }
+
+    /** This pipeline's metrics, from the frame thread (stats() from others). */
+    const BranchMetrics& metrics() const { return metrics_; }
+
+    /** One frame the plain way: convert with the pipeline's filter, rotate, present. */
+    bool process(const YuvFrame& frame)
+    {
+        const YuvFrame preview = beginFrame(frame);
+        convert(preview, filter());
+        return present();
+    }
+
+    /**
+     * Copy the last presented frame (outputWidth x outputHeight of stats())
+     * into dst if capacity pixels suffice. Frame thread only.
+     */
+    bool readOutput(uint32_t* dst, size_t capacity) const
+    {
+        const size_t n = static_cast<size_t>(outW_) * outH_;
+        if (!output_ || n == 0 || n > capacity) return false;
+        std::copy_n(output_, n, dst);
+        return true;
+    }
+
+private:
+    // Settings
+    mutable std::mutex sinkMutex_;
+    std::shared_ptr<FrameSink> sink_;                  // guarded by sinkMutex_
+    mutable std::mutex filterMutex_;
+    ColorFilter filter_;                               // guarded by filterMutex_
+    std::atomic<int> degrees_{0};
+    std::atomic<int> maxW_{960};
+    std::atomic<int> maxH_{540};
+    std::atomic<bool> staticEnabled_{false};
+    std::atomic<int> staticThreshold_{4};
+    std::atomic<bool> staticReset_{false};
+    std::atomic<bool> captureNext_{false};
+    std::atomic<bool> redrawAll_{false};
+
+    // Frame thread
+    std::chrono::steady_clock::time_point t0_;
+    int decimation_ = 1;
+    int width_ = 0, height_ = 0;
+    bool resized_ = false;
+    std::vector<uint32_t> bgra_;                       // persistent so clean tiles survive
+    std::vector<uint32_t> rotated_;
+    const uint32_t* output_ = nullptr;
+    int outW_ = 0, outH_ = 0;
+    DirtyTileTracker dirtyTiles_;
+    ColorFilter lastFilter_;
+    const YuvToRgbTable* lastMatrix_ = nullptr;
+    BranchMetrics metrics_;
+
+    mutable std::mutex statsMutex_;
+    PipelineStats stats_;                              // guarded by statsMutex_
+};
@@ -0,0 +1,137 @@
+// Building blocks for the dual-rate pipeline.
+//
+// The camera delivers one full-resolution stream. The preview branch
+// processes a decimated view of it at display rate on the camera thread.
+// The record branch processes full resolution at the encoder rate on its
+// own worker thread. Each branch owns its buffers and metrics so the two
+// never contend for memory or skew each other's numbers.
+#pragma once
+
+#include <atomic>
+#include <chrono>
+#include <cstddef>
+#include <cstdint>
+#include <cstring>
+#include <vector>
+
+#include "FrameConvert.hpp"
+
+struct BranchMetrics {
+    uint64_t frames = 0;        // frames fully processed
+    double totalMs = 0.0;       // processing time of processed frames
+    double maxMs = 0.0;
+    double jniMs = 0.0;         // part of totalMs spent crossing into Java
+
+    void record(double ms) {
+        frames++;
+        totalMs += ms;
+        if (ms > maxMs) maxMs = ms;
+    }
+    double avgMs() const { return frames ? totalMs / frames : 0.0; }
+    double avgJniMs() const { return frames ? jniMs / frames : 0.0; }
+};
+
+/** Deep copy of a YUV frame so it can outlive the JNI arrays it came from. */
+struct OwnedYuvFrame {
+    std::vector<uint8_t> y, u, v;
+    YuvFrame frame;
+    int64_t timestampUs = 0;
+    int64_t presentationUs = 0;     // encoder PTS; differs from timestampUs only when retimed (time-lapse)
+
+    void copyFrom(const YuvFrame& src, int64_t tsUs) {
+        const size_t yBytes = static_cast<size_t>(src.yRowStride) * (src.height - 1) +
+                              static_cast<size_t>(src.width) * src.yPixelStride;
+        const int chromaRows = (src.height + 1) >> src.chromaShift;
+        const int chromaCols = (src.width + 1) >> src.chromaShift;
+        const size_t uBytes = static_cast<size_t>(src.uRowStride) * (chromaRows - 1) +
+                              static_cast<size_t>(chromaCols - 1) * src.uPixelStride + src.sampleBytes;
+        const size_t vBytes = static_cast<size_t>(src.vRowStride) * (chromaRows - 1) +
+                              static_cast<size_t>(chromaCols - 1) * src.vPixelStride + src.sampleBytes;
+        // resize() keeps capacity, so steady-state copies do not allocate
+        y.resize(yBytes);
+        u.resize(uBytes);
+        v.resize(vBytes);
+        std::memcpy(y.data(), src.y, yBytes);
+        std::memcpy(u.data(), src.u, uBytes);
+        std::memcpy(v.data(), src.v, vBytes);
+
+        frame = src;
+        frame.y = y.data();
+        frame.u = u.data();
+        frame.v = v.data();
+        timestampUs = presentationUs = tsUs;
+    }
+};
+
+/**
+ * Lock-free single-producer / single-consumer ring of N preallocated slots
+ * (N a power of two). The producer fills the slot from beginWrite() and
+ * publishes it with commitWrite(); the consumer works on the slot from
+ * beginRead() in place and hands it back with commitRead(). Neither side
+ * ever waits on the other: a full queue makes beginWrite() return nullptr.
+ */
+template <typename T, size_t N>
+class SpscQueue {
+    static_assert(N >= 2 && (N & (N - 1)) == 0, "N must be a power of two");
+
+public:
+    T* beginWrite() {
+        const size_t t = tail_.load(std::memory_order_relaxed);
+        if (t - head_.load(std::memory_order_acquire) == N) return nullptr;
+        return &slots_[t & (N - 1)];
+    }
+    void commitWrite() { tail_.store(tail_.load(std::memory_order_relaxed) + 1, std::memory_order_release); }
+
+    T* beginRead() {
+        const size_t h = head_.load(std::memory_order_relaxed);
+        if (h == tail_.load(std::memory_order_acquire)) return nullptr;
+        return &slots_[h & (N - 1)];
+    }
+    void commitRead() { head_.store(head_.load(std::memory_order_relaxed) + 1, std::memory_order_release); }
+
+    size_t size() const {
+        return tail_.load(std::memory_order_acquire) - head_.load(std::memory_order_acquire);
+    }
+
+private:
+    T slots_[N];
+    alignas(64) std::atomic<size_t> head_{0};   // next slot to read (consumer-owned)
+    alignas(64) std::atomic<size_t> tail_{0};   // next slot to write (producer-owned)
+};
+
+/**
+ * Drops frames so the output runs at no more than targetFps. A frame is
+ * accepted when at least one period has elapsed since the last accepted
+ * frame (with a small tolerance for camera jitter).
+ */
+struct FramePacer {
+    int targetFps = 30;
+    int64_t lastAcceptedUs = -1;
+
+    bool accept(int64_t nowUs) {
+        if (targetFps <= 0) return true;
+        const int64_t period = 1000000LL / targetFps;
+        if (lastAcceptedUs >= 0 && nowUs - lastAcceptedUs < period - period / 8) {
+            return false;
+        }
+        lastAcceptedUs = nowUs;
+        return true;
+    }
+    void reset() { lastAcceptedUs = -1; }
+};
+
+/** Smallest decimation (1, 2, 4) that fits the frame inside maxW x maxH, either orientation. */
+static inline int ChoosePreviewDecimation(int width, int height, int maxW, int maxH)
+{
+    if (maxW <= 0 || maxH <= 0) return 1;
+    const int longMax = std::max(maxW, maxH);
+    const int shortMax = std::min(maxW, maxH);
+    int k = 1;
+    while (k < 4) {
+        const int longSide = std::max(width, height) / k;
+        const int shortSide = std::min(width, height) / k;
+        if (longSide <= longMax && shortSide <= shortMax) break;
+        k *= 2;
+    }
+    return k;
+}
@@ -0,0 +1,346 @@
+// Scheduling policy for the pipeline's threads.
+//
+// Every pipeline thread registers itself once with its role (camera, record
+// worker, filter-graph bake, audio, background). A policy maps each role to
+// a niceness and a CPU set: all cores, the performance cores, or the
+// efficiency cores of this device. Policies can be switched at runtime; the
+// new one is applied to every registered thread at once (affinity and
+// priority can be set for another thread of the same process by tid), so
+// different policies can be A/B benchmarked on the same device and session.
+//
+// Per thread it keeps what is needed to compare policies: CPU time and
+// migrations as the kernel counts them (/proc/self/task/<tid>/schedstat and
+// sched, where readable), plus cheap samples taken by the thread itself once
+// per unit of work (frame, bake): which CPU it ran on, whether that was a
+// performance core, and how often the CPU changed between samples.
+//
+// Linux only (Android and the host tests); no JNI.
+#pragma once
+
+#include <atomic>
+#include <cerrno>
+#include <cstdint>
+#include <cstdio>
+#include <cstring>
+#include <mutex>
+#include <pthread.h>
+#include <sched.h>
+#include <string>
+#include <sys/resource.h>
+#include <sys/syscall.h>
+#include <unistd.h>
+#include <vector>
+
+enum ThreadRole : int {
+    kRoleCamera = 0,        // camera callbacks: preview branch, photo, record hand-off
+    kRoleRecord = 1,        // native record worker: full-res filter, encoder input, native muxer
+    kRoleGraphBake = 2,     // filter-graph LUT bakes
+    kRoleAudio = 3,         // AudioRecord read, AAC encode, audio mux
+    kRoleBackground = 4,    // photo save, encoder probe
+    kRoleCount = 5
+};
+
+static inline const char* ThreadRoleName(int role)
+{
+    static const char* const kNames[kRoleCount] = {"camera", "record", "graph-bake", "audio", "background"};
+    return role >= 0 && role < kRoleCount ? kNames[role] : "?";
+}
+
+enum ThreadPolicyId : int {
+    kPolicySystem = 0,      // leave priority and placement to the scheduler (baseline)
+    kPolicyPriority = 1,    // per-role niceness, any core
+    kPolicyBigCores = 2,    // niceness, and frame work pinned to the performance cores
+    kPolicyLittleCores = 3, // niceness, frame work pinned to the efficiency cores (power / contrast runs)
+    kPolicyCount = 4
+};
+
+enum CoreSet : int { kAnyCore = 0, kPerformanceCores = 1, kEfficiencyCores = 2 };
+
+struct RoleSchedule {
+    int nice = 0;
+    CoreSet cores = kAnyCore;
+};
+
+/**
+ * The policy table. Niceness follows Android's THREAD_PRIORITY_* levels:
+ * DISPLAY (-4) for the frame path, AUDIO (-16) for capture that must not
+ * glitch, BACKGROUND (10) for work nobody waits on.
+ */
+static inline RoleSchedule ScheduleFor(int policy, int role)
+{
+    RoleSchedule s;
+    if (policy == kPolicySystem || role < 0 || role >= kRoleCount) return s;
+    static const int kNice[kRoleCount] = {-4, -4, 0, -16, 10};
+    s.nice = kNice[role];
+    const bool framePath = role == kRoleCamera || role == kRoleRecord;
+    if (policy == kPolicyBigCores) {
+        s.cores = framePath ? kPerformanceCores : role == kRoleBackground ? kEfficiencyCores : kAnyCore;
+    } else if (policy == kPolicyLittleCores) {
+        s.cores = framePath || role == kRoleBackground ? kEfficiencyCores : kAnyCore;
+    }
+    return s;
+}
+
+/** CPU masks (bit n = cpu n) for each CoreSet. */
+struct CpuTopology {
+    uint64_t all = 0;
+    uint64_t performance = 0;
+    uint64_t efficiency = 0;
+
+    uint64_t mask(CoreSet set) const {
+        return set == kPerformanceCores ? performance : set == kEfficiencyCores ? efficiency : all;
+    }
+};
+
+/**
+ * Split CPUs by a per-core capacity score (cpu_capacity, or the maximum
+ * frequency): the cores with the lowest score are the efficiency cluster,
+ * all others count as performance cores. A score <= 0 means the CPU is
+ * absent. On a homogeneous CPU both sets are all cores.
+ */
+static inline CpuTopology ClassifyCores(const std::vector<long>& score)
+{
+    CpuTopology t;
+    long lowest = 0;
+    for (size_t i = 0; i < score.size() && i < 64; ++i) {
+        if (score[i] <= 0) continue;
+        t.all |= 1ull << i;
+        if (lowest == 0 || score[i] < lowest) lowest = score[i];
+    }
+    for (size_t i = 0; i < score.size() && i < 64; ++i) {
+        if (score[i] <= 0) continue;
+        if (score[i] == lowest) t.efficiency |= 1ull << i;
+        else t.performance |= 1ull << i;
+    }
+    if (t.performance == 0) t.performance = t.efficiency = t.all;
+    return t;
+}
+
+static inline long ReadLongFile(const std::string& path)
+{
+    FILE* f = std::fopen(path.c_str(), "r");
+    if (!f) return -1;
+    long v = -1;
+    if (std::fscanf(f, "%ld", &v) != 1) v = -1;
+    std::fclose(f);
+    return v;
+}
+
+/** This device's topology from sysfs; every configured CPU counts as present if nothing is readable. */
+static inline CpuTopology ReadCpuTopology()
+{
+    const long n = sysconf(_SC_NPROCESSORS_CONF);
+    std::vector<long> score;
+    for (long cpu = 0; cpu < n && cpu < 64; ++cpu) {
+        const std::string base = "/sys/devices/system/cpu/cpu" + std::to_string(cpu);
+        long s = ReadLongFile(base + "/cpu_capacity");
+        if (s <= 0) s = ReadLongFile(base + "/cpufreq/cpuinfo_max_freq");
+        score.push_back(s);
+    }
+    bool any = false;
+    for (long s : score) any |= s > 0;
+    if (!any) score.assign(score.size(), 1);
+    return ClassifyCores(score);
+}
+
+/** First field of /proc/.../schedstat: time on CPU in ns; -1 if unreadable. */
+static inline int64_t ParseSchedstatRuntimeNs(const char* text)
+{
+    long long ns;
+    return text && std::sscanf(text, "%lld", &ns) == 1 ? static_cast<int64_t>(ns) : -1;
+}
+
+/** se.nr_migrations from /proc/.../sched (needs CONFIG_SCHED_DEBUG); -1 if absent. */
+static inline int64_t ParseSchedMigrations(const char* text)
+{
+    const char* p = text ? std::strstr(text, "se.nr_migrations") : nullptr;
+    if (!p) return -1;
+    p = std::strchr(p, ':');
+    long long v;
+    return p && std::sscanf(p + 1, "%lld", &v) == 1 ? static_cast<int64_t>(v) : -1;
+}
+
+static inline std::string ReadSmallFile(const std::string& path)
+{
+    std::string out;
+    FILE* f = std::fopen(path.c_str(), "r");
+    if (!f) return out;
+    char buf[4096];
+    size_t n;
+    while ((n = std::fread(buf, 1, sizeof(buf), f)) > 0) out.append(buf, n);
+    std::fclose(f);
+    return out;
+}
+
+static inline pid_t CurrentTid()
+{
+    return static_cast<pid_t>(syscall(SYS_gettid));
+}
+
+/** Snapshot of one registered thread, for comparing policies. */
+struct ThreadStats {
+    int role = -1;
+    pid_t tid = 0;
+    char name[16] = {};
+    int64_t cpuNs = -1;             // kernel: time on CPU
+    int64_t migrations = -1;        // kernel: CPU migrations (-1 where the kernel does not expose them)
+    uint64_t samples = 0;           // self-samples (one per frame or bake)
+    uint64_t samplesOnPerformance = 0;
+    uint64_t cpuChanges = 0;        // samples taken on another CPU than the previous one
+    int applyErrors = 0;            // priority / affinity changes the kernel refused
+};
+
+/**
+ * Registry of pipeline threads and the active policy. Registration and
+ * policy changes take a lock; sample() is lock-free and only touches the
+ * calling thread's own slot.
+ */
+class ThreadPolicyRegistry {
+public:
+    static constexpr int kMaxThreads = 16;
+
+    explicit ThreadPolicyRegistry(const CpuTopology& topology) : topology_(topology) {}
+
+    const CpuTopology& topology() const { return topology_; }
+    int policy() const { return policy_.load(std::memory_order_relaxed); }
+
+    /**
+     * Register the calling thread (re-registering updates its role), give it
+     * its kernel name (15 characters at most) and apply the policy to it.
+     */
+    void registerCurrentThread(int role, const char* name) {
+        std::lock_guard<std::mutex> lock(mutex_);
+        const pid_t tid = CurrentTid();
+        Slot* slot = find(tid);
+        if (!slot) {
+            for (Slot& s : slots_) {
+                if (s.tid.load(std::memory_order_relaxed) == 0) { slot = &s; break; }
+            }
+            if (!slot) return;      // full: the thread keeps the scheduler's defaults
+            slot->reset();
+            slot->tid.store(tid, std::memory_order_relaxed);
+        }
+        slot->role = role;
+        std::strncpy(slot->name, name ? name : ThreadRoleName(role), sizeof(slot->name) - 1);
+        pthread_setname_np(pthread_self(), slot->name);     // what systrace / top show
+        current_ = slot;
+        apply(*slot, policy());
+    }
+
+    /** Forget the calling thread (before it exits, so a reused tid is not re-prioritised). */
+    void unregisterCurrentThread() {
+        std::lock_guard<std::mutex> lock(mutex_);
+        if (Slot* slot = find(CurrentTid())) slot->tid.store(0, std::memory_order_relaxed);
+        current_ = nullptr;
+    }
+
+    /** Switch policy and apply it to every registered thread now. */
+    void setPolicy(int policy) {
+        if (policy < 0 || policy >= kPolicyCount) return;
+        std::lock_guard<std::mutex> lock(mutex_);
+        policy_.store(policy, std::memory_order_relaxed);
+        for (Slot& s : slots_) {
+            if (s.tid.load(std::memory_order_relaxed) != 0) apply(s, policy);
+        }
+    }
+
+    /** Called by a registered thread once per unit of work; a few ns (getcpu is a vDSO call). */
+    void sample() {
+        Slot* slot = current_;
+        if (!slot) return;
+        const int cpu = sched_getcpu();
+        if (cpu < 0) return;
+        slot->samples.fetch_add(1, std::memory_order_relaxed);
+        if (cpu < 64 && (topology_.performance >> cpu & 1) && topology_.performance != topology_.all) {
+            slot->samplesOnPerformance.fetch_add(1, std::memory_order_relaxed);
+        }
+        if (slot->lastCpu >= 0 && slot->lastCpu != cpu) slot->cpuChanges.fetch_add(1, std::memory_order_relaxed);
+        slot->lastCpu = cpu;
+    }
+
+    /** One entry per registered thread, with the kernel's counters read now. */
+    std::vector<ThreadStats> stats() {
+        std::vector<ThreadStats> out;
+        std::lock_guard<std::mutex> lock(mutex_);
+        for (Slot& s : slots_) {
+            const pid_t tid = s.tid.load(std::memory_order_relaxed);
+            if (tid == 0) continue;
+            ThreadStats t;
+            t.role = s.role;
+            t.tid = tid;
+            std::memcpy(t.name, s.name, sizeof(t.name));
+            const std::string task = "/proc/self/task/" + std::to_string(tid);
+            t.cpuNs = ParseSchedstatRuntimeNs(ReadSmallFile(task + "/schedstat").c_str());
+            t.migrations = ParseSchedMigrations(ReadSmallFile(task + "/sched").c_str());
+            t.samples = s.samples.load(std::memory_order_relaxed);
+            t.samplesOnPerformance = s.samplesOnPerformance.load(std::memory_order_relaxed);
+            t.cpuChanges = s.cpuChanges.load(std::memory_order_relaxed);
+            t.applyErrors = s.applyErrors;
+            out.push_back(t);
+        }
+        return out;
+    }
+
+    /** Zero the self-sampled counters (kernel counters are cumulative; diff them instead). */
+    void resetSamples() {
+        std::lock_guard<std::mutex> lock(mutex_);
+        for (Slot& s : slots_) {
+            s.samples.store(0, std::memory_order_relaxed);
+            s.samplesOnPerformance.store(0, std::memory_order_relaxed);
+            s.cpuChanges.store(0, std::memory_order_relaxed);
+        }
+    }
+
+private:
+    struct Slot {
+        std::atomic<pid_t> tid{0};
+        int role = -1;
+        char name[16] = {};
+        int lastCpu = -1;                   // owner thread only
+        std::atomic<uint64_t> samples{0};
+        std::atomic<uint64_t> samplesOnPerformance{0};
+        std::atomic<uint64_t> cpuChanges{0};
+        int applyErrors = 0;
+
+        void reset() {
+            role = -1;
+            std::memset(name, 0, sizeof(name));
+            lastCpu = -1;
+            samples.store(0, std::memory_order_relaxed);
+            samplesOnPerformance.store(0, std::memory_order_relaxed);
+            cpuChanges.store(0, std::memory_order_relaxed);
+            applyErrors = 0;
+        }
+    };
+
+    Slot* find(pid_t tid) {
+        for (Slot& s : slots_) {
+            if (s.tid.load(std::memory_order_relaxed) == tid) return &s;
+        }
+        return nullptr;
+    }
+
+    void apply(Slot& slot, int policy) {
+        const pid_t tid = slot.tid.load(std::memory_order_relaxed);
+        const RoleSchedule schedule = ScheduleFor(policy, slot.role);
+        if (setpriority(PRIO_PROCESS, static_cast<id_t>(tid), schedule.nice) != 0) slot.applyErrors++;
+        const uint64_t mask = topology_.mask(schedule.cores);
+        if (mask == 0) return;
+        cpu_set_t set;
+        CPU_ZERO(&set);
+        for (int cpu = 0; cpu < 64; ++cpu) {
+            if (mask >> cpu & 1) CPU_SET(cpu, &set);
+        }
+        if (sched_setaffinity(tid, sizeof(set), &set) != 0) slot.applyErrors++;
+    }
+
+    CpuTopology topology_;
+    std::atomic<int> policy_{kPolicySystem};
+    std::mutex mutex_;
+    Slot slots_[kMaxThreads];
+    static thread_local Slot* current_;
+};
+
+// One registry per process in practice; the thread_local is per registry type, so
+// a thread belongs to at most one registry at a time.
+inline thread_local ThreadPolicyRegistry::Slot* ThreadPolicyRegistry::current_ = nullptr;
@@ -0,0 +1,67 @@
+// Downscaled, upright thumbnail of a BGRA frame, produced as a side output
+// of the photo and record paths so the UI never has to decode saved media.
+#pragma once
+
+#include <algorithm>
+#include <cstdint>
+
+/** Thumbnail dimensions for a w x h frame shown at `degrees`, longest side maxSide. */
+static inline void ThumbnailSize(int w, int h, int degrees, int maxSide, int& outW, int& outH)
+{
+    const bool swap = degrees == 90 || degrees == 270;
+    const int rw = swap ? h : w;
+    const int rh = swap ? w : h;
+    const int longSide = std::max(rw, rh);
+    if (longSide <= maxSide) {
+        outW = rw;
+        outH = rh;
+        return;
+    }
+    outW = std::max(1, rw * maxSide / longSide);
+    outH = std::max(1, rh * maxSide / longSide);
+}
+
+/**
+ * Box-filter src (w x h, tightly packed) into dst (dw x dh, row stride
+ * dstStride pixels): mirrored horizontally if mirror, then rotated clockwise
+ * by degrees (0/90/180/270), the same transform the photo path applies to
+ * the saved JPEG. dw/dh are the rotated dimensions.
+ */
+static inline void MakeThumbnail(const uint32_t* src, int w, int h, int degrees, bool mirror,
+                                 uint32_t* dst, int dw, int dh, int dstStride)
+{
+    const bool swap = degrees == 90 || degrees == 270;
+    // Box size in source pixels per thumbnail pixel, along source x / y
+    const int srcSpanX = swap ? dh : dw;
+    const int srcSpanY = swap ? dw : dh;
+
+    for (int ty = 0; ty < dh; ++ty) {
+        for (int tx = 0; tx < dw; ++tx) {
+            // Map the upright thumbnail pixel back to an unrotated grid cell (cx, cy)
+            int cx, cy;
+            switch (degrees) {
+                case 90:  cx = ty;          cy = dw - 1 - tx; break;
+                case 180: cx = dw - 1 - tx; cy = dh - 1 - ty; break;
+                case 270: cx = dh - 1 - ty; cy = tx;          break;
+                default:  cx = tx;          cy = ty;          break;
+            }
+            if (mirror) cx = srcSpanX - 1 - cx;
+            const int x0 = cx * w / srcSpanX, x1 = std::max(x0 + 1, (cx + 1) * w / srcSpanX);
+            const int y0 = cy * h / srcSpanY, y1 = std::max(y0 + 1, (cy + 1) * h / srcSpanY);
+
+            uint32_t r = 0, g = 0, b = 0;
+            for (int y = y0; y < y1; ++y) {
+                const uint32_t* row = src + static_cast<size_t>(y) * w;
+                for (int x = x0; x < x1; ++x) {
+                    const uint32_t p = row[x];
+                    r += p & 0xFF;
+                    g += (p >> 8) & 0xFF;
+                    b += (p >> 16) & 0xFF;
+                }
+            }
+            const uint32_t n = static_cast<uint32_t>((x1 - x0) * (y1 - y0));
+            dst[static_cast<size_t>(ty) * dstStride + tx] =
+                    0xFF000000 | ((b / n) << 16) | ((g / n) << 8) | (r / n);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+// Colour-standard-aware YUV <-> RGB conversion tables for the 8-bit path.
+//
+// The matrix (BT.601 / BT.709 / BT.2020) and the range (limited 16..235 /
+// full 0..255) are folded into per-plane tables once per colour space, so
+// a conversion does no multiplications: YUV -> RGB is five lookups, three
+// additions per channel and a saturating pack; RGB -> YUV is nine lookups.
+// Offsets and the +0.5 rounding term live in the first table of each sum.
+//
+// Tables hold 8 fractional bits. BT.601 limited, the camera default and
+// what every frame was converted with before colour spaces were tracked,
+// keeps the classic integer coefficients (298/409/100/208/516 and
+// 66/129/25 ...), so its output is bit-identical to the old arithmetic
+// kernels. The other spaces are built from Kr/Kb with each entry rounded
+// on its own, which stays within one level of the float reference.
+#pragma once
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+
+// MediaFormat.COLOR_STANDARD_* / COLOR_RANGE_* values, shared with Java
+constexpr int kColorStandardBt709 = 1;
+constexpr int kColorStandardBt601Pal = 2;
+constexpr int kColorStandardBt601Ntsc = 4;
+constexpr int kColorStandardBt2020 = 6;
+constexpr int kColorRangeFull = 1;
+constexpr int kColorRangeLimited = 2;
+
+constexpr int kYuvFracBits = 8;
+
+struct YuvColorSpace {
+    int standard = kColorStandardBt601Ntsc;
+    int range = kColorRangeLimited;
+
+    bool operator==(const YuvColorSpace& o) const { return standard == o.standard && range == o.range; }
+    bool operator!=(const YuvColorSpace& o) const { return !(*this == o); }
+};
+
+/** R = y[Y] + rv[V], G = y[Y] + gu[U] + gv[V], B = y[Y] + bu[U], each >> kYuvFracBits. */
+struct YuvToRgbTable {
+    int32_t y[256];
+    int32_t rv[256];
+    int32_t gu[256];
+    int32_t gv[256];
+    int32_t bu[256];
+};
+
+/** Y = yr[R] + yg[G] + yb[B], U and V likewise, each >> kYuvFracBits. */
+struct RgbToYuvTable {
+    int32_t yr[256], yg[256], yb[256];
+    int32_t ur[256], ug[256], ub[256];
+    int32_t vr[256], vg[256], vb[256];
+};
+
+// Luma weights; the two BT.601 variants differ in primaries, not in the matrix
+static inline void LumaWeights(int standard, double& kr, double& kb)
+{
+    switch (standard) {
+        case kColorStandardBt709:  kr = 0.2126; kb = 0.0722; break;
+        case kColorStandardBt2020: kr = 0.2627; kb = 0.0593; break;
+        default:                   kr = 0.299;  kb = 0.114;  break;
+    }
+}
+
+/**
+ * Coefficients of one colour space in RGB units per code value: luma scale
+ * and offset, chroma scale, and the four chroma terms of the inverse matrix.
+ */
+struct YuvMatrixCoefficients {
+    double kr, kb, kg;
+    double yOffset, yScale, cScale;     // limited: 16, 255/219, 255/224; full: 0, 1, 1
+
+    static YuvMatrixCoefficients Of(YuvColorSpace cs)
+    {
+        YuvMatrixCoefficients m;
+        LumaWeights(cs.standard, m.kr, m.kb);
+        m.kg = 1.0 - m.kr - m.kb;
+        const bool full = cs.range == kColorRangeFull;
+        m.yOffset = full ? 0.0 : 16.0;
+        m.yScale = full ? 1.0 : 255.0 / 219.0;
+        m.cScale = full ? 1.0 : 255.0 / 224.0;
+        return m;
+    }
+
+    double rv() const { return 2 * (1 - kr) * cScale; }
+    double gu() const { return -2 * kb * (1 - kb) / kg * cScale; }
+    double gv() const { return -2 * kr * (1 - kr) / kg * cScale; }
+    double bu() const { return 2 * (1 - kb) * cScale; }
+};
+
+static inline bool IsLegacyColorSpace(YuvColorSpace cs)
+{
+    return cs.standard != kColorStandardBt709 && cs.standard != kColorStandardBt2020 &&
+           cs.range != kColorRangeFull;
+}
+
+static inline int32_t FixEntry(double v)
+{
+    return static_cast<int32_t>(std::lround(v * (1 << kYuvFracBits)));
+}
+
+static inline void BuildYuvToRgbTable(YuvColorSpace cs, YuvToRgbTable& t)
+{
+    const int32_t rounding = 1 << (kYuvFracBits - 1);
+    if (IsLegacyColorSpace(cs)) {
+        for (int i = 0; i < 256; ++i) {
+            t.y[i] = 298 * (i - 16) + rounding;
+            t.rv[i] = 409 * (i - 128);
+            t.gu[i] = -100 * (i - 128);
+            t.gv[i] = -208 * (i - 128);
+            t.bu[i] = 516 * (i - 128);
+        }
+        return;
+    }
+    const YuvMatrixCoefficients m = YuvMatrixCoefficients::Of(cs);
+    for (int i = 0; i < 256; ++i) {
+        t.y[i] = FixEntry(m.yScale * (i - m.yOffset)) + rounding;
+        t.rv[i] = FixEntry(m.rv() * (i - 128));
+        t.gu[i] = FixEntry(m.gu() * (i - 128));
+        t.gv[i] = FixEntry(m.gv() * (i - 128));
+        t.bu[i] = FixEntry(m.bu() * (i - 128));
+    }
+}
+
+static inline void BuildRgbToYuvTable(YuvColorSpace cs, RgbToYuvTable& t)
+{
+    const int32_t rounding = 1 << (kYuvFracBits - 1);
+    if (IsLegacyColorSpace(cs)) {
+        for (int i = 0; i < 256; ++i) {
+            t.yr[i] = 66 * i + rounding + (16 << kYuvFracBits);
+            t.yg[i] = 129 * i;
+            t.yb[i] = 25 * i;
+            t.ur[i] = -38 * i + rounding + (128 << kYuvFracBits);
+            t.ug[i] = -74 * i;
+            t.ub[i] = 112 * i;
+            t.vr[i] = 112 * i + rounding + (128 << kYuvFracBits);
+            t.vg[i] = -94 * i;
+            t.vb[i] = -18 * i;
+        }
+        return;
+    }
+    const YuvMatrixCoefficients m = YuvMatrixCoefficients::Of(cs);
+    const double cu = 1 / (2 * (1 - m.kb) * m.cScale);
+    const double cv = 1 / (2 * (1 - m.kr) * m.cScale);
+    for (int i = 0; i < 256; ++i) {
+        t.yr[i] = FixEntry(m.kr / m.yScale * i + m.yOffset) + rounding;
+        t.yg[i] = FixEntry(m.kg / m.yScale * i);
+        t.yb[i] = FixEntry(m.kb / m.yScale * i);
+        t.ur[i] = FixEntry(-m.kr * cu * i + 128) + rounding;
+        t.ug[i] = FixEntry(-m.kg * cu * i);
+        t.ub[i] = FixEntry((1 - m.kb) * cu * i);
+        t.vr[i] = FixEntry((1 - m.kr) * cv * i + 128) + rounding;
+        t.vg[i] = FixEntry(-m.kg * cv * i);
+        t.vb[i] = FixEntry(-m.kb * cv * i);
+    }
+}
+
+// One immutable table per (matrix, range); built on first use, thread-safe
+// through the function-local statics, never freed, so frames can keep a pointer.
+template <typename Table, void (*Build)(YuvColorSpace, Table&)>
+static inline const Table& TableFor(YuvColorSpace cs)
+{
+    static const struct Tables {
+        Table t[3][2];
+        Tables() {
+            const int standards[3] = {kColorStandardBt601Ntsc, kColorStandardBt709, kColorStandardBt2020};
+            for (int s = 0; s < 3; ++s) {
+                Build({standards[s], kColorRangeLimited}, t[s][0]);
+                Build({standards[s], kColorRangeFull}, t[s][1]);
+            }
+        }
+    } tables;
+    const int s = cs.standard == kColorStandardBt709 ? 1 : cs.standard == kColorStandardBt2020 ? 2 : 0;
+    return tables.t[s][cs.range == kColorRangeFull ? 1 : 0];
+}
+
+/** Table for cs; unknown standards fall back to BT.601, unknown ranges to limited. */
+static inline const YuvToRgbTable& YuvToRgbTableFor(YuvColorSpace cs)
+{
+    return TableFor<YuvToRgbTable, BuildYuvToRgbTable>(cs);
+}
+
+static inline const RgbToYuvTable& RgbToYuvTableFor(YuvColorSpace cs)
+{
+    return TableFor<RgbToYuvTable, BuildRgbToYuvTable>(cs);
+}
+
+static inline uint8_t SaturateFixed(int32_t v)
+{
+    return static_cast<uint8_t>(std::clamp(v >> kYuvFracBits, 0, 255));
+}
+
+/** One pixel through the tables; the conversion kernels inline the same sums. */
+static inline void YuvToRgb(const YuvToRgbTable& t, int Y, int U, int V, int& R, int& G, int& B)
+{
+    const int32_t y = t.y[Y];
+    R = SaturateFixed(y + t.rv[V]);
+    G = SaturateFixed(y + t.gu[U] + t.gv[V]);
+    B = SaturateFixed(y + t.bu[U]);
+}
+
+static inline void RgbToYuv(const RgbToYuvTable& t, int R, int G, int B, int& Y, int& U, int& V)
+{
+    Y = SaturateFixed(t.yr[R] + t.yg[G] + t.yb[B]);
+    U = SaturateFixed(t.ur[R] + t.ug[G] + t.ub[B]);
+    V = SaturateFixed(t.vr[R] + t.vg[G] + t.vb[B]);
+}
+
+// Float references the tables are tested against
+static inline void YuvToRgbReference(YuvColorSpace cs, int Y, int U, int V, int& R, int& G, int& B)
+{
+    const YuvMatrixCoefficients m = YuvMatrixCoefficients::Of(cs);
+    const double y = m.yScale * (Y - m.yOffset);
+    const double u = U - 128.0, v = V - 128.0;
+    R = static_cast<int>(std::clamp(std::lround(y + m.rv() * v), 0L, 255L));
+    G = static_cast<int>(std::clamp(std::lround(y + m.gu() * u + m.gv() * v), 0L, 255L));
+    B = static_cast<int>(std::clamp(std::lround(y + m.bu() * u), 0L, 255L));
+}
+
+static inline void RgbToYuvReference(YuvColorSpace cs, int R, int G, int B, int& Y, int& U, int& V)
+{
+    const YuvMatrixCoefficients m = YuvMatrixCoefficients::Of(cs);
+    const double luma = m.kr * R + m.kg * G + m.kb * B;
+    Y = static_cast<int>(std::clamp(std::lround(luma / m.yScale + m.yOffset), 0L, 255L));
+    U = static_cast<int>(std::clamp(std::lround((B - luma) / (2 * (1 - m.kb) * m.cScale) + 128), 0L, 255L));
+    V = static_cast<int>(std::clamp(std::lround((R - luma) / (2 * (1 - m.kr) * m.cScale) + 128), 0L, 255L));
+}
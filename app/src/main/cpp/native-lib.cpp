@@ -1,159 +1,236 @@
 // This C++ code is the same as provided in the previous, extended response.
-// It includes all necessary JNI exports, globals, and the updated
-// gCaptureNextFrame logic within processFrameYUV to send BGRA data back to Java.
+// It includes all necessary JNI exports, globals, and the photo capture
+// logic within processFrameYUV to send BGRA data back to Java.
 
 #include <jni.h>
 #include <android/native_window_jni.h>
 #include <android/log.h>
+#include <android/bitmap.h>
 #include <vector>
 #include <chrono>
 #include <cstdint>
 #include <algorithm>
 #include <cmath>
 #include <map>
+#include <memory>
 #include <string>
 
+#include "FrameConvert.hpp"
+#include "HdrConvert.hpp"
+#include "DirtyTiles.hpp"
+#include "ExposureScopes.hpp"
+#include "PipelineBranch.hpp"
+#include "FilterRegistry.hpp"
+#include "LutAnalyzer.hpp"
+#include "FilterGraph.hpp"
+#include "Thumbnail.hpp"
+#include "NativeRecorder.hpp"
+#include "PipCompositor.hpp"
+#include "ThreadPolicy.hpp"
+#include "OverlayCompositor.hpp"
+#include "FilterAtlas.hpp"
+#include "Pipeline.hpp"
+
+#include <atomic>
+#include <condition_variable>
+#include <mutex>
+#include <shared_mutex>
+#include <thread>
+
 #define TAG "CameraNative"
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, TAG, __VA_ARGS__)
 
 // --------------------------------------------------
 // Globals
 // --------------------------------------------------
-static ANativeWindow* gNativeWindow = nullptr;
-static jobject   gJavaActivity           = nullptr;
-static jmethodID gOnProcessedFrameMethod = nullptr; // For Video (NV21)
+// Preview state (window, rotation, buffers, photo request) lives in Pipeline
+// objects that Java holds by handle; what is left here serves the one camera.
+// The callbacks run on the camera thread and the record worker; each holds
+// gJavaContextMutex shared for the whole call, so nativeSetJavaContext() waits
+// for calls in flight before it drops the reference.
+static std::shared_mutex gJavaContextMutex;
+static jobject   gJavaActivity           = nullptr; // PipelineHost: outlives activity recreation
+static jmethodID gOnProcessedFrameMethod = nullptr; // For Video (NV12, or P010 in HDR mode)
 static jmethodID gOnProcessedPhotoMethod = nullptr; // For Photo (BGRA data)
-static int gPreviewDegrees = 0;
-static bool gCaptureNextFrame = false;              // Flag to capture next frame
-
-// The global pointer for the currently active filter
-static const float (*gCurrentLUT)[33][33][33][3] = nullptr;
-static std::map<std::string, const float (*)[33][33][33][3]> gFilterMap;
-
-// Filter headers (assumed to be correct)
-#include "filters/lutify/Amy.hpp"
-#include "filters/lutify/Claire.hpp"
-#include "filters/lutify/FBoost10.hpp"
-#include "filters/lutify/FTone3.hpp"
-#include "filters/lutify/PFilm2.hpp"
-#include "filters/BlueArchitecture.hpp"
-#include "filters/HardBoost.hpp"
-#include "filters/LongBeachMorning.hpp"
-#include "filters/LushGreen.hpp"
-#include "filters/MagicHour.hpp"
-#include "filters/NaturalBoost.hpp"
-#include "filters/OrangeAndBlue.hpp"
-#include "filters/SoftBlackAndWhite.hpp"
-#include "filters/Waves.hpp"
-#include "filters/BlueHour.hpp"
-#include "filters/ColdChrome.hpp"
-#include "filters/CrispAutumn.hpp"
-#include "filters/DarkAndSomber.hpp"
-
-// --------------------------------------------------
-// Helpers (RotateARGB90 and ARGBtoNV21 implementations remain the same)
-// --------------------------------------------------
-static void RotateARGB90(
-        const uint32_t* src,
-        uint32_t* dst,
-        int width,
-        int height)
+static jmethodID gObtainThumbnailMethod  = nullptr; // Pooled Bitmap for the thumbnail side output
+static jmethodID gOnThumbnailMethod      = nullptr;
+static jmethodID gObtainFilterAtlasMethod = nullptr; // Pooled Bitmap for the filter strip previews
+static jmethodID gOnFilterAtlasMethod    = nullptr;
+
+// Colour spaces of the 8-bit camera stream and of the encoder input (null: BT.601 limited)
+static std::atomic<const YuvToRgbTable*> gCameraMatrix{nullptr};
+static std::atomic<const RgbToYuvTable*> gEncoderMatrix{nullptr};
+
+
+// Exposure scopes: computed inside the preview conversion, published to Java at most every 100 ms
+static constexpr int64_t kScopePublishIntervalUs = 100000;
+static std::atomic<int> gScopeFlags{0};
+static std::atomic<int> gScopeZebraThreshold{235};
+static ScopeAccumulator gScopes;
+static ScopePublisher gScopePublisher;
+static BranchMetrics gScopeAnalysedMetrics;          // preview convert on frames that were analysed
+static BranchMetrics gScopeOtherMetrics;             // preview convert on the frames in between
+
+// Record branch: full resolution, paced to the encoder, runs on its own thread
+static JavaVM* gJvm = nullptr;
+static std::atomic<bool> gRecordActive{false};
+// The pacer belongs to the camera thread and the metrics to the worker; the
+// UI thread only posts a new rate and resets, which they pick up themselves
+static FramePacer gRecordPacer;                      // camera thread
+static std::atomic<int> gRecordTargetFps{30};
+static std::atomic<bool> gRecordPacerReset{false};
+static std::atomic<bool> gRecordMetricsReset{false};
+static std::atomic<uint64_t> gRecordDropped{0};      // camera thread (pacing, busy worker) and worker (encoder)
+static std::mutex gRecordStatsMutex;
+static BranchMetrics gRecordStats;                   // worker's metrics after its last frame, guarded by gRecordStatsMutex
+static std::once_flag gRecordThreadOnce;
+static SpscQueue<OwnedYuvFrame, 2> gRecordQueue;      // lock-free handoff camera -> worker
+static std::mutex gRecordWakeMutex;                  // only for the worker's timed wait
+static std::condition_variable gRecordCv;
+static std::mutex gNativeRecorderMutex;
+static std::shared_ptr<NativeRecorder> gNativeRecorder;   // set while the native backend records
+
+// Registered filters, two families: bundled 3D LUTs and the legacy tone
+// curves. LUTs are analyzed the first time they are selected; if the LUT is
+// separable, the entry switches to the 1D fast path.
+struct FilterEntry {
+    ColorFilter filter;
+    bool analyzed = false;
+    LutAnalysis analysis;
+    std::unique_ptr<SeparableCurves> curves;
+    std::unique_ptr<ChannelCurves> channel;
+};
+static std::map<std::string, FilterEntry> gFilterMap;
+
+// The currently active filter (points into gFilterMap, or kNoFilter)
+static const ColorFilter kNoFilter;
+static std::atomic<const ColorFilter*> gCurrentFilter{&kNoFilter};
+
+// Filter graph bakes land in a small ring of LUT slots. Each frame-processing
+// thread publishes the filter it is using as a hazard pointer; the bake
+// worker only overwrites a slot that is neither current nor in use.
+enum FilterReader { kPreviewReader = 0, kRecordReader = 1, kFilterReaderCount = 2 };
+static std::atomic<const ColorFilter*> gFilterHazard[kFilterReaderCount];
+
+/** Pin the current filter for the duration of one frame; pair with ReleaseFilter(). */
+static inline ColorFilter AcquireFilter(FilterReader reader)
 {
-    for (int y = 0; y < height; ++y) {
-        for (int x = 0; x < width; ++x) {
-            dst[x * height + (height - 1 - y)] = src[y * width + x];
-        }
-    }
+    const ColorFilter* f;
+    do {
+        f = gCurrentFilter.load();
+        gFilterHazard[reader].store(f);
+    } while (f != gCurrentFilter.load());
+    return *f;
 }
 
-/**
- * Rotate an ARGB image by 180 degrees.
- */
-static void RotateARGB180(
-        const uint32_t* src,
-        uint32_t* dst,
-        int width,
-        int height)
+static inline void ReleaseFilter(FilterReader reader)
 {
-    const int total = width * height;
-    for (int i = 0; i < total; ++i) {
-        dst[total - 1 - i] = src[i];
-    }
+    gFilterHazard[reader].store(nullptr);
 }
 
-/**
- * Rotate an ARGB image by 270 degrees clockwise.
- */
-static void RotateARGB270(
-        const uint32_t* src,
-        uint32_t* dst,
-        int width,
-        int height)
+// Picture-in-picture: the other camera's frames are offered to one
+// compositor per consuming thread. Placement and the inset's own filter (a
+// registered filter, never freed) are set from the UI thread.
+static std::atomic<bool> gPipEnabled{false};
+static std::mutex gPipMutex;
+static PipPlacement gPipPlacement;                   // guarded by gPipMutex
+static std::atomic<const ColorFilter*> gPipFilter{&kNoFilter};
+static PipCompositor gPipPreview;                    // camera thread: preview and photo
+static PipCompositor gPipRecord;                     // record worker
+
+/** Copy of the current placement; false while picture-in-picture is off. */
+static bool CurrentPipPlacement(PipPlacement& out)
 {
-    // 270° CW == 90° CCW
-    for (int y = 0; y < height; ++y) {
-        for (int x = 0; x < width; ++x) {
-            dst[(width - 1 - x) * height + y] = src[y * width + x];
+    if (!gPipEnabled.load(std::memory_order_acquire)) return false;
+    std::lock_guard<std::mutex> lock(gPipMutex);
+    out = gPipPlacement;
+    return true;
+}
+
+// Watermark / timestamp overlays of the record branch, uploaded from Java
+// when their text changes and blended by the record worker.
+static OverlayCompositor gRecordOverlays;
+
+// --------------------------------------------------
+// Pipeline handles: a Pipeline* as a jlong, owned by the Java NativePipeline
+// --------------------------------------------------
+
+/** Presents a pipeline's frames into an ANativeWindow, which it holds a reference to. */
+class WindowSink : public FrameSink {
+public:
+    explicit WindowSink(ANativeWindow* window) : window_(window) {}
+    ~WindowSink() override { ANativeWindow_release(window_); }
+
+    void present(const uint32_t* pixels, int width, int height) override
+    {
+        ANativeWindow_setBuffersGeometry(window_, width, height, WINDOW_FORMAT_RGBA_8888);
+        ANativeWindow_Buffer buffer;
+        if (ANativeWindow_lock(window_, &buffer, nullptr) != 0) {
+            LOGD("Failed to lock window");
+            return;
         }
+        uint32_t* dst = static_cast<uint32_t*>(buffer.bits);
+        for (int j = 0; j < height; ++j) {
+            const uint32_t* srow = pixels + static_cast<size_t>(j) * width;
+            std::copy(srow, srow + width, dst + static_cast<size_t>(j) * buffer.stride);
+        }
+        ANativeWindow_unlockAndPost(window_);
     }
-}
 
-static void ARGBtoNV21(const uint32_t* argb, uint8_t* nv21, int width, int height)
-{
-    uint8_t* yPlane = nv21;
-    uint8_t* vuPlane = nv21 + (size_t)width * height;
-
-    const int uvStride = width;
-    const int uvH = height / 2;
-    const int uvW = width;
-
-    for (int j = 0; j < height; ++j) {
-        const int yRowOff = j * width;
-
-        for (int i = 0; i < width; ++i) {
-            const uint32_t p = argb[yRowOff + i];
-            const int r = (p >> 16) & 0xFF;
-            const int g = (p >> 8)  & 0xFF;
-            const int b =  p        & 0xFF;
-
-            int Y = (( 66*r + 129*g +  25*b + 128) >> 8) + 16;
-            int U = ((-38*r -  74*g + 112*b + 128) >> 8) + 128;
-            int V = ((112*r -  94*g -  18*b + 128) >> 8) + 128;
-
-            Y = std::clamp(Y, 0, 255);
-            U = std::clamp(U, 0, 255);
-            V = std::clamp(V, 0, 255);
-
-            yPlane[yRowOff + i] = (uint8_t)Y;
-
-            if ((j & 1) == 0 && (i & 1) == 0) {
-                const int uvRow = j / 2;
-                const int uvCol = i;
-                const size_t uvIndex = (size_t)uvRow * uvStride + uvCol;
-                if (uvRow < uvH && (uvCol + 1) < uvW) {
-                    vuPlane[uvIndex + 0] = (uint8_t)V;
-                    vuPlane[uvIndex + 1] = (uint8_t)U;
-                }
-            }
+    void clear() override
+    {
+        ANativeWindow_Buffer buffer;
+        if (ANativeWindow_lock(window_, &buffer, nullptr) != 0) return;
+        uint32_t* dst = static_cast<uint32_t*>(buffer.bits);
+        for (int j = 0; j < buffer.height; ++j) {
+            std::fill_n(dst + static_cast<size_t>(j) * buffer.stride, buffer.width, 0u);
         }
+        ANativeWindow_unlockAndPost(window_);
     }
+
+private:
+    ANativeWindow* window_;
+};
+
+static inline Pipeline* PipelineOf(jlong handle)
+{
+    return reinterpret_cast<Pipeline*>(handle);
 }
 
 // --------------------------------------------------
-// JNI: Surface / Java context / Rotation
+// JNI: Pipelines / Java context
 // --------------------------------------------------
 
+extern "C"
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM* vm, void* /*reserved*/)
+{
+    gJvm = vm;
+    return JNI_VERSION_1_6;
+}
+
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeCreate(JNIEnv* /*env*/, jclass /*clazz*/) {
+    return reinterpret_cast<jlong>(new Pipeline());
+}
+
+/** No thread may be inside a frame of this pipeline any more. */
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_nm_cameralivefx_MainActivity_nativeSetSurface(
-        JNIEnv* env, jobject /*thiz*/, jobject surface)
+Java_com_nm_cameralivefx_NativePipeline_nativeDestroy(JNIEnv* /*env*/, jclass /*clazz*/, jlong handle) {
+    delete PipelineOf(handle);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeSetSurface(
+        JNIEnv* env, jclass /*clazz*/, jlong handle, jobject surface)
 {
-    if (gNativeWindow) {
-        ANativeWindow_release(gNativeWindow);
-        gNativeWindow = nullptr;
-    }
-    gNativeWindow = ANativeWindow_fromSurface(env, surface);
-    LOGD("Surface set (gNativeWindow=%p)", gNativeWindow);
+    // null unbinds: frames keep flowing to the record and photo branches
+    ANativeWindow* window = surface ? ANativeWindow_fromSurface(env, surface) : nullptr;
+    PipelineOf(handle)->setSink(window ? std::make_shared<WindowSink>(window) : nullptr);
+    LOGD("Surface set (window=%p)", window);
 }
 
 extern "C"
@@ -161,10 +238,14 @@ JNIEXPORT void JNICALL
 Java_com_nm_cameralivefx_MainActivity_nativeSetJavaContext(
         JNIEnv* env, jclass /*clazz*/, jobject activity)
 {
+    std::unique_lock<std::shared_mutex> lock(gJavaContextMutex);
     if (gJavaActivity) {
         env->DeleteGlobalRef(gJavaActivity);
         gJavaActivity = nullptr;
     }
+    gOnProcessedFrameMethod = gOnProcessedPhotoMethod = gObtainThumbnailMethod = gOnThumbnailMethod = nullptr;
+    gObtainFilterAtlasMethod = gOnFilterAtlasMethod = nullptr;
+    if (!activity) return;
     gJavaActivity = env->NewGlobalRef(activity);
 
     jclass cls = env->GetObjectClass(gJavaActivity);
@@ -175,6 +256,14 @@ Java_com_nm_cameralivefx_MainActivity_nativeSetJavaContext(
     // Photo callback (BGRA data)
     gOnProcessedPhotoMethod = env->GetMethodID(cls, "onProcessedPhotoFromNative", "([B)V");
 
+    // Thumbnail side output
+    gObtainThumbnailMethod = env->GetMethodID(cls, "obtainThumbnailBitmap", "(II)Landroid/graphics/Bitmap;");
+    gOnThumbnailMethod = env->GetMethodID(cls, "onThumbnailFromNative", "(Landroid/graphics/Bitmap;Z)V");
+
+    // Filter strip previews
+    gObtainFilterAtlasMethod = env->GetMethodID(cls, "obtainFilterAtlasBitmap", "(II)Landroid/graphics/Bitmap;");
+    gOnFilterAtlasMethod = env->GetMethodID(cls, "onFilterAtlasFromNative", "(Landroid/graphics/Bitmap;III)V");
+
     LOGD("Java context set (Video callback cached=%s, Photo callback cached=%s)",
          gOnProcessedFrameMethod ? "yes" : "no",
          gOnProcessedPhotoMethod ? "yes" : "no");
@@ -182,141 +271,1105 @@ Java_com_nm_cameralivefx_MainActivity_nativeSetJavaContext(
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_nm_cameralivefx_MainActivity_nativeSetRotationDegrees(JNIEnv* env, jclass clazz, jint degrees) {
-    gPreviewDegrees = degrees;
-    LOGD("Preview rotation degrees set to %d", gPreviewDegrees);
+Java_com_nm_cameralivefx_NativePipeline_nativeSetRotationDegrees(JNIEnv* env, jclass clazz, jlong handle, jint degrees) {
+    PipelineOf(handle)->setRotation(degrees);
+    LOGD("Preview rotation degrees set to %d", degrees);
 }
 
 // --------------------------------------------------
-// JNI: Filter management (unchanged)
+// Thumbnail side output: downscaled from frames the pipeline already has
 // --------------------------------------------------
 
+static constexpr int kThumbnailMaxSide = 160;
+// Orientation of the camera's side outputs (thumbnails, filter strip), as its preview shows it
+static std::atomic<int> gThumbnailDegrees{0};
+static std::atomic<bool> gThumbnailMirror{false};           // front camera: match the saved photo
+static std::atomic<bool> gThumbnailFromNextRecordFrame{false};
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetThumbnailOrientation(JNIEnv* env, jclass clazz,
+                                                                      jint degrees, jboolean mirror) {
+    gThumbnailDegrees.store(degrees);
+    gThumbnailMirror.store(mirror);
+}
+
+/** Downscale a full BGRA frame straight into a pooled Java Bitmap and hand it to the UI. */
+static void SendThumbnail(JNIEnv* env, const uint32_t* bgra, int width, int height, bool video)
+{
+    std::shared_lock<std::shared_mutex> javaLock(gJavaContextMutex);
+    if (!gJavaActivity || !gObtainThumbnailMethod || !gOnThumbnailMethod) return;
+    const int degrees = gThumbnailDegrees.load();
+    int tw, th;
+    ThumbnailSize(width, height, degrees, kThumbnailMaxSide, tw, th);
+
+    jobject bitmap = env->CallObjectMethod(gJavaActivity, gObtainThumbnailMethod, tw, th);
+    if (!bitmap) return;
+    AndroidBitmapInfo info;
+    void* pixels = nullptr;
+    if (AndroidBitmap_getInfo(env, bitmap, &info) == ANDROID_BITMAP_RESULT_SUCCESS &&
+        info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 &&
+        static_cast<int>(info.width) == tw && static_cast<int>(info.height) == th &&
+        AndroidBitmap_lockPixels(env, bitmap, &pixels) == ANDROID_BITMAP_RESULT_SUCCESS) {
+        MakeThumbnail(bgra, width, height, degrees, gThumbnailMirror.load(),
+                      static_cast<uint32_t*>(pixels), tw, th, static_cast<int>(info.stride / 4));
+        AndroidBitmap_unlockPixels(env, bitmap);
+        env->CallVoidMethod(gJavaActivity, gOnThumbnailMethod, bitmap, static_cast<jboolean>(video));
+    }
+    env->DeleteLocalRef(bitmap);
+}
+
+// --------------------------------------------------
+// JNI: Filter management
+// --------------------------------------------------
+
+// Registration is deferred to the first filter lookup so it stays off the
+// cold-start path; until then the pipeline runs with kNoFilter.
+static std::once_flag gFiltersOnce;
+
+static void EnsureFiltersInitialized()
+{
+    std::call_once(gFiltersOnce, [] {
+        const auto t0 = std::chrono::steady_clock::now();
+        gFilterMap["None"] = FilterEntry();
+        for (const BundledLut& lut : kBundledLuts) {
+            gFilterMap[lut.name].filter = ColorFilter(lut.lut);
+        }
+        for (int i = 0; i < static_cast<int>(sizeof(kCurveFilterNames) / sizeof(kCurveFilterNames[0])); ++i) {
+            FilterEntry& entry = gFilterMap[kCurveFilterNames[i]];
+            entry.channel.reset(new ChannelCurves());
+            BuildChannelCurves(i, *entry.channel);
+            entry.filter = ColorFilter::FromChannelCurves(entry.channel.get());
+        }
+        LOGD("Filters registered in %.2f ms", std::chrono::duration<double, std::milli>(
+                std::chrono::steady_clock::now() - t0).count());
+    });
+}
+
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_nm_cameralivefx_MainActivity_nativeInitializeFilters(JNIEnv* env, jclass clazz) {
-    LOGD("Initializing filters map...");
-    gFilterMap["None"] = nullptr;
-    gFilterMap["Amy"] = &Amy;
-    gFilterMap["Claire"] = &Claire;
-    gFilterMap["FBoost10"] = &FBoost10;
-    gFilterMap["FTone3"] = &FTone3;
-    gFilterMap["PFilm2"] = &PFilm2;
-    gFilterMap["Blue Architecture"] = &BlueArchitecture;
-    gFilterMap["HardBoost"] = &HardBoost;
-    gFilterMap["LongBeachMorning"] = &LongBeachMorning;
-    gFilterMap["LushGreen"] = &LushGreen;
-    gFilterMap["MagicHour"] = &MagicHour;
-    gFilterMap["NaturalBoost"] = &NaturalBoost;
-    gFilterMap["OrangeAndBlue"] = &OrangeAndBlue;
-    gFilterMap["SoftBlackAndWhite"] = &SoftBlackAndWhite;
-    gFilterMap["Waves"] = &Waves;
-    gFilterMap["BlueHour"] = &BlueHour;
-    gFilterMap["ColdChrome"] = &ColdChrome;
-    gFilterMap["CrispAutumn"] = &CrispAutumn;
-    gFilterMap["DarkAndSomber"] = &DarkAndSomber;
+    EnsureFiltersInitialized();
+}
+
+/** Names of the legacy tone-curve family, in registry order. */
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetCurveFilterNames(JNIEnv* env, jclass clazz) {
+    const jsize count = static_cast<jsize>(sizeof(kCurveFilterNames) / sizeof(kCurveFilterNames[0]));
+    jobjectArray names = env->NewObjectArray(count, env->FindClass("java/lang/String"), nullptr);
+    if (!names) return nullptr;
+    for (jsize i = 0; i < count; ++i) {
+        jstring name = env->NewStringUTF(kCurveFilterNames[i]);
+        env->SetObjectArrayElement(names, i, name);
+        env->DeleteLocalRef(name);
+    }
+    return names;
+}
+
+// Pipelines may pick filters from any thread; the first pick of a LUT analyzes it
+static std::mutex gPrepareFilterMutex;
+
+/** Run the separability analysis once per LUT filter and switch it to the fast path if it qualifies. */
+static void PrepareFilter(const char* name, FilterEntry& entry)
+{
+    std::lock_guard<std::mutex> lock(gPrepareFilterMutex);
+    if (entry.analyzed || !entry.filter.lut) return;
+    entry.analyzed = true;
+
+    const auto t0 = std::chrono::steady_clock::now();
+    entry.curves.reset(new SeparableCurves());
+    entry.analysis = AnalyzeLut(entry.filter.lut, *entry.curves, kSeparableToleranceDeltaE);
+    const double ms = std::chrono::duration<double, std::milli>(
+            std::chrono::steady_clock::now() - t0).count();
+
+    if (entry.analysis.separable) {
+        entry.filter.curves = entry.curves.get();
+    } else {
+        entry.curves.reset();
+    }
+    LOGD("Filter %s: %s path (%s fit, dE mean %.2f p99 %.2f max %.2f, analyzed in %.1f ms)",
+         name, entry.analysis.separable ? "separable" : "3D LUT",
+         entry.analysis.matrixFirst ? "matrix->curves" : "curves->matrix",
+         entry.analysis.meanDeltaE, entry.analysis.p99DeltaE, entry.analysis.maxDeltaE, ms);
 }
 
 extern "C"
 JNIEXPORT void JNICALL
 Java_com_nm_cameralivefx_MainActivity_nativeSetCurrentFilter(JNIEnv* env, jclass clazz, jstring filterName) {
+    EnsureFiltersInitialized();
     const char *name = env->GetStringUTFChars(filterName, nullptr);
     auto it = gFilterMap.find(name);
     if (it != gFilterMap.end()) {
-        gCurrentLUT = it->second;
+        PrepareFilter(name, it->second);
+        gCurrentFilter.store(&it->second.filter, std::memory_order_release);
         LOGD("Switched to filter: %s", name);
     } else {
         LOGD("Filter not found: %s", name);
-        gCurrentLUT = nullptr;
+        gCurrentFilter.store(&kNoFilter, std::memory_order_release);
+    }
+    env->ReleaseStringUTFChars(filterName, name);
+}
+
+/** A pipeline's own filter, by registered name; unknown names mean no filter. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeSetFilter(JNIEnv* env, jclass clazz, jlong handle, jstring filterName) {
+    EnsureFiltersInitialized();
+    const char* name = env->GetStringUTFChars(filterName, nullptr);
+    auto it = gFilterMap.find(name);
+    if (it != gFilterMap.end()) {
+        PrepareFilter(name, it->second);
+        std::lock_guard<std::mutex> lock(gPrepareFilterMutex);
+        PipelineOf(handle)->setFilter(it->second.filter);
+    } else {
+        PipelineOf(handle)->setFilter(kNoFilter);
     }
     env->ReleaseStringUTFChars(filterName, name);
 }
 
+/** One line per analyzed filter: name, chosen path and its Delta-E against the 3D LUT. */
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetFilterAnalysisReport(JNIEnv* env, jclass clazz) {
+    EnsureFiltersInitialized();
+    std::string report;
+    char line[160];
+    for (const auto& kv : gFilterMap) {
+        const FilterEntry& e = kv.second;
+        if (!e.analyzed) continue;
+        snprintf(line, sizeof(line), "%s: %s (dE mean %.2f, p99 %.2f)\n", kv.first.c_str(),
+                 e.analysis.separable ? "separable" : "3D LUT",
+                 e.analysis.meanDeltaE, e.analysis.p99DeltaE);
+        report += line;
+    }
+    return env->NewStringUTF(report.c_str());
+}
+
+// --------------------------------------------------
+// Filter strip previews: every registered filter on one small frame
+// --------------------------------------------------
+
+// The camera thread refreshes the atlas every kFilterAtlasIntervalUs while
+// the UI shows the strip, drawing only the tiles of the chips on screen. An
+// update that runs over kFilterAtlasBudgetMs pushes the next one back in
+// proportion, so the strip never takes more than its share of the thread.
+static constexpr int kFilterAtlasTileSide = 96;
+static constexpr int64_t kFilterAtlasIntervalUs = 250000;
+static constexpr double kFilterAtlasBudgetMs = 1.0;
+static std::once_flag gFilterAtlasOnce;
+static std::vector<std::string> gFilterAtlasNames;      // tile order; fixed once built
+static std::atomic<bool> gFilterAtlasEnabled{false};
+static std::mutex gFilterAtlasMutex;
+static std::vector<uint8_t> gFilterAtlasWanted;         // guarded by gFilterAtlasMutex
+static FilterAtlas gFilterAtlas;                        // camera thread from here on
+static std::vector<uint8_t> gFilterAtlasDrawing;
+static int64_t gFilterAtlasNextUs = 0;
+static int gFilterAtlasFullPasses = 0;                  // after a size change: both pooled Bitmaps are new
+static BranchMetrics gFilterAtlasMetrics;
+
+/**
+ * The atlas lists the filters as the registry has them: None, the LUTs,
+ * the tone curves. LUTs are taken as plain 3D LUTs, never through the
+ * separable fit, because that is swapped in later from the UI thread.
+ */
+static void EnsureFilterAtlasInitialized()
+{
+    std::call_once(gFilterAtlasOnce, [] {
+        EnsureFiltersInitialized();
+        std::vector<ColorFilter> filters;
+        gFilterAtlasNames.push_back("None");
+        filters.push_back(ColorFilter());
+        for (const BundledLut& lut : kBundledLuts) {
+            gFilterAtlasNames.push_back(lut.name);
+            filters.push_back(ColorFilter(lut.lut));
+        }
+        for (const char* name : kCurveFilterNames) {
+            gFilterAtlasNames.push_back(name);
+            filters.push_back(gFilterMap.at(name).filter);
+        }
+        gFilterAtlas.setFilters(std::move(filters));
+    });
+}
+
+/** Refresh the atlas from an 8-bit frame if one is due, straight into a pooled Java Bitmap. */
+static void UpdateFilterAtlas(JNIEnv* env, const YuvFrame& frame, int64_t nowUs)
+{
+    if (!gFilterAtlasEnabled.load(std::memory_order_acquire) || nowUs < gFilterAtlasNextUs) return;
+    std::shared_lock<std::shared_mutex> javaLock(gJavaContextMutex);
+    if (!gJavaActivity || !gObtainFilterAtlasMethod || !gOnFilterAtlasMethod) return;
+    EnsureFilterAtlasInitialized();
+    {
+        std::lock_guard<std::mutex> lock(gFilterAtlasMutex);
+        gFilterAtlasDrawing = gFilterAtlasWanted;
+    }
+
+    const int oldW = gFilterAtlas.atlasWidth(), oldH = gFilterAtlas.atlasHeight();
+    const int degrees = gThumbnailDegrees.load();
+    gFilterAtlas.layout(frame.width, frame.height, degrees, kFilterAtlasTileSide);
+    if (gFilterAtlas.atlasWidth() != oldW || gFilterAtlas.atlasHeight() != oldH) gFilterAtlasFullPasses = 2;
+
+    jobject bitmap = env->CallObjectMethod(gJavaActivity, gObtainFilterAtlasMethod,
+                                           gFilterAtlas.atlasWidth(), gFilterAtlas.atlasHeight());
+    if (!bitmap) return;
+    AndroidBitmapInfo info;
+    void* pixels = nullptr;
+    double ms = 0.0;
+    int drawn = 0;
+    if (AndroidBitmap_getInfo(env, bitmap, &info) == ANDROID_BITMAP_RESULT_SUCCESS &&
+        info.format == ANDROID_BITMAP_FORMAT_RGBA_8888 &&
+        static_cast<int>(info.width) == gFilterAtlas.atlasWidth() &&
+        static_cast<int>(info.height) == gFilterAtlas.atlasHeight() &&
+        AndroidBitmap_lockPixels(env, bitmap, &pixels) == ANDROID_BITMAP_RESULT_SUCCESS) {
+        const auto t0 = std::chrono::steady_clock::now();
+        gFilterAtlas.sample(frame, degrees, gThumbnailMirror.load());
+        drawn = gFilterAtlas.render(static_cast<uint32_t*>(pixels), static_cast<int>(info.stride / 4),
+                                    gFilterAtlasFullPasses > 0 ? nullptr : &gFilterAtlasDrawing);
+        ms = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+        AndroidBitmap_unlockPixels(env, bitmap);
+        if (gFilterAtlasFullPasses > 0) gFilterAtlasFullPasses--;
+        env->CallVoidMethod(gJavaActivity, gOnFilterAtlasMethod, bitmap, gFilterAtlas.tileWidth(),
+                            gFilterAtlas.tileHeight(), FilterAtlas::kColumns);
+
+        gFilterAtlasMetrics.record(ms);
+        if (gFilterAtlasMetrics.frames % 40 == 0) {
+            LOGD("Filter atlas: %d of %d tiles of %dx%d, %.3f ms/update avg, %.3f max (budget %.1f)",
+                 drawn, gFilterAtlas.tileCount(), gFilterAtlas.tileWidth(), gFilterAtlas.tileHeight(),
+                 gFilterAtlasMetrics.avgMs(), gFilterAtlasMetrics.maxMs, kFilterAtlasBudgetMs);
+        }
+    }
+    env->DeleteLocalRef(bitmap);
+    gFilterAtlasNextUs = nowUs + static_cast<int64_t>(kFilterAtlasIntervalUs * std::max(1.0, ms / kFilterAtlasBudgetMs));
+}
+
+/** Filter names in atlas tile order. */
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetFilterAtlasNames(JNIEnv* env, jclass /*clazz*/) {
+    EnsureFilterAtlasInitialized();
+    jobjectArray names = env->NewObjectArray(static_cast<jsize>(gFilterAtlasNames.size()),
+                                             env->FindClass("java/lang/String"), nullptr);
+    if (!names) return nullptr;
+    for (size_t i = 0; i < gFilterAtlasNames.size(); ++i) {
+        jstring name = env->NewStringUTF(gFilterAtlasNames[i].c_str());
+        env->SetObjectArrayElement(names, static_cast<jsize>(i), name);
+        env->DeleteLocalRef(name);
+    }
+    return names;
+}
+
+/** Tiles to keep live (the chips on screen); null or empty turns the previews off. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetFilterAtlasTiles(JNIEnv* env, jclass /*clazz*/, jintArray tiles) {
+    EnsureFilterAtlasInitialized();
+    const jsize count = tiles ? env->GetArrayLength(tiles) : 0;
+    {
+        std::lock_guard<std::mutex> lock(gFilterAtlasMutex);
+        gFilterAtlasWanted.assign(gFilterAtlasNames.size(), 0);
+        std::vector<jint> ids(count);
+        if (count > 0) env->GetIntArrayRegion(tiles, 0, count, ids.data());
+        for (jint t : ids) {
+            if (t >= 0 && t < static_cast<jint>(gFilterAtlasWanted.size())) gFilterAtlasWanted[t] = 1;
+        }
+    }
+    gFilterAtlasEnabled.store(count > 0, std::memory_order_release);
+}
+
+// --------------------------------------------------
+// Filter graph: chain baked into one LUT on a worker thread
+// --------------------------------------------------
+
+struct GraphSlot {
+    std::unique_ptr<BakedLut> lut;
+    ColorFilter filter;
+};
+static GraphSlot gGraphSlots[3];
+static std::once_flag gGraphThreadOnce;
+static std::mutex gGraphMutex;
+static std::condition_variable gGraphCv;
+static std::vector<GraphOp> gGraphPending;           // latest committed chain; older ones are coalesced away
+static bool gGraphPendingSet = false;
+static uint64_t gGraphGeneration = 0;                // bumped on every commit; stale bakes are not published
+static BranchMetrics gBakeMetrics;
+
+// --------------------------------------------------
+// Thread scheduling policy (see ThreadPolicy.hpp)
+// --------------------------------------------------
+
+static ThreadPolicyRegistry& PipelineThreads()
+{
+    static ThreadPolicyRegistry registry(ReadCpuTopology());
+    return registry;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_ThreadPolicy_nativeRegisterCurrentThread(
+        JNIEnv* env, jclass clazz, jint role, jstring jname) {
+    const char* name = jname ? env->GetStringUTFChars(jname, nullptr) : nullptr;
+    PipelineThreads().registerCurrentThread(role, name);
+    if (name) env->ReleaseStringUTFChars(jname, name);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_ThreadPolicy_nativeUnregisterCurrentThread(JNIEnv* env, jclass clazz) {
+    PipelineThreads().unregisterCurrentThread();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_ThreadPolicy_nativeSetPolicy(JNIEnv* env, jclass clazz, jint policy) {
+    PipelineThreads().setPolicy(policy);
+    LOGD("Thread policy %d (performance cores 0x%llx, efficiency cores 0x%llx)", policy,
+         static_cast<unsigned long long>(PipelineThreads().topology().performance),
+         static_cast<unsigned long long>(PipelineThreads().topology().efficiency));
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_nm_cameralivefx_ThreadPolicy_nativeGetPolicy(JNIEnv* env, jclass clazz) {
+    return PipelineThreads().policy();
+}
+
+/**
+ * Per registered thread, STAT_FIELDS longs: role, tid, cpu ns, migrations,
+ * samples, samples on performance cores, cpu changes, apply errors.
+ */
+extern "C"
+JNIEXPORT jlongArray JNICALL
+Java_com_nm_cameralivefx_ThreadPolicy_nativeGetStats(JNIEnv* env, jclass clazz, jboolean resetSamples) {
+    const std::vector<ThreadStats> stats = PipelineThreads().stats();
+    if (resetSamples) PipelineThreads().resetSamples();
+    std::vector<jlong> out;
+    for (const ThreadStats& t : stats) {
+        const jlong fields[] = {t.role, t.tid, t.cpuNs, t.migrations, static_cast<jlong>(t.samples),
+                                static_cast<jlong>(t.samplesOnPerformance),
+                                static_cast<jlong>(t.cpuChanges), t.applyErrors};
+        out.insert(out.end(), std::begin(fields), std::end(fields));
+    }
+    jlongArray arr = env->NewLongArray(static_cast<jsize>(out.size()));
+    if (arr) env->SetLongArrayRegion(arr, 0, static_cast<jsize>(out.size()), out.data());
+    return arr;
+}
+
+/** A slot the camera and record threads cannot be reading from, or nullptr if all are busy. */
+static GraphSlot* FindFreeGraphSlot()
+{
+    const ColorFilter* current = gCurrentFilter.load();
+    for (GraphSlot& slot : gGraphSlots) {
+        const ColorFilter* f = &slot.filter;
+        if (f == current) continue;
+        bool pinned = false;
+        for (const auto& hazard : gFilterHazard) pinned |= hazard.load() == f;
+        if (!pinned) return &slot;
+    }
+    return nullptr;
+}
+
+static void GraphBakeLoop()
+{
+    PipelineThreads().registerCurrentThread(kRoleGraphBake, "GraphBake");
+    for (;;) {
+        std::vector<GraphOp> ops;
+        uint64_t generation;
+        {
+            std::unique_lock<std::mutex> lock(gGraphMutex);
+            gGraphCv.wait(lock, [] { return gGraphPendingSet; });
+            ops.swap(gGraphPending);
+            gGraphPendingSet = false;
+            generation = gGraphGeneration;
+        }
+
+        GraphSlot* slot;
+        while (!(slot = FindFreeGraphSlot())) {
+            std::this_thread::sleep_for(std::chrono::milliseconds(1));
+        }
+        if (!slot->lut) slot->lut.reset(new BakedLut());
+
+        PipelineThreads().sample();
+        const auto t0 = std::chrono::steady_clock::now();
+        BakeFilterGraph(ops, *slot->lut);
+        slot->filter = ColorFilter(&slot->lut->data);
+        {
+            std::lock_guard<std::mutex> lock(gGraphMutex);
+            if (generation != gGraphGeneration) continue;
+            gCurrentFilter.store(&slot->filter, std::memory_order_release);
+        }
+        const double ms = std::chrono::duration<double, std::milli>(
+                std::chrono::steady_clock::now() - t0).count();
+        gBakeMetrics.record(ms);
+        LOGD("Filter graph baked: %zu ops in %.2f ms (avg %.2f)", ops.size(), ms, gBakeMetrics.avgMs());
+    }
+}
+
+/**
+ * Commit a chain. types[i] is a GraphOp::Type; names[i] is the filter name
+ * for Filter nodes, values[i] the parameter for adjustments. Neutral nodes
+ * are dropped; a chain that reduces to one registered filter is bound
+ * directly so it keeps its fast path, anything longer is baked off-thread.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_FilterGraph_nativeCommit(
+        JNIEnv* env, jclass clazz, jintArray types, jobjectArray names, jfloatArray values) {
+    EnsureFiltersInitialized();
+    const jsize count = env->GetArrayLength(types);
+    std::vector<jint> t(count);
+    std::vector<jfloat> v(count);
+    env->GetIntArrayRegion(types, 0, count, t.data());
+    env->GetFloatArrayRegion(values, 0, count, v.data());
+
+    std::vector<GraphOp> ops;
+    std::vector<const ColorFilter*> registered;     // per op: the registry entry a Filter op copies
+    for (jsize i = 0; i < count; ++i) {
+        GraphOp op;
+        const ColorFilter* entry = nullptr;
+        op.type = static_cast<GraphOp::Type>(t[i]);
+        op.value = v[i];
+        if (op.type == GraphOp::Filter) {
+            jstring jname = static_cast<jstring>(env->GetObjectArrayElement(names, i));
+            if (!jname) continue;
+            const char* name = env->GetStringUTFChars(jname, nullptr);
+            auto it = gFilterMap.find(name);
+            if (it != gFilterMap.end()) {
+                PrepareFilter(name, it->second);
+                op.filter = it->second.filter;
+                entry = &it->second.filter;
+            } else {
+                LOGD("Filter graph: unknown filter %s", name);
+            }
+            env->ReleaseStringUTFChars(jname, name);
+            env->DeleteLocalRef(jname);
+        }
+        ops.push_back(op);
+        registered.push_back(entry);
+    }
+    // A lone filter is used in place, so take the entry of the op that survives ActiveOps()
+    const ColorFilter* single = &kNoFilter;
+    for (size_t i = 0; i < ops.size(); ++i) {
+        if (!ops[i].isNeutral()) {
+            if (registered[i]) single = registered[i];
+            break;
+        }
+    }
+    ops = ActiveOps(ops);
+
+    if (ops.size() <= 1 && (ops.empty() || ops[0].type == GraphOp::Filter)) {
+        // bumping the generation keeps a bake still in flight from overriding this choice
+        std::lock_guard<std::mutex> lock(gGraphMutex);
+        gGraphGeneration++;
+        gGraphPending.clear();
+        gGraphPendingSet = false;
+        gCurrentFilter.store(ops.empty() ? &kNoFilter : single, std::memory_order_release);
+        return;
+    }
+
+    std::call_once(gGraphThreadOnce, [] { std::thread(GraphBakeLoop).detach(); });
+    {
+        std::lock_guard<std::mutex> lock(gGraphMutex);
+        gGraphGeneration++;
+        gGraphPending.swap(ops);
+        gGraphPendingSet = true;
+    }
+    gGraphCv.notify_one();
+}
+
+/** Returns {bakes, avg bake ms, max bake ms}. */
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_com_nm_cameralivefx_FilterGraph_nativeGetBakeStats(JNIEnv* env, jclass clazz) {
+    float out[3] = {
+            static_cast<float>(gBakeMetrics.frames),
+            static_cast<float>(gBakeMetrics.avgMs()),
+            static_cast<float>(gBakeMetrics.maxMs)
+    };
+    jfloatArray arr = env->NewFloatArray(3);
+    if (arr) env->SetFloatArrayRegion(arr, 0, 3, out);
+    return arr;
+}
+
 // --------------------------------------------------
 // JNI: Photo Capture Flag
 // --------------------------------------------------
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_nm_cameralivefx_MainActivity_nativeCapturePhoto(JNIEnv* env, jobject thiz) {
-    gCaptureNextFrame = true;
+Java_com_nm_cameralivefx_NativePipeline_nativeCapturePhoto(JNIEnv* env, jclass clazz, jlong handle) {
+    PipelineOf(handle)->requestCapture();
     LOGD("Photo capture requested. Will process next frame.");
 }
 
 
 // --------------------------------------------------
-// JNI: frame processing (with photo capture logic)
+// JNI: Static-scene (dirty tile) mode
 // --------------------------------------------------
+
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_nm_cameralivefx_CameraHandler_processFrameYUV(
-        JNIEnv* env, jobject /*thiz*/,
+Java_com_nm_cameralivefx_NativePipeline_nativeSetStaticSceneMode(
+        JNIEnv* env, jclass clazz, jlong handle, jboolean enabled, jint threshold) {
+    PipelineOf(handle)->setStaticScene(enabled, threshold);
+    LOGD("Static scene mode %s (threshold=%d)", enabled ? "on" : "off", threshold);
+}
+
+/**
+ * Returns {fraction of tiles skipped, avg convert ms/frame, estimated ms/frame saved}.
+ * The saving is extrapolated from the per-tile cost of the tiles that were processed.
+ */
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeGetStaticSceneStats(JNIEnv* env, jclass clazz, jlong handle) {
+    float out[3] = {0.f, 0.f, 0.f};
+    const StaticSceneStats s = PipelineOf(handle)->stats().staticScene;
+    if (s.frames > 0 && s.tilesTotal > 0) {
+        const uint64_t processed = s.tilesTotal - s.tilesSkipped;
+        const double msPerTile = processed > 0 ? s.convertMs / processed : 0.0;
+        out[0] = static_cast<float>(static_cast<double>(s.tilesSkipped) / s.tilesTotal);
+        out[1] = static_cast<float>(s.convertMs / s.frames);
+        out[2] = static_cast<float>(msPerTile * s.tilesSkipped / s.frames);
+    }
+    jfloatArray arr = env->NewFloatArray(3);
+    if (arr) env->SetFloatArrayRegion(arr, 0, 3, out);
+    return arr;
+}
+
+// --------------------------------------------------
+// Record branch: full resolution at encoder rate on its own thread
+// --------------------------------------------------
+
+static void SendEncoderFrame(JNIEnv* env, const std::vector<uint8_t>& yuv, int64_t timestampUs)
+{
+    std::shared_lock<std::shared_mutex> javaLock(gJavaContextMutex);
+    if (!gJavaActivity || !gOnProcessedFrameMethod) return;
+    jbyteArray yuvArray = env->NewByteArray(static_cast<jsize>(yuv.size()));
+    if (yuvArray) {
+        env->SetByteArrayRegion(yuvArray, 0, static_cast<jsize>(yuv.size()),
+                                reinterpret_cast<const jbyte*>(yuv.data()));
+        env->CallVoidMethod(gJavaActivity, gOnProcessedFrameMethod, yuvArray, (jlong)timestampUs);
+        env->DeleteLocalRef(yuvArray);
+    }
+}
+
+static std::shared_ptr<NativeRecorder> CurrentNativeRecorder()
+{
+    std::lock_guard<std::mutex> lock(gNativeRecorderMutex);
+    return gNativeRecorder;
+}
+
+static void RecordWorkerLoop()
+{
+    JNIEnv* env = nullptr;
+    if (!gJvm || gJvm->AttachCurrentThread(&env, nullptr) != JNI_OK) {
+        LOGD("Record worker failed to attach to JVM");
+        return;
+    }
+    PipelineThreads().registerCurrentThread(kRoleRecord, "RecordWorker");
+
+    std::vector<uint32_t> bgra;
+    std::vector<uint8_t> nv12;
+    std::vector<Rgb16> rgb16;
+    std::vector<uint8_t> p010;
+    BranchMetrics metrics;
+
+    for (;;) {
+        OwnedYuvFrame* work = gRecordQueue.beginRead();
+        if (!work) {
+            // The producer never locks; the timeout covers a notify that slips in before the wait
+            std::unique_lock<std::mutex> lock(gRecordWakeMutex);
+            gRecordCv.wait_for(lock, std::chrono::milliseconds(10));
+            continue;
+        }
+        if (!gRecordActive.load(std::memory_order_acquire)) {
+            gRecordQueue.commitRead();      // left over from the last recording
+            continue;
+        }
+
+        if (gRecordMetricsReset.exchange(false, std::memory_order_acq_rel)) metrics = BranchMetrics();
+        PipelineThreads().sample();
+        const auto t0 = std::chrono::steady_clock::now();
+        const YuvFrame& f = work->frame;
+        const int64_t timestampUs = work->timestampUs;       // capture clock, for the PiP hold
+        const int64_t presentationUs = work->presentationUs;
+        const size_t pixels = static_cast<size_t>(f.width) * f.height;
+        bgra.resize(pixels);
+
+        double jniMs = 0.0;
+        if (f.sampleBytes == 2) {
+            // 10-bit: filter in 16 bits and pack P010 for the Java encoder (HEVC Main10);
+            // the native backend is 8-bit only
+            rgb16.resize(pixels);
+            ConvertP010ToRgb16(f, AcquireFilter(kRecordReader), rgb16.data());
+            ReleaseFilter(kRecordReader);
+            gRecordQueue.commitRead();
+            gRecordOverlays.blend(rgb16.data(), f.width, f.height);
+            p010.resize(pixels * 3);
+            Rgb16ToP010(rgb16.data(), f.width, f.height, p010.data(), f.width * 2, f.height);
+            const auto j0 = std::chrono::steady_clock::now();
+            SendEncoderFrame(env, p010, presentationUs);
+            jniMs = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - j0).count();
+            if (gThumbnailFromNextRecordFrame.load()) Rgb16ToBgra(rgb16.data(), pixels, bgra.data());
+        } else {
+            PipPlacement pip;
+            if (CurrentPipPlacement(pip)) {
+                gPipRecord.compose(f, AcquireFilter(kRecordReader), *gPipFilter.load(std::memory_order_acquire),
+                                   pip, timestampUs, bgra.data(), f.width);
+            } else {
+                ConvertYuvToBgra(f, AcquireFilter(kRecordReader), bgra.data());
+            }
+            ReleaseFilter(kRecordReader);
+            gRecordQueue.commitRead();      // camera may refill the slot while we encode
+            gRecordOverlays.blend(bgra.data(), f.width, f.height);
+
+            if (std::shared_ptr<NativeRecorder> recorder = CurrentNativeRecorder()) {
+                if (!recorder->encodeFrame(bgra.data(), presentationUs)) {
+                    gRecordDropped.fetch_add(1, std::memory_order_relaxed);
+                }
+            } else {
+                nv12.resize(pixels * 3 / 2);
+                const RgbToYuvTable* matrix = gEncoderMatrix.load(std::memory_order_relaxed);
+                BgraToNv12(bgra.data(), f.width, f.height, nv12.data(), f.width, f.height,
+                           matrix ? *matrix : RgbToYuvTableFor(YuvColorSpace()));
+                const auto j0 = std::chrono::steady_clock::now();
+                SendEncoderFrame(env, nv12, presentationUs);
+                jniMs = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - j0).count();
+            }
+        }
+        if (gThumbnailFromNextRecordFrame.exchange(false)) {
+            SendThumbnail(env, bgra.data(), f.width, f.height, true);
+        }
+
+        metrics.jniMs += jniMs;
+        metrics.record(std::chrono::duration<double, std::milli>(
+                std::chrono::steady_clock::now() - t0).count());
+        {
+            std::lock_guard<std::mutex> lock(gRecordStatsMutex);
+            gRecordStats = metrics;
+        }
+        if (metrics.frames % 120 == 0) {
+            LOGD("Record branch %dx%d: %.2f ms/frame avg (%.2f in JNI), %.2f max, %llu dropped",
+                 f.width, f.height, metrics.avgMs(), metrics.avgJniMs(), metrics.maxMs,
+                 (unsigned long long) gRecordDropped.load(std::memory_order_relaxed));
+        }
+    }
+}
+
+/**
+ * Hand a frame to the record worker; drops it if pacing says so or the worker
+ * is still busy. presentationUs is the encoder PTS, or -1 for timestampUs.
+ */
+static void OfferRecordFrame(const YuvFrame& frame, int64_t timestampUs, int64_t presentationUs)
+{
+    if (!gRecordActive.load(std::memory_order_acquire)) return;
+    if (gRecordPacerReset.exchange(false, std::memory_order_acq_rel)) {
+        gRecordPacer.targetFps = gRecordTargetFps.load(std::memory_order_relaxed);
+        gRecordPacer.reset();
+    }
+    if (!gRecordPacer.accept(timestampUs)) {
+        gRecordDropped.fetch_add(1, std::memory_order_relaxed);
+        return;
+    }
+    OwnedYuvFrame* slot = gRecordQueue.beginWrite();
+    if (!slot) {
+        gRecordDropped.fetch_add(1, std::memory_order_relaxed);
+        return;
+    }
+    slot->copyFrom(frame, timestampUs);
+    if (presentationUs >= 0) slot->presentationUs = presentationUs;
+    gRecordQueue.commitWrite();
+    gRecordCv.notify_one();
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetRecordingActive(
+        JNIEnv* env, jclass clazz, jboolean active, jint fps) {
+    if (active) {
+        std::call_once(gRecordThreadOnce, [] { std::thread(RecordWorkerLoop).detach(); });
+        // Applied by the camera thread and the worker on their next frame
+        gRecordTargetFps.store(fps, std::memory_order_relaxed);
+        gRecordPacerReset.store(true, std::memory_order_release);
+        gRecordMetricsReset.store(true, std::memory_order_release);
+        gRecordDropped.store(0, std::memory_order_relaxed);
+        {
+            std::lock_guard<std::mutex> lock(gRecordStatsMutex);
+            gRecordStats = BranchMetrics();
+        }
+        gThumbnailFromNextRecordFrame.store(true);
+    }
+    // Frames still queued when going idle are discarded by the worker
+    gRecordActive.store(active, std::memory_order_release);
+    LOGD("Record branch %s (%d fps)", active ? "active" : "idle", fps);
+}
+
+// --------------------------------------------------
+// Preview branch configuration / metrics
+// --------------------------------------------------
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeSetPreviewMaxSize(
+        JNIEnv* env, jclass clazz, jlong handle, jint maxWidth, jint maxHeight) {
+    PipelineOf(handle)->setMaxSize(maxWidth, maxHeight);
+    LOGD("Preview branch capped at %dx%d", maxWidth, maxHeight);
+}
+
+/**
+ * Returns {preview frames, preview avg ms, preview decimation,
+ *          record frames, record avg ms, record dropped, record avg JNI ms}
+ * with the preview figures of the given pipeline. The last is 0 while the
+ * native recording backend is used.
+ */
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetPipelineBranchStats(JNIEnv* env, jclass clazz, jlong pipeline) {
+    const PipelineStats preview = PipelineOf(pipeline)->stats();
+    BranchMetrics record;
+    {
+        std::lock_guard<std::mutex> lock(gRecordStatsMutex);
+        record = gRecordStats;
+    }
+    float out[7] = {
+            static_cast<float>(preview.preview.frames),
+            static_cast<float>(preview.preview.avgMs()),
+            static_cast<float>(preview.decimation),
+            static_cast<float>(record.frames),
+            static_cast<float>(record.avgMs()),
+            static_cast<float>(gRecordDropped.load(std::memory_order_relaxed)),
+            static_cast<float>(record.avgJniMs())
+    };
+    jfloatArray arr = env->NewFloatArray(7);
+    if (arr) env->SetFloatArrayRegion(arr, 0, 7, out);
+    return arr;
+}
+
+/** Colour space the Java encoder is configured with; the record worker packs NV12 to match. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetEncoderColorSpace(JNIEnv* /*env*/, jclass /*clazz*/,
+                                                                jint standard, jint range)
+{
+    gEncoderMatrix.store(&RgbToYuvTableFor({standard, range}));
+}
+
+// --------------------------------------------------
+// Native recording backend (AMediaCodec + AMediaMuxer)
+// --------------------------------------------------
+
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_nm_cmaeralivefx_encoder_NativeVideoRecorder_nativeStart(
+        JNIEnv* env, jclass clazz, jint fd, jstring codecName, jstring mime, jint width, jint height,
+        jint bitRate, jint frameRate, jint iFrameIntervalSec, jint bitrateMode, jint profile,
+        jint colorStandard, jint colorTransfer, jint colorRange,
+        jint orientationDegrees, jboolean withAudio) {
+    NativeRecorderConfig cfg;
+    if (codecName) {
+        const char* s = env->GetStringUTFChars(codecName, nullptr);
+        cfg.codecName = s;
+        env->ReleaseStringUTFChars(codecName, s);
+    }
+    const char* m = env->GetStringUTFChars(mime, nullptr);
+    cfg.mime = m;
+    env->ReleaseStringUTFChars(mime, m);
+    cfg.width = width;
+    cfg.height = height;
+    cfg.bitRate = bitRate;
+    cfg.frameRate = frameRate;
+    cfg.iFrameIntervalSec = iFrameIntervalSec;
+    cfg.bitrateMode = bitrateMode;
+    cfg.profile = profile;
+    cfg.colorStandard = colorStandard;
+    cfg.colorTransfer = colorTransfer;
+    cfg.colorRange = colorRange;
+    cfg.orientationDegrees = orientationDegrees;
+    cfg.withAudio = withAudio;
+
+    auto recorder = std::make_shared<NativeRecorder>();
+    if (!recorder->open(fd, cfg)) return JNI_FALSE;
+    std::lock_guard<std::mutex> lock(gNativeRecorderMutex);
+    gNativeRecorder = std::move(recorder);
+    return JNI_TRUE;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cmaeralivefx_encoder_NativeVideoRecorder_nativeAddAudioTrack(
+        JNIEnv* env, jclass clazz, jint sampleRate, jint channels, jbyteArray csd) {
+    std::shared_ptr<NativeRecorder> recorder = CurrentNativeRecorder();
+    if (!recorder) return;
+    std::vector<uint8_t> bytes;
+    if (csd) {
+        bytes.resize(static_cast<size_t>(env->GetArrayLength(csd)));
+        env->GetByteArrayRegion(csd, 0, static_cast<jsize>(bytes.size()), reinterpret_cast<jbyte*>(bytes.data()));
+    }
+    recorder->addAudioTrack(sampleRate, channels, bytes.data(), bytes.size());
+}
+
+/** buffer must be direct; MediaCodec output buffers are. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cmaeralivefx_encoder_NativeVideoRecorder_nativeWriteAudio(
+        JNIEnv* env, jclass clazz, jobject buffer, jint offset, jint size, jlong ptsUs, jint flags) {
+    std::shared_ptr<NativeRecorder> recorder = CurrentNativeRecorder();
+    auto* base = static_cast<uint8_t*>(env->GetDirectBufferAddress(buffer));
+    if (!recorder || !base) return;
+    recorder->writeAudio(base + offset, static_cast<size_t>(size), ptsUs, static_cast<uint32_t>(flags));
+}
+
+/** Detach the recorder from the record branch, then drain and finalize the file. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cmaeralivefx_encoder_NativeVideoRecorder_nativeStop(JNIEnv* env, jclass clazz) {
+    std::shared_ptr<NativeRecorder> recorder;
+    {
+        std::lock_guard<std::mutex> lock(gNativeRecorderMutex);
+        recorder.swap(gNativeRecorder);
+    }
+    if (recorder) recorder->finish();
+}
+
+// --------------------------------------------------
+// Exposure scopes (histogram / zebra / waveform)
+// --------------------------------------------------
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetExposureScopes(
+        JNIEnv* env, jclass clazz, jint flags, jint zebraThreshold) {
+    gScopeZebraThreshold.store(std::clamp(static_cast<int>(zebraThreshold), 0, 255), std::memory_order_relaxed);
+    gScopeFlags.store(flags, std::memory_order_relaxed);
+    gScopeAnalysedMetrics = BranchMetrics();
+    gScopeOtherMetrics = BranchMetrics();
+    LOGD("Exposure scopes flags=%d zebra>=%d", flags, zebraThreshold);
+}
+
+/** The two publish buffers as direct ByteBuffers (layout in ExposureScopes.hpp); fetch once. */
+extern "C"
+JNIEXPORT jobjectArray JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetScopeBuffers(JNIEnv* env, jclass clazz) {
+    jclass byteBuffer = env->FindClass("java/nio/ByteBuffer");
+    jobjectArray arr = env->NewObjectArray(2, byteBuffer, nullptr);
+    if (!arr) return nullptr;
+    for (int i = 0; i < 2; ++i) {
+        jobject b = env->NewDirectByteBuffer(gScopePublisher.buffer(i), static_cast<jlong>(kScopeBufferBytes));
+        env->SetObjectArrayElement(arr, i, b);
+        env->DeleteLocalRef(b);
+    }
+    return arr;
+}
+
+/**
+ * Returns {analysed frames, avg preview ms on analysed frames,
+ *          avg preview ms on the frames in between}; the difference is the scopes' cost.
+ */
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeGetScopeStats(JNIEnv* env, jclass clazz) {
+    float out[3] = {
+            static_cast<float>(gScopeAnalysedMetrics.frames),
+            static_cast<float>(gScopeAnalysedMetrics.avgMs()),
+            static_cast<float>(gScopeOtherMetrics.avgMs())
+    };
+    jfloatArray arr = env->NewFloatArray(3);
+    if (arr) env->SetFloatArrayRegion(arr, 0, 3, out);
+    return arr;
+}
+
+/**
+ * Post one fully transparent frame so the camera passthrough view beneath
+ * the preview shows through. Cheaper than any processed frame; called once
+ * on entering passthrough.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_clearPreview(JNIEnv* env, jobject /*thiz*/, jlong pipeline) {
+    // the next processed frame redraws everything
+    if (Pipeline* p = PipelineOf(pipeline)) p->clear();
+}
+
+// --------------------------------------------------
+// JNI: recording overlays
+// --------------------------------------------------
+
+/**
+ * Overlay id shows width x height premultiplied RGBA pixels (a direct buffer
+ * filled by Bitmap.copyPixelsToBuffer) marginX / marginY from corner of the
+ * played-back picture, clockwise from top-left; null pixels remove it. The
+ * pixels are copied, so the buffer can be reused for the next upload.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetOverlay(
+        JNIEnv* env, jclass /*clazz*/, jint id, jobject pixels, jint width, jint height,
+        jint corner, jint marginX, jint marginY) {
+    const auto* src = pixels ? static_cast<const uint32_t*>(env->GetDirectBufferAddress(pixels)) : nullptr;
+    if (!src || width <= 0 || height <= 0
+            || env->GetDirectBufferCapacity(pixels) < static_cast<jlong>(width) * height * 4) {
+        gRecordOverlays.clear(id);
+        return;
+    }
+    OverlayImage image;
+    image.width = width;
+    image.height = height;
+    image.pixels.assign(src, src + static_cast<size_t>(width) * height);
+    image.corner = corner & 3;
+    image.marginX = marginX;
+    image.marginY = marginY;
+    gRecordOverlays.set(id, std::move(image));
+}
+
+/** Quarter turns the recording plays back with (its orientation hint); overlays are kept upright in it. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetOverlayRotation(JNIEnv* /*env*/, jclass /*clazz*/, jint degrees) {
+    gRecordOverlays.setRotation(degrees);
+}
+
+// --------------------------------------------------
+// JNI: picture-in-picture
+// --------------------------------------------------
+
+/**
+ * Inset on or off, with its corner in frame (sensor) coordinates, clockwise
+ * from top-left, its width as a percentage of the frame and its opacity (0..256).
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetPictureInPicture(
+        JNIEnv* /*env*/, jclass /*clazz*/, jboolean enabled, jint corner, jint sizePercent, jint opacity) {
+    {
+        std::lock_guard<std::mutex> lock(gPipMutex);
+        gPipPlacement.corner = corner & 3;
+        gPipPlacement.sizePercent = sizePercent;
+        gPipPlacement.opacity = opacity;
+    }
+    gPipEnabled.store(enabled, std::memory_order_release);
+    LOGD("Picture-in-picture %s (corner %d, %d%%)", enabled ? "on" : "off", corner, sizePercent);
+}
+
+/** The inset's own filter, by registered name; unknown names mean no filter. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_MainActivity_nativeSetPipFilter(JNIEnv* env, jclass clazz, jstring filterName) {
+    EnsureFiltersInitialized();
+    const char* name = env->GetStringUTFChars(filterName, nullptr);
+    auto it = gFilterMap.find(name);
+    if (it != gFilterMap.end()) {
+        PrepareFilter(name, it->second);
+        gPipFilter.store(&it->second.filter, std::memory_order_release);
+    } else {
+        gPipFilter.store(&kNoFilter, std::memory_order_release);
+    }
+    env->ReleaseStringUTFChars(filterName, name);
+}
+
+/** Mounting of the inset camera relative to the main one; 180 turns the inset round. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_setPipSourceRotation(JNIEnv* /*env*/, jclass /*clazz*/, jint degrees) {
+    std::lock_guard<std::mutex> lock(gPipMutex);
+    gPipPlacement.flipX = gPipPlacement.flipY = degrees == 180;
+    if (degrees == 90 || degrees == 270) LOGD("PiP source at %d degrees: inset is shown sideways", degrees);
+}
+
+/** One frame of the inset camera (8-bit YUV_420_888), from its camera thread. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_processSecondaryFrameYUV(
+        JNIEnv* env, jclass /*clazz*/,
         jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
         jint yRowStride, jint uRowStride, jint vRowStride,
         jint uPixelStride, jint vPixelStride,
-        jint width, jint height)
+        jint width, jint height, jint colorStandard, jint colorRange)
 {
-    if (!gNativeWindow) return;
+    if (!gPipEnabled.load(std::memory_order_acquire)) return;
+    const int64_t nowUs = std::chrono::duration_cast<std::chrono::microseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
 
     jbyte* yData = env->GetByteArrayElements(yArray, nullptr);
     jbyte* uData = env->GetByteArrayElements(uArray, nullptr);
     jbyte* vData = env->GetByteArrayElements(vArray, nullptr);
 
-    // ---- 1. Convert YUV -> BGRA and apply LUT ----
-    std::vector<uint32_t> bgra(static_cast<size_t>(width) * height);
+    YuvFrame frame;
+    frame.y = reinterpret_cast<const uint8_t*>(yData);
+    frame.u = reinterpret_cast<const uint8_t*>(uData);
+    frame.v = reinterpret_cast<const uint8_t*>(vData);
+    frame.yRowStride = yRowStride;
+    frame.uRowStride = uRowStride;
+    frame.vRowStride = vRowStride;
+    frame.uPixelStride = uPixelStride;
+    frame.vPixelStride = vPixelStride;
+    frame.width = width;
+    frame.height = height;
+    frame.matrix = &YuvToRgbTableFor({colorStandard, colorRange});
 
-    for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-            int yIndex = y * yRowStride + x;
-            int uvX = x / 2, uvY = y / 2;
-            int uIndex = uvY * uRowStride + uvX * uPixelStride;
-            int vIndex = uvY * vRowStride + uvX * vPixelStride;
+    // Each consumer holds its own copy: the record worker runs on its own clock
+    gPipPreview.offerSecondary(frame, nowUs);
+    if (gRecordActive.load(std::memory_order_acquire)) gPipRecord.offerSecondary(frame, nowUs);
 
-            int Y = yData[yIndex] & 0xFF;
-            int U = uData[uIndex] & 0xFF;
-            int V = vData[vIndex] & 0xFF;
+    env->ReleaseByteArrayElements(yArray, yData, JNI_ABORT);
+    env->ReleaseByteArrayElements(uArray, uData, JNI_ABORT);
+    env->ReleaseByteArrayElements(vArray, vData, JNI_ABORT);
+}
 
-            int C = Y - 16;
-            int D = U - 128;
-            int E = V - 128;
+// --------------------------------------------------
+// JNI: frame processing (with photo capture logic)
+// --------------------------------------------------
 
-            int R = std::clamp((298 * C + 409 * E + 128) >> 8, 0, 255);
-            int G = std::clamp((298 * C - 100 * D - 208 * E + 128) >> 8, 0, 255);
-            int B = std::clamp((298 * C + 516 * D + 128) >> 8, 0, 255);
+/**
+ * One camera frame through all branches, previewed through the live
+ * pipeline. layout carries the strides and
+ * size (strides in bytes, sampleBytes 2 for P010); the plane pointers are
+ * filled from the pinned arrays here. record is false for frames the Java
+ * side only wants shown (FrameDecimator); recordPtsUs, when >= 0, replaces
+ * the pipeline clock as the recorded frame's PTS.
+ */
+static void ProcessCameraFrame(JNIEnv* env, Pipeline& live, jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
+                               const YuvFrame& layout, bool record, int64_t recordPtsUs)
+{
+    PipelineThreads().sample();     // no-op until the camera thread registers
+    const int64_t nowUs = std::chrono::duration_cast<std::chrono::microseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
 
-            int filteredR = R;
-            int filteredG = G;
-            int filteredB = B;
+    jbyte* yData = env->GetByteArrayElements(yArray, nullptr);
+    jbyte* uData = env->GetByteArrayElements(uArray, nullptr);
+    jbyte* vData = env->GetByteArrayElements(vArray, nullptr);
 
-            if (gCurrentLUT) {
-                const int lutSize = 33;
-                int r_idx = (R * (lutSize - 1)) / 255;
-                int g_idx = (G * (lutSize - 1)) / 255;
-                int b_idx = (B * (lutSize - 1)) / 255;
+    YuvFrame frame = layout;
+    frame.y = reinterpret_cast<const uint8_t*>(yData);
+    frame.u = reinterpret_cast<const uint8_t*>(uData);
+    frame.v = reinterpret_cast<const uint8_t*>(vData);
+    if (frame.sampleBytes == 1) frame.matrix = gCameraMatrix.load(std::memory_order_relaxed);
+    const int width = frame.width;
+    const int height = frame.height;
+    const bool hdr = frame.sampleBytes == 2;
 
-                const float* lut_color = (*gCurrentLUT)[b_idx][g_idx][r_idx];
+    const ColorFilter filter = AcquireFilter(kPreviewReader);
+    PipPlacement pip;
+    const bool pipActive = !hdr && CurrentPipPlacement(pip);     // the inset path is 8-bit only
+    const ColorFilter& pipFilter = *gPipFilter.load(std::memory_order_acquire);
 
-                filteredR = static_cast<int>(std::clamp(lut_color[0] * 255.0f, 0.0f, 255.0f));
-                filteredG = static_cast<int>(std::clamp(lut_color[1] * 255.0f, 0.0f, 255.0f));
-                filteredB = static_cast<int>(std::clamp(lut_color[2] * 255.0f, 0.0f, 255.0f));
-            }
+    // ---- 1. Record branch: copy out full-res frame for the worker (if recording) ----
+    if (record) OfferRecordFrame(frame, nowUs, recordPtsUs);
 
-            // Store as ARGB (0xAARRGGBB) -> memory is [B, G, R, A]
-            bgra[static_cast<size_t>(y) * width + x] =
-                    0xFF000000 | (static_cast<uint32_t>(filteredB) << 16) |
-                    (static_cast<uint32_t>(filteredG) << 8) | static_cast<uint32_t>(filteredR);
-        }
-    }
+    // ---- 2. Photo Capture Check (SEND RAW BGRA DATA TO JAVA, full resolution) ----
+    if (live.takeCaptureRequest()) {
 
-    // ---- 2. Photo Capture Check (SEND RAW BGRA DATA TO JAVA) ----
-    if (gCaptureNextFrame && gJavaActivity && gOnProcessedPhotoMethod) {
-        gCaptureNextFrame = false;
+        std::vector<uint32_t> photo(static_cast<size_t>(width) * height);
+        if (hdr) ConvertP010ToBgra(frame, filter, photo.data());
+        else if (pipActive) gPipPreview.compose(frame, filter, pipFilter, pip, nowUs, photo.data(), width);
+        else ConvertYuvToBgra(frame, filter, photo.data());
 
-        const size_t bgraSizeBytes = static_cast<size_t>(width) * height * sizeof(uint32_t);
-        jbyteArray photoArray = env->NewByteArray(static_cast<jsize>(bgraSizeBytes));
+        const size_t bgraSizeBytes = photo.size() * sizeof(uint32_t);
+        std::shared_lock<std::shared_mutex> javaLock(gJavaContextMutex);
+        jbyteArray photoArray = gJavaActivity && gOnProcessedPhotoMethod
+                ? env->NewByteArray(static_cast<jsize>(bgraSizeBytes)) : nullptr;
 
         if (photoArray) {
             env->SetByteArrayRegion(photoArray, 0, static_cast<jsize>(bgraSizeBytes),
-                                    reinterpret_cast<const jbyte*>(bgra.data()));
+                                    reinterpret_cast<const jbyte*>(photo.data()));
 
             env->CallVoidMethod(gJavaActivity, gOnProcessedPhotoMethod, photoArray);
             env->DeleteLocalRef(photoArray);
@@ -324,74 +1377,246 @@ Java_com_nm_cameralivefx_CameraHandler_processFrameYUV(
         } else {
             LOGD("Failed to allocate jbyteArray for photo.");
         }
+        javaLock.unlock();                              // SendThumbnail() takes it again
+        SendThumbnail(env, photo.data(), width, height, false);
     }
 
-    // ---- 3. Preview: apply rotation and draw into native window ----
-// ---- Preview: apply rotation and draw into native window ----
-    std::vector<uint32_t> rotatedBgra;
-    int drawW = width;
-    int drawH = height;
-    const uint32_t* finalDrawData = bgra.data();
-
-    if (gPreviewDegrees == 90) {
-        drawW = height;
-        drawH = width;
-        rotatedBgra.resize(static_cast<size_t>(drawW) * drawH);
-        RotateARGB90(bgra.data(), rotatedBgra.data(), width, height);
-        finalDrawData = rotatedBgra.data();
-    } else if (gPreviewDegrees == 180) {
-        drawW = width;
-        drawH = height;
-        rotatedBgra.resize(static_cast<size_t>(drawW) * drawH);
-        RotateARGB180(bgra.data(), rotatedBgra.data(), width, height);
-        finalDrawData = rotatedBgra.data();
-    } else if (gPreviewDegrees == 270) {
-        drawW = height;
-        drawH = width;
-        rotatedBgra.resize(static_cast<size_t>(drawW) * drawH);
-        RotateARGB270(bgra.data(), rotatedBgra.data(), width, height);
-        finalDrawData = rotatedBgra.data();
-    }
-// else 0°: use bgra as-is
-
-
-    ANativeWindow_setBuffersGeometry(gNativeWindow, drawW, drawH, WINDOW_FORMAT_RGBA_8888);
-    ANativeWindow_Buffer buffer;
-    if (ANativeWindow_lock(gNativeWindow, &buffer, nullptr) == 0) {
-        uint32_t* dst = static_cast<uint32_t*>(buffer.bits);
-        const int dstStride = buffer.stride;
+    // ---- 3a. Filter strip previews, a few times a second while the strip is on screen ----
+    if (!hdr) UpdateFilterAtlas(env, frame, nowUs);
 
-        for (int j = 0; j < drawH; ++j) {
-            uint32_t* drow = dst + static_cast<size_t>(j) * dstStride;
-            const uint32_t* srow = finalDrawData + static_cast<size_t>(j) * drawW;
-            std::copy(srow, srow + drawW, drow);
-        }
+    // No surface bound (activity being recreated, or in the background): nothing to preview
+    if (!live.hasSink()) {
+        ReleaseFilter(kPreviewReader);
+        env->ReleaseByteArrayElements(yArray, yData, JNI_ABORT);
+        env->ReleaseByteArrayElements(uArray, uData, JNI_ABORT);
+        env->ReleaseByteArrayElements(vArray, vData, JNI_ABORT);
+        live.skipFrame();   // the next surface starts empty: redraw in full
+        return;
+    }
+
+    // ---- 3. Preview branch: decimated view -> BGRA (+ LUT) ----
+    const YuvFrame preview = live.beginFrame(frame);
+    const int pw = preview.width;
+    const int ph = preview.height;
+    uint32_t* bgra = live.pixels();
+
+    ScopeSettings scopes;
+    scopes.flags = gScopeFlags.load(std::memory_order_relaxed);
+    scopes.zebraThreshold = gScopeZebraThreshold.load(std::memory_order_relaxed);
 
-        ANativeWindow_unlockAndPost(gNativeWindow);
+    if (hdr) {
+        // Scopes and tile skipping work on 8-bit luma; the 10-bit path always converts in full
+        ConvertP010ToBgra(preview, filter, bgra);
+        live.convertedElsewhere();
+    } else if (pipActive) {
+        // The inset moves and changes on its own clock: no tile skipping, no scopes
+        gPipPreview.compose(preview, filter, pipFilter, pip, nowUs, bgra, pw);
+        live.convertedElsewhere();
+        const CompositeStats& ps = gPipPreview.stats();
+        if (ps.frames % 120 == 0) {
+            LOGD("PiP: %llu fresh, %llu held, %llu without inset, %llu secondary frames overwritten",
+                 (unsigned long long) ps.fresh, (unsigned long long) ps.held, (unsigned long long) ps.skipped,
+                 (unsigned long long) gPipPreview.overwritten());
+        }
+    } else if (scopes.any()) {
+        // Tile skipping is off here: clean tiles would be missing from the histogram
+        const auto t0 = std::chrono::steady_clock::now();
+        const bool analyse = gScopePublisher.due(nowUs, kScopePublishIntervalUs);
+        gScopes.begin(scopes, pw, ph, analyse);
+        ConvertYuvToBgraWithScopes(preview, filter, bgra, gScopes);
+        live.convertedElsewhere();
+        if (analyse) gScopePublisher.publish(gScopes, nowUs);
+        const double ms = std::chrono::duration<double, std::milli>(
+                std::chrono::steady_clock::now() - t0).count();
+        (analyse ? gScopeAnalysedMetrics : gScopeOtherMetrics).record(ms);
+        if (analyse && gScopeAnalysedMetrics.frames % 50 == 0) {
+            LOGD("Scopes: %.2f ms/frame analysed vs %.2f ms other",
+                 gScopeAnalysedMetrics.avgMs(), gScopeOtherMetrics.avgMs());
+        }
     } else {
-        LOGD("Failed to lock window");
+        // Plain or, in static-scene mode, only the tiles that changed
+        live.convert(preview, filter);
     }
 
-    // ---- 4. YUV -> NV21 for encoder callback ----
-    const size_t yuvSize = static_cast<size_t>(width) * height * 3 / 2;
-    std::vector<uint8_t> nv21(yuvSize, 0);
+    ReleaseFilter(kPreviewReader);
 
-    ARGBtoNV21(bgra.data(), nv21.data(), width, height);
+    // The camera arrays are no longer needed; release before touching the window
+    env->ReleaseByteArrayElements(yArray, yData, JNI_ABORT);
+    env->ReleaseByteArrayElements(uArray, uData, JNI_ABORT);
+    env->ReleaseByteArrayElements(vArray, vData, JNI_ABORT);
 
-    if (gJavaActivity && gOnProcessedFrameMethod) {
-        jbyteArray yuvArray = env->NewByteArray(static_cast<jsize>(yuvSize));
-        if (yuvArray) {
-            env->SetByteArrayRegion(yuvArray, 0, static_cast<jsize>(yuvSize),
-                                    reinterpret_cast<const jbyte*>(nv21.data()));
-            const jlong nowUs = (jlong)std::chrono::duration_cast<std::chrono::microseconds>(
-                    std::chrono::steady_clock::now().time_since_epoch()).count();
-            env->CallVoidMethod(gJavaActivity, gOnProcessedFrameMethod, yuvArray, nowUs);
-            env->DeleteLocalRef(yuvArray);
+    // ---- 4. Preview: apply rotation and draw into the pipeline's window ----
+    live.present();
+
+    const BranchMetrics& metrics = live.metrics();
+    if (metrics.frames % 120 == 0) {
+        LOGD("Preview branch %dx%d (1/%d): %.2f ms/frame avg, %.2f max",
+             pw, ph, live.decimation(), metrics.avgMs(), metrics.maxMs);
+        const StaticSceneStats st = live.stats().staticScene;
+        if (st.frames > 0 && st.tilesTotal > 0) {
+            LOGD("Static scene: %.1f%% tiles skipped, %.2f ms/frame convert",
+                 100.0 * st.tilesSkipped / st.tilesTotal, st.convertMs / st.frames);
         }
     }
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_processFrameYUV(
+        JNIEnv* env, jobject /*thiz*/, jlong pipeline,
+        jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
+        jint yRowStride, jint uRowStride, jint vRowStride,
+        jint uPixelStride, jint vPixelStride,
+        jint width, jint height, jboolean record, jlong recordPtsUs)
+{
+    YuvFrame layout;
+    layout.yRowStride = yRowStride;
+    layout.uRowStride = uRowStride;
+    layout.vRowStride = vRowStride;
+    layout.uPixelStride = uPixelStride;
+    layout.vPixelStride = vPixelStride;
+    layout.width = width;
+    layout.height = height;
+    if (Pipeline* live = PipelineOf(pipeline)) {
+        ProcessCameraFrame(env, *live, yArray, uArray, vArray, layout, record, recordPtsUs);
+    }
+}
+
+/**
+ * 8-bit frame captured only for the filter strip previews, while the
+ * display is fed straight from the camera (passthrough).
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_processFilterAtlasFrameYUV(
+        JNIEnv* env, jclass /*clazz*/,
+        jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
+        jint yRowStride, jint uRowStride, jint vRowStride,
+        jint uPixelStride, jint vPixelStride,
+        jint width, jint height)
+{
+    const int64_t nowUs = std::chrono::duration_cast<std::chrono::microseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
+    jbyte* yData = env->GetByteArrayElements(yArray, nullptr);
+    jbyte* uData = env->GetByteArrayElements(uArray, nullptr);
+    jbyte* vData = env->GetByteArrayElements(vArray, nullptr);
+
+    YuvFrame frame;
+    frame.y = reinterpret_cast<const uint8_t*>(yData);
+    frame.u = reinterpret_cast<const uint8_t*>(uData);
+    frame.v = reinterpret_cast<const uint8_t*>(vData);
+    frame.yRowStride = yRowStride;
+    frame.uRowStride = uRowStride;
+    frame.vRowStride = vRowStride;
+    frame.uPixelStride = uPixelStride;
+    frame.vPixelStride = vPixelStride;
+    frame.width = width;
+    frame.height = height;
+    frame.matrix = gCameraMatrix.load(std::memory_order_relaxed);
+    UpdateFilterAtlas(env, frame, nowUs);
+
+    env->ReleaseByteArrayElements(yArray, yData, JNI_ABORT);
+    env->ReleaseByteArrayElements(uArray, uData, JNI_ABORT);
+    env->ReleaseByteArrayElements(vArray, vData, JNI_ABORT);
+}
+
+/**
+ * One 8-bit frame through a pipeline other than the live one (an offline
+ * re-grade, a benchmark) on the caller's thread, with the pipeline's own
+ * filter; colorStandard / colorRange as MediaFormat COLOR_STANDARD_* / COLOR_RANGE_*.
+ */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeProcessFrameYUV(
+        JNIEnv* env, jclass /*clazz*/, jlong handle,
+        jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
+        jint yRowStride, jint uRowStride, jint vRowStride,
+        jint uPixelStride, jint vPixelStride,
+        jint width, jint height, jint colorStandard, jint colorRange)
+{
+    jbyte* yData = env->GetByteArrayElements(yArray, nullptr);
+    jbyte* uData = env->GetByteArrayElements(uArray, nullptr);
+    jbyte* vData = env->GetByteArrayElements(vArray, nullptr);
+
+    YuvFrame frame;
+    frame.y = reinterpret_cast<const uint8_t*>(yData);
+    frame.u = reinterpret_cast<const uint8_t*>(uData);
+    frame.v = reinterpret_cast<const uint8_t*>(vData);
+    frame.yRowStride = yRowStride;
+    frame.uRowStride = uRowStride;
+    frame.vRowStride = vRowStride;
+    frame.uPixelStride = uPixelStride;
+    frame.vPixelStride = vPixelStride;
+    frame.width = width;
+    frame.height = height;
+    frame.matrix = &YuvToRgbTableFor({colorStandard, colorRange});
+    PipelineOf(handle)->process(frame);
 
-    // ---- Release JNI arrays ----
     env->ReleaseByteArrayElements(yArray, yData, JNI_ABORT);
     env->ReleaseByteArrayElements(uArray, uData, JNI_ABORT);
     env->ReleaseByteArrayElements(vArray, vData, JNI_ABORT);
-}
\ No newline at end of file
+}
+
+/** Returns {frames, avg ms, max ms, decimation, output width, output height}. */
+extern "C"
+JNIEXPORT jfloatArray JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeGetStats(JNIEnv* env, jclass /*clazz*/, jlong handle) {
+    const PipelineStats s = PipelineOf(handle)->stats();
+    float out[6] = {
+            static_cast<float>(s.preview.frames),
+            static_cast<float>(s.preview.avgMs()),
+            static_cast<float>(s.preview.maxMs),
+            static_cast<float>(s.decimation),
+            static_cast<float>(s.outputWidth),
+            static_cast<float>(s.outputHeight)
+    };
+    jfloatArray arr = env->NewFloatArray(6);
+    if (arr) env->SetFloatArrayRegion(arr, 0, 6, out);
+    return arr;
+}
+
+/**
+ * Copy the last processed frame as RGBA bytes (Bitmap.copyPixelsFromBuffer
+ * layout) into a direct buffer; false if there is none or it does not fit.
+ * From the thread that processes the pipeline's frames.
+ */
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_nm_cameralivefx_NativePipeline_nativeReadOutput(JNIEnv* env, jclass /*clazz*/, jlong handle, jobject buffer) {
+    void* dst = buffer ? env->GetDirectBufferAddress(buffer) : nullptr;
+    if (!dst) return JNI_FALSE;
+    const size_t capacity = static_cast<size_t>(env->GetDirectBufferCapacity(buffer)) / sizeof(uint32_t);
+    return PipelineOf(handle)->readOutput(static_cast<uint32_t*>(dst), capacity) ? JNI_TRUE : JNI_FALSE;
+}
+
+/** YCBCR_P010 frame (HDR mode); strides as reported by the Image planes, in bytes. */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_processFrameP010(
+        JNIEnv* env, jobject /*thiz*/, jlong pipeline,
+        jbyteArray yArray, jbyteArray uArray, jbyteArray vArray,
+        jint yRowStride, jint uvRowStride, jint uvPixelStride,
+        jint width, jint height, jboolean record, jlong recordPtsUs)
+{
+    YuvFrame layout;
+    layout.yRowStride = yRowStride;
+    layout.uRowStride = layout.vRowStride = uvRowStride;
+    layout.uPixelStride = layout.vPixelStride = uvPixelStride;
+    layout.yPixelStride = 2;
+    layout.sampleBytes = 2;
+    layout.width = width;
+    layout.height = height;
+    if (Pipeline* live = PipelineOf(pipeline)) {
+        ProcessCameraFrame(env, *live, yArray, uArray, vArray, layout, record, recordPtsUs);
+    }
+}
+
+/** Matrix and range of the 8-bit camera stream (MediaFormat COLOR_STANDARD_* / COLOR_RANGE_*). */
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_nm_cameralivefx_CameraHandler_setCameraColorSpace(JNIEnv* /*env*/, jclass /*clazz*/,
+                                                           jint standard, jint range)
+{
+    gCameraMatrix.store(&YuvToRgbTableFor({standard, range}));
+    LOGD("Camera colour space: standard %d, range %d", standard, range);
+}
@@ -1,18 +1,25 @@
 package com.nm.cameralivefx;
 
 import android.annotation.SuppressLint;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.hardware.DataSpace;
 import android.hardware.camera2.*;
+import android.hardware.camera2.params.DynamicRangeProfiles;
+import android.hardware.camera2.params.OutputConfiguration;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
+import android.view.SurfaceHolder;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -20,15 +27,44 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Owns the camera session for the lifetime of the PipelineHost (across
+ * activity recreation; preview surfaces are attached and detached): one camera
+ * thread, one ImageReader reused across switches when the stream size
+ * matches, and per-camera characteristics / size / FPS computed once.
+ * Where the device supports concurrent streaming of both cameras and memory
+ * is not tight, the idle camera is kept open so a switch skips openCamera;
+ * the same capability lets it stream as a picture-in-picture inset.
+ */
 public class CameraHandler {
     static {
         System.loadLibrary("cameralivefx");
     }
 
-    private native void processFrameYUV(byte[] yData, byte[] uData, byte[] vData,
+    private native void processFrameYUV(long pipeline, byte[] yData, byte[] uData, byte[] vData,
                                         int yRowStride, int uRowStride, int vRowStride,
-                                        int uPixelStride, int vPixelStride, int width, int height);
+                                        int uPixelStride, int vPixelStride, int width, int height,
+                                        boolean record, long recordPtsUs);
+    private native void processFrameP010(long pipeline, byte[] yData, byte[] uData, byte[] vData,
+                                         int yRowStride, int uvRowStride, int uvPixelStride, int width, int height,
+                                         boolean record, long recordPtsUs);
+    private native void clearPreview(long pipeline);
+    private static native void setCameraColorSpace(int standard, int range);
+    private static native void processSecondaryFrameYUV(byte[] yData, byte[] uData, byte[] vData,
+                                                        int yRowStride, int uRowStride, int vRowStride,
+                                                        int uPixelStride, int vPixelStride, int width, int height,
+                                                        int colorStandard, int colorRange);
+    private static native void setPipSourceRotation(int degrees);
+    private static native void processFilterAtlasFrameYUV(byte[] yData, byte[] uData, byte[] vData,
+                                                          int yRowStride, int uRowStride, int vRowStride,
+                                                          int uPixelStride, int vPixelStride, int width, int height);
 
     private static final String TAG = CameraHandler.class.getSimpleName();
 
@@ -36,144 +72,918 @@ public class CameraHandler {
     public static final String BACK_CAMERA_ID = "0";
 
     private Size chosenSize;
-    private static final int MAX_W = 960;
-    private static final int MAX_H = 540;
+    // The camera stream is sized for recording; the native preview branch
+    // decimates it down to the display (see NativePipeline.setPreviewMaxSize).
+    private static final int MAX_W = 1920;
+    private static final int MAX_H = 1080;
     private static final double TARGET_ASPECT = 16.0 / 9.0;
     private static final double ASPECT_TOL = 0.05;
 
-    private final MainActivity mActivity; // Changed from Context to MainActivity
-    private final Surface previewSurface; // only used by native to draw; not fed to camera
+    private final PipelineHost host;
+    private final Context context;
+    private Surface previewSurface; // only used by native to draw; not fed to camera
+    private final CameraManager cameraManager;
+    private final HandlerThread backgroundThread;
+    private final Handler backgroundHandler;
     private CameraDevice cameraDevice;
     private CameraCaptureSession captureSession;
     private ImageReader imageReader;
-    private Handler backgroundHandler;
+    private Range<Integer> fpsRange;
 
-    // 1. UPDATED CONSTRUCTOR to take MainActivity reference
-    public CameraHandler(MainActivity activity, Surface surface) {
-        this.mActivity = activity;
-        this.previewSurface = surface;
+    /** Everything about a camera that does not change between opens. */
+    private static final class CameraConfig {
+        final CameraCharacteristics characteristics;
+        final Size size;
+        final Range<Integer> fpsRange;
+        final Range<Integer>[] fpsRanges;   // all the camera offers, for decimated capture
+        final boolean passthroughCapable;   // size is also a valid SurfaceView output
+        final boolean hdrCapable;           // 10-bit HLG streaming as YCBCR_P010 at size
+
+        CameraConfig(CameraCharacteristics characteristics, Size size, Range<Integer> fpsRange,
+                     Range<Integer>[] fpsRanges, boolean passthroughCapable, boolean hdrCapable) {
+            this.characteristics = characteristics;
+            this.size = size;
+            this.fpsRange = fpsRange;
+            this.fpsRanges = fpsRanges;
+            this.passthroughCapable = passthroughCapable;
+            this.hdrCapable = hdrCapable;
+        }
+    }
+    // Filled from the UI thread (openEarly, switching) and the camera thread alike
+    private final Map<String, CameraConfig> configCache = new ConcurrentHashMap<>();
+
+    // Idle camera kept open for fast switching (see maybePreopen) or opened
+    // early at launch (see openEarly). Guarded by preopenLock: opened on the
+    // camera thread, claimed from startCamera on the UI thread.
+    private final Object preopenLock = new Object();
+    private CameraDevice preopenedDevice;
+    private String preopenedId;
+    private boolean startWhenOpened;                  // startCamera ran before the early open completed
+    private String currentCameraId;
+
+    // Switch latency: tap -> first frame on screen
+    private volatile boolean awaitingFirstFrame = false;
+    private volatile long switchStartNs = 0;
+    private volatile boolean switchReusedReader;
+    private volatile boolean switchPreopened;
+
+    // Passthrough: with no filter active the camera feeds a second SurfaceView
+    // beneath the (translucent) processed one, and the ImageReader is left out
+    // of the repeating request. previewSurface cannot be a camera output itself
+    // because native code keeps it connected as a CPU producer. Both outputs are
+    // configured up front, so a switch is just a new repeating request.
+    private static final int OUTPUT_PROCESSED = 0;
+    private static final int OUTPUT_ENTERING_PASSTHROUGH = 1;
+    private static final int OUTPUT_PASSTHROUGH = 2;
+    private static final int OUTPUT_LEAVING_PASSTHROUGH = 3;
+    // Filter strip previews while in passthrough: a one-off capture into the
+    // ImageReader every FILTER_ATLAS_INTERVAL_MS, a little over native's own
+    // throttle so each one is used. Processed frames feed the previews as they are.
+    private static final long FILTER_ATLAS_INTERVAL_MS = 300;
+    private boolean filterAtlasActive = false;         // camera thread only
+    private final Runnable filterAtlasCapture = this::captureFilterAtlasFrame;
+    private SurfaceHolder passthroughHolder;
+    private Surface passthroughSurface;               // null when the device cannot stream at chosenSize
+    private int outputState = OUTPUT_PROCESSED;       // camera thread only
+    private boolean wantPassthrough = false;          // camera thread only
+    // The session's passthrough output went away with its view (configuration
+    // change). The session is rebuilt on the open device the next time
+    // passthrough is wanted, never while only processed frames are needed.
+    private boolean passthroughLost = false;          // camera thread only
+    private static final long DETACH_TIMEOUT_MS = 500;
 
-        HandlerThread backgroundThread = new HandlerThread("CameraThread");
+    // HDR: the ImageReader takes 10-bit YCBCR_P010 (HLG) on cameras that can
+    // stream it at chosenSize. Passthrough is not offered then: the SurfaceView
+    // output would need its own 10-bit configuration.
+    private volatile boolean hdrRequested = false;
+    private volatile boolean hdrActive = false;
+
+    // Colour space of the 8-bit stream as last handed to native; camera thread only.
+    // MediaFormat COLOR_STANDARD_* / COLOR_RANGE_* values (BT.601 625 = 2, full = 1).
+    private static final int COLOR_STANDARD_BT709 = 1;
+    private static final int COLOR_STANDARD_BT601_PAL = 2;
+    private static final int COLOR_STANDARD_BT601_NTSC = 4;
+    private static final int COLOR_STANDARD_BT2020 = 6;
+    private static final int COLOR_RANGE_FULL = 1;
+    private static final int COLOR_RANGE_LIMITED = 2;
+    private int streamDataSpace = -1;
+
+    // Picture-in-picture: the other camera streams small YUV frames in its own
+    // session next to the main one; native composites them as an inset into
+    // preview and recording (PipCompositor.hpp). Needs a device that can stream
+    // both cameras at once. Camera thread only.
+    private static final int PIP_MAX_W = 640;
+    private static final int PIP_MAX_H = 480;
+    private boolean pipRequested = false;
+    private String pipCameraId;                       // non-null while the inset camera is open or opening
+    private CameraDevice pipDevice;
+    private CameraCaptureSession pipSession;
+    private ImageReader pipReader;
+    private byte[] pipY, pipU, pipV;                  // reused while the plane sizes hold
+
+    // Frame decimation (reduced rate, time-lapse): frames are classified by
+    // sensor timestamp before their planes are copied, so dropped ones cost
+    // nothing and preview-only ones skip the record branch. null records
+    // every frame the camera delivers.
+    private volatile FrameDecimator decimator;
+
+    // Surfaces are attached later (attachSurfaces) so the camera can be opened
+    // while the layout is still being inflated.
+    public CameraHandler(PipelineHost host) {
+        this.host = host;
+        this.context = host.getApplication();
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+
+        backgroundThread = new HandlerThread("CameraThread");
         backgroundThread.start();
         this.backgroundHandler = new Handler(backgroundThread.getLooper());
+        backgroundHandler.post(() -> ThreadPolicy.registerCurrentThread(ThreadPolicy.ROLE_CAMERA));
+    }
+
+    public void attachSurfaces(Surface surface, SurfaceHolder passthroughHolder) {
+        this.previewSurface = surface;
+        this.passthroughHolder = passthroughHolder;
+    }
+
+    /**
+     * The views are going away but the camera keeps running (the record
+     * branch still needs frames). Returns once the repeating request no
+     * longer targets the passthrough surface, which dies with its view.
+     */
+    public void detachSurfaces() {
+        CountDownLatch detached = new CountDownLatch(1);
+        backgroundHandler.post(() -> {
+            previewSurface = null;
+            passthroughHolder = null;
+            if (passthroughSurface != null) {
+                passthroughSurface = null;
+                passthroughLost = true;
+                if (outputState != OUTPUT_PROCESSED) {
+                    outputState = OUTPUT_PROCESSED;
+                    applyOutputs();
+                }
+            }
+            detached.countDown();
+        });
+        try {
+            if (!detached.await(DETACH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) Log.w(TAG, "Surface detach timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start opening a camera before any surface exists. The following
+     * startCamera for the same id picks the device up (or waits for it)
+     * instead of opening it again.
+     */
+    public void openEarly(String cameraId) {
+        openIdle(cameraId);
+    }
+
+    private CameraConfig getConfig(String cameraId) throws CameraAccessException {
+        CameraConfig config = configCache.get(cameraId);
+        if (config != null) return config;
+
+        CameraCharacteristics cc = cameraManager.getCameraCharacteristics(cameraId);
+        StreamConfigurationMap map = cc.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size size = chooseOptimalYuvSize(map.getOutputSizes(ImageFormat.YUV_420_888), MAX_W, MAX_H, TARGET_ASPECT);
+        Range<Integer>[] fpsRanges = cc.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        Size[] surfaceSizes = map.getOutputSizes(SurfaceHolder.class);
+        boolean passthrough = surfaceSizes != null && Arrays.asList(surfaceSizes).contains(size);
+
+        config = new CameraConfig(cc, size, pickFpsRange(fpsRanges, 24, 30), fpsRanges, passthrough,
+                supportsHlgP010(cc, map, size));
+        CameraConfig raced = configCache.putIfAbsent(cameraId, config);
+        return raced != null ? raced : config;
+    }
+
+    /** 10-bit capture needs API 33: the DYNAMIC_RANGE_TEN_BIT capability, HLG10, and P010 at size. */
+    private static boolean supportsHlgP010(CameraCharacteristics cc, StreamConfigurationMap map, Size size) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) return false;
+        int[] caps = cc.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean tenBit = false;
+        if (caps != null) {
+            for (int c : caps) {
+                if (c == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_DYNAMIC_RANGE_TEN_BIT) tenBit = true;
+            }
+        }
+        if (!tenBit) return false;
+        DynamicRangeProfiles profiles = cc.get(CameraCharacteristics.REQUEST_AVAILABLE_DYNAMIC_RANGE_PROFILES);
+        if (profiles == null || !profiles.getSupportedProfiles().contains(DynamicRangeProfiles.HLG10)) return false;
+        Size[] p010Sizes = map.getOutputSizes(ImageFormat.YCBCR_P010);
+        return p010Sizes != null && Arrays.asList(p010Sizes).contains(size);
     }
 
     @SuppressLint("MissingPermission")
     public void startCamera(String cameraId) {
-        CameraManager manager = (CameraManager) mActivity.getSystemService(Context.CAMERA_SERVICE); // Use mActivity to get service
         try {
-            String cameraIdToOpen = cameraId;
-            CameraCharacteristics cc = manager.getCameraCharacteristics(cameraIdToOpen);
-            StreamConfigurationMap map = cc.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            Size[] choices = map.getOutputSizes(ImageFormat.YUV_420_888);
-
-            chosenSize = chooseOptimalYuvSize(choices, MAX_W, MAX_H, TARGET_ASPECT);
+            CameraConfig config = getConfig(cameraId);
+            currentCameraId = cameraId;
+            awaitingFirstFrame = true;
+            chosenSize = config.size;
+            fpsRange = fpsRangeFor(config, decimator);
+            hdrActive = hdrRequested && config.hdrCapable;
+            int format = hdrActive ? ImageFormat.YCBCR_P010 : ImageFormat.YUV_420_888;
             Log.d(TAG, "Chosen YUV size: " + chosenSize.getWidth() + "x" + chosenSize.getHeight());
 
-            // 2. IMPORTANT FIX: Pass the chosen frame size to MainActivity
             // The photo capture happens on this same stream, so these are the dimensions
             // that the C++ code uses when it captures and returns the BGRA buffer.
-            mActivity.setPhotoCaptureSize(chosenSize.getWidth(), chosenSize.getHeight());
-
-            // Use a slightly deeper queue to reduce “Failed to lock window” bursts under load
-            imageReader = ImageReader.newInstance(chosenSize.getWidth(), chosenSize.getHeight(),
-                    ImageFormat.YUV_420_888, /*maxImages*/3);
-
-            imageReader.setOnImageAvailableListener(reader -> {
-                Image image = reader.acquireLatestImage();
-                if (image != null) {
-                    // ... (Frame processing logic remains the same) ...
-
-                    Image.Plane[] planes = image.getPlanes();
-
-                    // Y
-                    ByteBuffer yBuffer = planes[0].getBuffer();
-                    byte[] yData = new byte[yBuffer.remaining()];
-                    yBuffer.get(yData);
-                    int yRowStride = planes[0].getRowStride();
-
-                    // U
-                    ByteBuffer uBuffer = planes[1].getBuffer();
-                    byte[] uData = new byte[uBuffer.remaining()];
-                    uBuffer.get(uData);
-                    int uRowStride = planes[1].getRowStride();
-                    int uPixelStride = planes[1].getPixelStride();
-
-                    // V
-                    ByteBuffer vBuffer = planes[2].getBuffer();
-                    byte[] vData = new byte[vBuffer.remaining()];
-                    vBuffer.get(vData);
-                    int vRowStride = planes[2].getRowStride();
-                    int vPixelStride = planes[2].getPixelStride();
-
-                    // Native processing + preview drawing
-                    processFrameYUV(
-                            yData, uData, vData,
-                            yRowStride, uRowStride, vRowStride,
-                            uPixelStride, vPixelStride,
-                            image.getWidth(), image.getHeight()
-                    );
-
-                    image.close();
+            host.setPhotoCaptureSize(chosenSize.getWidth(), chosenSize.getHeight());
+
+            passthroughSurface = passthroughSurfaceFor(config);
+            passthroughLost = false;
+
+            // The reader (and its buffers) survive a switch when the stream size and format are unchanged
+            boolean reuseReader = imageReader != null
+                    && imageReader.getWidth() == chosenSize.getWidth()
+                    && imageReader.getHeight() == chosenSize.getHeight()
+                    && imageReader.getImageFormat() == format;
+            switchReusedReader = reuseReader;
+            if (!reuseReader) {
+                if (imageReader != null) imageReader.close();
+                // Use a slightly deeper queue to reduce “Failed to lock window” bursts under load
+                imageReader = ImageReader.newInstance(chosenSize.getWidth(), chosenSize.getHeight(),
+                        format, /*maxImages*/3);
+                imageReader.setOnImageAvailableListener(this::onImageAvailable, backgroundHandler);
+            }
+
+            synchronized (preopenLock) {
+                switchPreopened = cameraId.equals(preopenedId);
+                if (switchPreopened && preopenedDevice != null) {
+                    // Already open and idle: go straight to session creation
+                    CameraDevice device = preopenedDevice;
+                    preopenedDevice = null;
+                    preopenedId = null;
+                    backgroundHandler.post(() -> {
+                        cameraDevice = device;
+                        createSession(device);
+                    });
+                    return;
                 }
-            }, backgroundHandler);
+                if (switchPreopened) {
+                    // Still opening; its onOpened creates the session
+                    startWhenOpened = true;
+                    return;
+                }
+            }
+            openCamera(cameraId);
+
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** The passthrough view's surface sized for the stream, or null if it cannot be a camera output now. */
+    private Surface passthroughSurfaceFor(CameraConfig config) {
+        SurfaceHolder holder = passthroughHolder;
+        if (!config.passthroughCapable || hdrActive || holder == null || !holder.getSurface().isValid()) return null;
+        holder.setFixedSize(chosenSize.getWidth(), chosenSize.getHeight());
+        return holder.getSurface();
+    }
+
+    /**
+     * New session on the open device with the current passthrough view's
+     * surface, after the old one went away. Camera thread only.
+     */
+    private void rebuildSessionForPassthrough() {
+        if (cameraDevice == null || currentCameraId == null) return;
+        CameraConfig config = configCache.get(currentCameraId);
+        Surface surface = config != null ? passthroughSurfaceFor(config) : null;
+        if (surface == null) return;    // view not ready; retried when its surface is created
+        passthroughLost = false;
+        passthroughSurface = surface;
+        if (captureSession != null) {
+            try { captureSession.stopRepeating(); } catch (Exception ignore) {}
+            captureSession.close();
+            captureSession = null;
+        }
+        Log.d(TAG, "Rebuilding the session for a new passthrough surface (device stays open)");
+        createSession(cameraDevice);
+    }
 
-            manager.openCamera(cameraIdToOpen, new CameraDevice.StateCallback() {
+    @SuppressLint("MissingPermission")
+    private void openCamera(String cameraId) throws CameraAccessException {
+        cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+            @Override public void onOpened(CameraDevice camera) {
+                StartupTrace.mark(StartupTrace.CAMERA_OPENED);
+                cameraDevice = camera;
+                createSession(camera);
+            }
+
+            @Override public void onDisconnected(CameraDevice camera) { camera.close(); }
+            @Override public void onError(CameraDevice camera, int error) { camera.close(); }
+        }, backgroundHandler);
+    }
+
+    private void createSession(CameraDevice camera) {
+        try {
+            // ImageReader always; the passthrough surface too when supported.
+            // NOTE: previewSurface is not used as a target for the capture session,
+            // it's only provided to the native layer to draw the processed frame.
+            CameraCaptureSession.StateCallback callback = new CameraCaptureSession.StateCallback() {
+                @Override public void onConfigured(CameraCaptureSession session) {
+                    captureSession = session;
+                    outputState = wantPassthrough && passthroughSurface != null
+                            ? OUTPUT_PASSTHROUGH : OUTPUT_PROCESSED;
+                    if (outputState == OUTPUT_PASSTHROUGH) clearPreview(host.livePipeline().handle());
+                    applyOutputs();
+                    if (pipRequested) startPip();   // after a switch or a restart, with the new main camera
+                }
+                @Override public void onConfigureFailed(CameraCaptureSession session) {}
+            };
+            if (hdrActive && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                OutputConfiguration reader = new OutputConfiguration(imageReader.getSurface());
+                reader.setDynamicRangeProfile(DynamicRangeProfiles.HLG10);
+                camera.createCaptureSessionByOutputConfigurations(
+                        Collections.singletonList(reader), callback, backgroundHandler);
+                return;
+            }
+            List<Surface> outputs = new ArrayList<>();
+            outputs.add(imageReader.getSurface());
+            if (passthroughSurface != null) outputs.add(passthroughSurface);
+            camera.createCaptureSession(outputs, callback, backgroundHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image != null) {
+            if (outputState == OUTPUT_ENTERING_PASSTHROUGH) {
+                // Uncover the passthrough view, then stop feeding the ImageReader
+                image.close();
+                clearPreview(host.livePipeline().handle());
+                outputState = OUTPUT_PASSTHROUGH;
+                applyOutputs();
+                return;
+            }
+            if (outputState == OUTPUT_PASSTHROUGH) {
+                // A filter strip capture; the display is fed straight from the camera
+                if (image.getFormat() != ImageFormat.YCBCR_P010) processFilterAtlasImage(image);
+                image.close();
+                return;
+            }
+            // Decide before copying anything; dropped frames go straight back to the camera
+            FrameDecimator d = decimator;
+            int kind = d != null ? d.classify(image.getTimestamp()) : FrameDecimator.RECORD;
+            if (kind == FrameDecimator.DROP) {
+                image.close();
+                return;
+            }
+            boolean record = kind == FrameDecimator.RECORD;
+            long recordPtsUs = record && d != null ? d.presentationTimeUs() : -1;
+
+            Image.Plane[] planes = image.getPlanes();
+
+            // Y
+            ByteBuffer yBuffer = planes[0].getBuffer();
+            byte[] yData = new byte[yBuffer.remaining()];
+            yBuffer.get(yData);
+            int yRowStride = planes[0].getRowStride();
+
+            // U
+            ByteBuffer uBuffer = planes[1].getBuffer();
+            byte[] uData = new byte[uBuffer.remaining()];
+            uBuffer.get(uData);
+            int uRowStride = planes[1].getRowStride();
+            int uPixelStride = planes[1].getPixelStride();
+
+            // V
+            ByteBuffer vBuffer = planes[2].getBuffer();
+            byte[] vData = new byte[vBuffer.remaining()];
+            vBuffer.get(vData);
+            int vRowStride = planes[2].getRowStride();
+            int vPixelStride = planes[2].getPixelStride();
+
+            // Native processing + preview drawing
+            if (image.getFormat() == ImageFormat.YCBCR_P010) {
+                // Strides are in bytes; U and V interleave in one plane (pixel stride 4)
+                processFrameP010(
+                        host.livePipeline().handle(), yData, uData, vData,
+                        yRowStride, uRowStride, uPixelStride,
+                        image.getWidth(), image.getHeight(), record, recordPtsUs
+                );
+            } else {
+                updateColorSpace(image);
+                processFrameYUV(
+                        host.livePipeline().handle(), yData, uData, vData,
+                        yRowStride, uRowStride, vRowStride,
+                        uPixelStride, vPixelStride,
+                        image.getWidth(), image.getHeight(), record, recordPtsUs
+                );
+            }
+
+            image.close();
+            onFirstFrameShown("processed");
+
+            if (outputState == OUTPUT_LEAVING_PASSTHROUGH) {
+                // A processed frame now covers the passthrough view
+                outputState = OUTPUT_PROCESSED;
+                applyOutputs();
+            }
+        }
+    }
+
+    private void processFilterAtlasImage(Image image) {
+        updateColorSpace(image);
+        Image.Plane[] planes = image.getPlanes();
+        processFilterAtlasFrameYUV(
+                copyPlane(planes[0].getBuffer(), null),
+                copyPlane(planes[1].getBuffer(), null),
+                copyPlane(planes[2].getBuffer(), null),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[2].getRowStride(),
+                planes[1].getPixelStride(), planes[2].getPixelStride(),
+                image.getWidth(), image.getHeight()
+        );
+    }
+
+    // In passthrough no frame reaches the ImageReader; the first capture result stands in
+    private final CameraCaptureSession.CaptureCallback passthroughFirstFrame =
+            new CameraCaptureSession.CaptureCallback() {
+                @Override public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                                         TotalCaptureResult result) {
+                    if (outputState == OUTPUT_PASSTHROUGH) onFirstFrameShown("passthrough");
+                }
+            };
+
+    private void onFirstFrameShown(String path) {
+        if (!awaitingFirstFrame) return;
+        awaitingFirstFrame = false;
+        long start = switchStartNs;
+        if (start != 0) {
+            switchStartNs = 0;
+            Log.d(TAG, String.format(Locale.US,
+                    "Camera switch to %s: %.1f ms to first %s frame (reader %s, device %s)",
+                    currentCameraId, (SystemClock.elapsedRealtimeNanos() - start) / 1e6, path,
+                    switchReusedReader ? "reused" : "new", switchPreopened ? "pre-opened" : "opened"));
+        }
+        if (StartupTrace.mark(StartupTrace.FIRST_FRAME)) {
+            host.onFirstFrameShown();
+        }
+        maybePreopen();
+    }
+
+    /**
+     * Switch to another camera, keeping the thread, the ImageReader (if the
+     * size matches) and the cached configuration. tapTimeNs is the
+     * SystemClock.elapsedRealtimeNanos() of the user action, for latency logging.
+     * The switch runs on the camera thread, so no frame callback sees a
+     * half-switched session; onStarted (may be null) runs there afterwards,
+     * once getChosenSize() and isHdrActive() describe the new stream.
+     */
+    public void switchCamera(String cameraId, long tapTimeNs, Runnable onStarted) {
+        switchStartNs = tapTimeNs;
+        backgroundHandler.post(() -> {
+            stopPip();          // the inset camera becomes the main one
+            closeSession();
+            startCamera(cameraId);
+            if (onStarted != null) onStarted.run();
+        });
+    }
+
+    /**
+     * Keep the other camera open while idle when the device can stream both
+     * at once and memory is not tight; otherwise opening it could evict the
+     * active camera or push the app into low-memory territory.
+     */
+    private void maybePreopen() {
+        String other = otherCameraId(currentCameraId);
+        synchronized (preopenLock) {
+            if (preopenedId != null) return;
+        }
+        if (pipCameraId != null) return;    // already streaming as the inset
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo mem = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(mem);
+        if (am.isLowRamDevice() || mem.lowMemory) return;
+
+        if (!canStreamConcurrently(currentCameraId, other)) return;
+        openIdle(other);
+    }
+
+    private static String otherCameraId(String cameraId) {
+        return BACK_CAMERA_ID.equals(cameraId) ? FRONT_CAMERA_ID : BACK_CAMERA_ID;
+    }
+
+    /** Whether the two cameras may stream at the same time (API 30+). */
+    private boolean canStreamConcurrently(String a, String b) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return false;
+        try {
+            for (Set<String> ids : cameraManager.getConcurrentCameraIds()) {
+                if (ids.contains(a) && ids.contains(b)) return true;
+            }
+        } catch (CameraAccessException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /** Open a camera without a session and park it in preopenedDevice. */
+    @SuppressLint("MissingPermission")
+    private void openIdle(String cameraId) {
+        synchronized (preopenLock) {
+            if (preopenedId != null) return;
+            preopenedId = cameraId;
+            startWhenOpened = false;
+        }
+        try {
+            getConfig(cameraId);
+            cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
                 @Override public void onOpened(CameraDevice camera) {
-                    cameraDevice = camera;
-
-                    try {
-                        // Single-output session (only ImageReader) to keep camera path light.
-                        // NOTE: previewSurface is not used as a target for the capture session,
-                        // it's only provided to the native layer to draw the processed frame.
-                        camera.createCaptureSession(
-                                Collections.singletonList(imageReader.getSurface()),
-                                new CameraCaptureSession.StateCallback() {
-                                    @Override public void onConfigured(CameraCaptureSession session) {
-                                        captureSession = session;
-                                        try {
-                                            CaptureRequest.Builder builder =
-                                                    camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-                                            builder.addTarget(imageReader.getSurface());
-
-                                            // Try to keep FPS modest and stable
-                                            Range<Integer>[] fpsRanges =
-                                                    cc.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
-                                            Range<Integer> preferred = pickFpsRange(fpsRanges, 24, 30);
-                                            if (preferred != null) {
-                                                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, preferred);
-                                            }
-
-                                            session.setRepeatingRequest(builder.build(), null, backgroundHandler);
-                                        } catch (CameraAccessException e) {
-                                            e.printStackTrace();
-                                        }
-                                    }
-                                    @Override public void onConfigureFailed(CameraCaptureSession session) {}
-                                },
-                                backgroundHandler
-                        );
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
+                    StartupTrace.mark(StartupTrace.CAMERA_OPENED);
+                    boolean start;
+                    synchronized (preopenLock) {
+                        start = startWhenOpened && cameraId.equals(preopenedId);
+                        if (start) {
+                            preopenedId = null;
+                            startWhenOpened = false;
+                        } else if (cameraId.equals(preopenedId)) {
+                            preopenedDevice = camera;
+                            return;
+                        }
+                    }
+                    if (start) {
+                        cameraDevice = camera;
+                        createSession(camera);
+                    } else {
+                        camera.close();   // released while opening
                     }
                 }
-
-                @Override public void onDisconnected(CameraDevice camera) { camera.close(); }
-                @Override public void onError(CameraDevice camera, int error) { camera.close(); }
+                @Override public void onDisconnected(CameraDevice camera) { dropPreopened(cameraId, camera); }
+                @Override public void onError(CameraDevice camera, int error) { dropPreopened(cameraId, camera); }
             }, backgroundHandler);
-
         } catch (CameraAccessException e) {
-            e.printStackTrace();
+            synchronized (preopenLock) {
+                preopenedId = null;
+            }
+            Log.w(TAG, "Pre-open failed", e);
+        }
+    }
+
+    private void dropPreopened(String cameraId, CameraDevice camera) {
+        camera.close();
+        boolean restart;
+        synchronized (preopenLock) {
+            // ignore devices that were already claimed or replaced
+            if (!cameraId.equals(preopenedId) || (preopenedDevice != null && preopenedDevice != camera)) return;
+            restart = startWhenOpened;
+            preopenedDevice = null;
+            preopenedId = null;
+            startWhenOpened = false;
+        }
+        if (restart) {
+            // startCamera was waiting on this device; open it the regular way
+            try {
+                openCamera(cameraId);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     // ... (rest of the methods remain the same) ...
 
+    /** True if the camera can stream 10-bit HLG at its chosen size (API 33+). */
+    public boolean isHdrCapable(String cameraId) {
+        try {
+            return getConfig(cameraId).hdrCapable;
+        } catch (CameraAccessException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tell native the matrix and range of the 8-bit stream when they change.
+     * The data space is only reported from API 33; before that camera YUV is
+     * JFIF (BT.601, full range) by definition.
+     */
+    private void updateColorSpace(Image image) {
+        int dataSpace = dataSpaceOf(image);
+        if (dataSpace == streamDataSpace) return;
+        streamDataSpace = dataSpace;
+        int standard = colorStandardOf(dataSpace);
+        int range = colorRangeOf(dataSpace);
+        Log.d(TAG, "Stream data space 0x" + Integer.toHexString(dataSpace) + ": standard " + standard + ", range " + range);
+        setCameraColorSpace(standard, range);
+    }
+
+    private static int dataSpaceOf(Image image) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU ? image.getDataSpace() : 0;
+    }
+
+    private static int colorStandardOf(int dataSpace) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || dataSpace == DataSpace.DATASPACE_UNKNOWN) {
+            return COLOR_STANDARD_BT601_PAL;
+        }
+        switch (DataSpace.getStandard(dataSpace)) {
+            case DataSpace.STANDARD_BT709:
+                return COLOR_STANDARD_BT709;
+            case DataSpace.STANDARD_BT601_525:
+            case DataSpace.STANDARD_BT601_525_UNADJUSTED:
+                return COLOR_STANDARD_BT601_NTSC;
+            case DataSpace.STANDARD_BT2020:
+            case DataSpace.STANDARD_BT2020_CONSTANT_LUMINANCE:
+                return COLOR_STANDARD_BT2020;
+            default:
+                return COLOR_STANDARD_BT601_PAL;
+        }
+    }
+
+    private static int colorRangeOf(int dataSpace) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || dataSpace == DataSpace.DATASPACE_UNKNOWN) {
+            return COLOR_RANGE_FULL;
+        }
+        return DataSpace.getRange(dataSpace) == DataSpace.RANGE_LIMITED ? COLOR_RANGE_LIMITED : COLOR_RANGE_FULL;
+    }
+
+    /** Whether the running stream is P010 (HDR); false until startCamera ran. */
+    public boolean isHdrActive() {
+        return hdrActive;
+    }
+
+    /**
+     * Ask for 10-bit HDR capture. Takes effect on cameras that support it;
+     * the session is rebuilt on the camera thread because the ImageReader
+     * format changes. onStarted (may be null) runs there afterwards.
+     */
+    public void setHdrMode(boolean enable, Runnable onStarted) {
+        backgroundHandler.post(() -> {
+            if (enable != hdrRequested) {
+                hdrRequested = enable;
+                // Without an open device the next startCamera picks it up
+                if (currentCameraId != null && cameraDevice != null && isHdrCapable(currentCameraId)) {
+                    closeSession();
+                    startCamera(currentCameraId);
+                }
+            }
+            if (onStarted != null) onStarted.run();
+        });
+    }
+
     public Size getChosenSize() {
         return chosenSize;
     }
 
-    public void shutdown() {
+    /** Cached characteristics, so callers need not query the camera service again. */
+    public CameraCharacteristics getCharacteristics(String cameraId) {
+        try {
+            return getConfig(cameraId).characteristics;
+        } catch (CameraAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Route frames straight to the display (true) or through native processing.
+     * Callers must only enable this when nothing needs processed frames: no
+     * filter, not recording, no photo pending.
+     */
+    public void setPassthrough(boolean enable) {
+        backgroundHandler.post(() -> {
+            wantPassthrough = enable;
+            if (captureSession == null) return;
+            if (passthroughLost) {
+                if (enable) rebuildSessionForPassthrough();
+                return;
+            }
+            if (passthroughSurface == null) return;
+            boolean inPassthrough = outputState == OUTPUT_PASSTHROUGH || outputState == OUTPUT_ENTERING_PASSTHROUGH;
+            if (enable == inPassthrough) return;
+            // Transitions stream to both outputs until the first processed frame arrives
+            outputState = enable ? OUTPUT_ENTERING_PASSTHROUGH : OUTPUT_LEAVING_PASSTHROUGH;
+            applyOutputs();
+        });
+    }
+
+    /**
+     * Keep frames coming for the filter strip previews (true) while the strip
+     * is on screen. Only passthrough needs this: there the ImageReader gets
+     * no frames from the repeating request.
+     */
+    public void setFilterAtlasActive(boolean active) {
+        backgroundHandler.post(() -> {
+            if (active == filterAtlasActive) return;
+            filterAtlasActive = active;
+            backgroundHandler.removeCallbacks(filterAtlasCapture);
+            if (active) backgroundHandler.post(filterAtlasCapture);
+        });
+    }
+
+    private void captureFilterAtlasFrame() {
+        if (!filterAtlasActive) return;
+        backgroundHandler.postDelayed(filterAtlasCapture, FILTER_ATLAS_INTERVAL_MS);
+        if (outputState != OUTPUT_PASSTHROUGH || cameraDevice == null || captureSession == null) return;
+        try {
+            // The passthrough view stays a target so the display does not miss this frame
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(imageReader.getSurface());
+            builder.addTarget(passthroughSurface);
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            captureSession.capture(builder.build(), null, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Record fewer frames than the camera delivers (null: all of them). The
+     * camera's target fps range follows the decimator so it does not run
+     * faster than needed; frames are still dropped here on top of that.
+     */
+    public void setFrameDecimation(FrameDecimator frameDecimator) {
+        backgroundHandler.post(() -> {
+            decimator = frameDecimator;
+            if (currentCameraId == null) return;   // the next startCamera picks it up
+            try {
+                fpsRange = fpsRangeFor(getConfig(currentCameraId), frameDecimator);
+            } catch (CameraAccessException e) {
+                return;
+            }
+            applyOutputs();
+        });
+    }
+
+    /** The default range, or the tightest one that covers what the decimator needs. */
+    private static Range<Integer> fpsRangeFor(CameraConfig config, FrameDecimator frameDecimator) {
+        if (frameDecimator == null) return config.fpsRange;
+        int fps = frameDecimator.cameraFps();
+        Range<Integer> range = pickFpsRange(config.fpsRanges, fps, fps);
+        return range != null ? range : config.fpsRange;
+    }
+
+    /** True if the other camera can be shown as an inset next to cameraId on this device. */
+    public boolean isPictureInPictureSupported(String cameraId) {
+        return canStreamConcurrently(cameraId, otherCameraId(cameraId));
+    }
+
+    /** Stream the other camera as a picture-in-picture inset (true) or stop it. */
+    public void setPictureInPicture(boolean enable) {
+        backgroundHandler.post(() -> {
+            pipRequested = enable;
+            if (enable) startPip();
+            else stopPip();
+        });
+    }
+
+    /** Open the other camera at inset size, taking over the pre-opened device if there is one. */
+    @SuppressLint("MissingPermission")
+    private void startPip() {
+        if (pipCameraId != null || currentCameraId == null) return;
+        String other = otherCameraId(currentCameraId);
+        if (!canStreamConcurrently(currentCameraId, other)) {
+            Log.w(TAG, "Picture-in-picture: cameras " + currentCameraId + " and " + other + " cannot stream together");
+            return;
+        }
+        try {
+            CameraCharacteristics cc = getConfig(other).characteristics;
+            StreamConfigurationMap map = cc.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size size = chooseOptimalYuvSize(map.getOutputSizes(ImageFormat.YUV_420_888), PIP_MAX_W, PIP_MAX_H, TARGET_ASPECT);
+            Integer main = getConfig(currentCameraId).characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer inset = cc.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            setPipSourceRotation(main != null && inset != null ? (inset - main + 360) % 360 : 0);
+
+            pipCameraId = other;
+            pipReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, /*maxImages*/2);
+            pipReader.setOnImageAvailableListener(this::onPipImageAvailable, backgroundHandler);
+            Log.d(TAG, "Picture-in-picture: camera " + other + " at " + size.getWidth() + "x" + size.getHeight());
+
+            CameraDevice preopened = null;
+            synchronized (preopenLock) {
+                if (other.equals(preopenedId)) {
+                    // Claim the idle device, or let a pending pre-open close itself (see openIdle)
+                    preopened = preopenedDevice;
+                    preopenedDevice = null;
+                    preopenedId = null;
+                    startWhenOpened = false;
+                }
+            }
+            if (preopened != null) {
+                createPipSession(preopened);
+                return;
+            }
+            cameraManager.openCamera(other, new CameraDevice.StateCallback() {
+                @Override public void onOpened(CameraDevice camera) {
+                    if (!other.equals(pipCameraId) || pipDevice != null) {
+                        camera.close();     // stopped while opening
+                        return;
+                    }
+                    createPipSession(camera);
+                }
+                @Override public void onDisconnected(CameraDevice camera) { onPipLost(camera); }
+                @Override public void onError(CameraDevice camera, int error) { onPipLost(camera); }
+            }, backgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Picture-in-picture failed to start", e);
+            stopPip();
+        }
+    }
+
+    private void createPipSession(CameraDevice camera) {
+        pipDevice = camera;
+        try {
+            camera.createCaptureSession(Collections.singletonList(pipReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override public void onConfigured(CameraCaptureSession session) {
+                            if (pipDevice != camera) {
+                                session.close();
+                                return;
+                            }
+                            pipSession = session;
+                            try {
+                                CaptureRequest.Builder builder = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                                builder.addTarget(pipReader.getSurface());
+                                Range<Integer> range = getConfig(pipCameraId).fpsRange;
+                                if (range != null) builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+                                session.setRepeatingRequest(builder.build(), null, backgroundHandler);
+                            } catch (CameraAccessException | IllegalStateException e) {
+                                Log.w(TAG, "Picture-in-picture request failed", e);
+                            }
+                        }
+                        @Override public void onConfigureFailed(CameraCaptureSession session) {
+                            Log.w(TAG, "Picture-in-picture session rejected");
+                        }
+                    }, backgroundHandler);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Picture-in-picture session failed", e);
+        }
+    }
+
+    private void onPipLost(CameraDevice camera) {
+        camera.close();
+        if (pipDevice == camera) {
+            pipDevice = null;
+            stopPip();
+        }
+    }
+
+    /** Close the inset camera; native drops the inset once its last frame is stale. */
+    private void stopPip() {
+        if (pipSession != null) {
+            try { pipSession.stopRepeating(); } catch (Exception ignore) {}
+            pipSession.close();
+            pipSession = null;
+        }
+        if (pipDevice != null) {
+            pipDevice.close();
+            pipDevice = null;
+        }
+        if (pipReader != null) {
+            pipReader.close();
+            pipReader = null;
+        }
+        pipCameraId = null;
+    }
+
+    private void onPipImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) return;
+        Image.Plane[] planes = image.getPlanes();
+        pipY = copyPlane(planes[0].getBuffer(), pipY);
+        pipU = copyPlane(planes[1].getBuffer(), pipU);
+        pipV = copyPlane(planes[2].getBuffer(), pipV);
+        int dataSpace = dataSpaceOf(image);
+        processSecondaryFrameYUV(pipY, pipU, pipV,
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[2].getRowStride(),
+                planes[1].getPixelStride(), planes[2].getPixelStride(),
+                image.getWidth(), image.getHeight(), colorStandardOf(dataSpace), colorRangeOf(dataSpace));
+        image.close();
+    }
+
+    private static byte[] copyPlane(ByteBuffer plane, byte[] reuse) {
+        byte[] out = reuse != null && reuse.length == plane.remaining() ? reuse : new byte[plane.remaining()];
+        plane.get(out);
+        return out;
+    }
+
+    /** Rebuild the repeating request for the current output state. Camera thread only. */
+    private void applyOutputs() {
+        if (cameraDevice == null || captureSession == null) return;
+        try {
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            if (outputState != OUTPUT_PASSTHROUGH) builder.addTarget(imageReader.getSurface());
+            if (outputState != OUTPUT_PROCESSED) builder.addTarget(passthroughSurface);
+
+            // Try to keep FPS modest and stable
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            captureSession.setRepeatingRequest(builder.build(),
+                    awaitingFirstFrame ? passthroughFirstFrame : null, backgroundHandler);
+            Log.d(TAG, "Camera outputs: " + (outputState == OUTPUT_PASSTHROUGH ? "passthrough"
+                    : outputState == OUTPUT_PROCESSED ? "processed" : "transition"));
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Close the session and device; the thread, ImageReader and cached configs stay. */
+    private void closeSession() {
         if (captureSession != null) {
             try { captureSession.stopRepeating(); } catch (Exception ignore) {}
             captureSession.close();
@@ -183,12 +993,36 @@ public class CameraHandler {
             cameraDevice.close();
             cameraDevice = null;
         }
+    }
+
+    public void shutdown() {
+        stopPip();
+        closeSession();
+        synchronized (preopenLock) {
+            if (preopenedDevice != null) {
+                preopenedDevice.close();
+                preopenedDevice = null;
+            }
+            preopenedId = null;
+            startWhenOpened = false;
+        }
         if (imageReader != null) {
             imageReader.close();
             imageReader = null;
         }
     }
 
+    /**
+     * Shut down and stop the camera thread; afterLastFrame runs on it once no
+     * more frames will be processed. The handler cannot be used afterwards.
+     */
+    public void release(Runnable afterLastFrame) {
+        shutdown();
+        backgroundHandler.post(afterLastFrame);
+        backgroundHandler.post(ThreadPolicy::unregisterCurrentThread);
+        backgroundThread.quitSafely();
+    }
+
     private static Size chooseOptimalYuvSize(Size[] choices, int maxW, int maxH, double targetAspect) {
         List<Size> candidates = new ArrayList<>();
         for (Size s : choices) {
@@ -243,4 +1077,4 @@ public class CameraHandler {
         }
         return best;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package com.nm.cameralivefx;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reader for the exposure scopes the native preview pass publishes: luma
+ * histogram, waveform and a coarse zebra (clipped highlight) mask.
+ *
+ * Native code alternates between two direct buffers, each stamped with a
+ * sequence number that is odd while it is being written. poll() copies the
+ * newer buffer and re-checks its sequence, so no lock or JNI call is needed
+ * per read. The layout mirrors ExposureScopes.hpp.
+ */
+public final class ExposureScopes {
+
+    public static final int HISTOGRAM = 1;
+    public static final int ZEBRA = 2;
+    public static final int WAVEFORM = 4;
+
+    public static final int WAVEFORM_COLUMNS = 128;
+    public static final int WAVEFORM_LEVELS = 64;
+    public static final int ZEBRA_COLS = 32;
+    public static final int ZEBRA_ROWS = 18;
+
+    private static final int HEADER_INTS = 8;
+    private static final int HISTOGRAM_OFFSET = HEADER_INTS * 4;
+    private static final int WAVEFORM_OFFSET = HISTOGRAM_OFFSET + 256 * 4;
+    private static final int ZEBRA_OFFSET = WAVEFORM_OFFSET + WAVEFORM_COLUMNS * WAVEFORM_LEVELS;
+    private static final int MAX_RETRIES = 3;
+
+    /** One published frame's worth of scopes. Arrays are reused by the next poll(). */
+    public static final class Snapshot {
+        public int sequence;
+        public int frameWidth, frameHeight;
+        public int samples;
+        public int clippedSamples;       // only counted while zebra is on
+        public int flags;
+        public final int[] histogram = new int[256];
+        /** Intensity at column * WAVEFORM_LEVELS + level (level 0 = black), 0..255. */
+        public final byte[] waveform = new byte[WAVEFORM_COLUMNS * WAVEFORM_LEVELS];
+        /** Row-major ZEBRA_COLS x ZEBRA_ROWS, share of clipped samples per cell (0..255). */
+        public final byte[] zebra = new byte[ZEBRA_COLS * ZEBRA_ROWS];
+    }
+
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private final Snapshot snapshot = new Snapshot();
+    private int lastSequence = 0;
+
+    public ExposureScopes(ByteBuffer[] nativeBuffers) {
+        for (int i = 0; i < 2; i++) buffers[i] = nativeBuffers[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** The newest published scopes, or null if nothing new (or a write kept racing the copy). */
+    public Snapshot poll() {
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            int s0 = buffers[0].getInt(0);
+            int s1 = buffers[1].getInt(0);
+            ByteBuffer b = Integer.compareUnsigned(s0, s1) >= 0 ? buffers[0] : buffers[1];
+            int seq = b.getInt(0);
+            if (seq == lastSequence || seq == 0) return null;
+            if ((seq & 1) != 0) continue;
+
+            snapshot.frameWidth = b.getInt(4);
+            snapshot.frameHeight = b.getInt(8);
+            snapshot.samples = b.getInt(12);
+            snapshot.clippedSamples = b.getInt(16);
+            snapshot.flags = b.getInt(20);
+            for (int i = 0; i < 256; i++) snapshot.histogram[i] = b.getInt(HISTOGRAM_OFFSET + i * 4);
+            ByteBuffer d = b.duplicate();
+            d.position(WAVEFORM_OFFSET);
+            d.get(snapshot.waveform);
+            d.position(ZEBRA_OFFSET);
+            d.get(snapshot.zebra);
+
+            if (b.getInt(0) != seq) continue;   // overwritten while copying
+            snapshot.sequence = seq;
+            lastSequence = seq;
+            return snapshot;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,87 @@
+package com.nm.cameralivefx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of filters and adjustments applied in order, e.g. a LUT followed by
+ * exposure, contrast and saturation. commit() hands the chain to native code,
+ * which bakes it into a single 33^3 LUT on a worker thread, so the per-pixel
+ * cost does not grow with the chain. A chain that reduces to a single
+ * registered filter is bound directly and keeps that filter's fast path.
+ *
+ * Nodes are addressed by the index their add* method returns, so sliders can
+ * update a value in place and commit again. Rapid commits are coalesced:
+ * only the latest chain is baked.
+ */
+public class FilterGraph {
+
+    // Must match GraphOp::Type in FilterGraph.hpp
+    public static final int OP_FILTER = 0;
+    public static final int OP_EXPOSURE = 1;     // stops, 0 = neutral
+    public static final int OP_CONTRAST = 2;     // factor, 1 = neutral
+    public static final int OP_SATURATION = 3;   // factor, 1 = neutral
+
+    private static native void nativeCommit(int[] types, String[] names, float[] values);
+    private static native float[] nativeGetBakeStats();
+
+    private final List<Integer> types = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Float> values = new ArrayList<>();
+
+    public int addFilter(String name) {
+        return add(OP_FILTER, name, 0f);
+    }
+
+    public int addExposure(float stops) {
+        return add(OP_EXPOSURE, null, stops);
+    }
+
+    public int addContrast(float factor) {
+        return add(OP_CONTRAST, null, factor);
+    }
+
+    public int addSaturation(float factor) {
+        return add(OP_SATURATION, null, factor);
+    }
+
+    public void setFilter(int node, String name) {
+        if (types.get(node) != OP_FILTER) throw new IllegalArgumentException("Node " + node + " is not a filter");
+        names.set(node, name);
+    }
+
+    public void setValue(int node, float value) {
+        if (types.get(node) == OP_FILTER) throw new IllegalArgumentException("Node " + node + " is a filter");
+        values.set(node, value);
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    /** Make this chain the active filter. Returns immediately; baking happens off-thread. */
+    public void commit() {
+        int n = types.size();
+        int[] t = new int[n];
+        String[] s = new String[n];
+        float[] v = new float[n];
+        for (int i = 0; i < n; i++) {
+            t[i] = types.get(i);
+            s[i] = names.get(i);
+            v[i] = values.get(i);
+        }
+        nativeCommit(t, s, v);
+    }
+
+    /** Returns {bakes, avg bake ms, max bake ms}. */
+    public static float[] getBakeStats() {
+        return nativeGetBakeStats();
+    }
+
+    private int add(int type, String name, float value) {
+        types.add(type);
+        names.add(name);
+        values.add(value);
+        return types.size() - 1;
+    }
+}
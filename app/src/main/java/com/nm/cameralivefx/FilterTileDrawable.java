@@ -0,0 +1,74 @@
+package com.nm.cameralivefx;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * One filter's live preview: a tile of the shared filter atlas, center-cropped
+ * to a fixed size so chips keep their size as the camera turns. Draws
+ * nothing until the first atlas arrives. UI thread only.
+ */
+final class FilterTileDrawable extends Drawable {
+
+    private final int tile;
+    private final int width;
+    private final int height;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect src = new Rect();
+    private Bitmap atlas;
+
+    /** tile is the filter's index in nativeGetFilterAtlasNames(); width x height in pixels. */
+    FilterTileDrawable(int tile, int width, int height) {
+        this.tile = tile;
+        this.width = width;
+        this.height = height;
+    }
+
+    int tile() {
+        return tile;
+    }
+
+    /** A new atlas: tiles of tileWidth x tileHeight, columns per row. */
+    void setAtlas(Bitmap atlas, int tileWidth, int tileHeight, int columns) {
+        this.atlas = atlas;
+        int left = (tile % columns) * tileWidth;
+        int top = (tile / columns) * tileHeight;
+        // Crop the tile to this drawable's aspect ratio around its centre
+        int w = tileWidth, h = tileHeight;
+        if ((long) w * height > (long) h * width) w = h * width / height;
+        else h = w * height / width;
+        left += (tileWidth - w) / 2;
+        top += (tileHeight - h) / 2;
+        src.set(left, top, left + w, top + h);
+        invalidateSelf();
+    }
+
+    @Override public void draw(Canvas canvas) {
+        if (atlas != null) canvas.drawBitmap(atlas, src, getBounds(), paint);
+    }
+
+    @Override public int getIntrinsicWidth() {
+        return width;
+    }
+
+    @Override public int getIntrinsicHeight() {
+        return height;
+    }
+
+    @Override public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+    }
+
+    @Override public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+    }
+
+    @Override public int getOpacity() {
+        return PixelFormat.OPAQUE;
+    }
+}
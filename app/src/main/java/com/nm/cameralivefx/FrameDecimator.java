@@ -0,0 +1,130 @@
+package com.nm.cameralivefx;
+
+/**
+ * Decides per camera frame, from its sensor timestamp and before any plane
+ * is copied, whether it is recorded, only shown, or dropped; used when the
+ * recording needs fewer frames than the camera delivers (15 fps capture,
+ * time-lapse). Frames that are dropped here cost no copy, no JNI call and no
+ * filtering.
+ *
+ * Both cadences run on a fixed schedule rather than "at least one interval
+ * since the last frame", so a 30 fps camera recorded at 12 fps keeps 12
+ * frames a second (3, 2, 3, 2 ... apart) instead of 10.
+ *
+ * A time-lapse is retimed: recorded frames are stamped one output frame
+ * apart, so playback runs captureInterval x playbackFps times faster, and it
+ * has no audio. Other rates keep the pipeline's own timestamps.
+ *
+ * Camera thread only, except restart().
+ */
+public final class FrameDecimator {
+
+    public static final int DROP = 0;
+    public static final int PREVIEW = 1;
+    public static final int RECORD = 2;
+
+    // Slack for camera timestamp jitter, as a share of the (shorter) preview
+    // interval, which is about what the camera delivers; the fixed schedule
+    // keeps an early frame from shifting the ones after it
+    private static final int TOLERANCE_DIVISOR = 4;
+
+    private final long captureIntervalNs;
+    private final long previewIntervalNs;
+    private final int playbackFps;
+    private final boolean timeLapse;
+    private final long toleranceNs;
+
+    private long nextRecordNs = -1;
+    private long nextPreviewNs = -1;
+    private long recorded = 0;                  // since restart()
+    private volatile boolean restartPending = false;
+
+    private FrameDecimator(long captureIntervalNs, long previewIntervalNs, int playbackFps, boolean timeLapse) {
+        this.captureIntervalNs = captureIntervalNs;
+        this.previewIntervalNs = Math.min(previewIntervalNs, captureIntervalNs);
+        this.playbackFps = playbackFps;
+        this.timeLapse = timeLapse;
+        this.toleranceNs = this.previewIntervalNs / TOLERANCE_DIVISOR;
+    }
+
+    /** Record (and show) fps frames a second in real time. */
+    public static FrameDecimator atRate(int fps) {
+        if (fps <= 0) throw new IllegalArgumentException("fps must be positive: " + fps);
+        long interval = 1_000_000_000L / fps;
+        return new FrameDecimator(interval, interval, fps, false);
+    }
+
+    /**
+     * Record one frame every captureIntervalMs, played back at playbackFps;
+     * the preview keeps running at previewFps.
+     */
+    public static FrameDecimator timeLapse(long captureIntervalMs, int playbackFps, int previewFps) {
+        if (captureIntervalMs <= 0 || playbackFps <= 0 || previewFps <= 0) {
+            throw new IllegalArgumentException("time-lapse needs positive interval and rates");
+        }
+        return new FrameDecimator(captureIntervalMs * 1_000_000L, 1_000_000_000L / previewFps, playbackFps, true);
+    }
+
+    /** Frame rate to ask the camera for: enough for the faster of the two cadences. */
+    public int cameraFps() {
+        return (int) Math.round(1e9 / previewIntervalNs);
+    }
+
+    public int playbackFps() {
+        return playbackFps;
+    }
+
+    /** Time-lapses are retimed and silent. */
+    public boolean isTimeLapse() {
+        return timeLapse;
+    }
+
+    /** Playback speed relative to real time (1 unless a time-lapse). */
+    public double speedup() {
+        return timeLapse ? captureIntervalNs * playbackFps / 1e9 : 1.0;
+    }
+
+    /** Start counting recorded frames from zero at the next frame (recording start). Any thread. */
+    public void restart() {
+        restartPending = true;
+    }
+
+    /** DROP, PREVIEW or RECORD for the frame taken at timestampNs. */
+    public int classify(long timestampNs) {
+        if (restartPending) {
+            restartPending = false;
+            recorded = 0;
+            nextRecordNs = -1;
+        }
+        if (due(timestampNs, nextRecordNs)) {
+            nextRecordNs = advance(timestampNs, nextRecordNs, captureIntervalNs);
+            nextPreviewNs = timestampNs + previewIntervalNs;
+            recorded++;
+            return RECORD;
+        }
+        if (due(timestampNs, nextPreviewNs)) {
+            nextPreviewNs = advance(timestampNs, nextPreviewNs, previewIntervalNs);
+            return PREVIEW;
+        }
+        return DROP;
+    }
+
+    /**
+     * Presentation time for the frame classify() just recorded: one output
+     * frame after the previous one for a time-lapse, or -1 to keep the
+     * pipeline's own clock.
+     */
+    public long presentationTimeUs() {
+        return timeLapse ? (recorded - 1) * 1_000_000L / playbackFps : -1;
+    }
+
+    private boolean due(long t, long next) {
+        return next < 0 || t >= next - toleranceNs;
+    }
+
+    /** Next slot on the schedule; re-anchored on t after a gap (camera stall, restart). */
+    private static long advance(long t, long next, long interval) {
+        if (next < 0 || t - next >= interval) return t + interval;
+        return next + interval;
+    }
+}
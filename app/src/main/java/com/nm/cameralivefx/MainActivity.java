@@ -1,33 +1,20 @@
 package com.nm.cameralivefx;
 
-import static com.nm.cameralivefx.utils.CubeTo3DLUT.loadCubeAsset;
-
 import android.Manifest;
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.Matrix;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
-import android.media.MediaMuxer;
-import android.media.MediaScannerConnection;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
-import android.provider.MediaStore;
-import android.util.Log;
-import android.view.Display;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.view.Gravity;
-import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
-import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageView;
@@ -39,35 +26,51 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.widget.ImageViewCompat;
+import androidx.lifecycle.ViewModelProvider;
 
-import com.nm.cmaeralivefx.encoder.AudioEncoder;
-import com.nm.cmaeralivefx.encoder.MediaMuxerWrapper;
-import com.nm.cmaeralivefx.encoder.VideoEncoder;
-
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-import android.os.ParcelFileDescriptor;
 import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Views and controls only. The camera, the native pipeline and the encoders
+ * live in PipelineHost, which survives recreation: a configuration change
+ * unbinds the preview surface here and binds the new activity's one there.
+ */
 public class MainActivity extends AppCompatActivity {
 
-    static { System.loadLibrary("cameralivefx"); }
+    static {
+        Trace.beginSection("StartupTrace:load_library");
+        System.loadLibrary("cameralivefx");
+        Trace.endSection();
+        StartupTrace.mark(StartupTrace.LIBRARY_LOADED);
+    }
 
     // ---- NATIVE ----
-    public native void nativeSetSurface(Surface surface);
-    public static native void nativeSetJavaContext(MainActivity activity);
-    public static native void nativeSetRotationDegrees(int degrees);
+    public static native void nativeSetJavaContext(PipelineHost host);
     public native void nativeInitializeFilters();
     public native void nativeSetCurrentFilter(String filterName);
-    public native void nativeCapturePhoto();
+    public static native String nativeGetFilterAnalysisReport();
+    public static native String[] nativeGetCurveFilterNames();
+    public static native void nativeSetThumbnailOrientation(int degrees, boolean mirror);
+    public static native void nativeSetRecordingActive(boolean active, int fps);
+    public static native float[] nativeGetPipelineBranchStats(long pipeline);
+    public static native void nativeSetExposureScopes(int flags, int zebraThreshold);
+    public static native ByteBuffer[] nativeGetScopeBuffers();
+    public static native float[] nativeGetScopeStats();
+    public static native void nativeSetEncoderColorSpace(int standard, int range);
+    public static native void nativeSetPictureInPicture(boolean enabled, int corner, int sizePercent, int opacity);
+    public static native void nativeSetPipFilter(String filterName);
+    public static native void nativeSetOverlay(int id, ByteBuffer pixels, int width, int height,
+                                               int corner, int marginX, int marginY);
+    public static native void nativeSetOverlayRotation(int degrees);
+    public static native String[] nativeGetFilterAtlasNames();
+    public static native void nativeSetFilterAtlasTiles(int[] tiles);
 
     // ---- UI ----
     private SurfaceView cameraPreview;
+    private SurfaceView cameraPassthrough;
     private HorizontalScrollView filterScrollView;
     private LinearLayout filterListContainer;
     private Button photoModeButton;
@@ -76,43 +79,36 @@ public class MainActivity extends AppCompatActivity {
     private ImageView captureButton;
     private ImageView cameraSwitchButton;
 
-    // ---- App state ----
-    private volatile boolean isRecording = false;
-    private boolean isPhotoMode = true;
+    private PipelineHost host;
+
     private String[] filterNames = {
             "Blue Architecture","HardBoost","LongBeachMorning","LushGreen",
             "MagicHour","NaturalBoost","OrangeAndBlue","SoftBlackAndWhite",
             "Waves","BlueHour","ColdChrome","CrispAutumn","DarkAndSomber"
     };
-    private String currentFilterName = "None";
 
-    private CameraHandler cameraHandler;
-    private VideoEncoder videoEncoder;
-    private AudioEncoder audioEncoder;
-    private MediaMuxerWrapper muxerWrapper;
+    // Filter strip previews: each chip shows its tile of the native filter
+    // atlas; only the chips on screen are kept live
+    private static final int FILTER_PREVIEW_WIDTH_DP = 64;
+    private static final int FILTER_PREVIEW_HEIGHT_DP = 40;
+    private final Map<String, Integer> filterAtlasTiles = new HashMap<>();
+    private int[] shownFilterTiles;
+    private boolean started;
 
     private static final int REQUEST_PERMISSIONS = 1001;
-    private String currentCameraId;
-
-    // last media for thumbnail
-    private Uri lastMediaUri = null;
-
-    // photo buffer dimensions for native callback
-    private int photoWidth = 0;
-    private int photoHeight = 0;
-
-    // video muxer resources
-    private ParcelFileDescriptor videoPfd = null;
-    private Uri videoUri = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // The first instance creates the host, which starts opening the camera while the layout inflates
+        host = new ViewModelProvider(this).get(PipelineHost.class);
+        host.attach(this);
+
         setContentView(R.layout.activity_main);
-        nativeSetJavaContext(this);
 
         // ---- views ----
         cameraPreview = findViewById(R.id.camera_preview);
+        cameraPassthrough = findViewById(R.id.camera_passthrough);
         filterScrollView = findViewById(R.id.filter_scroll_view);
         filterListContainer = findViewById(R.id.filter_list_container);
         photoModeButton = findViewById(R.id.photo_mode_button);
@@ -122,7 +118,7 @@ public class MainActivity extends AppCompatActivity {
         cameraSwitchButton = findViewById(R.id.camera_switch_button);
 
         // permissions
-        if (!hasPermissions()) {
+        if (!host.hasPermissions()) {
             ActivityCompat.requestPermissions(
                     this,
                     new String[]{Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO},
@@ -130,272 +126,155 @@ public class MainActivity extends AppCompatActivity {
             );
         }
 
-        // surface
+        // surface: processed frames are drawn translucently over the passthrough view,
+        // so a transparent frame uncovers it
+        cameraPreview.setZOrderMediaOverlay(true);
+        cameraPreview.getHolder().setFormat(PixelFormat.TRANSLUCENT);
         cameraPreview.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override public void surfaceCreated(SurfaceHolder holder) {
-                nativeSetSurface(holder.getSurface());
-                if (cameraHandler == null) {
-                    cameraHandler = new CameraHandler(MainActivity.this, holder.getSurface());
-                }
-                currentCameraId = CameraHandler.BACK_CAMERA_ID;
-                cameraHandler.startCamera(currentCameraId);
-
-                int previewDegrees = computePreviewRotationDegrees(currentCameraId);
-                nativeSetRotationDegrees(previewDegrees);
+                StartupTrace.mark(StartupTrace.SURFACE_READY);
+                host.bindPreview(holder.getSurface(), cameraPassthrough.getHolder(),
+                        getWindowManager().getDefaultDisplay().getRotation());
+            }
+            @Override public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+                // Preview branch only needs display resolution; recording keeps the full stream
+                host.livePipeline().setPreviewMaxSize(width, height);
             }
-            @Override public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {}
             @Override public void surfaceDestroyed(SurfaceHolder holder) {
-                if (cameraHandler != null) cameraHandler.shutdown();
+                host.unbindPreview();
             }
         });
+        cameraPassthrough.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override public void surfaceCreated(SurfaceHolder holder) {
+                host.onPassthroughSurfaceReady();
+            }
+            @Override public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {}
+            @Override public void surfaceDestroyed(SurfaceHolder holder) {}
+        });
 
-        nativeInitializeFilters();
-        nativeSetCurrentFilter("None");
+        // Filters are registered natively on first use; "None" is the default
 
         setupModeButtons();
         setupIconTintSelectorsAndListeners();
-        updateModeUI(true);
+        updateModeUI(host.isPhotoMode());
         setupFilterThumbnails();
-    }
-
-    // === Recording wiring =====================================================
 
-    private MediaMuxer createMediaStoreMuxer() throws IOException {
-        long now = System.currentTimeMillis();
-        String name = "VID_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(now)) + ".mp4";
+        // State carried over from before a configuration change
+        onRecordingChanged(host.isRecording());
+        if (host.lastThumbnail() != null) thumbnailButton.setImageBitmap(host.lastThumbnail());
+        if (host.lastMediaUri() != null) onLastMediaChanged(host.lastMediaUri());
+    }
 
-        ContentResolver cr = getContentResolver();
-        ContentValues cv = new ContentValues();
-        cv.put(MediaStore.Video.Media.DISPLAY_NAME, name);
-        cv.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
-        if (Build.VERSION.SDK_INT >= 29) {
-            cv.put(MediaStore.Video.Media.RELATIVE_PATH, Environment.DIRECTORY_DCIM + "/Camera");
-        }
-        videoUri = cr.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, cv);
-        if (videoUri == null) throw new IOException("Failed to insert MediaStore video row");
-        videoPfd = cr.openFileDescriptor(videoUri, "rw");
-        if (videoPfd == null) throw new IOException("Failed to open PFD for video");
+    // === Public hooks (settings screens, tests) ===============================
 
-        return new MediaMuxer(videoPfd.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    /** Record through the native AMediaCodec/AMediaMuxer backend; applies from the next recording. */
+    public void setNativeEncoderEnabled(boolean enabled) {
+        host.setNativeEncoderEnabled(enabled);
     }
 
-    private void startRecording() {
-        if (isRecording) return;
-        try {
-            // 1) Muxer via MediaStore FD
-            MediaMuxer mm = createMediaStoreMuxer();
-            muxerWrapper = new MediaMuxerWrapper(mm, videoUri, videoPfd);
-            muxerWrapper.setExpectedTrackCount(2); // video + audio
-
-            // 2) Orientation hint (affects playback rotation)
-            int degrees = computePreviewRotationDegrees(currentCameraId);
-            muxerWrapper.setOrientationHint(degrees);
-
-            // 3) Encoders (configure with chosen size from CameraHandler)
-            if (cameraHandler == null || cameraHandler.getChosenSize() == null) {
-                Toast.makeText(this, "Camera not ready", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            int w = cameraHandler.getChosenSize().getWidth();
-            int h = cameraHandler.getChosenSize().getHeight();
-
-            // Use sane defaults; adjust if you already expose UI for these
-            int fps = 30;
-            int bitrate = Math.max(3_000_000, w*h*5); // rough heuristic
-
-            videoEncoder = new VideoEncoder(muxerWrapper, w, h);
-            videoEncoder.start();
-
-            audioEncoder = new AudioEncoder(muxerWrapper);
-            audioEncoder.start();
-
-            isRecording = true;
-            captureButton.setColorFilter(Color.RED);
-            Toast.makeText(this, "Recording started…", Toast.LENGTH_SHORT).show();
-
-        } catch (Exception e) {
-            Log.e("MainActivity", "startRecording failed", e);
-            Toast.makeText(this, "Failed to start recording", Toast.LENGTH_SHORT).show();
-            isRecording = false;
-            // cleanup if partially created
-            if (audioEncoder != null) try { audioEncoder.stop(); } catch (Exception ignored) {}
-            if (videoEncoder != null) try { videoEncoder.stop(); } catch (Exception ignored) {}
-            if (muxerWrapper != null) try { muxerWrapper.stop(); } catch (Exception ignored) {}
-            videoEncoder = null;
-            audioEncoder = null;
-            muxerWrapper = null;
-            safeCloseVideoPfd();
-        }
+    /**
+     * Capture and record in 10-bit HDR where both the camera and an encoder
+     * support it. Returns whether HDR is now on; not changed while recording.
+     */
+    public boolean setHdrEnabled(boolean enabled) {
+        return host.setHdrEnabled(enabled);
     }
 
-    private void stopRecording() {
-        if (!isRecording) return;
-        isRecording = false;
-        captureButton.clearColorFilter();
-        Toast.makeText(this, "Stopping…", Toast.LENGTH_SHORT).show();
+    /** Record fps frames a second (0: as many as the camera delivers); not changed while recording. */
+    public boolean setCaptureRate(int fps) {
+        return host.setCaptureRate(fps);
+    }
 
-        try { if (audioEncoder != null) audioEncoder.stop(); } catch (Exception ignored) {}
-        try { if (videoEncoder != null) videoEncoder.stop(); } catch (Exception ignored) {}
-        try { if (muxerWrapper != null) muxerWrapper.stop(); } catch (Exception ignored) {}
+    /** Time-lapse, one frame every captureIntervalMs (0: off); not changed while recording. */
+    public boolean setTimeLapse(long captureIntervalMs) {
+        return host.setTimeLapse(captureIntervalMs);
+    }
 
-        // Update gallery & thumbnail
-        if (videoUri != null) {
-            lastMediaUri = videoUri;
-            runOnUiThread(() -> updateLastItemThumb(lastMediaUri));
-        }
+    /**
+     * Scheduling policy for the pipeline threads (ThreadPolicy.POLICY_*), for
+     * A/B runs; applies immediately. Per-thread CPU time and core placement
+     * under the policy are logged when a recording stops.
+     */
+    public void setThreadPolicy(int policy) {
+        host.setThreadPolicy(policy);
+    }
 
+    /** Keep the last few seconds before the record button is pressed (video mode only). */
+    public void setPreRecordEnabled(boolean enabled) {
+        host.setPreRecordEnabled(enabled);
+    }
 
-        videoEncoder = null;
-        audioEncoder = null;
-        muxerWrapper = null;
-        safeCloseVideoPfd();
+    /**
+     * Static-scene mode for tripod / kiosk use: only tiles whose luma changed
+     * are reprocessed. Off by default; frames with scopes, picture-in-picture
+     * or HDR are always converted in full.
+     */
+    public void setStaticSceneMode(boolean enabled) {
+        host.setStaticSceneMode(enabled);
+    }
 
-        Toast.makeText(this, "Video saved", Toast.LENGTH_SHORT).show();
+    /** {fraction of tiles skipped, avg convert ms/frame, estimated ms/frame saved} in static-scene mode. */
+    public float[] getStaticSceneStats() {
+        return host.livePipeline().getStaticSceneStats();
     }
 
-    private void safeCloseVideoPfd() {
-        if (videoPfd != null) {
-            try { videoPfd.close(); } catch (Exception ignored) {}
-            videoPfd = null;
-        }
+    /** Turn histogram / zebra / waveform on or off; zebra stripes mark luma at or above zebraThreshold. */
+    public void setExposureScopes(int flags, int zebraThreshold) {
+        host.setExposureScopes(flags, zebraThreshold);
     }
 
-    // Called from native each preview/record frame (NV21 expected)
-    public void onProcessedFrameFromNative(byte[] data, long timestampUs) {
-        if (isRecording && videoEncoder != null && data != null) {
-            // Your VideoEncoder implementation from the Java project typically accepts NV21 + PTS
-            // If your method is named differently, change the call below accordingly.
-            try {
-                videoEncoder.encodeFrame(data, timestampUs);
-            } catch (Throwable t) {
-                Log.w("MainActivity", "queue frame error", t);
-            }
-        }
+    /** Latest published scopes, or null if none is newer than the last call. Cheap; poll from the UI. */
+    public ExposureScopes.Snapshot pollExposureScopes() {
+        return host.pollExposureScopes();
     }
 
-    // === Photo saving & thumbnail ============================================
+    /** Slider hook: exposure in stops, contrast and saturation as factors (1 = unchanged). */
+    public void setAdjustments(float exposure, float contrast, float saturation) {
+        host.setAdjustments(exposure, contrast, saturation);
+    }
 
-    public void setPhotoCaptureSize(int width, int height) {
-        this.photoWidth = width;
-        this.photoHeight = height;
-        Log.d("MainActivity", "Photo capture size set: " + width + "x" + height);
+    /**
+     * Send recordings live to an ingest server at address:port (MPEG-TS over
+     * TCP, e.g. ffmpeg -i tcp://0.0.0.0:port?listen) instead of saving them;
+     * null turns it off. Returns false while recording.
+     */
+    public boolean setLiveStream(String address, int port) {
+        return host.setLiveStream(address, port);
     }
 
-    public void onProcessedPhotoFromNative(byte[] bgraData) {
-        if (bgraData == null || bgraData.length == 0 || photoWidth == 0 || photoHeight == 0) {
-            Log.e("MainActivity", "Empty BGRA or size=0");
-            return;
-        }
-        new Thread(() -> {
-            try {
-                Bitmap bmp = createBitmapFromBgra(bgraData, photoWidth, photoHeight);
-                int rotationDegrees = computePreviewRotationDegrees(currentCameraId);
-                Bitmap rotated = rotateBitmap(bmp, rotationDegrees, currentCameraId.equals(CameraHandler.FRONT_CAMERA_ID));
-                Uri photoUri = savePhotoToGallery(rotated);
-                lastMediaUri = photoUri;
-                runOnUiThread(() -> {
-                    updateLastItemThumb(photoUri);
-                    Toast.makeText(this, "Photo saved", Toast.LENGTH_SHORT).show();
-                });
-                if (rotated != null && rotated != bmp) rotated.recycle();
-                if (bmp != null) bmp.recycle();
-            } catch (Exception e) {
-                Log.e("MainActivity","photo save failed", e);
-                runOnUiThread(() -> Toast.makeText(this, "Failed to save photo", Toast.LENGTH_SHORT).show());
-            }
-        }).start();
+    /**
+     * Burn watermark (null: none) into the bottom-right corner of recordings
+     * and, if timestamp, the wall-clock time into the top-left; applies to a
+     * running recording too.
+     */
+    public void setRecordingOverlay(String watermark, boolean timestamp) {
+        host.setRecordingOverlay(watermark, timestamp);
     }
 
-    private Bitmap createBitmapFromBgra(byte[] bgraData, int width, int height) {
-        int[] pixels = new int[width * height];
-        for (int i = 0; i < pixels.length; i++) {
-            int b = bgraData[i * 4] & 0xFF;
-            int g = bgraData[i * 4 + 1] & 0xFF;
-            int r = bgraData[i * 4 + 2] & 0xFF;
-            int a = bgraData[i * 4 + 3] & 0xFF;
-            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
-        }
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return bitmap;
+    /**
+     * Picture-in-picture hook: show the other camera as an inset in screenCorner
+     * (0 top-left, clockwise), filtered with insetFilter. Returns false when the
+     * device cannot stream both cameras at once.
+     */
+    public boolean setPictureInPicture(boolean enabled, int screenCorner, String insetFilter) {
+        return host.setPictureInPicture(enabled, screenCorner, insetFilter);
     }
 
-    private Bitmap rotateBitmap(Bitmap source, int degrees, boolean isFrontCamera) {
-        if (degrees == 0 && !isFrontCamera) return source;
-        Matrix m = new Matrix();
-        if (isFrontCamera) m.postScale(-1, 1);
-        m.postRotate(degrees);
-        try {
-            Bitmap out = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), m, true);
-            if (out != source) source.recycle();
-            return out;
-        } catch (OutOfMemoryError e) {
-            Log.e("MainActivity", "OOM rotating bitmap", e);
-            return source;
-        }
+    // === Host callbacks (UI thread) ===========================================
+
+    void onRecordingChanged(boolean recording) {
+        if (recording) captureButton.setColorFilter(Color.RED);
+        else captureButton.clearColorFilter();
     }
 
-    private Uri savePhotoToGallery(Bitmap bitmap) throws IOException {
-        long ts = System.currentTimeMillis();
-        String name = "IMG_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(ts)) + ".jpg";
-
-        Uri targetUri = null;
-        OutputStream out = null;
-        String legacyPath = null;
-
-        try {
-            if (Build.VERSION.SDK_INT >= 29) {
-                ContentValues values = new ContentValues();
-                values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
-                values.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
-                values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/CameraLiveFX");
-                values.put(MediaStore.Images.Media.IS_PENDING, 1);
-
-                targetUri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-                if (targetUri == null) throw new IOException("insert photo failed");
-                out = getContentResolver().openOutputStream(targetUri);
-                if (out == null) throw new IOException("openOutputStream null");
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
-
-                values.clear();
-                values.put(MediaStore.Images.Media.IS_PENDING, 0);
-                getContentResolver().update(targetUri, values, null, null);
-
-            } else {
-                File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM), "Camera");
-                if (!dir.exists()) dir.mkdirs();
-                File file = new File(dir, name);
-                out = new FileOutputStream(file);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
-                legacyPath = file.getAbsolutePath();
-                targetUri = Uri.fromFile(file);
-            }
-        } finally {
-            if (out != null) try { out.close(); } catch (IOException ignored) {}
-            if (legacyPath != null) {
-                MediaScannerConnection.scanFile(this, new String[]{legacyPath}, new String[]{"image/jpeg"}, null);
-            }
-        }
-        return targetUri;
+    void showThumbnail(Bitmap thumbnail) {
+        thumbnailButton.setImageBitmap(thumbnail);
     }
 
-    private void updateLastItemThumb(Uri uri) {
+    // The image itself comes from showThumbnail; this only wires the tap
+    void onLastMediaChanged(Uri uri) {
         if (uri == null) return;
 
-        // Try to detect mime type
-        String mime = null;
-        try {
-            mime = getContentResolver().getType(uri);
-        } catch (Exception ignored) {}
-
-        if (mime != null && mime.startsWith("video/")) {
-            // For videos: extract a frame bitmap asynchronously and show it
-            loadVideoThumbAsync(uri);
-        } else {
-            // For photos: simple is fine
-            thumbnailButton.setImageURI(uri);
-        }
-
         // Open on click (works for both photo and video)
         thumbnailButton.setOnClickListener(v -> {
             try {
@@ -409,51 +288,20 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void loadVideoThumbAsync(Uri videoUri) {
-        new Thread(() -> {
-            android.media.MediaMetadataRetriever retriever = new android.media.MediaMetadataRetriever();
-            Bitmap frame = null;
-            try {
-                retriever.setDataSource(this, videoUri);
-                // Grab a frame near the start; FALLBACK to any available frame
-                // -1 means “any frame”, but some devices prefer a positive time.
-                frame = retriever.getFrameAtTime(1_000_000); // ~1s
-                if (frame == null) {
-                    frame = retriever.getFrameAtTime(-1); // fallback to any
-                }
-            } catch (Throwable ignored) {
-            } finally {
-                try { retriever.release(); } catch (Exception ignored) {}
-            }
-
-            final Bitmap bmp = frame;
-            runOnUiThread(() -> {
-                if (bmp != null) {
-                    thumbnailButton.setImageBitmap(bmp);
-                } else {
-                    // As a last resort, keep previous image or set a placeholder
-                    // thumbnailButton.setImageResource(R.drawable.ic_video_placeholder);
-                }
-            });
-        }).start();
-    }
-
-
     // === UI wiring ============================================================
 
     private void setupModeButtons() {
         photoModeButton.setOnClickListener(v -> {
-            if (!isPhotoMode) {
-                isPhotoMode = true;
+            if (!host.isPhotoMode()) {
+                host.setPhotoMode(true);
                 updateModeUI(true);
-                if (isRecording) stopRecording();
                 Toast.makeText(MainActivity.this, "Photo Mode", Toast.LENGTH_SHORT).show();
             }
         });
 
         videoModeButton.setOnClickListener(v -> {
-            if (isPhotoMode) {
-                isPhotoMode = false;
+            if (host.isPhotoMode()) {
+                host.setPhotoMode(false);
                 updateModeUI(false);
                 Toast.makeText(MainActivity.this, "Video Mode", Toast.LENGTH_SHORT).show();
             }
@@ -464,19 +312,16 @@ public class MainActivity extends AppCompatActivity {
         ColorStateList tintSelector = ContextCompat.getColorStateList(this, R.color.btn_icon_tint_selector);
         ImageViewCompat.setImageTintList(cameraSwitchButton, tintSelector);
 
-        cameraSwitchButton.setOnClickListener(v -> switchCamera());
+        cameraSwitchButton.setOnClickListener(v -> {
+            Toast.makeText(this, "Switching camera…", Toast.LENGTH_SHORT).show();
+            host.switchCamera(SystemClock.elapsedRealtimeNanos());
+        });
 
         thumbnailButton.setOnClickListener(v ->
                 Toast.makeText(MainActivity.this, "No media yet", Toast.LENGTH_SHORT).show()
         );
 
-        captureButton.setOnClickListener(v -> {
-            if (isPhotoMode) {
-                nativeCapturePhoto();
-            } else {
-                if (!isRecording) startRecording(); else stopRecording();
-            }
-        });
+        captureButton.setOnClickListener(v -> host.capture());
     }
 
     private void updateModeUI(boolean isPhoto) {
@@ -501,10 +346,22 @@ public class MainActivity extends AppCompatActivity {
                 LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT);
         lp.setMargins(20, 0, 20, 0);
 
+        filterAtlasTiles.clear();
+        String[] atlasNames = nativeGetFilterAtlasNames();
+        if (atlasNames != null) {
+            for (int i = 0; i < atlasNames.length; i++) filterAtlasTiles.put(atlasNames[i], i);
+        }
+
         addFilterChip("None", lp);
         for (String name : filterNames) addFilterChip(name, lp);
-        // default highlight
-        highlightSelectedFilter("None");
+        // Legacy tone-curve family: per-channel 256-entry lookups, near-free per pixel
+        String[] curveNames = nativeGetCurveFilterNames();
+        if (curveNames != null) {
+            for (String name : curveNames) addFilterChip(name, lp);
+        }
+        highlightSelectedFilter(host.currentFilterName());
+        filterScrollView.setOnScrollChangeListener((v, x, y, oldX, oldY) -> updateFilterPreviewTiles());
+        filterScrollView.post(this::updateFilterPreviewTiles);
     }
 
     private void addFilterChip(String name, LinearLayout.LayoutParams lp) {
@@ -515,9 +372,16 @@ public class MainActivity extends AppCompatActivity {
         chip.setGravity(Gravity.CENTER);
         chip.setPadding(30, 15, 30, 15);
         chip.setBackgroundResource(R.drawable.filter_button_background);
+        Integer tile = filterAtlasTiles.get(name);
+        if (tile != null) {
+            float density = getResources().getDisplayMetrics().density;
+            chip.setCompoundDrawablesWithIntrinsicBounds(null, new FilterTileDrawable(tile,
+                    Math.round(FILTER_PREVIEW_WIDTH_DP * density),
+                    Math.round(FILTER_PREVIEW_HEIGHT_DP * density)), null, null);
+            chip.setCompoundDrawablePadding(Math.round(4 * density));
+        }
         chip.setOnClickListener(v -> {
-            currentFilterName = name;
-            nativeSetCurrentFilter(name);
+            host.setFilter(name);
             highlightSelectedFilter(name);
             Toast.makeText(this, "Filter: " + name, Toast.LENGTH_SHORT).show();
         });
@@ -533,76 +397,58 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    // === Camera switching =====================================================
-
-    private void switchCamera() {
-        Toast.makeText(this, "Switching camera…", Toast.LENGTH_SHORT).show();
-        if (cameraHandler == null) return;
-        cameraHandler.shutdown();
-        if (CameraHandler.BACK_CAMERA_ID.equals(currentCameraId)) {
-            currentCameraId = CameraHandler.FRONT_CAMERA_ID;
-        } else {
-            currentCameraId = CameraHandler.BACK_CAMERA_ID;
+    /** Ask for live previews of the chips now on screen; called on scroll and when the strip appears. */
+    private void updateFilterPreviewTiles() {
+        int[] tiles = null;
+        if (started && filterScrollView.getVisibility() == View.VISIBLE) {
+            int left = filterScrollView.getScrollX();
+            int right = left + filterScrollView.getWidth();
+            int[] visible = new int[filterListContainer.getChildCount()];
+            int count = 0;
+            for (int i = 0; i < filterListContainer.getChildCount(); i++) {
+                View chip = filterListContainer.getChildAt(i);
+                FilterTileDrawable preview = filterTileOf(chip);
+                if (preview != null && chip.getRight() > left && chip.getLeft() < right) {
+                    visible[count++] = preview.tile();
+                }
+            }
+            if (count > 0) tiles = Arrays.copyOf(visible, count);
         }
-        cameraHandler.startCamera(currentCameraId);
-        int previewDegrees = computePreviewRotationDegrees(currentCameraId);
-        nativeSetRotationDegrees(previewDegrees);
+        if (Arrays.equals(tiles, shownFilterTiles)) return;
+        shownFilterTiles = tiles;
+        host.setFilterPreviewTiles(tiles);
     }
 
-    // === Rotation helper ======================================================
-
-    private int computePreviewRotationDegrees(String cameraId) {
-        int deviceRotation = Surface.ROTATION_0;
-        try {
-            Display d = ((WindowManager) getSystemService(WINDOW_SERVICE)).getDefaultDisplay();
-            deviceRotation = d.getRotation();
-        } catch (Throwable ignored) {}
-
-        int degrees = 0;
-        switch (deviceRotation) {
-            case Surface.ROTATION_0:   degrees = 0; break;
-            case Surface.ROTATION_90:  degrees = 90; break;
-            case Surface.ROTATION_180: degrees = 180; break;
-            case Surface.ROTATION_270: degrees = 270; break;
+    void showFilterAtlas(Bitmap atlas, int tileWidth, int tileHeight, int columns) {
+        for (int i = 0; i < filterListContainer.getChildCount(); i++) {
+            FilterTileDrawable preview = filterTileOf(filterListContainer.getChildAt(i));
+            if (preview != null) preview.setAtlas(atlas, tileWidth, tileHeight, columns);
         }
+    }
 
-        try {
-            CameraManager cm = (CameraManager) getSystemService(CAMERA_SERVICE);
-            CameraCharacteristics cc = cm.getCameraCharacteristics(cameraId);
-            Integer so = cc.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            Integer facing = cc.get(CameraCharacteristics.LENS_FACING);
-            int sensor = (so != null) ? so : 90;
-            boolean front = (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT);
-
-            // Preview buffer rotation for native to draw upright
-            int result;
-            if (front) {
-                result = (sensor + degrees) % 360;       // mirror handled in native if needed
-            } else {
-                result = (sensor - degrees + 360) % 360;
-            }
-            // Snap to 0/90/180/270 (native path expects quarter turns)
-            if (result < 45) return 0;
-            if (result < 135) return 90;
-            if (result < 225) return 180;
-            if (result < 315) return 270;
-            return 0;
-        } catch (Exception e) {
-            return 90;
-        }
+    private static FilterTileDrawable filterTileOf(View chip) {
+        Drawable top = ((TextView) chip).getCompoundDrawables()[1];
+        return top instanceof FilterTileDrawable ? (FilterTileDrawable) top : null;
     }
 
-    // === perms / lifecycle ====================================================
+    // === lifecycle ============================================================
+
+    @Override protected void onStart() {
+        super.onStart();
+        started = true;
+        filterScrollView.post(this::updateFilterPreviewTiles);
+    }
 
-    private boolean hasPermissions() {
-        return ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED
-                && ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
+    @Override protected void onStop() {
+        super.onStop();
+        started = false;
+        updateFilterPreviewTiles();
+        // A configuration change keeps the camera and any recording; leaving the app releases them
+        if (!isChangingConfigurations()) host.suspend();
     }
 
     @Override protected void onDestroy() {
         super.onDestroy();
-        try { stopRecording(); } catch (Throwable ignored) {}
-        if (cameraHandler != null) cameraHandler.shutdown();
-        safeCloseVideoPfd();
+        host.detach(this);
     }
 }
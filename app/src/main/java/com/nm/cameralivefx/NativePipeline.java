@@ -0,0 +1,132 @@
+package com.nm.cameralivefx;
+
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One native preview pipeline (Pipeline.hpp): its window, filter, rotation,
+ * decimation and tile-skipping buffers, photo request and metrics, held by
+ * handle. Pipelines share nothing but the registered filter tables, so
+ * several can run at once on their own threads: the live preview, fed by
+ * CameraHandler, next to an offline re-grade or a benchmark fed through
+ * processFrame().
+ *
+ * Settings may be changed from any thread. Frames of one pipeline go
+ * through one thread at a time, and close() must come after the last of
+ * them.
+ */
+public final class NativePipeline implements AutoCloseable {
+
+    static {
+        System.loadLibrary("cameralivefx");
+    }
+
+    // Layout of stats()
+    public static final int STAT_FRAMES = 0;
+    public static final int STAT_AVG_MS = 1;
+    public static final int STAT_MAX_MS = 2;
+    public static final int STAT_DECIMATION = 3;
+    public static final int STAT_OUTPUT_WIDTH = 4;
+    public static final int STAT_OUTPUT_HEIGHT = 5;
+
+    private static native long nativeCreate();
+    private static native void nativeDestroy(long handle);
+    private static native void nativeSetSurface(long handle, Surface surface);
+    private static native void nativeSetRotationDegrees(long handle, int degrees);
+    private static native void nativeSetPreviewMaxSize(long handle, int maxWidth, int maxHeight);
+    private static native void nativeSetStaticSceneMode(long handle, boolean enabled, int threshold);
+    private static native float[] nativeGetStaticSceneStats(long handle);
+    private static native void nativeCapturePhoto(long handle);
+    private static native void nativeSetFilter(long handle, String filterName);
+    private static native void nativeProcessFrameYUV(long handle, byte[] yData, byte[] uData, byte[] vData,
+                                                     int yRowStride, int uRowStride, int vRowStride,
+                                                     int uPixelStride, int vPixelStride, int width, int height,
+                                                     int colorStandard, int colorRange);
+    private static native float[] nativeGetStats(long handle);
+    private static native boolean nativeReadOutput(long handle, ByteBuffer rgba);
+
+    private volatile long handle;
+
+    public NativePipeline() {
+        handle = nativeCreate();
+    }
+
+    /** The native handle, 0 once closed; for native calls that take the pipeline. */
+    long handle() {
+        return handle;
+    }
+
+    /** Draw into surface (null: unbind; frames keep reaching the other outputs). */
+    public void setSurface(Surface surface) {
+        nativeSetSurface(handle, surface);
+    }
+
+    /** Clockwise rotation from frame to screen: 0, 90, 180 or 270. */
+    public void setRotationDegrees(int degrees) {
+        nativeSetRotationDegrees(handle, degrees);
+    }
+
+    /** Largest output needed, either orientation; frames are decimated down to it. */
+    public void setPreviewMaxSize(int maxWidth, int maxHeight) {
+        nativeSetPreviewMaxSize(handle, maxWidth, maxHeight);
+    }
+
+    /** Reconvert only tiles whose luma changed by more than threshold (tripod / kiosk use). */
+    public void setStaticSceneMode(boolean enabled, int threshold) {
+        nativeSetStaticSceneMode(handle, enabled, threshold);
+    }
+
+    /** {fraction of tiles skipped, avg convert ms/frame, estimated ms/frame saved}. */
+    public float[] getStaticSceneStats() {
+        return nativeGetStaticSceneStats(handle);
+    }
+
+    /** Deliver the next camera frame at full resolution as a photo (live pipeline). */
+    public void capturePhoto() {
+        nativeCapturePhoto(handle);
+    }
+
+    /**
+     * Registered filter for processFrame(); unknown names mean no filter. The
+     * live pipeline takes its filter from the FilterGraph instead.
+     */
+    public void setFilter(String filterName) {
+        nativeSetFilter(handle, filterName);
+    }
+
+    /**
+     * One 8-bit YUV frame through this pipeline on the calling thread, with
+     * its own filter; drawn into its surface if it has one. colorStandard /
+     * colorRange are MediaFormat COLOR_STANDARD_* / COLOR_RANGE_*.
+     */
+    public void processFrame(byte[] yData, byte[] uData, byte[] vData,
+                             int yRowStride, int uRowStride, int vRowStride,
+                             int uPixelStride, int vPixelStride, int width, int height,
+                             int colorStandard, int colorRange) {
+        nativeProcessFrameYUV(handle, yData, uData, vData, yRowStride, uRowStride, vRowStride,
+                uPixelStride, vPixelStride, width, height, colorStandard, colorRange);
+    }
+
+    /** Counters, laid out as the STAT_* indices. */
+    public float[] stats() {
+        return nativeGetStats(handle);
+    }
+
+    /**
+     * Copy the last processed frame into a direct buffer as RGBA bytes, ready
+     * for Bitmap.copyPixelsFromBuffer; false if there is none or it does not
+     * fit. From the thread that processes the frames.
+     */
+    public boolean readOutput(ByteBuffer rgba) {
+        return nativeReadOutput(handle, rgba);
+    }
+
+    @Override
+    public void close() {
+        long h = handle;
+        if (h == 0) return;
+        handle = 0;
+        nativeDestroy(h);
+    }
+}
@@ -0,0 +1,1024 @@
+package com.nm.cameralivefx;
+
+import static com.nm.cameralivefx.MainActivity.nativeSetEncoderColorSpace;
+import static com.nm.cameralivefx.MainActivity.nativeSetExposureScopes;
+import static com.nm.cameralivefx.MainActivity.nativeSetJavaContext;
+import static com.nm.cameralivefx.MainActivity.nativeSetPictureInPicture;
+import static com.nm.cameralivefx.MainActivity.nativeSetPipFilter;
+import static com.nm.cameralivefx.MainActivity.nativeSetRecordingActive;
+import static com.nm.cameralivefx.MainActivity.nativeSetThumbnailOrientation;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.media.MediaMuxer;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.nm.cmaeralivefx.encoder.AudioEncoder;
+import com.nm.cmaeralivefx.encoder.EncoderCatalog;
+import com.nm.cmaeralivefx.encoder.EncoderProfile;
+import com.nm.cmaeralivefx.encoder.EncoderSelector;
+import com.nm.cmaeralivefx.encoder.LiveStreamSender;
+import com.nm.cmaeralivefx.encoder.LiveStreamSink;
+import com.nm.cmaeralivefx.encoder.MediaCodecEncoderCatalog;
+import com.nm.cmaeralivefx.encoder.MediaMuxerWrapper;
+import com.nm.cmaeralivefx.encoder.NativeVideoRecorder;
+import com.nm.cmaeralivefx.encoder.PreRecordBuffer;
+import com.nm.cmaeralivefx.encoder.VideoEncoder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Everything that has to outlive a MainActivity instance: the camera, the
+ * native pipeline's Java side (it is the native callback target) and the
+ * encoders. Retained across configuration changes, so a rotation only
+ * unbinds and rebinds the preview surface and updates the preview rotation;
+ * the camera stays open and a recording keeps going while no activity is
+ * attached (frames still reach the record branch, the preview is skipped).
+ *
+ * When the activity stops for real the camera is released and any recording
+ * is finished; recording in the background would need a foreground service.
+ * Cleared, and everything released, when the activity finishes.
+ *
+ * UI thread, except the native callbacks, which post their UI work.
+ */
+public class PipelineHost extends AndroidViewModel {
+
+    private static final String TAG = "PipelineHost";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MainActivity ui;                           // attached activity, or null; UI thread only
+
+    // The live preview's native pipeline; CameraHandler feeds it camera frames
+    private final NativePipeline livePipeline = new NativePipeline();
+    private final CameraHandler cameraHandler;
+    private String currentCameraId = CameraHandler.BACK_CAMERA_ID;
+    private boolean cameraStarted = false;             // session requested since the last suspend()
+    private int displayRotation = Surface.ROTATION_0;  // of the last bound activity
+
+    // ---- Pipeline settings (native keeps the values; these decide passthrough) ----
+    private boolean isPhotoMode = true;
+    private String currentFilterName = "None";
+
+    // Active chain: selected filter, then adjustments (neutral until a slider moves them)
+    private final FilterGraph filterGraph = new FilterGraph();
+    private final int filterNode = filterGraph.addFilter("None");
+    private final int exposureNode = filterGraph.addExposure(0f);
+    private final int contrastNode = filterGraph.addContrast(1f);
+    private final int saturationNode = filterGraph.addSaturation(1f);
+
+    // Passthrough: camera feeds the display directly while nothing needs processed frames
+    private boolean adjustmentsNeutral = true;
+
+    // Exposure scopes (ExposureScopes.* flags); they need processed frames, so they disable passthrough
+    private int scopeFlags = 0;
+    private ExposureScopes exposureScopes;
+    private volatile boolean photoPending = false;
+
+    // Static-scene mode: luma change within a tile that counts as motion
+    private static final int STATIC_SCENE_THRESHOLD = 4;
+
+    // ---- Recording ----
+    private volatile boolean isRecording = false;
+    private VideoEncoder videoEncoder;
+    private AudioEncoder audioEncoder;
+    private MediaMuxerWrapper muxerWrapper;
+    private final EncoderCatalog encoderCatalog;
+    private EncoderProfile videoProfile;
+    private static final int RECORD_FPS = 30;
+
+    // Fragmented MP4 keeps everything but the last fragment if the app dies mid-recording
+    private static final boolean FRAGMENTED_MP4 = true;
+    private static final long FRAGMENT_DURATION_US = 1_000_000L;
+
+    // Pre-record: in video mode the encoders run ahead of the record button into a
+    // bounded ring, and a recording starts with the last few seconds
+    private boolean preRecordEnabled = false;
+    private PreRecordBuffer preRecordBuffer;
+    private static final long PRE_RECORD_WINDOW_US = 5_000_000L;
+    private static final int PRE_RECORD_BUDGET_BYTES = 6 * 1024 * 1024;
+    private static final int PRE_RECORD_MAX_SAMPLES = 1024;
+    private static final int PRE_RECORD_BIT_RATE = 1_000_000;
+
+    // Native backend: the record branch encodes and muxes in C++, no per-frame JNI call.
+    // Not combined with pre-record, which needs the Java encoders.
+    private boolean nativeEncoderEnabled = false;
+    private NativeVideoRecorder nativeRecorder;
+
+    // Live streaming: with an ingest endpoint set, recording streams MPEG-TS over TCP
+    // instead of writing a file (H.264 + AAC through the Java encoders, SDR only, no
+    // pre-record). The send queue holds about LIVE_QUEUE_MS of video at the nominal
+    // bitrate; beyond that LiveStreamSender drops frames and lowers the bitrate.
+    private String liveStreamHost;
+    private int liveStreamPort;
+    private LiveStreamSink liveStreamSink;
+    private static final int LIVE_QUEUE_MS = 1000;
+
+    // HDR: 10-bit HLG capture, filtered at 16 bits per channel and recorded as HEVC Main 10.
+    // Only on cameras that stream P010 and devices with a Main 10 encoder; records through
+    // the Java encoder path.
+    private boolean hdrEnabled = false;
+
+    // Picture-in-picture: the other camera as an inset with its own filter, in preview,
+    // photos and recordings (8-bit only). Corner on screen, clockwise from top-left.
+    private boolean pipEnabled = false;
+    private int pipScreenCorner = 2;
+    private static final int PIP_SIZE_PERCENT = 30;
+
+    // Watermark and timestamp burned into recordings; rasterized here when the text changes
+    private final RecordingOverlay recordingOverlay = new RecordingOverlay(mainHandler);
+
+    // Reduced-rate and time-lapse recording: CameraHandler drops unused frames
+    // before copying them (FrameDecimator). A time-lapse is retimed to
+    // RECORD_FPS, records no audio and is not combined with pre-record.
+    private FrameDecimator frameDecimator;
+    private static final int TIME_LAPSE_PREVIEW_FPS = 15;
+
+    // Pipeline threads register with ThreadPolicy for their priority and cores;
+    // the camera thread registers in CameraHandler, native threads in native code
+    private static final ThreadFactory AUDIO_THREADS =
+            ThreadPolicy.threadFactory(ThreadPolicy.ROLE_AUDIO, "AudioEncoder");
+    private static final ThreadFactory PHOTO_SAVE_THREADS =
+            ThreadPolicy.threadFactory(ThreadPolicy.ROLE_BACKGROUND, "PhotoSave");
+
+    // video muxer resources
+    private ParcelFileDescriptor videoPfd = null;
+    private Uri videoUri = null;
+
+    // ---- Media ----
+    // thumbnails arrive from the native pipeline (photo frame / first recorded frame)
+    private final ThumbnailPool thumbnailPool = new ThumbnailPool();
+    private Bitmap lastThumbnail;                      // UI thread only
+    // Filter strip previews: one atlas of every filter over a small camera frame
+    private final ThumbnailPool filterAtlasPool = new ThumbnailPool();
+    private Uri lastMediaUri = null;
+
+    // photo buffer dimensions for native callback
+    private volatile int photoWidth = 0;
+    private volatile int photoHeight = 0;
+
+    public PipelineHost(@NonNull Application application) {
+        super(application);
+        // Open the camera while the first activity inflates; startCamera picks the device up
+        cameraHandler = new CameraHandler(this);
+        if (hasPermissions()) cameraHandler.openEarly(currentCameraId);
+        encoderCatalog = new MediaCodecEncoderCatalog(application);
+        nativeSetJavaContext(this);
+    }
+
+    // === Activity binding =====================================================
+
+    /** The activity that shows the pipeline's output; replaces any previous one. */
+    void attach(MainActivity activity) {
+        ui = activity;
+    }
+
+    void detach(MainActivity activity) {
+        if (ui == activity) ui = null;
+    }
+
+    /**
+     * The preview surface exists: draw into it and start the camera, or, if
+     * it is already running (configuration change), only rebind.
+     */
+    void bindPreview(Surface surface, SurfaceHolder passthroughHolder, int displayRotation) {
+        this.displayRotation = displayRotation;
+        livePipeline.setSurface(surface);
+        cameraHandler.attachSurfaces(surface, passthroughHolder);
+        if (!cameraStarted) {
+            cameraStarted = true;
+            updatePassthrough();
+            cameraHandler.startCamera(currentCameraId);
+            if (preRecordEnabled && !isPhotoMode) armPreRecord();
+        } else {
+            // A passthrough output lost with the old view is rebuilt on the open device
+            updatePassthrough();
+        }
+        applyPreviewRotation();
+    }
+
+    /** The passthrough view's surface was (re)created after the preview was bound. */
+    void onPassthroughSurfaceReady() {
+        if (cameraStarted) updatePassthrough();
+    }
+
+    /** The preview surface is going away; the camera and the record branch keep running. */
+    void unbindPreview() {
+        livePipeline.setSurface(null);
+        cameraHandler.detachSurfaces();
+    }
+
+    /** The activity stopped for good (not a configuration change): release the camera. */
+    void suspend() {
+        if (isRecording) stopRecording();
+        disarmPreRecord();
+        cameraHandler.shutdown();
+        cameraStarted = false;
+    }
+
+    @Override
+    protected void onCleared() {
+        try { stopRecording(); } catch (Throwable ignored) {}
+        try { disarmPreRecord(); } catch (Throwable ignored) {}
+        livePipeline.setSurface(null);
+        // The camera thread may still be in a frame; the pipeline goes after its last one
+        cameraHandler.release(livePipeline::close);
+        safeCloseVideoPfd();
+        // Waits for a callback in flight on the camera thread or record worker; later ones see no host
+        nativeSetJavaContext(null);
+    }
+
+    boolean hasPermissions() {
+        Application app = getApplication();
+        return ContextCompat.checkSelfPermission(app, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(app, Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    boolean isRecording() {
+        return isRecording;
+    }
+
+    boolean isPhotoMode() {
+        return isPhotoMode;
+    }
+
+    String currentFilterName() {
+        return currentFilterName;
+    }
+
+    NativePipeline livePipeline() {
+        return livePipeline;
+    }
+
+    Bitmap lastThumbnail() {
+        return lastThumbnail;
+    }
+
+    Uri lastMediaUri() {
+        return lastMediaUri;
+    }
+
+    private void toast(String text) {
+        Toast.makeText(getApplication(), text, Toast.LENGTH_SHORT).show();
+    }
+
+    // === Modes, capture and camera ============================================
+
+    void setPhotoMode(boolean photo) {
+        if (photo == isPhotoMode) return;
+        isPhotoMode = photo;
+        if (photo) {
+            if (isRecording) stopRecording();
+            disarmPreRecord();
+        } else {
+            // Probe encoders off the UI thread before the first recording needs them
+            ThreadPolicy.threadFactory(ThreadPolicy.ROLE_BACKGROUND, "EncoderProbe").newThread(encoderCatalog::encoders).start();
+            if (preRecordEnabled) armPreRecord();
+        }
+    }
+
+    /** Photo mode: take a photo off the processed stream; video mode: start or stop recording. */
+    void capture() {
+        if (isPhotoMode) {
+            photoPending = true;
+            updatePassthrough();
+            livePipeline.capturePhoto();
+        } else if (!isRecording) {
+            startRecording();
+        } else {
+            stopRecording();
+        }
+    }
+
+    void switchCamera(long tapTimeNs) {
+        if (CameraHandler.BACK_CAMERA_ID.equals(currentCameraId)) {
+            currentCameraId = CameraHandler.FRONT_CAMERA_ID;
+        } else {
+            currentCameraId = CameraHandler.BACK_CAMERA_ID;
+        }
+        // Buffered frames are the other camera's size and orientation
+        boolean rearm = preRecordBuffer != null && !isRecording;
+        if (rearm) disarmPreRecord();
+        cameraHandler.switchCamera(currentCameraId, tapTimeNs,
+                rearm ? () -> mainHandler.post(this::armPreRecord) : null);
+        applyPreviewRotation();
+    }
+
+    /** Called by CameraHandler on the camera thread once the first frame is on screen. */
+    void onFirstFrameShown() {
+        mainHandler.post(() -> {
+            if (ui != null) ui.reportFullyDrawn();
+        });
+    }
+
+    private void applyPreviewRotation() {
+        int degrees = computePreviewRotationDegrees(currentCameraId);
+        livePipeline.setRotationDegrees(degrees);
+        nativeSetThumbnailOrientation(degrees, CameraHandler.FRONT_CAMERA_ID.equals(currentCameraId));
+        applyPipPlacement();
+    }
+
+    // === Recording wiring =====================================================
+
+    private void openMediaStoreVideo() throws IOException {
+        long now = System.currentTimeMillis();
+        String name = "VID_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(now)) + ".mp4";
+
+        ContentResolver cr = getApplication().getContentResolver();
+        ContentValues cv = new ContentValues();
+        cv.put(MediaStore.Video.Media.DISPLAY_NAME, name);
+        cv.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        if (Build.VERSION.SDK_INT >= 29) {
+            cv.put(MediaStore.Video.Media.RELATIVE_PATH, Environment.DIRECTORY_DCIM + "/Camera");
+        }
+        videoUri = cr.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, cv);
+        if (videoUri == null) throw new IOException("Failed to insert MediaStore video row");
+        videoPfd = cr.openFileDescriptor(videoUri, "rw");
+        if (videoPfd == null) throw new IOException("Failed to open PFD for video");
+    }
+
+    private void startRecording() {
+        if (isRecording) return;
+        if (liveStreamHost != null) {
+            startLiveStream();
+            return;
+        }
+        try {
+            // 1) Muxer via MediaStore FD
+            openMediaStoreVideo();
+            // Before the record branch goes live, so the first retimed frame it sees is near 0
+            if (frameDecimator != null) frameDecimator.restart();
+            if (nativeEncoderEnabled && preRecordBuffer == null && !cameraHandler.isHdrActive()) {
+                startNativeRecording();
+                return;
+            }
+            if (FRAGMENTED_MP4) {
+                muxerWrapper = new MediaMuxerWrapper(videoUri, videoPfd, FRAGMENT_DURATION_US);
+            } else {
+                MediaMuxer mm = new MediaMuxer(videoPfd.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                muxerWrapper = new MediaMuxerWrapper(mm, videoUri, videoPfd);
+            }
+            muxerWrapper.setExpectedTrackCount(recordsAudio() ? 2 : 1); // video (+ audio)
+
+            // 2) Orientation hint (affects playback rotation)
+            int degrees = computePreviewRotationDegrees(currentCameraId);
+            muxerWrapper.setOrientationHint(degrees);
+
+            // 3) Encoders already running for pre-record: flush the ring, then go live
+            if (preRecordBuffer != null) {
+                preRecordBuffer.attach(muxerWrapper);
+                videoEncoder.setBitrate(videoProfile.bitRate);
+                setRecording(true);
+                setRecordBranchActive(true);
+                toast("Recording started…");
+                return;
+            }
+
+            // Encoders (configure with chosen size from CameraHandler)
+            if (cameraHandler.getChosenSize() == null) {
+                toast("Camera not ready");
+                return;
+            }
+            int w = cameraHandler.getChosenSize().getWidth();
+            int h = cameraHandler.getChosenSize().getHeight();
+
+            videoProfile = selectVideoProfile(w, h);
+            videoEncoder = new VideoEncoder(muxerWrapper, videoProfile);
+            videoEncoder.start();
+
+            if (recordsAudio()) {
+                audioEncoder = new AudioEncoder(muxerWrapper, AUDIO_THREADS);
+                audioEncoder.start();
+            }
+
+            setRecording(true);
+            setRecordBranchActive(true);
+            toast("Recording started…");
+
+        } catch (Exception e) {
+            Log.e(TAG, "startRecording failed", e);
+            toast("Failed to start recording");
+            setRecording(false);
+            // cleanup if partially created
+            if (preRecordBuffer != null) {
+                preRecordBuffer.detach();
+            } else {
+                if (audioEncoder != null) try { audioEncoder.stop(); } catch (Exception ignored) {}
+                if (nativeRecorder != null) try { nativeRecorder.stop(); } catch (Exception ignored) {}
+                nativeRecorder = null;
+                if (videoEncoder != null) try { videoEncoder.stop(); } catch (Exception ignored) {}
+                videoEncoder = null;
+                audioEncoder = null;
+            }
+            if (muxerWrapper != null) try { muxerWrapper.stop(); } catch (Exception ignored) {}
+            muxerWrapper = null;
+            safeCloseVideoPfd();
+        }
+    }
+
+    private void stopRecording() {
+        if (!isRecording) return;
+        if (liveStreamSink != null) {
+            stopLiveStream();
+            return;
+        }
+        setRecording(false);
+        toast("Stopping…");
+
+        if (preRecordBuffer != null) {
+            // Encoders keep feeding the ring; it restarts on the requested keyframe
+            preRecordBuffer.detach();
+            try {
+                videoEncoder.setBitrate(PRE_RECORD_BIT_RATE);
+                videoEncoder.requestKeyFrame();
+            } catch (Exception ignored) {}
+        } else {
+            setRecordBranchActive(false);
+            updatePassthrough();
+            try { if (audioEncoder != null) audioEncoder.stop(); } catch (Exception ignored) {}
+            try { if (videoEncoder != null) videoEncoder.stop(); } catch (Exception ignored) {}
+            try { if (nativeRecorder != null) nativeRecorder.stop(); } catch (Exception ignored) {}
+            videoEncoder = null;
+            audioEncoder = null;
+            nativeRecorder = null;
+        }
+        try { if (muxerWrapper != null) muxerWrapper.stop(); } catch (Exception ignored) {}
+        if (!preRecordEnabled) disarmPreRecord();   // turned off while recording
+
+        // Update gallery & thumbnail
+        if (videoUri != null) setLastMedia(videoUri);
+
+        muxerWrapper = null;
+        safeCloseVideoPfd();
+
+        toast("Video saved");
+        Log.d(TAG, "Thread policy " + ThreadPolicy.getPolicy() + " over the recording:\n"
+                + ThreadPolicy.format(ThreadPolicy.stats(true)));
+    }
+
+    private void startLiveStream() {
+        Size size = cameraHandler.getChosenSize();
+        if (size == null) {
+            toast("Camera not ready");
+            return;
+        }
+        if (cameraHandler.isHdrActive()) {
+            toast("Live streaming needs HDR off");
+            return;
+        }
+        if (frameDecimator != null) frameDecimator.restart();
+        videoProfile = selectVideoProfile(size.getWidth(), size.getHeight());
+        int queueBytes = (int) ((long) videoProfile.bitRate / 8 * LIVE_QUEUE_MS / 1000);
+        LiveStreamSender sender = new LiveStreamSender(liveStreamHost, liveStreamPort, queueBytes,
+                ThreadPolicy.threadFactory(ThreadPolicy.ROLE_RECORD, "LiveStream"));
+        LiveStreamSink sink = new LiveStreamSink(sender);
+        sink.setExpectedTrackCount(recordsAudio() ? 2 : 1);
+        try {
+            videoEncoder = new VideoEncoder(sink, videoProfile);
+            sender.setEncoderControl(videoEncoder, videoProfile.bitRate);
+            videoEncoder.start();
+            if (recordsAudio()) {
+                audioEncoder = new AudioEncoder(sink, AUDIO_THREADS);
+                audioEncoder.start();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "live stream start failed", e);
+            toast("Failed to start live stream");
+            if (audioEncoder != null) try { audioEncoder.stop(); } catch (Exception ignored) {}
+            if (videoEncoder != null) try { videoEncoder.stop(); } catch (Exception ignored) {}
+            videoEncoder = null;
+            audioEncoder = null;
+            sink.stop();
+            return;
+        }
+        liveStreamSink = sink;
+        setRecording(true);
+        setRecordBranchActive(true);
+        toast("Streaming to " + liveStreamHost + ":" + liveStreamPort);
+    }
+
+    private void stopLiveStream() {
+        setRecording(false);
+        setRecordBranchActive(false);
+        updatePassthrough();
+        try { if (audioEncoder != null) audioEncoder.stop(); } catch (Exception ignored) {}
+        try { if (videoEncoder != null) videoEncoder.stop(); } catch (Exception ignored) {}
+        videoEncoder = null;
+        audioEncoder = null;
+        LiveStreamSink sink = liveStreamSink;
+        liveStreamSink = null;
+        // Sending what is still queued can take up to a second
+        ThreadPolicy.threadFactory(ThreadPolicy.ROLE_BACKGROUND, "LiveStreamClose").newThread(() -> {
+            sink.stop();
+            LiveStreamSender sender = sink.sender();
+            Log.d(TAG, "Live stream ended: " + sender.stats()
+                    + (sender.failure() != null ? " (" + sender.failure() + ")" : ""));
+        }).start();
+        toast("Streaming stopped");
+    }
+
+    private void startNativeRecording() throws IOException {
+        if (cameraHandler.getChosenSize() == null) {
+            toast("Camera not ready");
+            safeCloseVideoPfd();
+            return;
+        }
+        int w = cameraHandler.getChosenSize().getWidth();
+        int h = cameraHandler.getChosenSize().getHeight();
+        videoProfile = selectVideoProfile(w, h);
+        nativeRecorder = new NativeVideoRecorder(videoPfd, videoProfile, computePreviewRotationDegrees(currentCameraId),
+                recordsAudio());
+
+        if (recordsAudio()) {
+            audioEncoder = new AudioEncoder(nativeRecorder, AUDIO_THREADS);
+            audioEncoder.start();
+        }
+
+        setRecording(true);
+        setRecordBranchActive(true);
+        toast("Recording started…");
+    }
+
+    /** Native record branch on or off, with the overlays burned into what it records. */
+    private void setRecordBranchActive(boolean active) {
+        if (active) {
+            Size size = cameraHandler.getChosenSize();
+            // MPEG-TS carries no orientation hint: a live stream plays back as the sensor delivers
+            int degrees = liveStreamHost != null ? 0 : computePreviewRotationDegrees(currentCameraId);
+            if (size != null) recordingOverlay.start(size.getWidth(), size.getHeight(), degrees);
+            nativeSetRecordingActive(true, recordPacerFps());
+        } else {
+            nativeSetRecordingActive(false, 0);
+            recordingOverlay.stop();
+        }
+    }
+
+    private void setRecording(boolean recording) {
+        isRecording = recording;
+        updatePassthrough();
+        if (ui != null) ui.onRecordingChanged(recording);
+    }
+
+    /** Record through the native AMediaCodec/AMediaMuxer backend; applies from the next recording. */
+    void setNativeEncoderEnabled(boolean enabled) {
+        nativeEncoderEnabled = enabled;
+    }
+
+    /**
+     * Capture and record in 10-bit HDR where both the camera and an encoder
+     * support it. Returns whether HDR is now on; not changed while recording.
+     */
+    boolean setHdrEnabled(boolean enabled) {
+        if (isRecording) return hdrEnabled;
+        if (enabled) {
+            Size size = cameraHandler.getChosenSize();
+            if (!cameraHandler.isHdrCapable(currentCameraId) || size == null
+                    || EncoderSelector.selectHdr(encoderCatalog, size.getWidth(), size.getHeight(), RECORD_FPS) == null) {
+                return false;
+            }
+        }
+        hdrEnabled = enabled;
+        // A running pre-record encoder was configured for the old bit depth
+        boolean rearm = preRecordBuffer != null;
+        disarmPreRecord();
+        cameraHandler.setHdrMode(enabled, rearm ? () -> mainHandler.post(this::armPreRecord) : null);
+        return hdrEnabled;
+    }
+
+    /**
+     * Record fps frames a second (0: as many as the camera delivers). Frames
+     * the recording does not need are dropped before any processing. Not
+     * changed while recording; replaces a time-lapse.
+     */
+    boolean setCaptureRate(int fps) {
+        if (isRecording) return false;
+        applyFrameDecimation(fps > 0 ? FrameDecimator.atRate(fps) : null);
+        return true;
+    }
+
+    /**
+     * Record one frame every captureIntervalMs (0: off), played back at
+     * RECORD_FPS without audio; the preview keeps running at a reduced rate.
+     * Not changed while recording; turns pre-record off while active.
+     */
+    boolean setTimeLapse(long captureIntervalMs) {
+        if (isRecording) return false;
+        applyFrameDecimation(captureIntervalMs > 0
+                ? FrameDecimator.timeLapse(captureIntervalMs, RECORD_FPS, TIME_LAPSE_PREVIEW_FPS) : null);
+        return true;
+    }
+
+    private void applyFrameDecimation(FrameDecimator decimator) {
+        frameDecimator = decimator;
+        // A running pre-record encoder was configured for the old rate
+        disarmPreRecord();
+        cameraHandler.setFrameDecimation(decimator);
+        if (preRecordEnabled && !isPhotoMode) armPreRecord();
+    }
+
+    /** Time-lapses are silent: their audio would run at real time against sped-up video. */
+    private boolean recordsAudio() {
+        return frameDecimator == null || !frameDecimator.isTimeLapse();
+    }
+
+    /** Output frame rate of a recording. */
+    private int recordFps() {
+        return frameDecimator != null ? frameDecimator.playbackFps() : RECORD_FPS;
+    }
+
+    /** The native pacer is not needed (0) when CameraHandler already decimates. */
+    private int recordPacerFps() {
+        return frameDecimator != null ? 0 : RECORD_FPS;
+    }
+
+    /**
+     * Stream to an ingest server at host:port instead of recording to a file
+     * (null host: record to files again). Not changed while recording; turns
+     * pre-record off while set, and rejects a port outside 1..65535.
+     */
+    boolean setLiveStream(String host, int port) {
+        if (isRecording) return false;
+        if (host != null && (port <= 0 || port > 65535)) return false;
+        liveStreamHost = host;
+        liveStreamPort = port;
+        if (host != null) disarmPreRecord();
+        else if (preRecordEnabled && !isPhotoMode) armPreRecord();
+        return true;
+    }
+
+    /** Scheduling policy for the pipeline threads (ThreadPolicy.POLICY_*); applies immediately. */
+    void setThreadPolicy(int policy) {
+        ThreadPolicy.setPolicy(policy);
+        ThreadPolicy.stats(true);       // sample counters start over for the new policy
+    }
+
+    /** Keep the last few seconds before the record button is pressed (video mode only). */
+    void setPreRecordEnabled(boolean enabled) {
+        preRecordEnabled = enabled;
+        if (enabled && !isPhotoMode) armPreRecord();
+        else if (!enabled && !isRecording) disarmPreRecord();
+    }
+
+    private void armPreRecord() {
+        if (preRecordBuffer != null || isRecording || !hasPermissions() || !recordsAudio()) return;
+        if (liveStreamHost != null) return;
+        if (cameraHandler.getChosenSize() == null) return;
+        int w = cameraHandler.getChosenSize().getWidth();
+        int h = cameraHandler.getChosenSize().getHeight();
+        videoProfile = selectVideoProfile(w, h);
+        PreRecordBuffer buffer = new PreRecordBuffer(PRE_RECORD_BUDGET_BYTES, PRE_RECORD_MAX_SAMPLES, PRE_RECORD_WINDOW_US);
+        try {
+            videoEncoder = new VideoEncoder(buffer, videoProfile.withBitRate(PRE_RECORD_BIT_RATE));
+            videoEncoder.start();
+            audioEncoder = new AudioEncoder(buffer, AUDIO_THREADS);
+            audioEncoder.start();
+        } catch (Exception e) {
+            Log.e(TAG, "pre-record start failed", e);
+            if (audioEncoder != null) try { audioEncoder.stop(); } catch (Exception ignored) {}
+            if (videoEncoder != null) try { videoEncoder.stop(); } catch (Exception ignored) {}
+            videoEncoder = null;
+            audioEncoder = null;
+            return;
+        }
+        preRecordBuffer = buffer;
+        updatePassthrough();
+        setRecordBranchActive(true);
+    }
+
+    /**
+     * Codec, bitrate and rate control for a recording at w x h (probe results are cached per device).
+     * The native record worker is told the colour space so the YUV it packs matches the tags.
+     */
+    private EncoderProfile selectVideoProfile(int w, int h) {
+        EncoderProfile profile = null;
+        if (cameraHandler.isHdrActive()) {
+            profile = EncoderSelector.selectHdr(encoderCatalog, w, h, recordFps());
+        }
+        // Both muxer backends take HEVC; the live stream is H.264 and latency-bound
+        boolean live = liveStreamHost != null;
+        if (profile == null) profile = EncoderSelector.select(encoderCatalog, w, h, recordFps(), live, !live);
+        nativeSetEncoderColorSpace(profile.colorStandard, profile.colorRange);
+        return profile;
+    }
+
+    private void disarmPreRecord() {
+        if (preRecordBuffer == null) return;
+        setRecordBranchActive(false);
+        try { if (audioEncoder != null) audioEncoder.stop(); } catch (Exception ignored) {}
+        try { if (videoEncoder != null) videoEncoder.stop(); } catch (Exception ignored) {}
+        videoEncoder = null;
+        audioEncoder = null;
+        preRecordBuffer = null;
+        updatePassthrough();
+    }
+
+    private void safeCloseVideoPfd() {
+        if (videoPfd != null) {
+            try { videoPfd.close(); } catch (Exception ignored) {}
+            videoPfd = null;
+        }
+    }
+
+    // Called from the native record worker thread, paced to the encoder rate (NV21, or P010 in HDR mode)
+    public void onProcessedFrameFromNative(byte[] data, long timestampUs) {
+        if ((isRecording || preRecordBuffer != null) && videoEncoder != null && data != null) {
+            try {
+                videoEncoder.encodeFrame(data, timestampUs);
+            } catch (Throwable t) {
+                Log.w(TAG, "queue frame error", t);
+            }
+        }
+    }
+
+    // === Photo saving & thumbnail ============================================
+
+    /** Called by CameraHandler with the stream size the photo callback delivers. */
+    void setPhotoCaptureSize(int width, int height) {
+        this.photoWidth = width;
+        this.photoHeight = height;
+        Log.d(TAG, "Photo capture size set: " + width + "x" + height);
+    }
+
+    public void onProcessedPhotoFromNative(byte[] bgraData) {
+        photoPending = false;
+        mainHandler.post(this::updatePassthrough);
+        int width = photoWidth, height = photoHeight;
+        if (bgraData == null || bgraData.length == 0 || width == 0 || height == 0) {
+            Log.e(TAG, "Empty BGRA or size=0");
+            return;
+        }
+        String cameraId = currentCameraId;
+        int rotationDegrees = computePreviewRotationDegrees(cameraId);
+        PHOTO_SAVE_THREADS.newThread(() -> {
+            try {
+                Bitmap bmp = createBitmapFromBgra(bgraData, width, height);
+                Bitmap rotated = rotateBitmap(bmp, rotationDegrees, cameraId.equals(CameraHandler.FRONT_CAMERA_ID));
+                Uri photoUri = savePhotoToGallery(rotated);
+                mainHandler.post(() -> {
+                    setLastMedia(photoUri);
+                    toast("Photo saved");
+                });
+                if (rotated != null && rotated != bmp) rotated.recycle();
+                if (bmp != null) bmp.recycle();
+            } catch (Exception e) {
+                Log.e(TAG, "photo save failed", e);
+                mainHandler.post(() -> toast("Failed to save photo"));
+            }
+        }).start();
+    }
+
+    private Bitmap createBitmapFromBgra(byte[] bgraData, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int b = bgraData[i * 4] & 0xFF;
+            int g = bgraData[i * 4 + 1] & 0xFF;
+            int r = bgraData[i * 4 + 2] & 0xFF;
+            int a = bgraData[i * 4 + 3] & 0xFF;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    private Bitmap rotateBitmap(Bitmap source, int degrees, boolean isFrontCamera) {
+        if (degrees == 0 && !isFrontCamera) return source;
+        Matrix m = new Matrix();
+        if (isFrontCamera) m.postScale(-1, 1);
+        m.postRotate(degrees);
+        try {
+            Bitmap out = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), m, true);
+            if (out != source) source.recycle();
+            return out;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "OOM rotating bitmap", e);
+            return source;
+        }
+    }
+
+    private Uri savePhotoToGallery(Bitmap bitmap) throws IOException {
+        long ts = System.currentTimeMillis();
+        String name = "IMG_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(ts)) + ".jpg";
+        ContentResolver cr = getApplication().getContentResolver();
+
+        Uri targetUri = null;
+        OutputStream out = null;
+        String legacyPath = null;
+
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                ContentValues values = new ContentValues();
+                values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+                values.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
+                values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/CameraLiveFX");
+                values.put(MediaStore.Images.Media.IS_PENDING, 1);
+
+                targetUri = cr.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+                if (targetUri == null) throw new IOException("insert photo failed");
+                out = cr.openOutputStream(targetUri);
+                if (out == null) throw new IOException("openOutputStream null");
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+
+                values.clear();
+                values.put(MediaStore.Images.Media.IS_PENDING, 0);
+                cr.update(targetUri, values, null, null);
+
+            } else {
+                File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM), "Camera");
+                if (!dir.exists()) dir.mkdirs();
+                File file = new File(dir, name);
+                out = new FileOutputStream(file);
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+                legacyPath = file.getAbsolutePath();
+                targetUri = Uri.fromFile(file);
+            }
+        } finally {
+            if (out != null) try { out.close(); } catch (IOException ignored) {}
+            if (legacyPath != null) {
+                MediaScannerConnection.scanFile(getApplication(), new String[]{legacyPath}, new String[]{"image/jpeg"}, null);
+            }
+        }
+        return targetUri;
+    }
+
+    // Called from the camera thread (photo) or the record worker (video)
+    public Bitmap obtainThumbnailBitmap(int width, int height) {
+        return thumbnailPool.obtain(width, height);
+    }
+
+    public void onThumbnailFromNative(Bitmap thumbnail, boolean isVideo) {
+        mainHandler.post(() -> {
+            lastThumbnail = thumbnail;
+            thumbnailPool.markShown(thumbnail);
+            if (ui != null) ui.showThumbnail(thumbnail);
+        });
+    }
+
+    // Called from the camera thread while filter previews are on
+    public Bitmap obtainFilterAtlasBitmap(int width, int height) {
+        return filterAtlasPool.obtain(width, height);
+    }
+
+    public void onFilterAtlasFromNative(Bitmap atlas, int tileWidth, int tileHeight, int columns) {
+        mainHandler.post(() -> {
+            filterAtlasPool.markShown(atlas);
+            if (ui != null) ui.showFilterAtlas(atlas, tileWidth, tileHeight, columns);
+        });
+    }
+
+    private void setLastMedia(Uri uri) {
+        lastMediaUri = uri;
+        if (ui != null) ui.onLastMediaChanged(uri);
+    }
+
+    // === Filters, adjustments, scopes, PiP ====================================
+
+    void setFilter(String name) {
+        currentFilterName = name;
+        filterGraph.setFilter(filterNode, name);
+        filterGraph.commit();
+        updatePassthrough();
+    }
+
+    /**
+     * Keep live previews for these atlas tiles (the filter chips on screen);
+     * null or empty stops them.
+     */
+    void setFilterPreviewTiles(int[] tiles) {
+        boolean active = tiles != null && tiles.length > 0;
+        MainActivity.nativeSetFilterAtlasTiles(active ? tiles : null);
+        cameraHandler.setFilterAtlasActive(active);
+    }
+
+    /** Only reprocess tiles whose luma changed (tripod / kiosk use); kept across activity recreation. */
+    void setStaticSceneMode(boolean enabled) {
+        livePipeline.setStaticSceneMode(enabled, STATIC_SCENE_THRESHOLD);
+    }
+
+    /** Turn histogram / zebra / waveform on or off; zebra stripes mark luma at or above zebraThreshold. */
+    void setExposureScopes(int flags, int zebraThreshold) {
+        scopeFlags = flags;
+        nativeSetExposureScopes(flags, zebraThreshold);
+        updatePassthrough();
+    }
+
+    /** Latest published scopes, or null if none is newer than the last call. Cheap; poll from the UI. */
+    ExposureScopes.Snapshot pollExposureScopes() {
+        if (scopeFlags == 0) return null;
+        if (exposureScopes == null) exposureScopes = new ExposureScopes(MainActivity.nativeGetScopeBuffers());
+        return exposureScopes.poll();
+    }
+
+    /** Slider hook: exposure in stops, contrast and saturation as factors (1 = unchanged). */
+    void setAdjustments(float exposure, float contrast, float saturation) {
+        filterGraph.setValue(exposureNode, exposure);
+        filterGraph.setValue(contrastNode, contrast);
+        filterGraph.setValue(saturationNode, saturation);
+        filterGraph.commit();
+        adjustmentsNeutral = exposure == 0f && contrast == 1f && saturation == 1f;
+        updatePassthrough();
+    }
+
+    /** Skip native processing entirely when the output would equal the camera image. */
+    private void updatePassthrough() {
+        cameraHandler.setPassthrough("None".equals(currentFilterName) && adjustmentsNeutral
+                && !isRecording && preRecordBuffer == null && !photoPending && scopeFlags == 0 && !pipEnabled);
+    }
+
+    /** Watermark (null: none) and wall-clock timestamp burned into recordings. */
+    void setRecordingOverlay(String watermark, boolean timestamp) {
+        recordingOverlay.set(watermark, timestamp);
+    }
+
+    /**
+     * Show the other camera as an inset in screenCorner (0 top-left,
+     * clockwise), filtered with insetFilter. Returns false when the device
+     * cannot stream both cameras at once.
+     */
+    boolean setPictureInPicture(boolean enabled, int screenCorner, String insetFilter) {
+        if (enabled && !cameraHandler.isPictureInPictureSupported(currentCameraId)) return false;
+        pipEnabled = enabled;
+        pipScreenCorner = screenCorner & 3;
+        nativeSetPipFilter(insetFilter != null ? insetFilter : "None");
+        applyPipPlacement();
+        cameraHandler.setPictureInPicture(enabled);
+        updatePassthrough();
+        return true;
+    }
+
+    /** Native places the inset in frame coordinates; undo the preview rotation for the screen corner. */
+    private void applyPipPlacement() {
+        int frameCorner = (pipScreenCorner - computePreviewRotationDegrees(currentCameraId) / 90 + 4) % 4;
+        nativeSetPictureInPicture(pipEnabled, frameCorner, PIP_SIZE_PERCENT, 256);
+    }
+
+    // === Rotation helper ======================================================
+
+    /** Quarter turns that draw cameraId's frames upright on the last bound display rotation. */
+    private int computePreviewRotationDegrees(String cameraId) {
+        int degrees = 0;
+        switch (displayRotation) {
+            case Surface.ROTATION_0:   degrees = 0; break;
+            case Surface.ROTATION_90:  degrees = 90; break;
+            case Surface.ROTATION_180: degrees = 180; break;
+            case Surface.ROTATION_270: degrees = 270; break;
+        }
+
+        try {
+            CameraCharacteristics cc = cameraHandler.getCharacteristics(cameraId);
+            if (cc == null) {
+                CameraManager cm = (CameraManager) getApplication().getSystemService(Application.CAMERA_SERVICE);
+                cc = cm.getCameraCharacteristics(cameraId);
+            }
+            Integer so = cc.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer facing = cc.get(CameraCharacteristics.LENS_FACING);
+            int sensor = (so != null) ? so : 90;
+            boolean front = (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT);
+
+            // Preview buffer rotation for native to draw upright
+            int result;
+            if (front) {
+                result = (sensor + degrees) % 360;       // mirror handled in native if needed
+            } else {
+                result = (sensor - degrees + 360) % 360;
+            }
+            // Snap to 0/90/180/270 (native path expects quarter turns)
+            if (result < 45) return 0;
+            if (result < 135) return 90;
+            if (result < 225) return 180;
+            if (result < 315) return 270;
+            return 0;
+        } catch (Exception e) {
+            return 90;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nm.cameralivefx;
+
+import static com.nm.cameralivefx.MainActivity.nativeSetOverlay;
+import static com.nm.cameralivefx.MainActivity.nativeSetOverlayRotation;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Watermark and timestamp burned into recordings. Each is drawn into a
+ * premultiplied Bitmap and uploaded to the native record branch only when its
+ * text changes: the watermark when it is set or the frame size changes, the
+ * timestamp once a second while the record branch runs. Native code keeps
+ * them upright in the played-back picture. UI thread only.
+ */
+final class RecordingOverlay {
+
+    private static final int WATERMARK_ID = 0;
+    private static final int TIMESTAMP_ID = 1;
+    private static final int WATERMARK_CORNER = 2;     // bottom-right, as played back
+    private static final int TIMESTAMP_CORNER = 0;     // top-left
+    private static final int TEXT_SIZE_DIVISOR = 24;   // text height as a share of the frame's shorter side
+    private static final int MARGIN_DIVISOR = 40;
+
+    private final Handler handler;
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private final Bitmap[] bitmaps = new Bitmap[2];
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private final Runnable tick = this::tick;
+
+    private String watermark;
+    private boolean timestamp;
+    private boolean running;
+    private int shortSide;
+    private String shownTimestamp;
+
+    RecordingOverlay(Handler handler) {
+        this.handler = handler;
+        paint.setColor(Color.WHITE);
+        paint.setShadowLayer(2f, 1f, 1f, Color.argb(160, 0, 0, 0));
+    }
+
+    /** Watermark text (null: none) and whether to show the wall-clock time; applies immediately. */
+    void set(String watermark, boolean timestamp) {
+        this.watermark = watermark != null && !watermark.isEmpty() ? watermark : null;
+        this.timestamp = timestamp;
+        if (!running) return;
+        uploadWatermark();
+        handler.removeCallbacks(tick);
+        tick();
+    }
+
+    /**
+     * The record branch starts on frameWidth x frameHeight frames that play
+     * back turned by orientationDegrees; called again it only updates them.
+     */
+    void start(int frameWidth, int frameHeight, int orientationDegrees) {
+        nativeSetOverlayRotation(orientationDegrees);
+        int side = Math.min(frameWidth, frameHeight);
+        if (running && side == shortSide) return;
+        running = true;
+        shortSide = side;
+        paint.setTextSize(Math.max(12, shortSide / TEXT_SIZE_DIVISOR));
+        uploadWatermark();
+        handler.removeCallbacks(tick);
+        tick();
+    }
+
+    /** The record branch stopped: no more uploads until the next start. */
+    void stop() {
+        if (!running) return;
+        running = false;
+        handler.removeCallbacks(tick);
+    }
+
+    private void tick() {
+        if (!running) return;
+        if (!timestamp) {
+            nativeSetOverlay(TIMESTAMP_ID, null, 0, 0, 0, 0, 0);
+            shownTimestamp = null;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String text = timestampFormat.format(new Date(now));
+        if (!text.equals(shownTimestamp)) {
+            upload(TIMESTAMP_ID, text, TIMESTAMP_CORNER);
+            shownTimestamp = text;
+        }
+        // Just after the next full second, so the text turns over with the clock
+        handler.postAtTime(tick, SystemClock.uptimeMillis() + 1000 - now % 1000 + 5);
+    }
+
+    private void uploadWatermark() {
+        if (watermark != null) upload(WATERMARK_ID, watermark, WATERMARK_CORNER);
+        else nativeSetOverlay(WATERMARK_ID, null, 0, 0, 0, 0, 0);
+    }
+
+    /** Draw text into the overlay's Bitmap, reused while the size fits, and hand native a copy. */
+    private void upload(int id, String text, int corner) {
+        Paint.FontMetricsInt fm = paint.getFontMetricsInt();
+        int pad = Math.max(2, shortSide / 200);
+        int width = (int) Math.ceil(paint.measureText(text)) + 2 * pad;
+        int height = fm.descent - fm.ascent + 2 * pad;
+        Bitmap b = bitmaps[id];
+        if (b == null || b.getWidth() != width || b.getHeight() != height) {
+            b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmaps[id] = b;
+            buffers[id] = ByteBuffer.allocateDirect(width * height * 4);
+        }
+        Canvas canvas = new Canvas(b);
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+        canvas.drawText(text, pad, pad - fm.ascent, paint);
+        ByteBuffer buffer = buffers[id];
+        buffer.clear();
+        b.copyPixelsToBuffer(buffer);       // premultiplied RGBA, the layout native blends
+        int margin = shortSide / MARGIN_DIVISOR;
+        nativeSetOverlay(id, buffer, width, height, corner, margin, margin);
+    }
+}
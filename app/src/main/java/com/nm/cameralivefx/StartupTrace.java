@@ -0,0 +1,56 @@
+package com.nm.cameralivefx;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Cold-start milestones, measured from process start. Each stage is recorded
+ * once (the first time it is reached), logged, and emitted as a zero-length
+ * trace section so it shows up as a timestamp in Perfetto captures.
+ * The summary is logged when the first frame reaches the screen.
+ */
+public final class StartupTrace {
+
+    public static final int LIBRARY_LOADED = 0;
+    public static final int SURFACE_READY = 1;
+    public static final int CAMERA_OPENED = 2;
+    public static final int FIRST_FRAME = 3;
+
+    private static final String TAG = "StartupTrace";
+    private static final String[] NAMES = {"library_loaded", "surface_ready", "camera_opened", "first_frame"};
+    private static final long[] marksMs = {-1, -1, -1, -1};
+
+    private StartupTrace() {}
+
+    /** Record a stage; later calls for the same stage are ignored. Returns true the first time. */
+    public static boolean mark(int stage) {
+        long sinceStart;
+        synchronized (marksMs) {
+            if (marksMs[stage] >= 0) return false;
+            sinceStart = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+            marksMs[stage] = sinceStart;
+        }
+        Log.d(TAG, NAMES[stage] + " at +" + sinceStart + " ms");
+        Trace.beginSection("StartupTrace:" + NAMES[stage]);
+        Trace.endSection();
+        if (stage == FIRST_FRAME) logSummary();
+        return true;
+    }
+
+    /** Milliseconds from process start to the stage, or -1 if not reached yet. */
+    public static long get(int stage) {
+        synchronized (marksMs) {
+            return marksMs[stage];
+        }
+    }
+
+    private static void logSummary() {
+        Log.i(TAG, String.format(Locale.US,
+                "Cold start: library %d ms, surface %d ms, camera %d ms, first frame %d ms",
+                get(LIBRARY_LOADED), get(SURFACE_READY), get(CAMERA_OPENED), get(FIRST_FRAME)));
+    }
+}
@@ -0,0 +1,107 @@
+package com.nm.cameralivefx;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Scheduling policy for the pipeline's threads (ThreadPolicy.hpp). Every
+ * pipeline thread registers once with its role; the policy then sets its
+ * niceness and which cores it may run on, and can be switched at runtime so
+ * policies can be compared on the same device: run a scene under one, read
+ * stats(), switch, run it again.
+ *
+ * Threads that exit must unregister first, so a reused thread id is not
+ * scheduled as a pipeline thread.
+ */
+public final class ThreadPolicy {
+
+    // Must match ThreadRole in ThreadPolicy.hpp
+    public static final int ROLE_CAMERA = 0;
+    public static final int ROLE_RECORD = 1;
+    public static final int ROLE_GRAPH_BAKE = 2;
+    public static final int ROLE_AUDIO = 3;
+    public static final int ROLE_BACKGROUND = 4;
+
+    // Must match ThreadPolicyId in ThreadPolicy.hpp
+    public static final int POLICY_SYSTEM = 0;          // scheduler defaults (baseline)
+    public static final int POLICY_PRIORITY = 1;        // per-role niceness, any core
+    public static final int POLICY_BIG_CORES = 2;       // niceness, frame path on the performance cores
+    public static final int POLICY_LITTLE_CORES = 3;    // niceness, frame path on the efficiency cores
+
+    // Layout of stats(): STAT_FIELDS longs per registered thread
+    public static final int STAT_ROLE = 0;
+    public static final int STAT_TID = 1;
+    public static final int STAT_CPU_NS = 2;
+    public static final int STAT_MIGRATIONS = 3;        // -1 where the kernel does not expose it
+    public static final int STAT_SAMPLES = 4;           // one per frame or bake
+    public static final int STAT_SAMPLES_ON_PERFORMANCE = 5;
+    public static final int STAT_CPU_CHANGES = 6;
+    public static final int STAT_APPLY_ERRORS = 7;
+    public static final int STAT_FIELDS = 8;
+
+    private static final String[] ROLE_NAMES = {"camera", "record", "graph-bake", "audio", "background"};
+
+    private static native void nativeRegisterCurrentThread(int role, String name);
+    private static native void nativeUnregisterCurrentThread();
+    private static native void nativeSetPolicy(int policy);
+    private static native int nativeGetPolicy();
+    private static native long[] nativeGetStats(boolean resetSamples);
+
+    private ThreadPolicy() {}
+
+    /** Register the calling thread under its Java name and apply the current policy to it. */
+    public static void registerCurrentThread(int role) {
+        nativeRegisterCurrentThread(role, Thread.currentThread().getName());
+    }
+
+    public static void unregisterCurrentThread() {
+        nativeUnregisterCurrentThread();
+    }
+
+    /** Threads named name that register under role for as long as they run. */
+    public static ThreadFactory threadFactory(int role, String name) {
+        return r -> new Thread(() -> {
+            registerCurrentThread(role);
+            try {
+                r.run();
+            } finally {
+                unregisterCurrentThread();
+            }
+        }, name);
+    }
+
+    /** Switch policy; applied to every registered thread immediately. */
+    public static void setPolicy(int policy) {
+        nativeSetPolicy(policy);
+    }
+
+    public static int getPolicy() {
+        return nativeGetPolicy();
+    }
+
+    /**
+     * Per-thread counters, STAT_FIELDS per thread. CPU time and migrations are
+     * cumulative; the sample counters restart when resetSamples is set.
+     */
+    public static long[] stats(boolean resetSamples) {
+        return nativeGetStats(resetSamples);
+    }
+
+    /** One line per thread, for logs and A/B notes. */
+    public static String format(long[] stats) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + STAT_FIELDS <= stats.length; i += STAT_FIELDS) {
+            int role = (int) stats[i + STAT_ROLE];
+            long samples = stats[i + STAT_SAMPLES];
+            sb.append(String.format(Locale.US, "%-10s tid %d: cpu %.1f ms, migrations %s, big %s, cpu changes %d%s%n",
+                    role >= 0 && role < ROLE_NAMES.length ? ROLE_NAMES[role] : "?",
+                    stats[i + STAT_TID],
+                    stats[i + STAT_CPU_NS] / 1e6,
+                    stats[i + STAT_MIGRATIONS] < 0 ? "n/a" : Long.toString(stats[i + STAT_MIGRATIONS]),
+                    samples == 0 ? "n/a" : Math.round(100.0 * stats[i + STAT_SAMPLES_ON_PERFORMANCE] / samples) + "%",
+                    stats[i + STAT_CPU_CHANGES],
+                    stats[i + STAT_APPLY_ERRORS] > 0 ? ", " + stats[i + STAT_APPLY_ERRORS] + " refused" : ""));
+        }
+        return sb.toString();
+    }
+}
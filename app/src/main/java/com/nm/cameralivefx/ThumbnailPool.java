@@ -0,0 +1,33 @@
+package com.nm.cameralivefx;
+
+import android.graphics.Bitmap;
+
+/**
+ * Two thumbnail Bitmaps used in turn: native code fills the one that is not
+ * on screen, then the UI shows it. Bitmaps are reallocated only when the
+ * requested size changes (e.g. after a rotation or camera switch).
+ */
+final class ThumbnailPool {
+
+    private final Bitmap[] bitmaps = new Bitmap[2];
+    private int shown = -1;
+
+    /** A Bitmap of exactly width x height that is not currently displayed. */
+    synchronized Bitmap obtain(int width, int height) {
+        int slot = shown == 0 ? 1 : 0;
+        Bitmap b = bitmaps[slot];
+        if (b == null || b.getWidth() != width || b.getHeight() != height) {
+            // The old one may still be referenced by a pending UI update; let GC take it
+            b = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmaps[slot] = b;
+        }
+        return b;
+    }
+
+    /** Record that b is now on screen so the next obtain() hands out the other one. */
+    synchronized void markShown(Bitmap b) {
+        for (int i = 0; i < bitmaps.length; i++) {
+            if (bitmaps[i] == b) shown = i;
+        }
+    }
+}
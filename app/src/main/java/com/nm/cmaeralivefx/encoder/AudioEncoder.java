@@ -5,6 +5,7 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
 
 public class AudioEncoder {
     private static final String TAG = "AudioEncoder";
@@ -16,12 +17,19 @@ public class AudioEncoder {
     private final MediaCodec codec;
     private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
     private final AudioRecord audioRecord;
-    private final MediaMuxerWrapper muxer;
+    private final EncodedSampleSink sink;
+    private final ThreadFactory threadFactory;
     private int trackIndex = -1;
     private boolean isEncoding = false;
 
-    public AudioEncoder(MediaMuxerWrapper muxerWrapper) throws IOException {
-        this.muxer = muxerWrapper;
+    public AudioEncoder(EncodedSampleSink sink) throws IOException {
+        this(sink, r -> new Thread(r, TAG));
+    }
+
+    /** threadFactory creates the capture/encode thread, e.g. to give it a scheduling policy. */
+    public AudioEncoder(EncodedSampleSink sink, ThreadFactory threadFactory) throws IOException {
+        this.sink = sink;
+        this.threadFactory = threadFactory;
 
         MediaFormat format = MediaFormat.createAudioFormat(MIME_TYPE, SAMPLE_RATE, CHANNEL_COUNT);
         format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
@@ -40,7 +48,7 @@ public class AudioEncoder {
         audioRecord.startRecording();
         isEncoding = true;
 
-        new Thread(this::recordLoop).start();
+        threadFactory.newThread(this::recordLoop).start();
     }
 
     private void recordLoop() {
@@ -79,13 +87,13 @@ public class AudioEncoder {
                 if (bufferInfo.size != 0) {
                     outputBuffer.position(bufferInfo.offset);
                     outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
-                    muxer.writeSampleData(trackIndex, outputBuffer, bufferInfo);
+                    sink.writeSampleData(trackIndex, outputBuffer, bufferInfo);
                 }
 
                 codec.releaseOutputBuffer(outputBufferIndex, false);
             } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 MediaFormat newFormat = codec.getOutputFormat();
-                trackIndex = muxer.addTrack(newFormat);
+                trackIndex = sink.addTrack(newFormat);
 //                muxer.start();
             }
         }
@@ -0,0 +1,164 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded FIFO of encoded A/V samples that always starts on a video keyframe,
+ * so its contents can be handed to a fresh muxer and play from the first
+ * sample.
+ *
+ * All storage is allocated up front: sample bytes live in one byte[] of
+ * byteBudget bytes used as a ring, metadata in parallel arrays of maxSamples
+ * entries. When either is full, or the buffered span exceeds windowUs by a
+ * whole GOP, the oldest GOP (a video keyframe and everything up to the next
+ * one) is dropped.
+ *
+ * Not thread-safe.
+ */
+public class EncodedSampleRing {
+
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+
+    /** Receives buffered samples in arrival order; data is only valid during the call. */
+    public interface Consumer {
+        void onSample(int track, ByteBuffer data, long ptsUs, boolean keyframe);
+    }
+
+    private final byte[] store;
+    private final ByteBuffer view;
+    private final long windowUs;
+
+    private final int[] tracks;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] ptsUs;
+    private final boolean[] keyframes;
+
+    private int head;       // metadata index of the oldest sample
+    private int count;
+    private int tail;       // byte offset where the next sample goes
+    private int bytesUsed;
+
+    public EncodedSampleRing(int byteBudget, int maxSamples, long windowUs) {
+        this.store = new byte[byteBudget];
+        this.view = ByteBuffer.wrap(store);
+        this.windowUs = windowUs;
+        this.tracks = new int[maxSamples];
+        this.offsets = new int[maxSamples];
+        this.sizes = new int[maxSamples];
+        this.ptsUs = new long[maxSamples];
+        this.keyframes = new boolean[maxSamples];
+    }
+
+    /**
+     * Copy one sample in. Returns false if it was not kept: anything before
+     * the first video keyframe, or a sample larger than the whole budget.
+     * The position of data is left unchanged.
+     */
+    public boolean add(int track, ByteBuffer data, long pts, boolean keyframe) {
+        int n = data.remaining();
+        if (n == 0) return false;
+        if (n > store.length) {
+            clear();    // the GOP it belongs to can no longer be kept whole
+            return false;
+        }
+        boolean videoKey = track == TRACK_VIDEO && keyframe;
+        if (count == 0 && !videoKey) return false;
+
+        int at;
+        while ((at = placement(n)) < 0 || count == tracks.length) {
+            dropOldestGop();
+        }
+        if (count == 0 && !videoKey) return false;   // its own GOP was just evicted
+
+        int pos = data.position();
+        data.get(store, at, n);
+        data.position(pos);
+
+        int i = (head + count) % tracks.length;
+        tracks[i] = track;
+        offsets[i] = at;
+        sizes[i] = n;
+        ptsUs[i] = pts;
+        keyframes[i] = videoKey || (track != TRACK_VIDEO && keyframe);
+        count++;
+        tail = at + n;
+        bytesUsed += n;
+
+        trimToWindow(pts);
+        return true;
+    }
+
+    /** Hand every buffered sample to consumer, oldest first, then empty the ring. */
+    public int drainTo(Consumer consumer) {
+        int drained = count;
+        for (int k = 0; k < count; k++) {
+            int i = (head + k) % tracks.length;
+            view.clear();
+            view.position(offsets[i]).limit(offsets[i] + sizes[i]);
+            consumer.onSample(tracks[i], view, ptsUs[i], keyframes[i]);
+        }
+        clear();
+        return drained;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        tail = 0;
+        bytesUsed = 0;
+    }
+
+    public int getSampleCount() {
+        return count;
+    }
+
+    public int getBytesUsed() {
+        return bytesUsed;
+    }
+
+    /** Span from the oldest to the newest buffered sample. */
+    public long getBufferedUs() {
+        if (count == 0) return 0;
+        return ptsUs[(head + count - 1) % tracks.length] - ptsUs[head];
+    }
+
+    /** Byte offset where n bytes fit without touching live data, or -1. */
+    private int placement(int n) {
+        if (count == 0) return 0;
+        int headOffset = offsets[head];
+        if (tail > headOffset) {
+            if (tail + n <= store.length) return tail;
+            return n <= headOffset ? 0 : -1;   // wrap; the gap at the end frees up with the head
+        }
+        return tail + n <= headOffset ? tail : -1;
+    }
+
+    /** Drop the head keyframe and everything up to the next video keyframe. */
+    private void dropOldestGop() {
+        do {
+            bytesUsed -= sizes[head];
+            head = (head + 1) % tracks.length;
+            count--;
+        } while (count > 0 && !(tracks[head] == TRACK_VIDEO && keyframes[head]));
+        if (count == 0) clear();
+    }
+
+    /** Drop whole GOPs while the rest would still cover windowUs. */
+    private void trimToWindow(long newestPts) {
+        while (true) {
+            int next = nextKeyframeAfterHead();
+            if (next < 0 || newestPts - ptsUs[next] < windowUs) return;
+            dropOldestGop();
+        }
+    }
+
+    private int nextKeyframeAfterHead() {
+        for (int k = 1; k < count; k++) {
+            int i = (head + k) % tracks.length;
+            if (tracks[i] == TRACK_VIDEO && keyframes[i]) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,16 @@
+package com.nm.cmaeralivefx.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/** Where the encoders deliver their output format and encoded samples. */
+public interface EncodedSampleSink {
+
+    /** Register a track once its output format is known; returns the index to write with. */
+    int addTrack(MediaFormat format);
+
+    /** buffer is positioned on the sample; it is only valid during the call. */
+    void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info);
+}
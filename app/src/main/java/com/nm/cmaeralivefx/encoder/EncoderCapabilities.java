@@ -0,0 +1,166 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one video encoder on this device can do, as probed from
+ * MediaCodecList. The constants mirror MediaCodecInfo, so the selection
+ * logic can be tested against hand-written tables; serializable to one
+ * line for the per-device cache.
+ */
+public final class EncoderCapabilities {
+
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
+    // MediaCodecInfo.CodecCapabilities color formats
+    public static final int COLOR_FormatYUV420SemiPlanar = 21;
+    public static final int COLOR_FormatYUV420Flexible = 0x7F420888;
+    public static final int COLOR_FormatYUVP010 = 54;
+
+    // MediaCodecInfo.EncoderCapabilities bitrate modes
+    public static final int BITRATE_MODE_CQ = 0;
+    public static final int BITRATE_MODE_VBR = 1;
+    public static final int BITRATE_MODE_CBR = 2;
+
+    // MediaCodecInfo.CodecProfileLevel profiles
+    public static final int AVCProfileBaseline = 0x01;
+    public static final int AVCProfileMain = 0x02;
+    public static final int AVCProfileHigh = 0x08;
+    public static final int HEVCProfileMain = 0x01;
+    public static final int HEVCProfileMain10 = 0x02;
+
+    /** Frame rate the encoder reports for a probed size. */
+    public static final class SizeRate {
+        public final int width, height;
+        public final double maxFps;
+
+        public SizeRate(int width, int height, double maxFps) {
+            this.width = width;
+            this.height = height;
+            this.maxFps = maxFps;
+        }
+    }
+
+    public final String name;
+    public final String mime;
+    public final boolean hardware;
+    public final int[] colorFormats;
+    public final int bitrateModes;          // bit (1 << BITRATE_MODE_*) per supported mode
+    public final int minBitrate, maxBitrate;
+    public final int maxWidth, maxHeight;
+    public final int widthAlignment, heightAlignment;
+    public final int[] profiles;
+    public final boolean lowLatency;
+    public final List<SizeRate> sizeRates; // ascending by pixel count
+
+    public EncoderCapabilities(String name, String mime, boolean hardware, int[] colorFormats,
+                               int bitrateModes, int minBitrate, int maxBitrate,
+                               int maxWidth, int maxHeight, int widthAlignment, int heightAlignment,
+                               int[] profiles, boolean lowLatency, List<SizeRate> sizeRates) {
+        this.name = name;
+        this.mime = mime;
+        this.hardware = hardware;
+        this.colorFormats = colorFormats;
+        this.bitrateModes = bitrateModes;
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.widthAlignment = Math.max(1, widthAlignment);
+        this.heightAlignment = Math.max(1, heightAlignment);
+        this.profiles = profiles;
+        this.lowLatency = lowLatency;
+        this.sizeRates = sizeRates;
+    }
+
+    public boolean supportsColorFormat(int format) {
+        for (int f : colorFormats) if (f == format) return true;
+        return false;
+    }
+
+    public boolean supportsBitrateMode(int mode) {
+        return (bitrateModes & (1 << mode)) != 0;
+    }
+
+    public boolean supportsProfile(int profile) {
+        for (int p : profiles) if (p == profile) return true;
+        return false;
+    }
+
+    /** Size fits the encoder's limits (either orientation) and alignment. */
+    public boolean supportsSize(int width, int height) {
+        if (width % widthAlignment != 0 || height % heightAlignment != 0) return false;
+        return (width <= maxWidth && height <= maxHeight) || (height <= maxWidth && width <= maxHeight);
+    }
+
+    /**
+     * Highest frame rate known for width x height: the rate of the smallest
+     * probed size with at least as many pixels, or 0 if none is that large.
+     */
+    public double maxFrameRate(int width, int height) {
+        long pixels = (long) width * height;
+        for (SizeRate s : sizeRates) {
+            if ((long) s.width * s.height >= pixels) return s.maxFps;
+        }
+        return 0;
+    }
+
+    // ---- per-device cache format ----
+
+    /** One line, '|'-separated; parse() reads it back. */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append('|').append(mime).append('|').append(hardware ? 1 : 0).append('|');
+        appendInts(sb, colorFormats);
+        sb.append('|').append(bitrateModes).append('|').append(minBitrate).append('|').append(maxBitrate);
+        sb.append('|').append(maxWidth).append('|').append(maxHeight);
+        sb.append('|').append(widthAlignment).append('|').append(heightAlignment).append('|');
+        appendInts(sb, profiles);
+        sb.append('|').append(lowLatency ? 1 : 0).append('|');
+        for (int i = 0; i < sizeRates.size(); i++) {
+            SizeRate s = sizeRates.get(i);
+            if (i > 0) sb.append(',');
+            sb.append(s.width).append('x').append(s.height).append('@').append(s.maxFps);
+        }
+        return sb.toString();
+    }
+
+    /** Inverse of serialize(); throws IllegalArgumentException on a malformed line. */
+    public static EncoderCapabilities parse(String line) {
+        String[] f = line.split("\\|", -1);
+        if (f.length != 14) throw new IllegalArgumentException("Bad capability line: " + line);
+        try {
+            List<SizeRate> rates = new ArrayList<>();
+            if (!f[13].isEmpty()) {
+                for (String e : f[13].split(",")) {
+                    int x = e.indexOf('x'), at = e.indexOf('@');
+                    rates.add(new SizeRate(Integer.parseInt(e.substring(0, x)),
+                            Integer.parseInt(e.substring(x + 1, at)), Double.parseDouble(e.substring(at + 1))));
+                }
+            }
+            return new EncoderCapabilities(f[0], f[1], "1".equals(f[2]), parseInts(f[3]),
+                    Integer.parseInt(f[4]), Integer.parseInt(f[5]), Integer.parseInt(f[6]),
+                    Integer.parseInt(f[7]), Integer.parseInt(f[8]), Integer.parseInt(f[9]), Integer.parseInt(f[10]),
+                    parseInts(f[11]), "1".equals(f[12]), rates);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Bad capability line: " + line, e);
+        }
+    }
+
+    private static void appendInts(StringBuilder sb, int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+    }
+
+    private static int[] parseInts(String s) {
+        if (s.isEmpty()) return new int[0];
+        String[] parts = s.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Integer.parseInt(parts[i]);
+        return out;
+    }
+}
@@ -0,0 +1,10 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.util.List;
+
+/** Source of the device's video encoder capabilities (MediaCodecList, or a fake in tests). */
+public interface EncoderCatalog {
+
+    /** All video encoders for the MIME types the app can record, in platform order. */
+    List<EncoderCapabilities> encoders();
+}
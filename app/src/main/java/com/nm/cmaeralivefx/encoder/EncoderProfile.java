@@ -0,0 +1,81 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.util.Locale;
+
+/** A concrete encoder configuration chosen by EncoderSelector for one recording. */
+public final class EncoderProfile {
+
+    // MediaFormat colour signalling; the native record path packs YUV with the same matrix and range
+    public static final int COLOR_STANDARD_BT709 = 1;
+    public static final int COLOR_STANDARD_BT601_PAL = 2;
+    public static final int COLOR_STANDARD_BT601_NTSC = 4;
+    public static final int COLOR_STANDARD_BT2020 = 6;
+    public static final int COLOR_TRANSFER_SDR_VIDEO = 3;
+    public static final int COLOR_TRANSFER_ST2084 = 6;
+    public static final int COLOR_TRANSFER_HLG = 7;
+    public static final int COLOR_RANGE_FULL = 1;
+    public static final int COLOR_RANGE_LIMITED = 2;
+
+    public final String codecName;   // null: let the platform pick an encoder for mime
+    public final String mime;
+    public final int width, height;
+    public final int frameRate;
+    public final int bitRate;
+    public final int bitrateMode;    // EncoderCapabilities.BITRATE_MODE_*, or -1 for the codec default
+    public final int colorFormat;
+    public final int profile;        // codec profile constant, or -1 for the codec default
+    public final int iFrameIntervalSec;
+    public final int operatingRate;  // 0: do not set KEY_OPERATING_RATE
+    public final boolean lowLatency;
+    public final int colorStandard;  // COLOR_STANDARD_*, or 0 to leave the colour keys unset
+    public final int colorTransfer;
+    public final int colorRange;
+
+    public EncoderProfile(String codecName, String mime, int width, int height, int frameRate, int bitRate,
+                          int bitrateMode, int colorFormat, int profile, int iFrameIntervalSec,
+                          int operatingRate, boolean lowLatency) {
+        this(codecName, mime, width, height, frameRate, bitRate, bitrateMode, colorFormat, profile,
+                iFrameIntervalSec, operatingRate, lowLatency, 0, 0, 0);
+    }
+
+    public EncoderProfile(String codecName, String mime, int width, int height, int frameRate, int bitRate,
+                          int bitrateMode, int colorFormat, int profile, int iFrameIntervalSec,
+                          int operatingRate, boolean lowLatency,
+                          int colorStandard, int colorTransfer, int colorRange) {
+        this.codecName = codecName;
+        this.mime = mime;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.bitRate = bitRate;
+        this.bitrateMode = bitrateMode;
+        this.colorFormat = colorFormat;
+        this.profile = profile;
+        this.iFrameIntervalSec = iFrameIntervalSec;
+        this.operatingRate = operatingRate;
+        this.lowLatency = lowLatency;
+        this.colorStandard = colorStandard;
+        this.colorTransfer = colorTransfer;
+        this.colorRange = colorRange;
+    }
+
+    /** 10-bit HDR input (P010): an HLG or PQ transfer. */
+    public boolean isHdr() {
+        return colorTransfer == COLOR_TRANSFER_HLG || colorTransfer == COLOR_TRANSFER_ST2084;
+    }
+
+    /** Same configuration at another target bitrate. */
+    public EncoderProfile withBitRate(int newBitRate) {
+        return new EncoderProfile(codecName, mime, width, height, frameRate, newBitRate, bitrateMode,
+                colorFormat, profile, iFrameIntervalSec, operatingRate, lowLatency,
+                colorStandard, colorTransfer, colorRange);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s (%s) %dx%d@%d %d kbit/s mode %d profile %d%s%s%s",
+                codecName, mime, width, height, frameRate, bitRate / 1000, bitrateMode, profile,
+                operatingRate > 0 ? " op-rate " + operatingRate : "", lowLatency ? " low-latency" : "",
+                isHdr() ? " HDR" : "");
+    }
+}
@@ -0,0 +1,143 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.util.List;
+
+/**
+ * Picks the encoder and its settings for a recording size and frame rate.
+ *
+ * Order of preference: hardware over software, HEVC over AVC (when the
+ * caller's muxer takes it), then platform order. Encoders that cannot do the
+ * size, or do not accept the app's YUV420 input, are skipped; the frame rate
+ * is only a tie-breaker, since a codec that reports too low a rate usually
+ * still keeps up. Bitrate comes from a bits-per-pixel budget, HEVC getting
+ * about 60% of AVC for the same quality. 8-bit recordings are tagged BT.709
+ * from 720p up and BT.601 below, limited range, as players assume when the
+ * stream does not say.
+ */
+public final class EncoderSelector {
+
+    static final double AVC_BITS_PER_PIXEL = 0.1;
+    static final double HEVC_BITRATE_FACTOR = 0.6;
+    static final int MIN_BIT_RATE = 1_000_000;
+    static final int I_FRAME_INTERVAL_SEC = 1;
+
+    private EncoderSelector() {}
+
+    public static EncoderProfile select(EncoderCatalog catalog, int width, int height, int fps,
+                                        boolean lowLatency, boolean allowHevc) {
+        List<EncoderCapabilities> encoders = catalog.encoders();
+        EncoderCapabilities best = null;
+        int bestScore = Integer.MIN_VALUE;
+        for (EncoderCapabilities c : encoders) {
+            boolean hevc = EncoderCapabilities.MIME_HEVC.equals(c.mime);
+            if (!hevc && !EncoderCapabilities.MIME_AVC.equals(c.mime)) continue;
+            if (hevc && !allowHevc) continue;
+            if (!c.supportsSize(width, height) || inputColorFormat(c) < 0) continue;
+
+            int score = (c.hardware ? 100 : 0) + (hevc ? 10 : 0)
+                    + (c.maxFrameRate(width, height) >= fps ? 5 : 0)
+                    + (lowLatency && c.lowLatency ? 1 : 0);
+            if (score > bestScore) {    // strict: earlier entries win ties
+                best = c;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            // Nothing matched the probe: leave the choice to MediaCodec as before
+            return new EncoderProfile(null, EncoderCapabilities.MIME_AVC, width, height, fps,
+                    bitRateFor(EncoderCapabilities.MIME_AVC, width, height, fps, null), -1,
+                    EncoderCapabilities.COLOR_FormatYUV420Flexible, -1, I_FRAME_INTERVAL_SEC, 0, false,
+                    sdrColorStandard(width, height), EncoderProfile.COLOR_TRANSFER_SDR_VIDEO,
+                    EncoderProfile.COLOR_RANGE_LIMITED);
+        }
+
+        boolean hevc = EncoderCapabilities.MIME_HEVC.equals(best.mime);
+        return new EncoderProfile(best.name, best.mime, width, height, fps,
+                bitRateFor(best.mime, width, height, fps, best),
+                bitrateMode(best, lowLatency),
+                inputColorFormat(best),
+                profile(best, hevc),
+                I_FRAME_INTERVAL_SEC,
+                best.maxFrameRate(width, height) >= fps ? fps : 0,
+                lowLatency && best.lowLatency,
+                sdrColorStandard(width, height), EncoderProfile.COLOR_TRANSFER_SDR_VIDEO,
+                EncoderProfile.COLOR_RANGE_LIMITED);
+    }
+
+    /**
+     * Encoder for the 10-bit HDR path: HEVC Main 10 taking P010 input, tagged
+     * BT.2020 / HLG. Returns null when the device has none, in which case the
+     * caller records 8-bit. Same preference and bitrate budget as select().
+     */
+    public static EncoderProfile selectHdr(EncoderCatalog catalog, int width, int height, int fps) {
+        EncoderCapabilities best = null;
+        int bestScore = Integer.MIN_VALUE;
+        for (EncoderCapabilities c : catalog.encoders()) {
+            if (!EncoderCapabilities.MIME_HEVC.equals(c.mime) || !c.supportsSize(width, height)) continue;
+            if (!c.supportsProfile(EncoderCapabilities.HEVCProfileMain10)
+                    || !c.supportsColorFormat(EncoderCapabilities.COLOR_FormatYUVP010)) continue;
+
+            int score = (c.hardware ? 100 : 0) + (c.maxFrameRate(width, height) >= fps ? 5 : 0);
+            if (score > bestScore) {
+                best = c;
+                bestScore = score;
+            }
+        }
+        if (best == null) return null;
+
+        return new EncoderProfile(best.name, best.mime, width, height, fps,
+                bitRateFor(best.mime, width, height, fps, best),
+                bitrateMode(best, false),
+                EncoderCapabilities.COLOR_FormatYUVP010,
+                EncoderCapabilities.HEVCProfileMain10,
+                I_FRAME_INTERVAL_SEC,
+                best.maxFrameRate(width, height) >= fps ? fps : 0,
+                false,
+                EncoderProfile.COLOR_STANDARD_BT2020, EncoderProfile.COLOR_TRANSFER_HLG,
+                EncoderProfile.COLOR_RANGE_LIMITED);
+    }
+
+    /** HD and up is BT.709, SD BT.601 (525-line primaries); the short side decides for portrait sizes. */
+    static int sdrColorStandard(int width, int height) {
+        return Math.min(width, height) >= 720
+                ? EncoderProfile.COLOR_STANDARD_BT709 : EncoderProfile.COLOR_STANDARD_BT601_NTSC;
+    }
+
+    static int bitRateFor(String mime, int width, int height, int fps, EncoderCapabilities caps) {
+        double bits = (double) width * height * fps * AVC_BITS_PER_PIXEL;
+        if (EncoderCapabilities.MIME_HEVC.equals(mime)) bits *= HEVC_BITRATE_FACTOR;
+        long rate = Math.max(MIN_BIT_RATE, Math.round(bits));
+        if (caps != null) {
+            if (caps.maxBitrate > 0) rate = Math.min(rate, caps.maxBitrate);
+            rate = Math.max(rate, caps.minBitrate);
+        }
+        return (int) rate;
+    }
+
+    /** Live streaming wants a steady rate; files are better off with VBR. CQ is never used. */
+    private static int bitrateMode(EncoderCapabilities c, boolean lowLatency) {
+        int first = lowLatency ? EncoderCapabilities.BITRATE_MODE_CBR : EncoderCapabilities.BITRATE_MODE_VBR;
+        int second = lowLatency ? EncoderCapabilities.BITRATE_MODE_VBR : EncoderCapabilities.BITRATE_MODE_CBR;
+        if (c.supportsBitrateMode(first)) return first;
+        if (c.supportsBitrateMode(second)) return second;
+        return -1;
+    }
+
+    /** The record path hands over YUV420 buffers; flexible is preferred, semi-planar accepted. */
+    private static int inputColorFormat(EncoderCapabilities c) {
+        if (c.supportsColorFormat(EncoderCapabilities.COLOR_FormatYUV420Flexible)) {
+            return EncoderCapabilities.COLOR_FormatYUV420Flexible;
+        }
+        if (c.supportsColorFormat(EncoderCapabilities.COLOR_FormatYUV420SemiPlanar)) {
+            return EncoderCapabilities.COLOR_FormatYUV420SemiPlanar;
+        }
+        return -1;
+    }
+
+    private static int profile(EncoderCapabilities c, boolean hevc) {
+        if (hevc) return c.supportsProfile(EncoderCapabilities.HEVCProfileMain) ? EncoderCapabilities.HEVCProfileMain : -1;
+        if (c.supportsProfile(EncoderCapabilities.AVCProfileHigh)) return EncoderCapabilities.AVCProfileHigh;
+        if (c.supportsProfile(EncoderCapabilities.AVCProfileMain)) return EncoderCapabilities.AVCProfileMain;
+        return -1;
+    }
+}
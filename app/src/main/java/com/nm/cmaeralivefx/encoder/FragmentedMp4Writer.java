@@ -0,0 +1,668 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fragmented MP4 (ISO BMFF / CMAF-style) writer for one AVC or HEVC video
+ * and/or one AAC audio track.
+ *
+ * Layout: ftyp, moov (empty sample tables + mvex), then a moof/mdat pair per
+ * fragment. Everything the file needs to play is on disk after each fragment,
+ * so a crash loses at most the fragment being collected, and finish() only
+ * flushes that last fragment: stop time does not depend on recording length.
+ *
+ * Fragments are cut every fragmentDurationUs, on a video keyframe when there
+ * is a video track (capped at 4x the interval if keyframes stop coming).
+ * Other tracks hold back their newest sample until the next one arrives, so
+ * every written sample has an exact duration. Decode and presentation order are assumed equal (no
+ * B-frames), which is what the app's encoders produce.
+ *
+ * Not thread-safe; MediaMuxerWrapper serializes access.
+ */
+public class FragmentedMp4Writer {
+
+    /** Codec description of a track, as needed for the sample entry. */
+    public static final class Track {
+        final boolean video;
+        final boolean hevc;
+        final int width, height;                // video
+        final int sampleRate, channelCount;     // audio
+        final byte[] vps, sps, pps;             // video, without start codes (vps: HEVC only)
+        final byte[] audioSpecificConfig;       // audio
+        final int timescale;
+
+        private Track(boolean video, boolean hevc, int width, int height, int sampleRate, int channelCount,
+                      byte[] vps, byte[] sps, byte[] pps, byte[] asc) {
+            this.video = video;
+            this.hevc = hevc;
+            this.vps = vps;
+            this.width = width;
+            this.height = height;
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.sps = sps;
+            this.pps = pps;
+            this.audioSpecificConfig = asc;
+            this.timescale = video ? 90000 : sampleRate;
+        }
+
+        /** H.264 track; sps/pps may be passed with or without Annex-B start codes. */
+        public static Track avc(int width, int height, byte[] sps, byte[] pps) {
+            return new Track(true, false, width, height, 0, 0, null, stripStartCode(sps), stripStartCode(pps), null);
+        }
+
+        /** H.265 track; csd0 is MediaFormat csd-0, the Annex-B VPS + SPS + PPS. */
+        public static Track hevc(int width, int height, byte[] csd0) {
+            byte[][] nals = new byte[3][];
+            for (byte[] nal : splitAnnexB(csd0)) {
+                int type = nal.length > 0 ? (nal[0] >> 1) & 0x3F : -1;
+                if (type >= 32 && type <= 34 && nals[type - 32] == null) nals[type - 32] = nal;
+            }
+            if (nals[0] == null || nals[1] == null || nals[2] == null) {
+                throw new IllegalArgumentException("HEVC csd-0 lacks VPS/SPS/PPS");
+            }
+            return new Track(true, true, width, height, 0, 0, nals[0], nals[1], nals[2], null);
+        }
+
+        /** AAC track; asc is the AudioSpecificConfig (MediaFormat csd-0). */
+        public static Track aac(int sampleRate, int channelCount, byte[] asc) {
+            return new Track(false, false, 0, 0, sampleRate, channelCount, null, null, null, asc);
+        }
+    }
+
+    private static final class TrackState {
+        final Track track;
+        final int id;
+        ByteBuffer data = ByteBuffer.allocate(256 * 1024);   // sample bytes of the open fragment
+        int[] sizes = new int[64];
+        long[] ptsUs = new long[64];
+        boolean[] sync = new boolean[64];
+        int count;
+        long nextDecodeTicks = -1;   // tfdt of the next fragment
+
+        TrackState(Track track, int id) {
+            this.track = track;
+            this.id = id;
+        }
+
+        long ticks(long ptsUs, long baseUs) {
+            return Math.max(0, Math.round((ptsUs - baseUs) * (double) track.timescale / 1_000_000.0));
+        }
+    }
+
+    private static final int MAX_FRAGMENT_FACTOR = 4;
+
+    private final WritableByteChannel channel;
+    private final long fragmentDurationUs;
+    private final List<TrackState> tracks = new ArrayList<>();
+    private ByteBuffer box = ByteBuffer.allocate(64 * 1024);
+    private int rotationDegrees = 0;
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean hasVideo = false;
+    private long basePtsUs = Long.MIN_VALUE;
+    private long fragmentStartUs = Long.MIN_VALUE;
+    private int sequenceNumber = 0;
+    private long bytesWritten = 0;
+
+    public FragmentedMp4Writer(WritableByteChannel channel, long fragmentDurationUs) {
+        this.channel = channel;
+        this.fragmentDurationUs = Math.max(1, fragmentDurationUs);
+    }
+
+    public int addTrack(Track track) {
+        if (started) throw new IllegalStateException("addTrack after start");
+        if (track.video && hasVideo) throw new IllegalArgumentException("Only one video track is supported");
+        hasVideo |= track.video;
+        tracks.add(new TrackState(track, tracks.size() + 1));
+        return tracks.size() - 1;
+    }
+
+    /** Display rotation (0/90/180/270) written into the track headers; set before start(). */
+    public void setOrientationHint(int degrees) {
+        if (started) throw new IllegalStateException("setOrientationHint after start");
+        rotationDegrees = degrees;
+    }
+
+    /** Write ftyp + moov. After this the file is a valid (empty) fragmented MP4. */
+    public void start() throws IOException {
+        if (started) return;
+        if (tracks.isEmpty()) throw new IllegalStateException("No tracks");
+        started = true;
+        box.clear();
+        writeFtyp();
+        writeMoov();
+        flushBox();
+    }
+
+    /**
+     * Append one encoded sample. Video samples may be Annex-B (start codes)
+     * or already length-prefixed; they are stored length-prefixed.
+     */
+    public void writeSample(int trackIndex, ByteBuffer sample, long ptsUs, boolean keyframe) throws IOException {
+        if (!started || finished) throw new IllegalStateException("Writer not running");
+        TrackState t = tracks.get(trackIndex);
+        if (basePtsUs == Long.MIN_VALUE) basePtsUs = ptsUs;
+        if (fragmentStartUs == Long.MIN_VALUE) fragmentStartUs = ptsUs;
+
+        long elapsed = ptsUs - fragmentStartUs;
+        boolean cutPoint = !hasVideo || (t.track.video && keyframe);
+        // 10% slack so a keyframe interval equal to the fragment interval cuts on every keyframe despite PTS jitter
+        if ((elapsed >= fragmentDurationUs - fragmentDurationUs / 10 && cutPoint)
+                || elapsed >= fragmentDurationUs * MAX_FRAGMENT_FACTOR) {
+            writeFragment(trackIndex, ptsUs);
+            fragmentStartUs = ptsUs;
+        }
+        append(t, sample, ptsUs, keyframe);
+    }
+
+    /** Flush what is pending (including held-back samples). Does not close the channel. */
+    public void finish() throws IOException {
+        if (!started || finished) return;
+        writeFragment(-1, 0);
+        finished = true;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getFragmentCount() {
+        return sequenceNumber;
+    }
+
+    // ---- sample buffering ----
+
+    private void append(TrackState t, ByteBuffer sample, long ptsUs, boolean keyframe) {
+        if (t.count == t.sizes.length) {
+            int n = t.count * 2;
+            t.sizes = Arrays.copyOf(t.sizes, n);
+            t.ptsUs = Arrays.copyOf(t.ptsUs, n);
+            t.sync = Arrays.copyOf(t.sync, n);
+        }
+        int len = sample.remaining();
+        // Annex-B -> 4-byte length prefixes: a 3-byte start code grows by one byte
+        t.data = ensureCapacity(t.data, len + len / 4 + 8);
+        int start = t.data.position();
+        if (t.track.video && isAnnexB(sample)) {
+            appendAnnexBAsLengthPrefixed(sample, t.data);
+        } else {
+            t.data.put(sample);
+        }
+        t.sizes[t.count] = t.data.position() - start;
+        t.ptsUs[t.count] = ptsUs;
+        t.sync[t.count] = !t.track.video || keyframe;
+        t.count++;
+    }
+
+    private static boolean isAnnexB(ByteBuffer b) {
+        int p = b.position();
+        if (b.remaining() < 4) return false;
+        return b.get(p) == 0 && b.get(p + 1) == 0 && (b.get(p + 2) == 1 || (b.get(p + 2) == 0 && b.get(p + 3) == 1));
+    }
+
+    private static void appendAnnexBAsLengthPrefixed(ByteBuffer src, ByteBuffer dst) {
+        int end = src.limit();
+        int i = src.position();
+        int nalStart = -1;
+        while (i < end) {
+            int sc = startCodeLength(src, i, end);
+            if (sc > 0) {
+                if (nalStart >= 0) putNal(src, nalStart, i, dst);
+                i += sc;
+                nalStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (nalStart >= 0 && nalStart < end) putNal(src, nalStart, end, dst);
+        src.position(end);
+    }
+
+    private static int startCodeLength(ByteBuffer b, int i, int end) {
+        if (i + 3 <= end && b.get(i) == 0 && b.get(i + 1) == 0) {
+            if (b.get(i + 2) == 1) return 3;
+            if (i + 4 <= end && b.get(i + 2) == 0 && b.get(i + 3) == 1) return 4;
+        }
+        return 0;
+    }
+
+    private static void putNal(ByteBuffer src, int from, int to, ByteBuffer dst) {
+        ByteBuffer nal = src.duplicate();
+        nal.limit(to).position(from);
+        dst.putInt(to - from);
+        dst.put(nal);
+    }
+
+    /** NAL units of an Annex-B byte stream, without start codes. */
+    static List<byte[]> splitAnnexB(byte[] stream) {
+        ByteBuffer src = ByteBuffer.wrap(stream);
+        ByteBuffer dst = ByteBuffer.allocate(stream.length + stream.length / 4 + 8);
+        appendAnnexBAsLengthPrefixed(src, dst);
+        dst.flip();
+        List<byte[]> out = new ArrayList<>();
+        while (dst.remaining() >= 4) {
+            byte[] nal = new byte[dst.getInt()];
+            dst.get(nal);
+            out.add(nal);
+        }
+        return out;
+    }
+
+    static byte[] stripStartCode(byte[] nal) {
+        if (nal == null) return new byte[0];
+        int skip = 0;
+        if (nal.length >= 4 && nal[0] == 0 && nal[1] == 0 && nal[2] == 0 && nal[3] == 1) skip = 4;
+        else if (nal.length >= 3 && nal[0] == 0 && nal[1] == 0 && nal[2] == 1) skip = 3;
+        return Arrays.copyOfRange(nal, skip, nal.length);
+    }
+
+    // ---- fragment writing ----
+
+    /**
+     * Write the pending samples as one moof/mdat. cutTrack is the track whose
+     * sample at cutPtsUs starts the next fragment (it ends this one exactly);
+     * other tracks keep their newest sample back. cutTrack -1 flushes everything.
+     */
+    private void writeFragment(int cutTrack, long cutPtsUs) throws IOException {
+        boolean last = cutTrack < 0;
+        int[] emit = new int[tracks.size()];
+        int trafCount = 0;
+        long mdatPayload = 0;
+        for (int i = 0; i < tracks.size(); i++) {
+            TrackState t = tracks.get(i);
+            emit[i] = last || i == cutTrack ? t.count : Math.max(0, t.count - 1);
+            if (emit[i] > 0) {
+                trafCount++;
+                for (int s = 0; s < emit[i]; s++) mdatPayload += t.sizes[s];
+            }
+        }
+        if (trafCount == 0) return;
+
+        int moofSize = 8 + 16;
+        for (int i = 0; i < tracks.size(); i++) {
+            if (emit[i] > 0) moofSize += trafSize(emit[i]);
+        }
+
+        box.clear();
+        box = ensureCapacity(box, moofSize + 8);
+        sequenceNumber++;
+        int moofStart = begin("moof");
+        fullBox("mfhd", 0, 0);
+        box.putInt(sequenceNumber);
+        end(box.position() - 16);
+        long dataOffset = moofSize + 8;
+        for (int i = 0; i < tracks.size(); i++) {
+            TrackState t = tracks.get(i);
+            if (emit[i] == 0) continue;
+            writeTraf(t, emit[i], (int) dataOffset, i == cutTrack ? cutPtsUs : Long.MIN_VALUE);
+            for (int s = 0; s < emit[i]; s++) dataOffset += t.sizes[s];
+        }
+        end(moofStart);
+
+        long mdatSize = 8 + mdatPayload;
+        if (mdatSize > 0xFFFFFFFFL) throw new IOException("Fragment too large");
+        box.putInt((int) mdatSize);
+        box.put("mdat".getBytes(StandardCharsets.US_ASCII));
+        flushBox();
+
+        for (int i = 0; i < tracks.size(); i++) {
+            TrackState t = tracks.get(i);
+            if (emit[i] == 0) continue;
+            int bytes = 0;
+            for (int s = 0; s < emit[i]; s++) bytes += t.sizes[s];
+            ByteBuffer out = t.data.duplicate();
+            out.flip();
+            out.limit(bytes);
+            writeFully(out);
+            dropSamples(t, emit[i], bytes);
+        }
+    }
+
+    private static int trafSize(int samples) {
+        return 8 + 16 /* tfhd */ + 20 /* tfdt v1 */ + 20 + 12 * samples /* trun */;
+    }
+
+    private void writeTraf(TrackState t, int n, int dataOffset, long endPtsUs) {
+        int traf = begin("traf");
+
+        fullBox("tfhd", 0, 0x020000);   // default-base-is-moof
+        box.putInt(t.id);
+        end(box.position() - 16);
+
+        if (t.nextDecodeTicks < 0) t.nextDecodeTicks = t.ticks(t.ptsUs[0], basePtsUs);
+        fullBox("tfdt", 1, 0);
+        box.putLong(t.nextDecodeTicks);
+        end(box.position() - 20);
+
+        int trun = box.position();
+        fullBox("trun", 0, 0x000001 | 0x000100 | 0x000200 | 0x000400);
+        box.putInt(n);
+        box.putInt(dataOffset);
+        long prevDuration = t.track.video ? t.track.timescale / 30 : 1024;
+        long decode = t.nextDecodeTicks;
+        for (int s = 0; s < n; s++) {
+            long duration;
+            if (s + 1 < t.count) {
+                duration = Math.max(0, t.ticks(t.ptsUs[s + 1], basePtsUs) - decode);
+            } else if (endPtsUs != Long.MIN_VALUE) {
+                duration = Math.max(0, t.ticks(endPtsUs, basePtsUs) - decode);
+            } else {
+                duration = prevDuration;   // final sample of the recording
+            }
+            box.putInt((int) duration);
+            box.putInt(t.sizes[s]);
+            box.putInt(t.sync[s] ? 0x02000000 : 0x01010000);
+            decode += duration;
+            prevDuration = duration;
+        }
+        end(trun);
+        t.nextDecodeTicks = decode;
+
+        end(traf);
+    }
+
+    private static void dropSamples(TrackState t, int n, int bytes) {
+        int remainingBytes = t.data.position() - bytes;
+        System.arraycopy(t.data.array(), bytes, t.data.array(), 0, remainingBytes);
+        t.data.position(remainingBytes);
+        int left = t.count - n;
+        System.arraycopy(t.sizes, n, t.sizes, 0, left);
+        System.arraycopy(t.ptsUs, n, t.ptsUs, 0, left);
+        System.arraycopy(t.sync, n, t.sync, 0, left);
+        t.count = left;
+    }
+
+    // ---- header boxes ----
+
+    private void writeFtyp() {
+        int ftyp = begin("ftyp");
+        putFourCc("isom");
+        box.putInt(0x200);
+        putFourCc("isom");
+        putFourCc("iso6");
+        putFourCc("mp41");
+        end(ftyp);
+    }
+
+    private void writeMoov() {
+        int moov = begin("moov");
+
+        fullBox("mvhd", 0, 0);
+        box.putInt(0).putInt(0);        // creation / modification time
+        box.putInt(1000);               // timescale
+        box.putInt(0);                  // duration: unknown, fragments carry it
+        box.putInt(0x00010000);         // rate 1.0
+        box.putShort((short) 0x0100);   // volume 1.0
+        box.putShort((short) 0).putInt(0).putInt(0);
+        putMatrix(0);
+        for (int i = 0; i < 6; i++) box.putInt(0);
+        box.putInt(tracks.size() + 1);  // next_track_ID
+        end(moov + 8);
+
+        for (TrackState t : tracks) writeTrak(t);
+
+        int mvex = begin("mvex");
+        for (TrackState t : tracks) {
+            int trex = box.position();
+            fullBox("trex", 0, 0);
+            box.putInt(t.id).putInt(1).putInt(0).putInt(0).putInt(0);
+            end(trex);
+        }
+        end(mvex);
+
+        end(moov);
+    }
+
+    private void writeTrak(TrackState t) {
+        Track tr = t.track;
+        int trak = begin("trak");
+
+        int tkhd = box.position();
+        fullBox("tkhd", 0, 0x000003);   // enabled, in movie
+        box.putInt(0).putInt(0);
+        box.putInt(t.id);
+        box.putInt(0);
+        box.putInt(0);                  // duration
+        box.putInt(0).putInt(0);
+        box.putShort((short) 0);        // layer
+        box.putShort((short) 0);        // alternate group
+        box.putShort((short) (tr.video ? 0 : 0x0100));
+        box.putShort((short) 0);
+        putMatrix(tr.video ? rotationDegrees : 0);
+        box.putInt(tr.width << 16);
+        box.putInt(tr.height << 16);
+        end(tkhd);
+
+        int mdia = begin("mdia");
+        int mdhd = box.position();
+        fullBox("mdhd", 0, 0);
+        box.putInt(0).putInt(0);
+        box.putInt(tr.timescale);
+        box.putInt(0);
+        box.putShort((short) 0x55C4);   // 'und'
+        box.putShort((short) 0);
+        end(mdhd);
+
+        int hdlr = box.position();
+        fullBox("hdlr", 0, 0);
+        box.putInt(0);
+        putFourCc(tr.video ? "vide" : "soun");
+        box.putInt(0).putInt(0).putInt(0);
+        box.put((tr.video ? "VideoHandler" : "SoundHandler").getBytes(StandardCharsets.US_ASCII));
+        box.put((byte) 0);
+        end(hdlr);
+
+        int minf = begin("minf");
+        if (tr.video) {
+            int vmhd = box.position();
+            fullBox("vmhd", 0, 1);
+            box.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+            end(vmhd);
+        } else {
+            int smhd = box.position();
+            fullBox("smhd", 0, 0);
+            box.putShort((short) 0).putShort((short) 0);
+            end(smhd);
+        }
+        int dinf = begin("dinf");
+        int dref = box.position();
+        fullBox("dref", 0, 0);
+        box.putInt(1);
+        int url = box.position();
+        fullBox("url ", 0, 1);          // media is in this file
+        end(url);
+        end(dref);
+        end(dinf);
+
+        int stbl = begin("stbl");
+        int stsd = box.position();
+        fullBox("stsd", 0, 0);
+        box.putInt(1);
+        if (tr.hevc) writeHvc1(tr); else if (tr.video) writeAvc1(tr); else writeMp4a(tr);
+        end(stsd);
+        // Empty sample tables: samples live in the fragments
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int b = box.position();
+            fullBox(type, 0, 0);
+            box.putInt(0);
+            end(b);
+        }
+        int stsz = box.position();
+        fullBox("stsz", 0, 0);
+        box.putInt(0).putInt(0);
+        end(stsz);
+        end(stbl);
+
+        end(minf);
+        end(mdia);
+        end(trak);
+    }
+
+    private void writeAvc1(Track tr) {
+        int avc1 = begin("avc1");
+        putVisualSampleEntry(tr);
+
+        int avcC = begin("avcC");
+        box.put((byte) 1);
+        box.put(tr.sps.length > 1 ? tr.sps[1] : 0);
+        box.put(tr.sps.length > 2 ? tr.sps[2] : 0);
+        box.put(tr.sps.length > 3 ? tr.sps[3] : 0);
+        box.put((byte) 0xFF);                // 4-byte NAL lengths
+        box.put((byte) 0xE1);                // one SPS
+        box.putShort((short) tr.sps.length).put(tr.sps);
+        box.put((byte) 1);                   // one PPS
+        box.putShort((short) tr.pps.length).put(tr.pps);
+        end(avcC);
+        end(avc1);
+    }
+
+    private void writeHvc1(Track tr) {
+        int hvc1 = begin("hvc1");
+        putVisualSampleEntry(tr);
+
+        int hvcC = begin("hvcC");
+        box.put((byte) 1);
+        // general profile_tier_level (12 bytes) sits right after the SPS's first RBSP byte
+        byte[] rbsp = unescapeRbsp(tr.sps, 2, tr.sps.length);
+        for (int i = 1; i <= 12; i++) box.put(i < rbsp.length ? rbsp[i] : 0);
+        box.putShort((short) 0xF000);        // min_spatial_segmentation_idc = 0
+        box.put((byte) 0xFC);                // parallelismType = 0
+        box.put((byte) 0xFD);                // chroma_format_idc = 1 (4:2:0)
+        // Main 10 (general_profile_idc 2) is what the 10-bit HDR path records; everything else is 8-bit
+        int bitDepthMinus8 = rbsp.length > 1 && (rbsp[1] & 0x1F) == 2 ? 2 : 0;
+        box.put((byte) (0xF8 | bitDepthMinus8));   // bit_depth_luma_minus8
+        box.put((byte) (0xF8 | bitDepthMinus8));   // bit_depth_chroma_minus8
+        box.putShort((short) 0);             // avgFrameRate
+        box.put((byte) 0x0F);                // 1 temporal layer, nested, 4-byte NAL lengths
+        box.put((byte) 3);
+        byte[][] arrays = {tr.vps, tr.sps, tr.pps};
+        for (int i = 0; i < 3; i++) {
+            box.put((byte) (0x80 | (32 + i)));   // array_completeness + NAL type
+            box.putShort((short) 1);
+            box.putShort((short) arrays[i].length).put(arrays[i]);
+        }
+        end(hvcC);
+        end(hvc1);
+    }
+
+    /** Strip emulation-prevention bytes from nal[from, to). */
+    static byte[] unescapeRbsp(byte[] nal, int from, int to) {
+        ByteBuffer out = ByteBuffer.allocate(Math.max(0, to - from));
+        int zeros = 0;
+        for (int i = from; i < Math.min(to, nal.length) && out.hasRemaining(); i++) {
+            if (zeros >= 2 && nal[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = nal[i] == 0 ? zeros + 1 : 0;
+            out.put(nal[i]);
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private void putVisualSampleEntry(Track tr) {
+        box.putInt(0).putShort((short) 0);   // reserved
+        box.putShort((short) 1);             // data_reference_index
+        box.putShort((short) 0).putShort((short) 0);
+        box.putInt(0).putInt(0).putInt(0);
+        box.putShort((short) tr.width).putShort((short) tr.height);
+        box.putInt(0x00480000).putInt(0x00480000);   // 72 dpi
+        box.putInt(0);
+        box.putShort((short) 1);             // frame_count
+        box.put(new byte[32]);               // compressorname
+        box.putShort((short) 0x0018);        // depth
+        box.putShort((short) -1);
+    }
+
+    private void writeMp4a(Track tr) {
+        int mp4a = begin("mp4a");
+        box.putInt(0).putShort((short) 0);
+        box.putShort((short) 1);
+        box.putInt(0).putInt(0);
+        box.putShort((short) tr.channelCount);
+        box.putShort((short) 16);
+        box.putShort((short) 0).putShort((short) 0);
+        box.putInt(tr.sampleRate << 16);
+
+        byte[] asc = tr.audioSpecificConfig != null ? tr.audioSpecificConfig : new byte[0];
+        int esds = box.position();
+        fullBox("esds", 0, 0);
+        int decSpecific = 2 + asc.length;
+        int decConfig = 2 + 13 + decSpecific;
+        int slConfig = 3;
+        box.put((byte) 0x03).put((byte) (3 + decConfig + slConfig));   // ES_Descriptor
+        box.putShort((short) 0).put((byte) 0);
+        box.put((byte) 0x04).put((byte) (13 + decSpecific));             // DecoderConfigDescriptor
+        box.put((byte) 0x40);                                            // AAC
+        box.put((byte) 0x15);                                            // audio stream
+        box.put((byte) 0).putShort((short) 0);                           // bufferSizeDB
+        box.putInt(0).putInt(0);                                         // max / avg bitrate
+        box.put((byte) 0x05).put((byte) asc.length).put(asc);            // DecoderSpecificInfo
+        box.put((byte) 0x06).put((byte) 1).put((byte) 0x02);             // SLConfigDescriptor
+        end(esds);
+        end(mp4a);
+    }
+
+    private void putMatrix(int degrees) {
+        int a = 0x00010000, b = 0, c = 0, d = 0x00010000;
+        switch (degrees) {
+            case 90:  a = 0; b = 0x00010000; c = -0x00010000; d = 0; break;
+            case 180: a = -0x00010000; d = -0x00010000; break;
+            case 270: a = 0; b = -0x00010000; c = 0x00010000; d = 0; break;
+        }
+        box.putInt(a).putInt(b).putInt(0);
+        box.putInt(c).putInt(d).putInt(0);
+        box.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    // ---- box buffer helpers ----
+
+    private int begin(String type) {
+        box = ensureCapacity(box, 8);
+        int start = box.position();
+        box.putInt(0);
+        putFourCc(type);
+        return start;
+    }
+
+    private void fullBox(String type, int version, int flags) {
+        box = ensureCapacity(box, 4096);
+        box.putInt(0);
+        putFourCc(type);
+        box.putInt((version << 24) | flags);
+    }
+
+    /** Patch the size of the box starting at start to end at the current position. */
+    private void end(int start) {
+        box.putInt(start, box.position() - start);
+    }
+
+    private void putFourCc(String s) {
+        box.put(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer b, int extra) {
+        if (b.remaining() >= extra) return b;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + extra));
+        b.flip();
+        bigger.put(b);
+        return bigger;
+    }
+
+    private void flushBox() throws IOException {
+        box.flip();
+        writeFully(box);
+        box.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) bytesWritten += channel.write(b);
+    }
+}
@@ -0,0 +1,431 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Streams encoded samples as MPEG-TS over a TCP connection to a local ingest
+ * server, from a send thread behind a bounded queue.
+ *
+ * The encoders never block on the network. When the receiver falls behind
+ * the queue fills and backpressure applies in steps:
+ * <ol>
+ *   <li>above half the byte budget, non-reference video frames are dropped
+ *       (nothing else depends on them) and the encoder is asked for a lower
+ *       bitrate, at most once per BITRATE_STEP_INTERVAL_MS;</li>
+ *   <li>when a video frame does not fit at all it is dropped, and so is
+ *       every video frame after it up to the next keyframe, which is
+ *       requested at once, since later frames would reference the missing
+ *       one. The bitrate is lowered as well.</li>
+ * </ol>
+ * Audio is only dropped when the queue is full, so sound keeps playing
+ * through a video stall. Once the queue has stayed low for RECOVERY_MS the
+ * bitrate is stepped back up towards the nominal one.
+ *
+ * The connection is opened on the send thread; samples offered before it is
+ * up wait in the queue like any others. A failed connection or write ends
+ * the stream: later samples are dropped and failure() says why.
+ *
+ * offer() may be called from any number of encoder threads.
+ */
+public class LiveStreamSender {
+
+    /** The encoder side of rate control; VideoEncoder implements it. */
+    public interface EncoderControl {
+        void setBitrate(int bitRate);
+
+        void requestKeyFrame();
+    }
+
+    /** Counters since start(); latencies are time spent queued until written to the socket. */
+    public static final class Stats {
+        public long videoFrames, audioFrames;           // offered
+        public long videoSent, audioSent;
+        public long droppedNonReference;
+        public long droppedUntilKeyFrame;               // reference frames and what depended on them
+        public long droppedAudio;
+        public long bytesSent;
+        public long bitrateReductions;
+        public int bitRate;                             // current encoder target, 0 without EncoderControl
+        public double avgQueueLatencyMs, maxQueueLatencyMs;
+
+        public long videoDropped() {
+            return droppedNonReference + droppedUntilKeyFrame;
+        }
+
+        /** Share of offered video frames that did not go out. */
+        public double videoDropRate() {
+            return videoFrames == 0 ? 0 : (double) videoDropped() / videoFrames;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "video %d/%d sent (%.1f%% dropped: %d non-ref, %d until keyframe), audio %d/%d, "
+                            + "%d KB, queue latency avg %.1f ms max %.1f ms, bitrate %d (%d reductions)",
+                    videoSent, videoFrames, 100 * videoDropRate(), droppedNonReference, droppedUntilKeyFrame,
+                    audioSent, audioFrames, bytesSent / 1024, avgQueueLatencyMs, maxQueueLatencyMs,
+                    bitRate, bitrateReductions);
+        }
+    }
+
+    static final int BITRATE_STEP_INTERVAL_MS = 1000;
+    static final int RECOVERY_MS = 3000;
+    private static final int MIN_BITRATE_PERCENT = 25;
+    private static final int REDUCTION_PERCENT = 75;
+    private static final int RECOVERY_STEP_PERCENT = 10;
+    private static final int SEND_BUFFER_BYTES = 64 * 1024;
+    private static final int CLOSE_DRAIN_MS = 1000;
+
+    private static final class Sample {
+        final int track;
+        final byte[] data;
+        final long ptsUs;
+        final boolean keyFrame;
+        final long queuedNs;
+
+        Sample(int track, byte[] data, long ptsUs, boolean keyFrame, long queuedNs) {
+            this.track = track;
+            this.data = data;
+            this.ptsUs = ptsUs;
+            this.keyFrame = keyFrame;
+            this.queuedNs = queuedNs;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int maxQueuedBytes;
+    private final ThreadFactory threadFactory;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Sample> queue = new ArrayDeque<>();
+    private final List<FragmentedMp4Writer.Track> tracks = new ArrayList<>();
+    private int queuedBytes;
+    private boolean waitingForKeyFrame = true;          // the stream starts on a keyframe
+    private boolean started, closing, closed;
+    private String failure;
+    private Thread sendThread;
+    private SocketChannel channel;
+
+    private EncoderControl control;
+    private int nominalBitRate;
+    private int bitRate;
+    private long lastBitrateChangeNs = Long.MIN_VALUE / 2;
+    private long lowSinceNs = -1;
+
+    private final Stats stats = new Stats();
+    private double latencySumMs;
+
+    public LiveStreamSender(String host, int port, int maxQueuedBytes) {
+        this(host, port, maxQueuedBytes, r -> new Thread(r, "LiveStream"));
+    }
+
+    public LiveStreamSender(String host, int port, int maxQueuedBytes, ThreadFactory threadFactory) {
+        this.host = host;
+        this.port = port;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.threadFactory = threadFactory;
+    }
+
+    /** Register a track before start(); returns the index to offer samples with. */
+    public int addTrack(FragmentedMp4Writer.Track track) {
+        synchronized (lock) {
+            if (started) throw new IllegalStateException("Tracks must be added before start()");
+            tracks.add(track);
+            return tracks.size() - 1;
+        }
+    }
+
+    /** Let backpressure lower the encoder's bitrate from nominalBitRate, and ask it for keyframes. */
+    public void setEncoderControl(EncoderControl control, int nominalBitRate) {
+        synchronized (lock) {
+            this.control = control;
+            this.nominalBitRate = nominalBitRate;
+            this.bitRate = nominalBitRate;
+        }
+    }
+
+    /** Connect and start sending, on the send thread. */
+    public void start() {
+        synchronized (lock) {
+            if (started) return;
+            started = true;
+            sendThread = threadFactory.newThread(this::sendLoop);
+        }
+        sendThread.start();
+        requestKeyFrame();
+    }
+
+    /**
+     * Queue one sample (copied; data is read from position to limit and left
+     * as is). Returns false if backpressure dropped it. Never blocks on the
+     * network.
+     */
+    public boolean offer(int track, ByteBuffer data, long ptsUs, boolean keyFrame) {
+        int size = data.remaining();
+        boolean kept;
+        boolean askKeyFrame = false;
+        boolean bitrateChanged = false;
+        synchronized (lock) {
+            if (!started || closing || failure != null) return false;
+            long now = System.nanoTime();
+            if (!tracks.get(track).video) {
+                stats.audioFrames++;
+                kept = queuedBytes + size <= maxQueuedBytes;
+                if (!kept) stats.droppedAudio++;
+            } else {
+                stats.videoFrames++;
+                if (waitingForKeyFrame && !keyFrame) {
+                    stats.droppedUntilKeyFrame++;
+                    kept = false;
+                } else if (queuedBytes + size > maxQueuedBytes) {
+                    // Every frame up to the next keyframe would reference this one
+                    stats.droppedUntilKeyFrame++;
+                    kept = false;
+                    askKeyFrame = !waitingForKeyFrame || keyFrame;
+                    waitingForKeyFrame = true;
+                    bitrateChanged = reduce(now);
+                } else {
+                    kept = true;
+                    if (queuedBytes + size > maxQueuedBytes / 2) {
+                        bitrateChanged = reduce(now);
+                        if (!keyFrame && !isReference(data)) {
+                            stats.droppedNonReference++;
+                            kept = false;
+                        }
+                    }
+                    if (kept) waitingForKeyFrame = false;
+                }
+            }
+            if (kept) {
+                byte[] copy = new byte[size];
+                data.duplicate().get(copy);
+                queue.addLast(new Sample(track, copy, ptsUs, keyFrame, now));
+                queuedBytes += size;
+                lock.notifyAll();
+            }
+        }
+        // Encoder calls stay outside the queue lock
+        if (askKeyFrame) requestKeyFrame();
+        if (bitrateChanged) applyBitrate();
+        return kept;
+    }
+
+    /** Stop accepting samples, send what is queued (up to CLOSE_DRAIN_MS) and disconnect. */
+    public void close() {
+        Thread thread;
+        synchronized (lock) {
+            if (closing) return;
+            closing = true;
+            thread = sendThread;
+            lock.notifyAll();
+        }
+        if (thread == null) return;
+        try {
+            thread.join(CLOSE_DRAIN_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            // A receiver that stopped reading keeps the send thread in write(); closing unblocks it
+            closeChannel();
+        }
+    }
+
+    /** Why the stream ended early, or null. */
+    public String failure() {
+        synchronized (lock) {
+            return failure;
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    public Stats stats() {
+        synchronized (lock) {
+            Stats s = new Stats();
+            s.videoFrames = stats.videoFrames;
+            s.audioFrames = stats.audioFrames;
+            s.videoSent = stats.videoSent;
+            s.audioSent = stats.audioSent;
+            s.droppedNonReference = stats.droppedNonReference;
+            s.droppedUntilKeyFrame = stats.droppedUntilKeyFrame;
+            s.droppedAudio = stats.droppedAudio;
+            s.bytesSent = stats.bytesSent;
+            s.bitrateReductions = stats.bitrateReductions;
+            s.bitRate = bitRate;
+            long sent = stats.videoSent + stats.audioSent;
+            s.avgQueueLatencyMs = sent == 0 ? 0 : latencySumMs / sent;
+            s.maxQueueLatencyMs = stats.maxQueueLatencyMs;
+            return s;
+        }
+    }
+
+    /**
+     * Whether an Annex-B H.264 access unit is a reference picture:
+     * nal_ref_idc of its first slice is non-zero.
+     */
+    static boolean isReference(ByteBuffer au) {
+        int end = au.limit();
+        int zeros = 0;
+        for (int i = au.position(); i < end; i++) {
+            int b = au.get(i) & 0xFF;
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+            if (b == 1 && zeros >= 2 && i + 1 < end) {
+                int header = au.get(i + 1) & 0xFF;
+                int type = header & 0x1F;
+                if (type >= 1 && type <= 5) return (header & 0x60) != 0;
+            }
+            zeros = 0;
+        }
+        return true;    // no slice found: keep it
+    }
+
+    // === Rate control ==========================================================
+
+    /** Lower the target one step if the last change is old enough; returns whether it changed. Holds lock. */
+    private boolean reduce(long now) {
+        lowSinceNs = -1;
+        if (control == null || now - lastBitrateChangeNs < BITRATE_STEP_INTERVAL_MS * 1_000_000L) return false;
+        int floor = (int) ((long) nominalBitRate * MIN_BITRATE_PERCENT / 100);
+        int next = Math.max(floor, (int) ((long) bitRate * REDUCTION_PERCENT / 100));
+        if (next == bitRate) return false;
+        bitRate = next;
+        lastBitrateChangeNs = now;
+        stats.bitrateReductions++;
+        return true;
+    }
+
+    private void applyBitrate() {
+        EncoderControl c;
+        int target;
+        synchronized (lock) {
+            c = control;
+            target = bitRate;
+        }
+        if (c != null) c.setBitrate(target);
+    }
+
+    private void requestKeyFrame() {
+        EncoderControl c;
+        synchronized (lock) {
+            c = control;
+        }
+        if (c != null) c.requestKeyFrame();
+    }
+
+    // === Send thread ===========================================================
+
+    private void sendLoop() {
+        MpegTsWriter writer;
+        try {
+            SocketChannel ch = SocketChannel.open();
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // A small kernel buffer keeps the backlog in our queue, where it can be managed
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_BYTES);
+            synchronized (lock) {
+                channel = ch;
+            }
+            ch.connect(new InetSocketAddress(host, port));
+            writer = new MpegTsWriter(ch);
+            synchronized (lock) {
+                for (int i = 0; i < tracks.size(); i++) writer.addTrack(tracks.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unresolvable hosts and bad ports arrive unchecked; they must not kill the thread
+            fail("connect " + host + ":" + port + ": " + e);
+            return;
+        }
+
+        long deadlineNs = Long.MAX_VALUE;
+        for (;;) {
+            Sample s;
+            synchronized (lock) {
+                while (queue.isEmpty() && !closing) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closing = true;
+                    }
+                }
+                if (closing && deadlineNs == Long.MAX_VALUE) deadlineNs = System.nanoTime() + CLOSE_DRAIN_MS * 1_000_000L;
+                s = queue.pollFirst();
+                if (s == null || System.nanoTime() > deadlineNs) break;
+            }
+            try {
+                writer.writeSample(s.track, ByteBuffer.wrap(s.data), s.ptsUs, s.keyFrame);
+                writer.flush();
+            } catch (IOException | RuntimeException e) {
+                fail("send: " + e);
+                return;
+            }
+            boolean raise = false;
+            synchronized (lock) {
+                queuedBytes -= s.data.length;
+                double ms = (System.nanoTime() - s.queuedNs) / 1e6;
+                latencySumMs += ms;
+                stats.maxQueueLatencyMs = Math.max(stats.maxQueueLatencyMs, ms);
+                if (tracks.get(s.track).video) stats.videoSent++;
+                else stats.audioSent++;
+                stats.bytesSent = writer.bytesWritten();
+                raise = recover(System.nanoTime());
+            }
+            if (raise) applyBitrate();
+        }
+        synchronized (lock) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Step the bitrate back up once the queue has stayed below a quarter of
+     * the budget for RECOVERY_MS. Holds lock.
+     */
+    private boolean recover(long now) {
+        if (control == null || bitRate >= nominalBitRate) return false;
+        if (queuedBytes > maxQueuedBytes / 4) {
+            lowSinceNs = -1;
+            return false;
+        }
+        if (lowSinceNs < 0) lowSinceNs = now;
+        long since = Math.max(lowSinceNs, lastBitrateChangeNs);
+        if (now - since < RECOVERY_MS * 1_000_000L) return false;
+        bitRate = Math.min(nominalBitRate, bitRate + (int) ((long) nominalBitRate * RECOVERY_STEP_PERCENT / 100));
+        lastBitrateChangeNs = now;
+        return true;
+    }
+
+    private void fail(String why) {
+        synchronized (lock) {
+            if (failure == null && !closing) failure = why;
+            queue.clear();
+            queuedBytes = 0;
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+        closed = true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.nm.cmaeralivefx.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder output to a live stream instead of a file: the EncodedSampleSink
+ * side of LiveStreamSender. Like MediaMuxerWrapper it waits for all expected
+ * tracks before it starts, and drops samples that arrive earlier; the
+ * sender then asks the video encoder for a fresh keyframe to begin on.
+ */
+public class LiveStreamSink implements EncodedSampleSink {
+    private final Object lock = new Object();
+    private final LiveStreamSender sender;
+    private int expectedTrackCount = 2;
+    private int trackCount = 0;
+    private volatile boolean isStarted = false;
+
+    public LiveStreamSink(LiveStreamSender sender) {
+        this.sender = sender;
+    }
+
+    /** How many tracks to wait for before streaming starts (default 2: video + audio). */
+    public void setExpectedTrackCount(int count) {
+        synchronized (lock) {
+            expectedTrackCount = Math.max(1, count);
+        }
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        synchronized (lock) {
+            int trackIndex = sender.addTrack(MediaMuxerWrapper.toFragmentedTrack(format));
+            if (++trackCount == expectedTrackCount && !isStarted) {
+                sender.start();
+                isStarted = true;
+            }
+            return trackIndex;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        if (!isStarted || info == null || info.size <= 0) return;
+        ByteBuffer sample = buffer.duplicate();
+        sample.limit(info.offset + info.size).position(info.offset);
+        sender.offer(trackIndex, sample, info.presentationTimeUs,
+                (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+    }
+
+    /** Send what is queued and disconnect; may block for up to a second. */
+    public void stop() {
+        sender.close();
+    }
+
+    public LiveStreamSender sender() {
+        return sender;
+    }
+}
@@ -0,0 +1,131 @@
+package com.nm.cmaeralivefx.encoder;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EncoderCatalog backed by MediaCodecList. Probing takes tens of
+ * milliseconds, so the result is kept in memory and in SharedPreferences,
+ * keyed by the build fingerprint (a system update can change the codecs).
+ */
+public class MediaCodecEncoderCatalog implements EncoderCatalog {
+    private static final String TAG = "EncoderCatalog";
+    private static final String PREFS = "encoder_capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_ENCODERS = "encoders";
+
+    private static final String[] MIMES = {EncoderCapabilities.MIME_HEVC, EncoderCapabilities.MIME_AVC};
+    // Sizes whose achievable frame rate is recorded, ascending by pixel count
+    private static final int[][] PROBE_SIZES = {{1280, 720}, {1920, 1080}, {2560, 1440}, {3840, 2160}};
+
+    private final Context context;
+    private List<EncoderCapabilities> encoders;
+
+    public MediaCodecEncoderCatalog(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public synchronized List<EncoderCapabilities> encoders() {
+        if (encoders != null) return encoders;
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        if (Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            try {
+                encoders = parse(prefs.getString(KEY_ENCODERS, ""));
+                return encoders;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Discarding unreadable capability cache", e);
+            }
+        }
+        long start = System.nanoTime();
+        encoders = Collections.unmodifiableList(probe());
+        Log.d(TAG, "Probed " + encoders.size() + " encoders in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        StringBuilder sb = new StringBuilder();
+        for (EncoderCapabilities c : encoders) sb.append(c.serialize()).append('\n');
+        prefs.edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_ENCODERS, sb.toString())
+                .apply();
+        return encoders;
+    }
+
+    private static List<EncoderCapabilities> parse(String text) {
+        List<EncoderCapabilities> out = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (!line.isEmpty()) out.add(EncoderCapabilities.parse(line));
+        }
+        return Collections.unmodifiableList(out);
+    }
+
+    private static List<EncoderCapabilities> probe() {
+        List<EncoderCapabilities> out = new ArrayList<>();
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) continue;
+            for (String mime : MIMES) {
+                if (!supportsType(info, mime)) continue;
+                try {
+                    out.add(describe(info, mime));
+                } catch (RuntimeException e) {
+                    // Some vendor codecs throw from getCapabilitiesForType; skip them
+                    Log.w(TAG, "Skipping " + info.getName() + " for " + mime, e);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean supportsType(MediaCodecInfo info, String mime) {
+        for (String t : info.getSupportedTypes()) {
+            if (t.equalsIgnoreCase(mime)) return true;
+        }
+        return false;
+    }
+
+    private static EncoderCapabilities describe(MediaCodecInfo info, String mime) {
+        MediaCodecInfo.CodecCapabilities caps = info.getCapabilitiesForType(mime);
+        MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+        MediaCodecInfo.EncoderCapabilities encoder = caps.getEncoderCapabilities();
+
+        int modes = 0;
+        for (int mode : new int[]{EncoderCapabilities.BITRATE_MODE_CQ,
+                EncoderCapabilities.BITRATE_MODE_VBR, EncoderCapabilities.BITRATE_MODE_CBR}) {
+            if (encoder.isBitrateModeSupported(mode)) modes |= 1 << mode;
+        }
+
+        int[] profiles = new int[caps.profileLevels.length];
+        for (int i = 0; i < profiles.length; i++) profiles[i] = caps.profileLevels[i].profile;
+
+        boolean lowLatency = Build.VERSION.SDK_INT >= 30
+                && caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency);
+
+        List<EncoderCapabilities.SizeRate> rates = new ArrayList<>();
+        for (int[] s : PROBE_SIZES) {
+            if (!video.isSizeSupported(s[0], s[1])) continue;
+            double fps = video.getSupportedFrameRatesFor(s[0], s[1]).getUpper();
+            // Measured rates, where the vendor published them, are more honest than the spec limit
+            Range<Double> achievable = video.getAchievableFrameRatesFor(s[0], s[1]);
+            if (achievable != null) fps = Math.min(fps, achievable.getUpper());
+            rates.add(new EncoderCapabilities.SizeRate(s[0], s[1], fps));
+        }
+
+        boolean hardware = Build.VERSION.SDK_INT >= 29
+                ? info.isHardwareAccelerated()
+                : !(info.getName().startsWith("OMX.google.") || info.getName().startsWith("c2.android."));
+
+        return new EncoderCapabilities(info.getName(), mime, hardware, caps.colorFormats, modes,
+                video.getBitrateRange().getLower(), video.getBitrateRange().getUpper(),
+                video.getSupportedWidths().getUpper(), video.getSupportedHeights().getUpper(),
+                video.getWidthAlignment(), video.getHeightAlignment(),
+                profiles, lowLatency, rates);
+    }
+}
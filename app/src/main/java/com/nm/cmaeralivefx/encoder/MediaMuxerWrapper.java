@@ -6,14 +6,24 @@ import android.media.MediaMuxer;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class MediaMuxerWrapper {
+/**
+ * Track registration + sample writing in front of one of two backends:
+ * the platform MediaMuxer (moov written at stop, file unplayable if the
+ * process dies first) or FragmentedMp4Writer (moof/mdat fragments appended
+ * as recording goes, so a crash loses at most one fragment and stop() only
+ * flushes the last one).
+ */
+public class MediaMuxerWrapper implements EncodedSampleSink {
     private final Object muxerLock = new Object();
 
-    private final MediaMuxer mediaMuxer;
+    private final MediaMuxer mediaMuxer;              // null for the fragmented backend
+    private final FragmentedMp4Writer fragmented;     // null for the MediaMuxer backend
     private final AtomicInteger trackCount = new AtomicInteger(0);
     private volatile boolean isStarted = false;
 
@@ -30,6 +40,7 @@ public class MediaMuxerWrapper {
     // ===== Constructor for classic path (API ≤ 28 or your own file path) =====
     public MediaMuxerWrapper(String outputPath) throws IOException {
         this.mediaMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        this.fragmented = null;
         this.pfd = null;
         this.outputUri = null;
     }
@@ -44,13 +55,26 @@ public class MediaMuxerWrapper {
                 throw new IllegalStateException("setOrientationHint must be called before muxer start()");
             }
             orientationHintDegrees = degrees;
-            mediaMuxer.setOrientationHint(degrees);
+            if (fragmented != null) fragmented.setOrientationHint(degrees);
+            else mediaMuxer.setOrientationHint(degrees);
         }
     }
     // ===== Constructor for MediaStore FD flow (API ≥ 29) =====
     // You create MediaMuxer with a FileDescriptor in MainActivity and pass it in.
     public MediaMuxerWrapper(MediaMuxer mediaMuxer, Uri outputUri, ParcelFileDescriptor pfd) {
         this.mediaMuxer = mediaMuxer;
+        this.fragmented = null;
+        this.outputUri  = outputUri;
+        this.pfd        = pfd;
+    }
+
+    // ===== Fragmented MP4 on a MediaStore FD =====
+    // A fragment is closed roughly every fragmentDurationUs (on a video keyframe).
+    public MediaMuxerWrapper(Uri outputUri, ParcelFileDescriptor pfd, long fragmentDurationUs) {
+        this.mediaMuxer = null;
+        // The channel shares pfd's descriptor; closing pfd in stop() closes both
+        FileChannel channel = new FileOutputStream(pfd.getFileDescriptor()).getChannel();
+        this.fragmented = new FragmentedMp4Writer(channel, fragmentDurationUs);
         this.outputUri  = outputUri;
         this.pfd        = pfd;
     }
@@ -58,10 +82,20 @@ public class MediaMuxerWrapper {
     /** Register a new track and (when all expected tracks are added) start the muxer. */
     public int addTrack(MediaFormat format) {
         synchronized (muxerLock) {
-            int trackIndex = mediaMuxer.addTrack(format);
+            int trackIndex = fragmented != null
+                    ? fragmented.addTrack(toFragmentedTrack(format))
+                    : mediaMuxer.addTrack(format);
             int registered = trackCount.incrementAndGet();
             if (registered == expectedTrackCount && !isStarted) {
-                mediaMuxer.start();
+                if (fragmented != null) {
+                    try {
+                        fragmented.start();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to write MP4 header", e);
+                    }
+                } else {
+                    mediaMuxer.start();
+                }
                 isStarted = true;
             }
             return trackIndex;
@@ -72,7 +106,18 @@ public class MediaMuxerWrapper {
     public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) {
         synchronized (muxerLock) {
             if (isStarted && info != null && info.size > 0) {
-                mediaMuxer.writeSampleData(trackIndex, buffer, info);
+                if (fragmented != null) {
+                    ByteBuffer sample = buffer.duplicate();
+                    sample.limit(info.offset + info.size).position(info.offset);
+                    boolean key = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                    try {
+                        fragmented.writeSample(trackIndex, sample, info.presentationTimeUs, key);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Failed to write MP4 fragment", e);
+                    }
+                } else {
+                    mediaMuxer.writeSampleData(trackIndex, buffer, info);
+                }
             }
         }
     }
@@ -83,14 +128,15 @@ public class MediaMuxerWrapper {
             try {
                 if (isStarted) {
                     try {
-                        mediaMuxer.stop();
-                    } catch (IllegalStateException ignored) {
+                        if (fragmented != null) fragmented.finish();
+                        else mediaMuxer.stop();
+                    } catch (IllegalStateException | IOException ignored) {
                         // If muxer never started or already stopped
                     }
                 }
             } finally {
                 try {
-                    mediaMuxer.release();
+                    if (mediaMuxer != null) mediaMuxer.release();
                 } catch (Exception ignored) {}
                 if (pfd != null) {
                     try { pfd.close(); } catch (Exception ignored) {}
@@ -111,6 +157,39 @@ public class MediaMuxerWrapper {
         return isStarted;
     }
 
+    /** Codec description of an encoder output format (also used for live streams). */
+    static FragmentedMp4Writer.Track toFragmentedTrack(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(mime)) {
+            return FragmentedMp4Writer.Track.avc(
+                    format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT),
+                    csd(format, "csd-0"), csd(format, "csd-1"));
+        }
+        if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            return FragmentedMp4Writer.Track.hevc(
+                    format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT),
+                    csd(format, "csd-0"));
+        }
+        if (MediaFormat.MIMETYPE_AUDIO_AAC.equals(mime)) {
+            return FragmentedMp4Writer.Track.aac(
+                    format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                    csd(format, "csd-0"));
+        }
+        throw new IllegalArgumentException("Fragmented MP4 does not support " + mime);
+    }
+
+    private static byte[] csd(MediaFormat format, String key) {
+        ByteBuffer b = format.getByteBuffer(key);
+        if (b == null) return new byte[0];
+        b = b.duplicate();
+        byte[] out = new byte[b.remaining()];
+        b.get(out);
+        return out;
+    }
+
     // Optional getters (useful if you want to do something with the uri/path after stop)
     public Uri getOutputUri() { return outputUri; }
 }
@@ -0,0 +1,299 @@
+package com.nm.cmaeralivefx.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * MPEG-2 transport stream writer for one H.264 video and/or one AAC audio
+ * track, the framing live ingest servers (ffmpeg, OBS, nginx-rtmp's TS
+ * input, SRT gateways) accept on a plain TCP connection.
+ *
+ * Each sample becomes one PES packet split into 188-byte TS packets. Video
+ * access units get an access unit delimiter, and keyframes the SPS/PPS in
+ * front, so a receiver can join at any keyframe; PAT/PMT are repeated before
+ * every keyframe for the same reason. AAC frames get an ADTS header built
+ * from the AudioSpecificConfig. PCR rides on the video PID (audio if there
+ * is no video) and runs PCR_LEAD_US behind the PTS. Timestamps are relative
+ * to the first sample written, starting at START_PTS_90K.
+ *
+ * Tracks use FragmentedMp4Writer.Track for their codec description. Decode
+ * and presentation order are assumed equal (no B-frames), so no DTS is
+ * written.
+ *
+ * Not thread-safe; LiveStreamSender calls it from its send thread only.
+ */
+public class MpegTsWriter {
+
+    public static final int PACKET_SIZE = 188;
+
+    static final int PID_PAT = 0x0000;
+    static final int PID_PMT = 0x1000;
+    static final int PID_VIDEO = 0x0100;
+    static final int PID_AUDIO = 0x0101;
+
+    static final int STREAM_TYPE_AVC = 0x1B;
+    static final int STREAM_TYPE_AAC_ADTS = 0x0F;
+
+    /** PTS of the first sample; leaves room for PCR_LEAD_US below it. */
+    static final long START_PTS_90K = 90_000;
+    static final long PCR_LEAD_US = 100_000;
+
+    private static final byte[] AUD = {0, 0, 0, 1, 0x09, (byte) 0xF0};
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final WritableByteChannel channel;
+    private final FragmentedMp4Writer.Track[] tracks = new FragmentedMp4Writer.Track[2];
+    private final int[] pids = new int[2];
+    private int trackCount;
+    private final int[] continuity = new int[0x2000];
+    private final ByteBuffer out = ByteBuffer.allocate(PACKET_SIZE * 64);
+    private final byte[] packet = new byte[PACKET_SIZE];
+    private ByteBuffer pes = ByteBuffer.allocate(256 * 1024);
+
+    private long basePtsUs = Long.MIN_VALUE;
+    private boolean started = false;
+    private long bytesWritten = 0;
+
+    public MpegTsWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Register a track before the first sample; returns the index to write with. */
+    public int addTrack(FragmentedMp4Writer.Track track) {
+        if (started) throw new IllegalStateException("Tracks must be added before the first sample");
+        if (track.video && track.hevc) throw new IllegalArgumentException("MPEG-TS output supports H.264 video only");
+        for (int i = 0; i < trackCount; i++) {
+            if (tracks[i].video == track.video) throw new IllegalArgumentException("One video and one audio track at most");
+        }
+        tracks[trackCount] = track;
+        pids[trackCount] = track.video ? PID_VIDEO : PID_AUDIO;
+        return trackCount++;
+    }
+
+    /**
+     * Write one encoded sample: an Annex-B access unit for video, a raw AAC
+     * frame for audio. sample is read from position to limit and left as is.
+     */
+    public void writeSample(int trackIndex, ByteBuffer sample, long ptsUs, boolean keyFrame) throws IOException {
+        FragmentedMp4Writer.Track track = tracks[trackIndex];
+        if (!started) {
+            started = true;
+            basePtsUs = ptsUs;
+            writeTables();
+        } else if (track.video && keyFrame) {
+            writeTables();
+        }
+
+        long pts90k = START_PTS_90K + Math.max(0, ptsUs - basePtsUs) * 9 / 100;
+        int payload = sample.remaining();
+        if (track.video) {
+            payload += AUD.length;
+            if (keyFrame) payload += START_CODE.length * 2 + track.sps.length + track.pps.length;
+        } else {
+            payload += 7;
+        }
+
+        ensurePes(14 + payload);
+        pes.clear();
+        pes.put((byte) 0).put((byte) 0).put((byte) 1);
+        pes.put((byte) (track.video ? 0xE0 : 0xC0));
+        int pesLength = 8 + payload;
+        // Unbounded (0) is only allowed for video; large video PES must use it
+        pes.putShort((short) (track.video && pesLength > 0xFFFF ? 0 : pesLength));
+        pes.put((byte) 0x80).put((byte) 0x80).put((byte) 5);     // PTS only
+        putTimestamp(pes, 0x2, pts90k);
+        if (track.video) {
+            pes.put(AUD);
+            if (keyFrame) {
+                pes.put(START_CODE).put(track.sps);
+                pes.put(START_CODE).put(track.pps);
+            }
+        } else {
+            putAdtsHeader(pes, track.audioSpecificConfig, sample.remaining());
+        }
+        pes.put(sample.duplicate());
+        pes.flip();
+
+        boolean carriesPcr = track.video || !hasVideo();
+        long pcr90k = pts90k - PCR_LEAD_US * 9 / 100;
+        packetize(pids[trackIndex], pes, carriesPcr ? pcr90k : -1, track.video && keyFrame);
+    }
+
+    /** Bytes handed to the channel so far. */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Write out what is still buffered. */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    private boolean hasVideo() {
+        for (int i = 0; i < trackCount; i++) {
+            if (tracks[i].video) return true;
+        }
+        return false;
+    }
+
+    private void ensurePes(int size) {
+        if (pes.capacity() < size) pes = ByteBuffer.allocate(Math.max(size, pes.capacity() * 2));
+    }
+
+    // === Packetization ========================================================
+
+    /** Split one PES into TS packets; the first carries PCR / random access when asked. */
+    private void packetize(int pid, ByteBuffer data, long pcr90k, boolean randomAccess) throws IOException {
+        boolean first = true;
+        while (data.hasRemaining()) {
+            boolean withPcr = first && pcr90k >= 0;
+            boolean withRandomAccess = first && randomAccess;
+            // Adaptation field size after its length byte: flags, PCR, stuffing; -1 for none
+            int adaptation = withPcr || withRandomAccess ? 1 + (withPcr ? 6 : 0) : -1;
+            int room = PACKET_SIZE - 4 - (adaptation >= 0 ? 1 + adaptation : 0);
+            if (data.remaining() < room) {
+                // Pad the last packet through the adaptation field
+                int stuffing = room - data.remaining();
+                adaptation = adaptation >= 0 ? adaptation + stuffing : stuffing - 1;
+            }
+
+            int cc = continuity[pid];
+            continuity[pid] = (cc + 1) & 0xF;
+            int p = 0;
+            packet[p++] = 0x47;
+            packet[p++] = (byte) ((first ? 0x40 : 0) | (pid >> 8 & 0x1F));
+            packet[p++] = (byte) pid;
+            packet[p++] = (byte) ((adaptation >= 0 ? 0x30 : 0x10) | cc);
+            if (adaptation >= 0) {
+                packet[p++] = (byte) adaptation;
+                int end = p + adaptation;
+                if (adaptation > 0) {
+                    packet[p++] = (byte) ((withRandomAccess ? 0x40 : 0) | (withPcr ? 0x10 : 0));
+                    if (withPcr) {
+                        putPcr(packet, p, pcr90k);
+                        p += 6;
+                    }
+                    while (p < end) packet[p++] = (byte) 0xFF;
+                }
+            }
+            data.get(packet, p, PACKET_SIZE - p);
+            emit(packet);
+            first = false;
+        }
+    }
+
+    private void writeTables() throws IOException {
+        writeSection(PID_PAT, pat());
+        writeSection(PID_PMT, pmt());
+    }
+
+    /** A PSI section in one packet, pointer field 0, rest stuffed with 0xFF. */
+    private void writeSection(int pid, byte[] section) throws IOException {
+        int p = 0;
+        packet[p++] = 0x47;
+        packet[p++] = (byte) (0x40 | (pid >> 8 & 0x1F));
+        packet[p++] = (byte) pid;
+        packet[p++] = (byte) (0x10 | continuity[pid]);
+        continuity[pid] = (continuity[pid] + 1) & 0xF;
+        packet[p++] = 0;
+        System.arraycopy(section, 0, packet, p, section.length);
+        p += section.length;
+        while (p < PACKET_SIZE) packet[p++] = (byte) 0xFF;
+        emit(packet);
+    }
+
+    private byte[] pat() {
+        ByteBuffer s = ByteBuffer.allocate(16);
+        s.put((byte) 0x00);                                 // table_id
+        s.putShort((short) (0xB000 | 13));                  // section_syntax_indicator, length
+        s.putShort((short) 1);                              // transport_stream_id
+        s.put((byte) 0xC1);                                 // version 0, current
+        s.put((byte) 0).put((byte) 0);                      // section numbers
+        s.putShort((short) 1);                              // program_number
+        s.putShort((short) (0xE000 | PID_PMT));
+        return withCrc(s);
+    }
+
+    private byte[] pmt() {
+        int length = 13 + 5 * trackCount;
+        ByteBuffer s = ByteBuffer.allocate(3 + length);
+        s.put((byte) 0x02);
+        s.putShort((short) (0xB000 | length));
+        s.putShort((short) 1);                              // program_number
+        s.put((byte) 0xC1);
+        s.put((byte) 0).put((byte) 0);
+        s.putShort((short) (0xE000 | (hasVideo() ? PID_VIDEO : PID_AUDIO)));    // PCR PID
+        s.putShort((short) 0xF000);                         // program_info_length 0
+        for (int i = 0; i < trackCount; i++) {
+            s.put((byte) (tracks[i].video ? STREAM_TYPE_AVC : STREAM_TYPE_AAC_ADTS));
+            s.putShort((short) (0xE000 | pids[i]));
+            s.putShort((short) 0xF000);                     // ES_info_length 0
+        }
+        return withCrc(s);
+    }
+
+    private static byte[] withCrc(ByteBuffer section) {
+        int n = section.position();
+        byte[] out = new byte[n + 4];
+        System.arraycopy(section.array(), 0, out, 0, n);
+        int crc = crc32(out, 0, n);
+        out[n] = (byte) (crc >>> 24);
+        out[n + 1] = (byte) (crc >>> 16);
+        out[n + 2] = (byte) (crc >>> 8);
+        out[n + 3] = (byte) crc;
+        return out;
+    }
+
+    /** CRC-32/MPEG-2 (polynomial 0x04C11DB7, not reflected, no final xor). */
+    static int crc32(byte[] data, int offset, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+
+    private static void putTimestamp(ByteBuffer b, int prefix, long ts90k) {
+        ts90k &= 0x1FFFFFFFFL;
+        b.put((byte) (prefix << 4 | (int) (ts90k >> 29 & 0x0E) | 1));
+        b.putShort((short) ((ts90k >> 14 & 0xFFFE) | 1));
+        b.putShort((short) ((ts90k << 1 & 0xFFFE) | 1));
+    }
+
+    private static void putPcr(byte[] b, int p, long pcr90k) {
+        pcr90k &= 0x1FFFFFFFFL;
+        b[p] = (byte) (pcr90k >> 25);
+        b[p + 1] = (byte) (pcr90k >> 17);
+        b[p + 2] = (byte) (pcr90k >> 9);
+        b[p + 3] = (byte) (pcr90k >> 1);
+        b[p + 4] = (byte) ((pcr90k & 1) << 7 | 0x7E);   // reserved bits, extension high bit 0
+        b[p + 5] = 0;
+    }
+
+    /** ADTS header for one raw AAC frame, from the AudioSpecificConfig. */
+    private static void putAdtsHeader(ByteBuffer b, byte[] asc, int frameBytes) {
+        int objectType = (asc[0] & 0xFF) >> 3;
+        int frequencyIndex = (asc[0] & 0x07) << 1 | (asc[1] & 0xFF) >> 7;
+        int channels = (asc[1] >> 3) & 0x0F;
+        int length = frameBytes + 7;
+        b.put((byte) 0xFF);
+        b.put((byte) 0xF1);                                 // MPEG-4, layer 0, no CRC
+        b.put((byte) ((objectType - 1) << 6 | frequencyIndex << 2 | channels >> 2));
+        b.put((byte) ((channels & 3) << 6 | length >> 11));
+        b.put((byte) (length >> 3));
+        b.put((byte) ((length & 7) << 5 | 0x1F));
+        b.put((byte) 0xFC);                                 // buffer fullness 0x7FF, one raw block
+    }
+
+    private void emit(byte[] p) throws IOException {
+        if (out.remaining() < PACKET_SIZE) flush();
+        out.put(p);
+        bytesWritten += PACKET_SIZE;
+    }
+}
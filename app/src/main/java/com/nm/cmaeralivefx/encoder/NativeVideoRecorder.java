@@ -0,0 +1,74 @@
+package com.nm.cmaeralivefx.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Recording backend that lives in the native library: the record branch
+ * packs filtered frames straight into an AMediaCodec encoder and muxes them
+ * with AMediaMuxer, so video costs no JNI crossing per frame. Audio is still
+ * encoded by AudioEncoder, which uses this class as its sink; without audio
+ * (time-lapse) the muxer starts on the video track alone.
+ *
+ * Only one instance may be active at a time. AMediaMuxer writes a regular
+ * (non-fragmented) MP4.
+ */
+public class NativeVideoRecorder implements EncodedSampleSink {
+
+    private static final int AUDIO_TRACK = 1;
+
+    private boolean stopped = false;
+
+    /** fd must stay open until stop() returns. */
+    public NativeVideoRecorder(ParcelFileDescriptor pfd, EncoderProfile profile, int orientationDegrees,
+                               boolean withAudio) throws IOException {
+        // The profile key is only honoured reliably from API 29; earlier it can fail configure()
+        int codecProfile = Build.VERSION.SDK_INT >= 29 ? profile.profile : -1;
+        if (!nativeStart(pfd.getFd(), profile.codecName, profile.mime, profile.width, profile.height,
+                profile.bitRate, profile.frameRate, profile.iFrameIntervalSec, profile.bitrateMode,
+                codecProfile, profile.colorStandard, profile.colorTransfer, profile.colorRange,
+                orientationDegrees, withAudio)) {
+            throw new IOException("Native encoder failed to start for " + profile);
+        }
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        byte[] csd = null;
+        ByteBuffer csd0 = format.getByteBuffer("csd-0");
+        if (csd0 != null) {
+            ByteBuffer b = csd0.duplicate();
+            csd = new byte[b.remaining()];
+            b.get(csd);
+        }
+        nativeAddAudioTrack(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), csd);
+        return AUDIO_TRACK;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        nativeWriteAudio(buffer, buffer.position(), info.size, info.presentationTimeUs, info.flags);
+    }
+
+    /** Drains the encoder and finalizes the file; stop the audio encoder first. */
+    public synchronized void stop() {
+        if (stopped) return;
+        stopped = true;
+        nativeStop();
+    }
+
+    private static native boolean nativeStart(int fd, String codecName, String mime, int width, int height,
+                                              int bitRate, int frameRate, int iFrameIntervalSec,
+                                              int bitrateMode, int profile, int colorStandard,
+                                              int colorTransfer, int colorRange, int orientationDegrees,
+                                              boolean withAudio);
+    private static native void nativeAddAudioTrack(int sampleRate, int channels, byte[] csd);
+    private static native void nativeWriteAudio(ByteBuffer buffer, int offset, int size, long ptsUs, int flags);
+    private static native void nativeStop();
+}
@@ -0,0 +1,97 @@
+package com.nm.cmaeralivefx.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder sink for "instant replay": while no recording is running, encoded
+ * samples go into an EncodedSampleRing. attach() writes the buffered seconds
+ * into a new muxer and then forwards live samples; detach() goes back to
+ * buffering. The encoders keep running across both states.
+ */
+public class PreRecordBuffer implements EncodedSampleSink {
+
+    private final Object lock = new Object();
+    private final EncodedSampleRing ring;
+    private final MediaCodec.BufferInfo flushInfo = new MediaCodec.BufferInfo();
+    private final EncodedSampleRing.Consumer flushToLive = this::flushSample;
+
+    private MediaFormat videoFormat;
+    private MediaFormat audioFormat;
+
+    private MediaMuxerWrapper live;
+    private int liveVideoTrack = -1;
+    private int liveAudioTrack = -1;
+    private boolean liveReady = false;   // both tracks registered and the ring flushed
+
+    public PreRecordBuffer(int byteBudget, int maxSamples, long windowUs) {
+        ring = new EncodedSampleRing(byteBudget, maxSamples, windowUs);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        synchronized (lock) {
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            boolean video = mime != null && mime.startsWith("video/");
+            if (video) videoFormat = format; else audioFormat = format;
+            if (live != null) registerWithLive();
+            return video ? EncodedSampleRing.TRACK_VIDEO : EncodedSampleRing.TRACK_AUDIO;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        synchronized (lock) {
+            if (liveReady) {
+                live.writeSampleData(liveTrack(trackIndex), buffer, info);
+            } else {
+                ring.add(trackIndex, buffer, info.presentationTimeUs,
+                        (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+            }
+        }
+    }
+
+    /**
+     * Start a recording into muxer, beginning with what is buffered. If an
+     * encoder has not produced its format yet, buffering continues until it does.
+     */
+    public void attach(MediaMuxerWrapper muxer) {
+        synchronized (lock) {
+            live = muxer;
+            liveVideoTrack = -1;
+            liveAudioTrack = -1;
+            liveReady = false;
+            registerWithLive();
+        }
+    }
+
+    /** Stop forwarding; the caller stops the muxer. Buffering restarts at the next keyframe. */
+    public void detach() {
+        synchronized (lock) {
+            live = null;
+            liveReady = false;
+            ring.clear();
+        }
+    }
+
+    private void registerWithLive() {
+        if (videoFormat != null && liveVideoTrack < 0) liveVideoTrack = live.addTrack(videoFormat);
+        if (audioFormat != null && liveAudioTrack < 0) liveAudioTrack = live.addTrack(audioFormat);
+        if (liveVideoTrack >= 0 && liveAudioTrack >= 0) {
+            ring.drainTo(flushToLive);
+            liveReady = true;
+        }
+    }
+
+    private void flushSample(int track, ByteBuffer data, long ptsUs, boolean keyframe) {
+        flushInfo.set(data.position(), data.remaining(), ptsUs,
+                keyframe && track == EncodedSampleRing.TRACK_VIDEO ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        live.writeSampleData(liveTrack(track), data, flushInfo);
+    }
+
+    private int liveTrack(int track) {
+        return track == EncodedSampleRing.TRACK_VIDEO ? liveVideoTrack : liveAudioTrack;
+    }
+}
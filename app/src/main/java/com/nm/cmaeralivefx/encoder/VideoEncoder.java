@@ -3,43 +3,112 @@ package com.nm.cmaeralivefx.encoder;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-public class VideoEncoder {
+public class VideoEncoder implements LiveStreamSender.EncoderControl {
     private static final String TAG = "VideoEncoder";
 
     private static final String MIME_TYPE = "video/avc";
-    private static final int BIT_RATE = 2000_000;
+    public static final int DEFAULT_BIT_RATE = 2000_000;
     private static final int FRAME_RATE = 30;
     private static final int I_FRAME_INTERVAL = 1;
 
     private final MediaCodec encoder;
     private final MediaFormat format;
-    private final MediaMuxerWrapper muxerWrapper;
+    private final EncodedSampleSink sink;
 
     private int trackIndex = -1;
     private boolean isMuxerStarted = false;
 
-    public VideoEncoder(MediaMuxerWrapper muxerWrapper, int width, int height) throws IOException {
-        this.muxerWrapper = muxerWrapper;
+    public VideoEncoder(EncodedSampleSink sink, int width, int height) throws IOException {
+        this(sink, width, height, DEFAULT_BIT_RATE);
+    }
+
+    public VideoEncoder(EncodedSampleSink sink, int width, int height, int bitRate) throws IOException {
+        this(sink, new EncoderProfile(null, MIME_TYPE, width, height, FRAME_RATE, bitRate, -1,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible, -1, I_FRAME_INTERVAL, 0, false));
+    }
 
-        format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+    /** Configure from a profile chosen by EncoderSelector. */
+    public VideoEncoder(EncodedSampleSink sink, EncoderProfile profile) throws IOException {
+        this.sink = sink;
 
-        encoder = MediaCodec.createEncoderByType(MIME_TYPE);
-        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        MediaFormat tuned = baseFormat(profile);
+        if (profile.bitrateMode >= 0) tuned.setInteger(MediaFormat.KEY_BITRATE_MODE, profile.bitrateMode);
+        if (profile.profile >= 0 && Build.VERSION.SDK_INT >= 29) {
+            // Only where B-frames can be ruled out: the fragmented writer has no composition offsets
+            tuned.setInteger(MediaFormat.KEY_PROFILE, profile.profile);
+            tuned.setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0);
+        }
+        if (profile.operatingRate > 0) {
+            tuned.setInteger(MediaFormat.KEY_OPERATING_RATE, profile.operatingRate);
+            tuned.setInteger(MediaFormat.KEY_PRIORITY, 0);   // realtime
+        }
+        if (profile.lowLatency && Build.VERSION.SDK_INT >= 30) {
+            tuned.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+        }
+
+        encoder = profile.codecName != null
+                ? MediaCodec.createByCodecName(profile.codecName)
+                : MediaCodec.createEncoderByType(profile.mime);
+        MediaFormat configured = tuned;
+        try {
+            encoder.configure(tuned, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // Some vendor encoders reject optional keys they advertise; retry with the basics
+            Log.w(TAG, "Tuned configure failed for " + profile + ", retrying plain", e);
+            encoder.reset();
+            configured = baseFormat(profile);
+            encoder.configure(configured, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        }
+        format = configured;
+        Log.d(TAG, "Encoder " + profile);
+    }
+
+    private static MediaFormat baseFormat(EncoderProfile profile) {
+        MediaFormat f = MediaFormat.createVideoFormat(profile.mime, profile.width, profile.height);
+        f.setInteger(MediaFormat.KEY_COLOR_FORMAT, profile.colorFormat);
+        f.setInteger(MediaFormat.KEY_BIT_RATE, profile.bitRate);
+        f.setInteger(MediaFormat.KEY_FRAME_RATE, profile.frameRate);
+        f.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, profile.iFrameIntervalSec);
+        if (profile.isHdr()) {
+            // Not optional for 10-bit: without the profile the encoder falls back to 8-bit Main
+            f.setInteger(MediaFormat.KEY_PROFILE, profile.profile);
+        }
+        if (profile.colorStandard != 0) {
+            // Tells players the matrix and range the record path packed the YUV with
+            f.setInteger(MediaFormat.KEY_COLOR_STANDARD, profile.colorStandard);
+            f.setInteger(MediaFormat.KEY_COLOR_TRANSFER, profile.colorTransfer);
+            f.setInteger(MediaFormat.KEY_COLOR_RANGE, profile.colorRange);
+        }
+        return f;
     }
 
     public void start() {
         encoder.start();
     }
 
+    /** Change the target bitrate of the running encoder (e.g. pre-roll vs. recording, live backpressure). */
+    @Override
+    public void setBitrate(int bitRate) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        encoder.setParameters(params);
+    }
+
+    /** Ask for a keyframe as soon as possible. */
+    @Override
+    public void requestKeyFrame() {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        encoder.setParameters(params);
+    }
+
     public void encodeFrame(byte[] data, long presentationTimeUs) {
         ByteBuffer[] inputBuffers = encoder.getInputBuffers();
         int inputBufferIndex = encoder.dequeueInputBuffer(10000);
@@ -65,7 +134,7 @@ public class VideoEncoder {
                     throw new IllegalStateException("Format changed twice");
                 }
                 MediaFormat newFormat = encoder.getOutputFormat();
-                trackIndex = muxerWrapper.addTrack(newFormat);
+                trackIndex = sink.addTrack(newFormat);
 //                muxerWrapper.startMuxerIfReady();
                 isMuxerStarted = true;
             } else if (outputBufferIndex >= 0) {
@@ -83,7 +152,7 @@ public class VideoEncoder {
                 if (bufferInfo.size > 0) {
                     outputBuffer.position(bufferInfo.offset);
                     outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
-                    muxerWrapper.writeSampleData(trackIndex, outputBuffer, bufferInfo);
+                    sink.writeSampleData(trackIndex, outputBuffer, bufferInfo);
                 }
 
                 encoder.releaseOutputBuffer(outputBufferIndex, false);
@@ -0,0 +1,10 @@
+/**
+ * Encoding, muxing and live streaming of recordings.
+ *
+ * Only the classes that drive MediaCodec, MediaMuxer, AudioRecord or the
+ * native recorder use android.* types. The container writers, the
+ * pre-record ring, the live stream sender and encoder selection are kept
+ * free of them, so their unit tests run on a plain JVM and the jvmbench
+ * module can benchmark the same sources.
+ */
+package com.nm.cmaeralivefx.encoder;
@@ -0,0 +1,102 @@
+// Accuracy / threshold test for the static-scene dirty tile path.
+//
+// Usage: dirty_tiles_test [recording.yuv width height]
+// Without arguments a synthetic tripod-style recording is used.
+#include <cmath>
+#include <cstdio>
+
+#include "DirtyTiles.hpp"
+#include "TestFrames.hpp"
+#include "filters/SoftBlackAndWhite.hpp"
+
+struct RunResult {
+    double skippedFraction;
+    double meanAbsError;   // per channel, against full conversion of the same frame
+    int maxAbsError;
+    double wrongPixels;    // fraction of pixels with any channel off by more than 8
+};
+
+static RunResult Run(const std::vector<I420Frame>& frames, int threshold, Lut33Ptr lut)
+{
+    const int w = frames[0].width, h = frames[0].height;
+    DirtyTileTracker tracker;
+    tracker.threshold = threshold;
+    std::vector<uint32_t> cached(static_cast<size_t>(w) * h);
+    std::vector<uint32_t> reference(cached.size());
+
+    long long skipped = 0, total = 0;
+    double errSum = 0.0;
+    long long errCount = 0;
+    int errMax = 0;
+    long long wrong = 0, pixels = 0;
+    bool first = true;
+    for (const I420Frame& fr : frames) {
+        const YuvFrame f = fr.view();
+        const int dirty = tracker.update(f, first);
+        first = false;
+        ConvertDirtyTilesToBgra(f, lut, tracker, cached.data());
+        ConvertYuvToBgra(f, lut, reference.data());
+
+        skipped += tracker.tileCount() - dirty;
+        total += tracker.tileCount();
+        for (size_t i = 0; i < cached.size(); ++i) {
+            int pixelMax = 0;
+            for (int c = 0; c < 24; c += 8) {
+                const int d = std::abs(static_cast<int>((cached[i] >> c) & 0xFF) -
+                                       static_cast<int>((reference[i] >> c) & 0xFF));
+                errSum += d;
+                pixelMax = std::max(pixelMax, d);
+                ++errCount;
+            }
+            errMax = std::max(errMax, pixelMax);
+            if (pixelMax > 8) ++wrong;
+            ++pixels;
+        }
+    }
+    return {static_cast<double>(skipped) / total, errSum / errCount, errMax,
+            static_cast<double>(wrong) / pixels};
+}
+
+int main(int argc, char** argv)
+{
+    std::vector<I420Frame> recording;
+    if (argc == 4) {
+        recording = LoadI420Recording(argv[1], std::atoi(argv[2]), std::atoi(argv[3]), 300);
+        EXPECT_TRUE(!recording.empty());
+        for (int t : {0, 2, 4, 8, 16}) {
+            RunResult r = Run(recording, t, &SoftBlackAndWhite);
+            std::printf("threshold=%2d skipped=%5.1f%% meanErr=%.3f maxErr=%d wrong=%.2f%%\n",
+                        t, 100.0 * r.skippedFraction, r.meanAbsError, r.maxAbsError,
+                        100.0 * r.wrongPixels);
+        }
+        return 0;
+    }
+
+    // Pure sensor noise (+-2) on a static scene: everything but refreshes is skipped,
+    // and the reused output stays within the noise band.
+    recording = MakeSyntheticRecording(320, 180, 90, 2, 0, 0);
+    RunResult noiseOnly = Run(recording, 4, &SoftBlackAndWhite);
+    std::printf("noise only:   skipped=%.1f%% meanErr=%.3f maxErr=%d wrong=%.2f%%\n",
+                100.0 * noiseOnly.skippedFraction, noiseOnly.meanAbsError, noiseOnly.maxAbsError,
+                100.0 * noiseOnly.wrongPixels);
+    EXPECT_TRUE(noiseOnly.skippedFraction > 0.95);
+    EXPECT_TRUE(noiseOnly.meanAbsError < 3.0);
+
+    // Threshold 0 disables skipping for any change, so output is exact.
+    RunResult exact = Run(recording, 0, &SoftBlackAndWhite);
+    EXPECT_TRUE(exact.maxAbsError == 0);
+
+    // A moving object on a noise-free static scene: only the tiles it touches are
+    // reprocessed. Edges that fall between signature samples can leave a few stale
+    // pixels until the next refresh; they must stay a small fraction of the frame.
+    recording = MakeSyntheticRecording(320, 180, 90, 0, 24, 6);
+    RunResult mover = Run(recording, 4, nullptr);
+    std::printf("moving block: skipped=%.1f%% meanErr=%.3f maxErr=%d wrong=%.2f%%\n",
+                100.0 * mover.skippedFraction, mover.meanAbsError, mover.maxAbsError,
+                100.0 * mover.wrongPixels);
+    EXPECT_TRUE(mover.skippedFraction > 0.85);
+    EXPECT_TRUE(mover.wrongPixels < 0.01);
+
+    std::printf("dirty_tiles_test: OK\n");
+    return 0;
+}
@@ -0,0 +1,144 @@
+// Exposure scopes: histogram / waveform / zebra accumulated per band during
+// the conversion pass must match a direct count, leave the image untouched
+// unless zebra is on, and publish under the sequence protocol. An analysed
+// frame and a zebra-only frame must each cost less than 5% over a plain
+// conversion.
+//
+// Usage: exposure_scopes_test [width height iterations]
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstring>
+#include <vector>
+
+#include "ExposureScopes.hpp"
+#include "TestFrames.hpp"
+
+static int32_t HeaderInt(const uint8_t* buf, int i)
+{
+    int32_t v;
+    std::memcpy(&v, buf + i * 4, 4);
+    return v;
+}
+
+template <typename Fn>
+static double TimeMs(Fn fn)
+{
+    const auto t0 = std::chrono::steady_clock::now();
+    fn();
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+}
+
+static double Median(std::vector<double> v)
+{
+    std::nth_element(v.begin(), v.begin() + v.size() / 2, v.end());
+    return v[v.size() / 2];
+}
+
+int main(int argc, char** argv)
+{
+    const int w = argc > 2 ? std::atoi(argv[1]) : 960;
+    const int h = argc > 2 ? std::atoi(argv[2]) : 540;
+    const int iterations = argc > 3 ? std::atoi(argv[3]) : 200;
+    const I420Frame src = MakeSyntheticRecording(w, h, 1, 20, 64, 0)[0];
+    const YuvFrame f = src.view();
+    const ColorFilter none;
+
+    static ScopeAccumulator acc;
+    static ScopePublisher pub;
+    std::vector<uint32_t> plain(static_cast<size_t>(w) * h), scoped(plain.size());
+    ConvertYuvToBgra(f, none, plain.data());
+
+    // Histogram + waveform: image unchanged, counts match every 4th pixel of every 8th row
+    ScopeSettings s;
+    s.flags = ScopeSettings::kHistogram | ScopeSettings::kWaveform;
+    acc.begin(s, w, h, true);
+    ConvertYuvToBgraWithScopes(f, none, scoped.data(), acc);
+    pub.publish(acc, 0);
+    EXPECT_TRUE(scoped == plain);
+
+    std::vector<uint32_t> hist(256, 0);
+    uint32_t samples = 0;
+    for (int y = 0; y < h; y += 1 << s.rowShift)
+        for (int x = 0; x < w; x += 1 << s.sampleShift) { hist[src.y[y * w + x]]++; samples++; }
+    const uint8_t* buf = pub.buffer(0);
+    EXPECT_TRUE(HeaderInt(buf, kScopeSeq) == 2);
+    EXPECT_TRUE(HeaderInt(buf, kScopeFrameWidth) == w && HeaderInt(buf, kScopeFrameHeight) == h);
+    EXPECT_TRUE(HeaderInt(buf, kScopeSamples) == static_cast<int32_t>(samples));
+    EXPECT_TRUE(std::memcmp(buf + kScopeHistogramOffset, hist.data(), 256 * 4) == 0);
+    // Every column holds some trace; the waveform is not left blank
+    for (int c = 0; c < kWaveformColumns; ++c) {
+        int lit = 0;
+        for (int l = 0; l < kWaveformLevels; ++l) lit += buf[kScopeWaveformOffset + c * kWaveformLevels + l] != 0;
+        EXPECT_TRUE(lit > 0);
+    }
+
+    // Waveform of a left-dark / right-bright frame lands in the right rows
+    I420Frame split(64, 32);
+    for (int y = 0; y < 32; ++y)
+        for (int x = 0; x < 64; ++x) split.y[y * 64 + x] = x < 32 ? 40 : 200;
+    std::fill(split.u.begin(), split.u.end(), 128);
+    std::fill(split.v.begin(), split.v.end(), 128);
+    std::vector<uint32_t> small(64 * 32);
+    s.flags = ScopeSettings::kWaveform | ScopeSettings::kZebra;
+    s.zebraThreshold = 180;
+    acc.begin(s, 64, 32, true);
+    ConvertYuvToBgraWithScopes(split.view(), none, small.data(), acc);
+    pub.publish(acc, 200000);
+    buf = pub.buffer(1);
+    EXPECT_TRUE(HeaderInt(buf, kScopeSeq) == 4);
+    const uint8_t* wave = buf + kScopeWaveformOffset;
+    EXPECT_TRUE(wave[0 * kWaveformLevels + 40 / 4] == 255 && wave[0 * kWaveformLevels + 200 / 4] == 0);
+    const int right = 60 * kWaveformColumns / 64;   // last sampled column
+    EXPECT_TRUE(wave[right * kWaveformLevels + 200 / 4] == 255 && wave[right * kWaveformLevels + 40 / 4] == 0);
+
+    // Zebra: the bright half is clipped, striped and marked in the mask; the dark half is not
+    EXPECT_TRUE(HeaderInt(buf, kScopeClipped) == HeaderInt(buf, kScopeSamples) / 2);
+    const uint8_t* zebra = buf + kScopeZebraOffset;
+    EXPECT_TRUE(zebra[0] == 0 && zebra[60 * kZebraCols / 64] > 0);
+    int stripes = 0;
+    for (int y = 0; y < 32; ++y)
+        for (int x = 0; x < 64; ++x) {
+            const bool stripe = small[y * 64 + x] == ScopeTap::kStripe;
+            EXPECT_TRUE(!stripe || x >= 32);
+            stripes += stripe;
+        }
+    EXPECT_TRUE(stripes > 0 && stripes < 32 * 32);
+
+    // Stripe-only frames (between publishes) draw zebra without touching the partials
+    acc.begin(s, 64, 32, false);
+    std::vector<uint32_t> again(small.size());
+    ConvertYuvToBgraWithScopes(split.view(), none, again.data(), acc);
+    EXPECT_TRUE(again == small);
+
+    // Throttle
+    EXPECT_TRUE(!pub.due(250000, 100000) && pub.due(300000, 100000));
+
+    // Cost: an analysed frame (all scopes) against the plain conversion
+    s.flags = ScopeSettings::kHistogram | ScopeSettings::kWaveform | ScopeSettings::kZebra;
+    s.zebraThreshold = 235;
+    // Interleaved, so drift hits all three alike; medians, so a stray slow run does not decide
+    std::vector<double> plainMs, analysedMs, stripeMs;
+    for (int i = 0; i < iterations; ++i) {
+        plainMs.push_back(TimeMs([&] { ConvertYuvToBgra(f, none, plain.data()); }));
+        analysedMs.push_back(TimeMs([&] {
+            acc.begin(s, w, h, true);
+            ConvertYuvToBgraWithScopes(f, none, scoped.data(), acc);
+            pub.publish(acc, 0);
+        }));
+        stripeMs.push_back(TimeMs([&] {
+            acc.begin(s, w, h, false);
+            ConvertYuvToBgraWithScopes(f, none, scoped.data(), acc);
+        }));
+    }
+    const double plainMedian = Median(plainMs);
+    const double analysedCost = Median(analysedMs) / plainMedian - 1.0;
+    const double stripeCost = Median(stripeMs) / plainMedian - 1.0;
+    std::printf("%dx%d: plain %.3f ms, analysed %.3f ms (%+.1f%%), zebra only %.3f ms (%+.1f%%)\n",
+                w, h, plainMedian, Median(analysedMs), 100.0 * analysedCost, Median(stripeMs), 100.0 * stripeCost);
+    EXPECT_TRUE(analysedCost < 0.05);
+    EXPECT_TRUE(stripeCost < 0.05);
+
+    std::printf("exposure_scopes_test: OK\n");
+    return 0;
+}
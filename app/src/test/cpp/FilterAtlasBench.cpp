@@ -0,0 +1,97 @@
+// Cost of one filter strip atlas update (sample the source tile + every
+// registered filter into the atlas, and + only the tiles on screen, as the
+// app does) against the naive alternative of one full preview-size
+// conversion per LUT filter. The atlas budget is 1 ms per update on the
+// camera thread.
+//
+// Usage: filter_atlas_bench [width height iterations [recording.yuv]]
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+
+#include "FilterAtlas.hpp"
+#include "FilterRegistry.hpp"
+#include "TestFrames.hpp"
+
+template <typename Fn>
+static double TimeMs(Fn fn)
+{
+    const auto t0 = std::chrono::steady_clock::now();
+    fn();
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+}
+
+int main(int argc, char** argv)
+{
+    const int w = argc > 2 ? std::atoi(argv[1]) : 1920;
+    const int h = argc > 2 ? std::atoi(argv[2]) : 1080;
+    const int iterations = argc > 3 ? std::atoi(argv[3]) : 50;
+
+    I420Frame frame;
+    if (argc > 4) {
+        std::vector<I420Frame> rec = LoadI420Recording(argv[4], w, h, 1);
+        if (rec.empty()) {
+            std::fprintf(stderr, "cannot read %dx%d I420 from %s\n", w, h, argv[4]);
+            return 1;
+        }
+        frame = std::move(rec[0]);
+    } else {
+        frame = MakeSyntheticRecording(w, h, 1, 20, 0, 0)[0];
+    }
+
+    // The registry as the app builds it: None, the LUTs, the tone curves
+    std::vector<ColorFilter> filters = {ColorFilter()};
+    for (const BundledLut& lut : kBundledLuts) filters.push_back(ColorFilter(lut.lut));
+    const int curveCount = static_cast<int>(sizeof(kCurveFilterNames) / sizeof(kCurveFilterNames[0]));
+    std::vector<ChannelCurves> curves(curveCount);
+    for (int i = 0; i < curveCount; ++i) {
+        BuildChannelCurves(i, curves[i]);
+        filters.push_back(ColorFilter::FromChannelCurves(&curves[i]));
+    }
+
+    FilterAtlas atlas;
+    atlas.setFilters(filters);
+    atlas.layout(w, h, 90, 96);
+    std::vector<uint32_t> out(static_cast<size_t>(atlas.atlasWidth()) * atlas.atlasHeight());
+
+    double total = 0.0, worst = 0.0, sampleMs = 0.0;
+    for (int i = 0; i < iterations; ++i) {
+        const double s = TimeMs([&] { atlas.sample(frame.view(), 90, false); });
+        const double ms = s + TimeMs([&] { atlas.render(out.data(), atlas.atlasWidth()); });
+        sampleMs += s;
+        total += ms;
+        worst = std::max(worst, ms);
+    }
+    std::printf("atlas: %d tiles of %dx%d from %dx%d: %.3f ms/update avg (%.3f sampling), %.3f max\n",
+                atlas.tileCount(), atlas.tileWidth(), atlas.tileHeight(), w, h,
+                total / iterations, sampleMs / iterations, worst);
+
+    // What the app redraws: the chips on screen, a strip of about eight, mixed LUTs and curves
+    std::vector<uint8_t> wanted(filters.size(), 0);
+    for (int t = 14; t < 22; ++t) wanted[t] = 1;
+    total = worst = 0.0;
+    for (int i = 0; i < iterations; ++i) {
+        const double ms = TimeMs([&] {
+            atlas.sample(frame.view(), 90, false);
+            atlas.render(out.data(), atlas.atlasWidth(), &wanted);
+        });
+        total += ms;
+        worst = std::max(worst, ms);
+    }
+    std::printf("atlas, 8 visible tiles: %.3f ms/update avg, %.3f max (%d distinct LUT nodes)\n",
+                total / iterations, worst, atlas.distinctNodes());
+
+    // Naive: each LUT filter over a decimated preview-size frame
+    const YuvFrame preview = SubsampledView(frame.view(), 2);
+    std::vector<uint32_t> bgra(static_cast<size_t>(preview.width) * preview.height);
+    const int naiveIterations = std::max(1, iterations / 10);
+    double naive = 0.0;
+    for (int i = 0; i < naiveIterations; ++i) {
+        naive += TimeMs([&] {
+            for (const BundledLut& lut : kBundledLuts) ConvertYuvToBgra(preview, ColorFilter(lut.lut), bgra.data());
+        });
+    }
+    std::printf("naive: %zu full %dx%d LUT passes: %.2f ms/update\n",
+                sizeof(kBundledLuts) / sizeof(kBundledLuts[0]), preview.width, preview.height, naive / naiveIterations);
+    return 0;
+}
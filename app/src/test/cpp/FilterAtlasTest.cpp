@@ -0,0 +1,115 @@
+// Filter strip atlas: each tile is exactly its filter applied to the shared
+// source tile, for every filter path; tiles land on the grid the UI reads,
+// and only the wanted ones are redrawn; and the source tile matches the
+// thumbnail of the same frame, upright and mirrored the same way.
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+#include "FilterAtlas.hpp"
+#include "FilterRegistry.hpp"
+#include "LutAnalyzer.hpp"
+#include "TestFrames.hpp"
+
+/** Big flat blocks, so point and box sampling agree away from the block edges. */
+static I420Frame Blocks(int w, int h)
+{
+    I420Frame f(w, h);
+    for (int y = 0; y < h; ++y)
+        for (int x = 0; x < w; ++x) f.y[static_cast<size_t>(y) * w + x] = static_cast<uint8_t>(40 + 50 * ((x / 80 + 2 * (y / 60)) % 4));
+    for (int y = 0; y < h / 2; ++y)
+        for (int x = 0; x < w / 2; ++x) {
+            f.u[static_cast<size_t>(y) * (w / 2) + x] = static_cast<uint8_t>(x < w / 4 ? 100 : 150);
+            f.v[static_cast<size_t>(y) * (w / 2) + x] = static_cast<uint8_t>(y < h / 4 ? 110 : 170);
+        }
+    return f;
+}
+
+int main()
+{
+    const int W = 640, H = 360;
+    const I420Frame frame = Blocks(W, H);
+
+    ChannelCurves sepia;
+    BuildChannelCurves(26, sepia);
+    SeparableCurves separable;
+    AnalyzeLut(&NaturalBoost, separable, kSeparableToleranceDeltaE);
+    ColorFilter separableFilter(&NaturalBoost, &separable);
+
+    std::vector<ColorFilter> filters = {ColorFilter(), ColorFilter(&Amy), separableFilter,
+                                        ColorFilter::FromChannelCurves(&sepia)};
+    for (int i = 0; i < 7; ++i) filters.push_back(ColorFilter(kBundledLuts[i].lut));   // spills onto a second row
+
+    // Every tile equals ApplyFilter on the source tile, at its grid position
+    {
+        FilterAtlas atlas;
+        atlas.setFilters(filters);
+        atlas.layout(W, H, 0, 96);
+        EXPECT_TRUE(atlas.tileWidth() == 96 && atlas.tileHeight() == 54);
+        EXPECT_TRUE(atlas.atlasWidth() == 96 * FilterAtlas::kColumns && atlas.atlasHeight() == 54 * 2);
+
+        std::vector<uint32_t> out(static_cast<size_t>(atlas.atlasWidth()) * atlas.atlasHeight(), 0);
+        atlas.sample(frame.view(), 0, false);
+        atlas.render(out.data(), atlas.atlasWidth());
+
+        bool ok = true;
+        for (int t = 0; t < atlas.tileCount(); ++t) {
+            const int ox = (t % FilterAtlas::kColumns) * 96, oy = (t / FilterAtlas::kColumns) * 54;
+            for (int y = 0; y < 54; ++y)
+                for (int x = 0; x < 96; ++x) {
+                    const uint32_t s = atlas.source()[static_cast<size_t>(y) * 96 + x];
+                    int R = s & 0xFF, G = s >> 8 & 0xFF, B = s >> 16 & 0xFF;
+                    switch (PathOf(filters[t])) {
+                        case FilterPath::Lut3D:         ApplyFilter<FilterPath::Lut3D>(filters[t], R, G, B); break;
+                        case FilterPath::Separable:     ApplyFilter<FilterPath::Separable>(filters[t], R, G, B); break;
+                        case FilterPath::ChannelCurves: ApplyFilter<FilterPath::ChannelCurves>(filters[t], R, G, B); break;
+                        default: break;
+                    }
+                    const uint32_t want = 0xFF000000 | static_cast<uint32_t>(B) << 16 | static_cast<uint32_t>(G) << 8 | R;
+                    ok &= out[static_cast<size_t>(oy + y) * atlas.atlasWidth() + ox + x] == want;
+                }
+        }
+        EXPECT_TRUE(ok);
+        // Cells past the last tile are left alone
+        EXPECT_TRUE(out[static_cast<size_t>(54) * atlas.atlasWidth() + 96 * 3] == 0);
+
+        // With a wanted mask only the marked tiles are drawn
+        std::vector<uint32_t> partial(out.size(), 0);
+        std::vector<uint8_t> wanted(filters.size(), 0);
+        wanted[1] = wanted[9] = 1;
+        EXPECT_TRUE(atlas.render(partial.data(), atlas.atlasWidth(), &wanted) == 2);
+        bool onlyWanted = true;
+        for (int y = 0; y < atlas.atlasHeight(); ++y)
+            for (int x = 0; x < atlas.atlasWidth(); ++x) {
+                const int t = (y / 54) * FilterAtlas::kColumns + x / 96;
+                const size_t i = static_cast<size_t>(y) * atlas.atlasWidth() + x;
+                onlyWanted &= partial[i] == (t == 1 || t == 9 ? out[i] : 0u);
+            }
+        EXPECT_TRUE(onlyWanted);
+    }
+
+    // The source tile is the frame's thumbnail: same orientation and mirroring, close values
+    {
+        std::vector<uint32_t> bgra(static_cast<size_t>(W) * H);
+        ConvertYuvToBgra(frame.view(), ColorFilter(), bgra.data());
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            for (int mirror = 0; mirror < 2; ++mirror) {
+                FilterAtlas atlas;
+                atlas.setFilters({ColorFilter()});
+                atlas.layout(W, H, degrees, 96);
+                const int tw = atlas.tileWidth(), th = atlas.tileHeight();
+                atlas.sample(frame.view(), degrees, mirror != 0);
+
+                std::vector<uint32_t> thumb(static_cast<size_t>(tw) * th);
+                MakeThumbnail(bgra.data(), W, H, degrees, mirror != 0, thumb.data(), tw, th, tw);
+                long diff = 0;
+                for (size_t i = 0; i < thumb.size(); ++i)
+                    for (int c = 0; c < 24; c += 8) diff += std::abs(static_cast<int>(thumb[i] >> c & 0xFF) - static_cast<int>(atlas.source()[i] >> c & 0xFF));
+                EXPECT_TRUE(diff / static_cast<long>(thumb.size() * 3) < 4);
+            }
+        }
+    }
+
+    std::printf("filter_atlas_test: OK\n");
+    return 0;
+}
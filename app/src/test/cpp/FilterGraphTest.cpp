@@ -0,0 +1,76 @@
+// Filter graph baking: a single-LUT chain must reproduce the LUT at every
+// node, adjustments must behave as documented, and a full LUT + exposure +
+// contrast + saturation bake must fit well inside one 30 fps frame.
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <memory>
+
+#include "FilterGraph.hpp"
+#include "FilterRegistry.hpp"
+#include "TestFrames.hpp"
+
+static GraphOp Adjust(GraphOp::Type type, float value)
+{
+    GraphOp op;
+    op.type = type;
+    op.value = value;
+    return op;
+}
+
+static GraphOp Filter(const ColorFilter& f)
+{
+    GraphOp op;
+    op.filter = f;
+    return op;
+}
+
+int main()
+{
+    std::unique_ptr<BakedLut> baked(new BakedLut());
+    const Lut33Ptr amy = kBundledLuts[0].lut;
+
+    // LUT alone: trilinear sampling at grid nodes returns the nodes themselves
+    BakeFilterGraph({Filter(ColorFilter(amy))}, *baked);
+    float maxErr = 0.f;
+    for (int b = 0; b < 33; ++b)
+        for (int g = 0; g < 33; ++g)
+            for (int r = 0; r < 33; ++r)
+                for (int c = 0; c < 3; ++c)
+                    maxErr = std::max(maxErr, std::fabs(baked->data[b][g][r][c] -
+                                                        std::min(std::max((*amy)[b][g][r][c], 0.f), 1.f)));
+    EXPECT_TRUE(maxErr < 1e-5f);
+
+    // Neutral adjustments are dropped; a lone filter is what remains
+    const std::vector<GraphOp> active = ActiveOps({Filter(ColorFilter()), Adjust(GraphOp::Exposure, 0.f),
+                                                   Filter(ColorFilter(amy)), Adjust(GraphOp::Contrast, 1.f),
+                                                   Adjust(GraphOp::Saturation, 1.f)});
+    EXPECT_TRUE(active.size() == 1 && active[0].filter.lut == amy);
+
+    // Saturation 0 gives grey; +1 stop brightens mid grey
+    BakeFilterGraph({Adjust(GraphOp::Saturation, 0.f)}, *baked);
+    const float* n = baked->data[4][20][30];
+    EXPECT_TRUE(std::fabs(n[0] - n[1]) < 1e-6f && std::fabs(n[1] - n[2]) < 1e-6f);
+    BakeFilterGraph({Adjust(GraphOp::Exposure, 1.f)}, *baked);
+    EXPECT_TRUE(baked->data[16][16][16][0] > 0.6f);
+
+    // Tone curves interpolate to the same values at 8-bit inputs that land on nodes
+    static ChannelCurves curves;
+    BuildChannelCurves(0, curves);
+    BakeFilterGraph({Filter(ColorFilter::FromChannelCurves(&curves))}, *baked);
+    EXPECT_TRUE(std::fabs(baked->data[0][0][32][0] * 255.f - curves.curve[0][255]) < 0.01f);
+
+    // Bake time for the chain the sliders produce
+    const std::vector<GraphOp> chain = {Filter(ColorFilter(amy)), Adjust(GraphOp::Exposure, 0.3f),
+                                        Adjust(GraphOp::Contrast, 1.2f), Adjust(GraphOp::Saturation, 1.3f)};
+    const int runs = 10;
+    const auto t0 = std::chrono::steady_clock::now();
+    for (int i = 0; i < runs; ++i) BakeFilterGraph(chain, *baked);
+    const double ms = std::chrono::duration<double, std::milli>(
+            std::chrono::steady_clock::now() - t0).count() / runs;
+    std::printf("filter_graph_test: LUT+exposure+contrast+saturation bake %.2f ms\n", ms);
+    EXPECT_TRUE(ms < 33.0);
+
+    std::printf("filter_graph_test: OK\n");
+    return 0;
+}
@@ -0,0 +1,62 @@
+// Throughput of the 3D LUT path vs the separable-curves fast path, per
+// bundled filter, plus the analyzer's decision for each; then the legacy
+// tone-curve family against the same baseline.
+//
+// Usage: filter_path_bench [width height iterations]
+#include <chrono>
+#include <cstdio>
+
+#include "FrameConvert.hpp"
+#include "LutAnalyzer.hpp"
+#include "TestFrames.hpp"
+#include "FilterRegistry.hpp"
+
+static double MeasureMPixPerSec(const I420Frame& src, const ColorFilter& filter, int iterations)
+{
+    const YuvFrame f = src.view();
+    std::vector<uint32_t> out(static_cast<size_t>(f.width) * f.height);
+    ConvertYuvToBgra(f, filter, out.data());   // warm-up
+    const auto t0 = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; ++i) ConvertYuvToBgra(f, filter, out.data());
+    const double s = std::chrono::duration<double>(std::chrono::steady_clock::now() - t0).count();
+    return static_cast<double>(f.width) * f.height * iterations / s / 1e6;
+}
+
+int main(int argc, char** argv)
+{
+    const int w = argc > 2 ? std::atoi(argv[1]) : 1280;
+    const int h = argc > 2 ? std::atoi(argv[2]) : 720;
+    const int iterations = argc > 3 ? std::atoi(argv[3]) : 20;
+    const I420Frame frame = MakeSyntheticRecording(w, h, 1, 20, 0, 0)[0];
+
+    std::printf("%-20s %-10s %8s %8s %8s %10s %10s\n",
+                "filter", "path", "meanDE", "p99DE", "maxDE", "3D MPix/s", "1D MPix/s");
+    std::printf("%-20s %-10s %8s %8s %8s %10.1f %10s\n", "None", "-", "-", "-", "-",
+                MeasureMPixPerSec(frame, ColorFilter(), iterations), "-");
+    static SeparableCurves curves;
+    double lutTotal = 0.0;
+    for (const BundledLut& entry : kBundledLuts) {
+        const LutAnalysis a = AnalyzeLut(entry.lut, curves, kSeparableToleranceDeltaE);
+        const double mp3d = MeasureMPixPerSec(frame, ColorFilter(entry.lut), iterations);
+        const double mp1d = MeasureMPixPerSec(frame, ColorFilter(entry.lut, &curves), iterations);
+        lutTotal += mp3d;
+        std::printf("%-20s %-10s %8.2f %8.2f %8.2f %10.1f %10.1f\n", entry.name,
+                    a.separable ? (a.matrixFirst ? "mat+curve" : "curve+mat") : (a.matrixFirst ? "3D(m)" : "3D(c)"), a.meanDeltaE, a.p99DeltaE, a.maxDeltaE, mp3d, mp1d);
+    }
+
+    const int lutCount = static_cast<int>(sizeof(kBundledLuts) / sizeof(kBundledLuts[0]));
+    const int curveCount = static_cast<int>(sizeof(kCurveFilterNames) / sizeof(kCurveFilterNames[0]));
+    static ChannelCurves channel;
+    double curveTotal = 0.0, curveMin = 1e9, curveMax = 0.0;
+    for (int i = 0; i < curveCount; ++i) {
+        BuildChannelCurves(i, channel);
+        const double mp = MeasureMPixPerSec(frame, ColorFilter::FromChannelCurves(&channel), iterations);
+        curveTotal += mp;
+        curveMin = std::min(curveMin, mp);
+        curveMax = std::max(curveMax, mp);
+    }
+    std::printf("\n3D LUT family   (%2d filters): %6.1f MPix/s avg\n", lutCount, lutTotal / lutCount);
+    std::printf("tone curves     (%2d filters): %6.1f MPix/s avg (min %.1f, max %.1f)\n",
+                curveCount, curveTotal / curveCount, curveMin, curveMax);
+    return 0;
+}
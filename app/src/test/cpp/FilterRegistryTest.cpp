@@ -0,0 +1,54 @@
+// The legacy tone-curve family must reproduce Filters::MAPS exactly when
+// applied in the conversion loop. MAPS rows are stored B, G, R; the named
+// tints check that red and blue are not swapped.
+#include <cstdio>
+#include <cstring>
+
+#include "FilterRegistry.hpp"
+#include "FrameConvert.hpp"
+#include "TestFrames.hpp"
+
+int main()
+{
+    const I420Frame src = MakeSyntheticRecording(160, 90, 1, 40, 0, 0)[0];
+    const YuvFrame f = src.view();
+    std::vector<uint32_t> plain(static_cast<size_t>(f.width) * f.height);
+    std::vector<uint32_t> curved(plain.size());
+    ConvertYuvToBgra(f, ColorFilter(), plain.data());
+
+    static ChannelCurves curves;
+    for (int type = 0; type < 46; ++type) {
+        BuildChannelCurves(type, curves);
+        ConvertYuvToBgra(f, ColorFilter::FromChannelCurves(&curves), curved.data());
+        for (size_t i = 0; i < plain.size(); ++i) {
+            const int r = plain[i] & 0xFF, g = (plain[i] >> 8) & 0xFF, b = (plain[i] >> 16) & 0xFF;
+            const uint32_t want = 0xFF000000 |
+                    (static_cast<uint32_t>(Filters::MAPS[type][b][0]) << 16) |
+                    (static_cast<uint32_t>(Filters::MAPS[type][g][1]) << 8) |
+                    static_cast<uint32_t>(Filters::MAPS[type][r][2]);
+            EXPECT_TRUE(curved[i] == want);
+        }
+    }
+
+    // Mid-grey through the named tints: sepia and gold warm (R > B), blue cool (B > R)
+    auto tint = [](const char* name, int& r, int& b) {
+        for (int type = 0; type < 46; ++type) {
+            if (std::strcmp(kCurveFilterNames[type], name) != 0) continue;
+            BuildChannelCurves(type, curves);
+            r = curves.curve[0][128];
+            b = curves.curve[2][128];
+            return;
+        }
+        EXPECT_TRUE(false);
+    };
+    int r = 0, b = 0;
+    tint("Sepia Antique", r, b);
+    EXPECT_TRUE(r > b);
+    tint("Gold 1", r, b);
+    EXPECT_TRUE(r > b);
+    tint("Blue 1", r, b);
+    EXPECT_TRUE(b > r);
+
+    std::printf("filter_registry_test: OK\n");
+    return 0;
+}
@@ -0,0 +1,124 @@
+// 10-bit path: P010 -> 16-bit RGB -> P010 must round-trip, keep the levels
+// an 8-bit pipeline would merge, apply the colour filters without losing
+// that precision, and survive the record branch's frame copy.
+#include <cstdio>
+#include <cstdlib>
+#include <set>
+#include <vector>
+
+#include "HdrConvert.hpp"
+#include "LutAnalyzer.hpp"
+#include "PipelineBranch.hpp"
+#include "TestFrames.hpp"
+
+static float gIdentityLut[33][33][33][3];
+
+static int DistinctRed(const std::vector<Rgb16>& px)
+{
+    std::set<int> levels;
+    for (Rgb16 p : px) levels.insert(Rgb16R(p));
+    return static_cast<int>(levels.size());
+}
+
+int main()
+{
+    const ColorFilter none;
+
+    // Round trip from RGB: pack to P010, convert back, stay within a few 10-bit steps
+    {
+        const int w = 64, h = 32;
+        TestRng rng(3);
+        std::vector<Rgb16> src(static_cast<size_t>(w) * h);
+        for (int y = 0; y < h; y += 2)
+            for (int x = 0; x < w; x += 2) {
+                // one colour per 2x2 block, so subsampled chroma is exact
+                const Rgb16 p = PackRgb16(rng.range(2000, 63000), rng.range(2000, 63000), rng.range(2000, 63000));
+                src[y * w + x] = src[y * w + x + 1] = src[(y + 1) * w + x] = src[(y + 1) * w + x + 1] = p;
+            }
+        std::vector<uint8_t> p010(static_cast<size_t>(w) * h * 3);
+        Rgb16ToP010(src.data(), w, h, p010.data(), w * 2, h);
+
+        YuvFrame f;
+        f.y = p010.data();
+        f.u = p010.data() + static_cast<size_t>(w) * 2 * h;
+        f.v = f.u + 2;
+        f.yRowStride = f.uRowStride = f.vRowStride = w * 2;
+        f.yPixelStride = 2;
+        f.uPixelStride = f.vPixelStride = 4;
+        f.sampleBytes = 2;
+        f.width = w;
+        f.height = h;
+        std::vector<Rgb16> back(src.size());
+        ConvertP010ToRgb16(f, none, back.data());
+        int maxErr = 0;
+        for (size_t i = 0; i < src.size(); ++i) {
+            maxErr = std::max({maxErr, std::abs(Rgb16R(src[i]) - Rgb16R(back[i])),
+                               std::abs(Rgb16G(src[i]) - Rgb16G(back[i])),
+                               std::abs(Rgb16B(src[i]) - Rgb16B(back[i]))});
+        }
+        std::printf("P010 round trip: max error %d / 65535\n", maxErr);
+        EXPECT_TRUE(maxErr <= 150);   // two 10-bit luma steps
+    }
+
+    // A 10-bit grey ramp keeps its levels; the same ramp through the 8-bit path cannot
+    P010Frame ramp(1024, 4);
+    for (int y = 0; y < 4; ++y)
+        for (int x = 0; x < 1024; ++x) ramp.y[y * 1024 + x] = static_cast<uint16_t>((64 + x * 876 / 1024) << 6);
+    std::fill(ramp.uv.begin(), ramp.uv.end(), static_cast<uint16_t>(512 << 6));
+    std::vector<Rgb16> rgb(1024 * 4);
+    ConvertP010ToRgb16(ramp.view(), none, rgb.data());
+    EXPECT_TRUE(DistinctRed(rgb) > 800);
+    I420Frame ramp8(1024, 4);
+    for (size_t i = 0; i < ramp8.y.size(); ++i) ramp8.y[i] = static_cast<uint8_t>(ramp.y[i] >> 8);
+    std::fill(ramp8.u.begin(), ramp8.u.end(), 128);
+    std::fill(ramp8.v.begin(), ramp8.v.end(), 128);
+    std::vector<uint32_t> bgra8(1024 * 4);
+    ConvertYuvToBgra(ramp8.view(), none, bgra8.data());
+    std::set<uint32_t> levels8(bgra8.begin(), bgra8.end());
+    EXPECT_TRUE(levels8.size() <= 256);
+
+    // Filters keep the precision: interpolated curves, trilinear LUT and interpolated separable tables
+    static ChannelCurves identityCurves;
+    for (int c = 0; c < 3; ++c)
+        for (int i = 0; i < 256; ++i) identityCurves.curve[c][i] = static_cast<uint8_t>(i);
+    for (int b = 0; b < 33; ++b)
+        for (int g = 0; g < 33; ++g)
+            for (int r = 0; r < 33; ++r) {
+                gIdentityLut[b][g][r][0] = r / 32.0f;
+                gIdentityLut[b][g][r][1] = g / 32.0f;
+                gIdentityLut[b][g][r][2] = b / 32.0f;
+            }
+    static SeparableCurves identitySeparable;
+    EXPECT_TRUE(AnalyzeLut(&gIdentityLut, identitySeparable, 2.3f).separable);
+    std::vector<Rgb16> filtered(rgb.size());
+    for (const ColorFilter& filter : {ColorFilter::FromChannelCurves(&identityCurves), ColorFilter(&gIdentityLut),
+                                      ColorFilter(&gIdentityLut, &identitySeparable)}) {
+        ConvertP010ToRgb16(ramp.view(), filter, filtered.data());
+        EXPECT_TRUE(DistinctRed(filtered) > 800);
+        for (size_t i = 0; i < rgb.size(); ++i) EXPECT_TRUE(std::abs(Rgb16R(filtered[i]) - Rgb16R(rgb[i])) <= 16);
+    }
+
+    // Preview / photo: BGRA is the top byte of the working format, at any decimation
+    const P010Frame scene = ToP010(MakeSyntheticRecording(64, 32, 1, 20, 8, 0)[0]);
+    std::vector<Rgb16> sceneRgb(64 * 32);
+    std::vector<uint32_t> viaRgb(64 * 32), direct(64 * 32), half(32 * 16);
+    ConvertP010ToRgb16(scene.view(), ColorFilter(&gIdentityLut), sceneRgb.data());
+    Rgb16ToBgra(sceneRgb.data(), sceneRgb.size(), viaRgb.data());
+    ConvertP010ToBgra(scene.view(), ColorFilter(&gIdentityLut), direct.data());
+    EXPECT_TRUE(viaRgb == direct);
+    ConvertP010ToBgra(SubsampledView(scene.view(), 2), ColorFilter(&gIdentityLut), half.data());
+    for (int y = 0; y < 16; ++y)
+        for (int x = 0; x < 32; ++x) EXPECT_TRUE(half[y * 32 + x] == direct[(2 * y) * 64 + 2 * x]);
+
+    // Record branch copy: 16-bit samples, the last chroma sample included
+    OwnedYuvFrame owned;
+    owned.copyFrom(scene.view(), 42);
+    EXPECT_TRUE(owned.u.size() % 2 == 0 && owned.frame.sampleBytes == 2);
+    std::vector<uint32_t> copied(64 * 32);
+    ConvertP010ToBgra(owned.frame, none, copied.data());
+    ConvertP010ToBgra(scene.view(), none, direct.data());
+    EXPECT_TRUE(copied == direct);
+
+    std::printf("hdr_convert_test: OK\n");
+    return 0;
+}
@@ -0,0 +1,98 @@
+// Throughput of the 10-bit record path against the 8-bit one, per filter
+// family: P010 -> 16-bit RGB (+ filter) -> P010 versus I420 -> BGRA
+// (+ filter) -> NV12, plus the preview conversion of each. Replays a P010
+// dump when given one (its top 8 bits feed the 8-bit path), else a
+// synthetic frame widened to 10 bits.
+//
+// Usage: hdr_path_bench [width height iterations [recording.p010]]
+#include <chrono>
+#include <cstdio>
+
+#include "FilterRegistry.hpp"
+#include "HdrConvert.hpp"
+#include "LutAnalyzer.hpp"
+#include "TestFrames.hpp"
+
+template <typename Fn>
+static double TimeMs(Fn fn)
+{
+    const auto t0 = std::chrono::steady_clock::now();
+    fn();
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+}
+
+static I420Frame TopBits(const P010Frame& src)
+{
+    I420Frame f(src.width, src.height);
+    for (size_t i = 0; i < src.y.size(); ++i) f.y[i] = static_cast<uint8_t>(src.y[i] >> 8);
+    const int cw = src.width / 2;
+    for (int y = 0; y < src.height / 2; ++y)
+        for (int x = 0; x < cw; ++x) {
+            f.u[static_cast<size_t>(y) * cw + x] = static_cast<uint8_t>(src.uv[static_cast<size_t>(y) * src.width + 2 * x] >> 8);
+            f.v[static_cast<size_t>(y) * cw + x] = static_cast<uint8_t>(src.uv[static_cast<size_t>(y) * src.width + 2 * x + 1] >> 8);
+        }
+    return f;
+}
+
+int main(int argc, char** argv)
+{
+    const int w = argc > 2 ? std::atoi(argv[1]) : 1280;
+    const int h = argc > 2 ? std::atoi(argv[2]) : 720;
+    const int iterations = argc > 3 ? std::atoi(argv[3]) : 10;
+
+    P010Frame hdr;
+    if (argc > 4) {
+        std::vector<P010Frame> rec = LoadP010Recording(argv[4], w, h, 1);
+        if (rec.empty()) {
+            std::fprintf(stderr, "cannot read %dx%d P010 from %s\n", w, h, argv[4]);
+            return 1;
+        }
+        hdr = std::move(rec[0]);
+    } else {
+        hdr = ToP010(MakeSyntheticRecording(w, h, 1, 20, 0, 0)[0]);
+    }
+    const I420Frame sdr = TopBits(hdr);
+    const YuvFrame f8 = sdr.view();
+    const YuvFrame f10 = hdr.view();
+    const size_t pixels = static_cast<size_t>(w) * h;
+
+    std::vector<uint32_t> bgra(pixels);
+    std::vector<uint8_t> nv12(pixels * 3 / 2);
+    std::vector<Rgb16> rgb16(pixels);
+    std::vector<uint8_t> p010(pixels * 3);
+
+    static ChannelCurves curves;
+    BuildChannelCurves(0, curves);
+    static SeparableCurves separable;
+    AnalyzeLut(kBundledLuts[0].lut, separable, kSeparableToleranceDeltaE);
+    const struct { const char* name; ColorFilter filter; } filters[] = {
+            {"None", ColorFilter()},
+            {"Lut3D", ColorFilter(kBundledLuts[0].lut)},
+            {"Separable", ColorFilter(kBundledLuts[0].lut, &separable)},
+            {"ChannelCurves", ColorFilter::FromChannelCurves(&curves)},
+    };
+
+    std::printf("%dx%d, best of %d\n", w, h, iterations);
+    std::printf("%-14s %12s %12s %8s %12s %12s %8s\n",
+                "filter", "8-bit rec", "10-bit rec", "ratio", "8-bit prev", "10-bit prev", "ratio");
+    for (const auto& entry : filters) {
+        const ColorFilter& filter = entry.filter;
+        // Interleaved, best of each: single runs are too noisy to compare
+        double rec8 = 1e9, rec10 = 1e9, prev8 = 1e9, prev10 = 1e9;
+        for (int i = 0; i < iterations; ++i) {
+            rec8 = std::min(rec8, TimeMs([&] {
+                ConvertYuvToBgra(f8, filter, bgra.data());
+                BgraToNv12(bgra.data(), w, h, nv12.data(), w, h);
+            }));
+            rec10 = std::min(rec10, TimeMs([&] {
+                ConvertP010ToRgb16(f10, filter, rgb16.data());
+                Rgb16ToP010(rgb16.data(), w, h, p010.data(), w * 2, h);
+            }));
+            prev8 = std::min(prev8, TimeMs([&] { ConvertYuvToBgra(f8, filter, bgra.data()); }));
+            prev10 = std::min(prev10, TimeMs([&] { ConvertP010ToBgra(f10, filter, bgra.data()); }));
+        }
+        std::printf("%-14s %9.2f ms %9.2f ms %7.2fx %9.2f ms %9.2f ms %7.2fx\n", entry.name,
+                    rec8, rec10, rec10 / rec8, prev8, prev10, prev10 / prev8);
+    }
+    return 0;
+}
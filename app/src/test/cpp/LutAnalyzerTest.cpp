@@ -0,0 +1,61 @@
+// The LUT analyzer must detect LUTs built from the two separable models,
+// reproduce them within tolerance, and reject non-separable LUTs.
+#include <cmath>
+#include <cstdio>
+
+#include "LutAnalyzer.hpp"
+#include "TestFrames.hpp"
+
+static float gLut[33][33][33][3];
+
+template <typename F>
+static void BuildLut(F fn)
+{
+    for (int b = 0; b < 33; ++b)
+        for (int g = 0; g < 33; ++g)
+            for (int r = 0; r < 33; ++r)
+                fn(r / 32.f, g / 32.f, b / 32.f, gLut[b][g][r]);
+}
+
+int main()
+{
+    static SeparableCurves curves;
+
+    // Per-channel curves followed by a mild 3x3 colour matrix.
+    BuildLut([](float r, float g, float b, float* out) {
+        const float cr = std::pow(r, 0.8f), cg = std::pow(g, 1.1f), cb = std::sqrt(b);
+        out[0] = std::clamp(0.90f * cr + 0.08f * cg + 0.02f * cb, 0.f, 1.f);
+        out[1] = std::clamp(0.05f * cr + 0.90f * cg + 0.05f * cb, 0.f, 1.f);
+        out[2] = std::clamp(0.00f * cr + 0.10f * cg + 0.90f * cb, 0.f, 1.f);
+    });
+    LutAnalysis a = AnalyzeLut(&gLut, curves, 2.3f);
+    std::printf("curves->matrix: separable=%d matrixFirst=%d mean=%.2f p99=%.2f\n",
+                a.separable, a.matrixFirst, a.meanDeltaE, a.p99DeltaE);
+    EXPECT_TRUE(a.separable && !a.matrixFirst);
+
+    // Luma mix followed by an S-curve (a black & white look).
+    BuildLut([](float r, float g, float b, float* out) {
+        const float y = 0.3f * r + 0.6f * g + 0.1f * b;
+        const float s = y * y * (3.f - 2.f * y);
+        out[0] = out[1] = out[2] = s;
+    });
+    a = AnalyzeLut(&gLut, curves, 2.3f);
+    std::printf("matrix->curves: separable=%d matrixFirst=%d mean=%.2f p99=%.2f\n",
+                a.separable, a.matrixFirst, a.meanDeltaE, a.p99DeltaE);
+    EXPECT_TRUE(a.separable && a.matrixFirst);
+
+    // Saturation-dependent hue twist cannot be written as either model.
+    BuildLut([](float r, float g, float b, float* out) {
+        const float mx = std::max(r, std::max(g, b)), mn = std::min(r, std::min(g, b));
+        const float sat = mx - mn;
+        out[0] = std::clamp(r * (1 - sat) + b * sat, 0.f, 1.f);
+        out[1] = std::clamp(g * (1 - sat) + r * sat, 0.f, 1.f);
+        out[2] = std::clamp(b * (1 - sat) + g * sat, 0.f, 1.f);
+    });
+    a = AnalyzeLut(&gLut, curves, 2.3f);
+    std::printf("hue twist:      separable=%d mean=%.2f p99=%.2f\n", a.separable, a.meanDeltaE, a.p99DeltaE);
+    EXPECT_TRUE(!a.separable);
+
+    std::printf("lut_analyzer_test: OK\n");
+    return 0;
+}
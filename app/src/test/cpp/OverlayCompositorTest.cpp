@@ -0,0 +1,197 @@
+// Recording overlays: pixels outside the overlay boxes and under fully
+// transparent overlay pixels are untouched, the premultiplied blend matches
+// the exact formula, an overlay stays upright in the played-back picture for
+// every rotation and corner, boxes are clipped at the frame edges, layers are
+// rebuilt only on a change, and a frame never shows half of an upload.
+#include <atomic>
+#include <cmath>
+#include <cstdio>
+#include <thread>
+#include <vector>
+
+#include "OverlayCompositor.hpp"
+#include "TestFrames.hpp"
+
+static uint32_t Premultiplied(int r, int g, int b, int a)
+{
+    return static_cast<uint32_t>(a) << 24 | static_cast<uint32_t>(b * a / 255) << 16 |
+           static_cast<uint32_t>(g * a / 255) << 8 | static_cast<uint32_t>(r * a / 255);
+}
+
+static OverlayImage Solid(int w, int h, uint32_t pixel, int corner, int margin)
+{
+    OverlayImage image;
+    image.width = w;
+    image.height = h;
+    image.pixels.assign(static_cast<size_t>(w) * h, pixel);
+    image.corner = corner;
+    image.marginX = image.marginY = margin;
+    return image;
+}
+
+/** Every pixel different, so a wrong mapping cannot go unnoticed. */
+static OverlayImage Gradient(int w, int h, int corner, int margin)
+{
+    OverlayImage image = Solid(w, h, 0, corner, margin);
+    for (int y = 0; y < h; ++y)
+        for (int x = 0; x < w; ++x)
+            image.pixels[static_cast<size_t>(y) * w + x] = Premultiplied(x * 255 / w, y * 255 / h, 90, 128 + (x + y) % 128);
+    return image;
+}
+
+static std::vector<uint32_t> Pattern(int w, int h)
+{
+    std::vector<uint32_t> f(static_cast<size_t>(w) * h);
+    for (size_t i = 0; i < f.size(); ++i) f[i] = 0xFF000000 | static_cast<uint32_t>(i * 2654435761u >> 8 & 0xFFFFFF);
+    return f;
+}
+
+/** Reference rotation, as the preview's RotateARGB90/180/270 turn a frame. */
+static std::vector<uint32_t> Rotate(const std::vector<uint32_t>& src, int w, int h, int degrees)
+{
+    std::vector<uint32_t> dst(src.size());
+    for (int y = 0; y < h; ++y) {
+        for (int x = 0; x < w; ++x) {
+            const uint32_t p = src[static_cast<size_t>(y) * w + x];
+            if (degrees == 90) dst[static_cast<size_t>(x) * h + (h - 1 - y)] = p;
+            else if (degrees == 180) dst[dst.size() - 1 - (static_cast<size_t>(y) * w + x)] = p;
+            else if (degrees == 270) dst[static_cast<size_t>(w - 1 - x) * h + y] = p;
+            else dst[static_cast<size_t>(y) * w + x] = p;
+        }
+    }
+    return dst;
+}
+
+int main()
+{
+    const int W = 160, H = 90;
+
+    // Outside the box and under transparent pixels nothing changes; opaque pixels replace
+    {
+        OverlayImage image = Solid(20, 10, 0, 0, 5);
+        for (int x = 0; x < 20; ++x) image.pixels[static_cast<size_t>(4) * 20 + x] = 0xFF3366CC;
+        OverlayCompositor overlays;
+        overlays.set(0, image);
+        const std::vector<uint32_t> before = Pattern(W, H);
+        std::vector<uint32_t> frame = before;
+        EXPECT_TRUE(overlays.blend(frame.data(), W, H));
+        bool ok = true;
+        for (int y = 0; y < H; ++y)
+            for (int x = 0; x < W; ++x) {
+                const size_t i = static_cast<size_t>(y) * W + x;
+                const bool stripe = y == 5 + 4 && x >= 5 && x < 25;
+                ok &= frame[i] == (stripe ? 0xFF3366CC : before[i]);
+            }
+        EXPECT_TRUE(ok);
+        EXPECT_TRUE(overlays.blendedPixels() == 20);     // one opaque row; the transparent rows cost nothing
+    }
+
+    // Partial alpha: s + d * (255 - a) / 255 per channel, exact to rounding
+    {
+        bool ok = true;
+        for (int a = 0; a <= 255; a += 15) {
+            for (int d = 0; d <= 255; d += 17) {
+                const uint32_t s = Premultiplied(200, 100, 40, a);
+                const uint32_t dst = 0xFF000000 | static_cast<uint32_t>(d) << 16 | static_cast<uint32_t>(255 - d) << 8 | d;
+                const uint32_t out = BlendPremultiplied(dst, s);
+                for (int c = 0; c < 3; ++c) {
+                    const int sc = s >> (8 * c) & 0xFF, dc = dst >> (8 * c) & 0xFF;
+                    const int want = static_cast<int>(std::lround(sc + dc * (255 - a) / 255.0));
+                    ok &= std::abs(static_cast<int>(out >> (8 * c) & 0xFF) - want) <= 1;
+                }
+                ok &= (out >> 24) == 0xFF;
+            }
+        }
+        EXPECT_TRUE(ok);
+
+        // 16-bit: opaque white is full scale, transparent leaves the pixel alone
+        const Rgb16 grey = PackRgb16(30000, 20000, 10000);
+        EXPECT_TRUE(BlendPremultiplied16(grey, 0xFFFFFFFF) == PackRgb16(0xFFFF, 0xFFFF, 0xFFFF));
+        EXPECT_TRUE(BlendPremultiplied16(grey, 0) == grey);
+    }
+
+    // Upright in the played-back picture: blending before the rotation equals blending after it
+    {
+        bool ok = true;
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            const bool sideways = degrees % 180 != 0;
+            const int playW = sideways ? H : W, playH = sideways ? W : H;
+            for (int corner = 0; corner < 4; ++corner) {
+                const OverlayImage image = Gradient(24, 12, corner, 3);
+                OverlayCompositor rotated, upright;
+                rotated.set(1, image);
+                rotated.setRotation(degrees);
+                upright.set(1, image);
+
+                std::vector<uint32_t> frame = Pattern(W, H);
+                std::vector<uint32_t> played = Rotate(frame, W, H, degrees);
+                rotated.blend(frame.data(), W, H);
+                upright.blend(played.data(), playW, playH);
+                ok &= Rotate(frame, W, H, degrees) == played;
+            }
+        }
+        EXPECT_TRUE(ok);
+    }
+
+    // Clipped at the edges; an overlay entirely outside draws nothing
+    {
+        OverlayCompositor overlays;
+        overlays.set(0, Solid(30, 20, 0xFF00FF00, 2, -10));     // hangs off the bottom-right
+        std::vector<uint32_t> frame(static_cast<size_t>(W) * H, 0xFF000000);
+        EXPECT_TRUE(overlays.blend(frame.data(), W, H));
+        size_t green = 0;
+        for (uint32_t p : frame) green += p == 0xFF00FF00;
+        EXPECT_TRUE(green == 20u * 10u);
+        EXPECT_TRUE(frame[static_cast<size_t>(H - 1) * W + W - 1] == 0xFF00FF00);
+
+        overlays.set(0, Solid(30, 20, 0xFF00FF00, 0, -40));
+        std::vector<uint32_t> untouched(static_cast<size_t>(W) * H, 0xFF000000);
+        EXPECT_TRUE(!overlays.blend(untouched.data(), W, H));
+        EXPECT_TRUE(untouched == std::vector<uint32_t>(static_cast<size_t>(W) * H, 0xFF000000));
+    }
+
+    // Layers are rebuilt on an upload, a rotation or a new frame size, not per frame
+    {
+        OverlayCompositor overlays;
+        std::vector<uint32_t> frame = Pattern(W, H);
+        EXPECT_TRUE(!overlays.blend(frame.data(), W, H));
+        overlays.set(0, Gradient(16, 8, 0, 2));
+        for (int i = 0; i < 10; ++i) overlays.blend(frame.data(), W, H);
+        const uint64_t afterUpload = overlays.rebuilds();
+        overlays.setRotation(90);
+        overlays.blend(frame.data(), W, H);
+        overlays.blend(frame.data(), W / 2, H / 2);
+        overlays.blend(frame.data(), W / 2, H / 2);
+        EXPECT_TRUE(overlays.rebuilds() == afterUpload + 2);
+        overlays.clear(0);
+        EXPECT_TRUE(!overlays.blend(frame.data(), W, H));
+    }
+
+    // Uploads racing the record worker: every frame shows exactly one whole upload
+    {
+        OverlayCompositor overlays;
+        std::atomic<bool> stop{false};
+        std::thread uploader([&] {
+            for (uint32_t i = 0; !stop.load(); ++i) {
+                const uint32_t level = 40 + i % 200;
+                overlays.set(0, Solid(40, 20, 0xFF000000 | level << 16 | level << 8 | level, 0, 0));
+            }
+        });
+        bool whole = true;
+        std::vector<uint32_t> frame(static_cast<size_t>(W) * H);
+        // At least 2000 frames and until a second upload landed: on one core the uploader may not have run yet
+        for (int n = 0; n < 2000 || (overlays.rebuilds() < 2 && n < 1000000); ++n) {
+            if (n >= 2000) std::this_thread::yield();
+            std::fill(frame.begin(), frame.end(), 0xFF000000);
+            if (!overlays.blend(frame.data(), W, H)) continue;      // nothing uploaded yet
+            for (int y = 0; y < 20; ++y)
+                for (int x = 0; x < 40; ++x) whole &= frame[static_cast<size_t>(y) * W + x] == frame[0];
+        }
+        stop.store(true);
+        uploader.join();
+        EXPECT_TRUE(whole && overlays.rebuilds() > 1);
+    }
+
+    std::printf("overlay_compositor_test: OK\n");
+    return 0;
+}
@@ -0,0 +1,126 @@
+// Composited picture-in-picture throughput, replaying two YUV sources on
+// their own clocks (primary 30 fps, secondary 24 fps, so the compositor
+// both holds and takes fresh frames). Three ways to get a frame out:
+//   single     the primary alone, as before PiP
+//   naive      both streams converted in full, inset scaled from the
+//              secondary's BGRA and blended into the primary's
+//   composite  PipCompositor: one pass, primary converted around the inset
+// per inset filter, with the primary on a tone curve. MPix/s counts output
+// (primary) pixels. Replays I420 dumps when given, else synthetic motion.
+//
+// Usage: pip_composite_bench [frames [primary.yuv pw ph secondary.yuv sw sh]]
+#include <chrono>
+#include <cstdio>
+
+#include "FilterRegistry.hpp"
+#include "LutAnalyzer.hpp"
+#include "PipCompositor.hpp"
+#include "TestFrames.hpp"
+
+static constexpr int64_t kPrimaryPeriodUs = 33333;
+static constexpr int64_t kSecondaryPeriodUs = 41667;
+
+/** Convert secondary in full, then nearest-sample and blend it into dst: the two-pass way. */
+static void NaiveInset(const YuvFrame& s, const ColorFilter& filter, const PipLayout& l,
+                       std::vector<uint32_t>& scratch, uint32_t* dst, int dstW, int dstH)
+{
+    scratch.resize(static_cast<size_t>(s.width) * s.height);
+    ConvertYuvToBgra(s, filter, scratch.data());
+    const int a = l.opacity, ia = 256 - l.opacity;
+    for (int y = std::max(l.y, 0); y < std::min(l.y + l.height, dstH); ++y) {
+        const uint32_t* src = scratch.data() + static_cast<size_t>((y - l.y) * s.height / l.height) * s.width;
+        uint32_t* d = dst + static_cast<size_t>(y) * dstW;
+        for (int x = std::max(l.x, 0); x < std::min(l.x + l.width, dstW); ++x) {
+            const uint32_t p = src[(x - l.x) * s.width / l.width];
+            const uint32_t q = d[x];
+            uint32_t out = 0xFF000000;
+            for (int shift = 0; shift < 24; shift += 8) {
+                const uint32_t c = (((p >> shift) & 0xFF) * a + ((q >> shift) & 0xFF) * ia + 128) >> 8;
+                out |= c << shift;
+            }
+            d[x] = out;
+        }
+    }
+}
+
+int main(int argc, char** argv)
+{
+    const int frames = argc > 1 ? std::atoi(argv[1]) : 90;
+    std::vector<I420Frame> primary, secondary;
+    if (argc > 7) {
+        primary = LoadI420Recording(argv[2], std::atoi(argv[3]), std::atoi(argv[4]), frames);
+        secondary = LoadI420Recording(argv[5], std::atoi(argv[6]), std::atoi(argv[7]), frames);
+        if (primary.empty() || secondary.empty()) {
+            std::fprintf(stderr, "cannot read the I420 recordings\n");
+            return 1;
+        }
+    } else {
+        primary = MakeSyntheticRecording(1920, 1080, 8, 10, 120, 24);
+        secondary = MakeSyntheticRecording(1280, 720, 6, 10, 80, 16, 3);
+    }
+    const int w = primary[0].width, h = primary[0].height;
+    const double mpixPerFrame = static_cast<double>(w) * h / 1e6;
+
+    static ChannelCurves primaryCurves, insetCurves;
+    BuildChannelCurves(3, primaryCurves);
+    BuildChannelCurves(11, insetCurves);
+    // The first bundled LUT the analyzer accepts stands in for the separable path
+    static SeparableCurves separable;
+    Lut33Ptr separableLut = kBundledLuts[0].lut;
+    for (const BundledLut& entry : kBundledLuts) {
+        if (AnalyzeLut(entry.lut, separable, kSeparableToleranceDeltaE).separable) {
+            separableLut = entry.lut;
+            break;
+        }
+    }
+    const ColorFilter primaryFilter = ColorFilter::FromChannelCurves(&primaryCurves);
+    const struct { const char* name; ColorFilter filter; } insetFilters[] = {
+            {"None", ColorFilter()},
+            {"ChannelCurves", ColorFilter::FromChannelCurves(&insetCurves)},
+            {"Separable", ColorFilter(separableLut, &separable)},
+            {"Lut3D", ColorFilter(kBundledLuts[0].lut)},
+    };
+
+    std::printf("primary %dx%d @30, secondary %dx%d @24, %d frames, primary on a tone curve\n",
+                w, h, secondary[0].width, secondary[0].height, frames);
+    std::printf("%-14s %14s %14s %14s   %s\n", "inset filter", "single", "naive", "composite", "fresh/held");
+
+    std::vector<uint32_t> out(static_cast<size_t>(w) * h), scratch;
+    PipPlacement placement;
+    for (const auto& inset : insetFilters) {
+        double singleMs = 0, naiveMs = 0, compositeMs = 0;
+        PipCompositor pip;
+        int nextSecondary = 0;
+        for (int n = 0; n < frames; ++n) {
+            const int64_t nowUs = n * kPrimaryPeriodUs;
+            while (static_cast<int64_t>(nextSecondary) * kSecondaryPeriodUs <= nowUs) {
+                pip.offerSecondary(secondary[nextSecondary % secondary.size()].view(),
+                                   nextSecondary * kSecondaryPeriodUs);
+                nextSecondary++;
+            }
+            const YuvFrame p = primary[n % primary.size()].view();
+            const YuvFrame s = secondary[(nextSecondary - 1) % secondary.size()].view();
+
+            auto t0 = std::chrono::steady_clock::now();
+            ConvertYuvToBgra(p, primaryFilter, out.data());
+            auto t1 = std::chrono::steady_clock::now();
+            singleMs += std::chrono::duration<double, std::milli>(t1 - t0).count();
+
+            t0 = std::chrono::steady_clock::now();
+            ConvertYuvToBgra(p, primaryFilter, out.data());
+            NaiveInset(s, inset.filter, PlaceInset(placement, w, h, s.width, s.height), scratch, out.data(), w, h);
+            t1 = std::chrono::steady_clock::now();
+            naiveMs += std::chrono::duration<double, std::milli>(t1 - t0).count();
+
+            t0 = std::chrono::steady_clock::now();
+            pip.compose(p, primaryFilter, inset.filter, placement, nowUs, out.data(), w);
+            t1 = std::chrono::steady_clock::now();
+            compositeMs += std::chrono::duration<double, std::milli>(t1 - t0).count();
+        }
+        auto mpix = [&](double ms) { return mpixPerFrame * frames / (ms / 1000.0); };
+        std::printf("%-14s %8.1f MP/s %8.1f MP/s %8.1f MP/s   %llu/%llu\n", inset.name, mpix(singleMs),
+                    mpix(naiveMs), mpix(compositeMs), (unsigned long long) pip.stats().fresh,
+                    (unsigned long long) pip.stats().held);
+    }
+    return 0;
+}
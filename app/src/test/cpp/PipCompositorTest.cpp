@@ -0,0 +1,182 @@
+// Picture-in-picture compositing: the primary is untouched outside the
+// inset, a 1:1 inset equals converting the secondary on its own, opacity,
+// flips, borders and clipping do what they say, a slower secondary is held
+// and a faster one coalesced, stale frames are dropped, and the triple buffer
+// never hands the compositor a half-written frame.
+#include <cstdio>
+#include <thread>
+#include <vector>
+
+#include "FilterRegistry.hpp"
+#include "PipCompositor.hpp"
+#include "TestFrames.hpp"
+
+static I420Frame Flat(int w, int h, uint8_t y, uint8_t u = 128, uint8_t v = 128)
+{
+    I420Frame f(w, h);
+    std::fill(f.y.begin(), f.y.end(), y);
+    std::fill(f.u.begin(), f.u.end(), u);
+    std::fill(f.v.begin(), f.v.end(), v);
+    return f;
+}
+
+static bool InRect(int x, int y, const PipLayout& l)
+{
+    return x >= l.x && x < l.x + l.width && y >= l.y && y < l.y + l.height;
+}
+
+int main()
+{
+    const int W = 320, H = 180;
+    const I420Frame primary = MakeSyntheticRecording(W, H, 1, 10, 0, 0)[0];
+    const ColorFilter none;
+    std::vector<uint32_t> alone(W * H), out(W * H);
+    ConvertYuvToBgra(primary.view(), none, alone.data());
+
+    // Nothing offered yet: the primary alone
+    {
+        PipCompositor pip;
+        EXPECT_TRUE(!pip.compose(primary.view(), none, none, PipPlacement(), 0, out.data(), W));
+        EXPECT_TRUE(out == alone && pip.stats().skipped == 1);
+    }
+
+    // Placement: secondary aspect, requested corner, margins
+    {
+        PipPlacement p;
+        p.sizePercent = 25;
+        p.marginPermille = 100;
+        const PipLayout br = PlaceInset(p, W, H, 160, 90);
+        EXPECT_TRUE(br.width == 80 && br.height == 45 && br.x == W - 18 - 80 && br.y == H - 18 - 45);
+        p.corner = 0;
+        const PipLayout tl = PlaceInset(p, W, H, 160, 90);
+        EXPECT_TRUE(tl.x == 18 && tl.y == 18);
+        // A portrait secondary is fitted to the height
+        p.sizePercent = 100;
+        const PipLayout tall = PlaceInset(p, W, H, 90, 160);
+        EXPECT_TRUE(tall.height == H - 36 && tall.width == tall.height * 90 / 160);
+    }
+
+    // 1:1 inset, opaque, no border: outside is the primary, inside is the secondary converted alone
+    const I420Frame secondary = MakeSyntheticRecording(96, 54, 1, 20, 12, 0, 99)[0];
+    std::vector<uint32_t> secondaryAlone(96 * 54);
+    static ChannelCurves curves;
+    BuildChannelCurves(1, curves);
+    const ColorFilter warm = ColorFilter::FromChannelCurves(&curves);
+    ConvertYuvToBgra(secondary.view(), warm, secondaryAlone.data());
+    PipPlacement oneToOne;
+    oneToOne.sizePercent = 30;      // 320 * 30% = 96
+    oneToOne.borderPermille = 0;
+    {
+        PipCompositor pip;
+        pip.offerSecondary(secondary.view(), 0);
+        EXPECT_TRUE(pip.compose(primary.view(), none, warm, oneToOne, 0, out.data(), W));
+        const PipLayout l = PlaceInset(oneToOne, W, H, 96, 54);
+        EXPECT_TRUE(l.width == 96 && l.height == 54);
+        bool outside = true, inside = true;
+        for (int y = 0; y < H; ++y)
+            for (int x = 0; x < W; ++x) {
+                const uint32_t p = out[y * W + x];
+                if (InRect(x, y, l)) inside &= p == secondaryAlone[(y - l.y) * 96 + (x - l.x)];
+                else outside &= p == alone[y * W + x];
+            }
+        EXPECT_TRUE(outside && inside);
+
+        // Rotated 180: the inset reads the secondary backwards in both directions
+        PipPlacement flipped = oneToOne;
+        flipped.flipX = flipped.flipY = true;
+        pip.compose(primary.view(), none, warm, flipped, 0, out.data(), W);
+        bool rotated = true;
+        for (int y = 0; y < l.height; ++y)
+            for (int x = 0; x < l.width; ++x)
+                rotated &= out[(l.y + y) * W + l.x + x] == secondaryAlone[(53 - y) * 96 + (95 - x)];
+        EXPECT_TRUE(rotated);
+    }
+
+    // Opacity blends with the primary; the border is drawn on top, opaque
+    {
+        PipCompositor pip;
+        const I420Frame white = Flat(64, 36, 235);
+        pip.offerSecondary(white.view(), 0);
+        PipPlacement half;
+        half.opacity = 128;
+        half.borderPermille = 20;   // 3 px at 180
+        half.borderColor = 0xFF0000FF;
+        pip.compose(primary.view(), none, none, half, 0, out.data(), W);
+        const PipLayout l = PlaceInset(half, W, H, 64, 36);
+        EXPECT_TRUE(l.border == 3);
+        const int cx = l.x + l.width / 2, cy = l.y + l.height / 2;
+        const uint32_t under = alone[cy * W + cx];
+        const uint32_t got = out[cy * W + cx];
+        bool blended = true;
+        for (int shift = 0; shift < 24; shift += 8) {
+            const int expected = (255 * 128 + static_cast<int>((under >> shift) & 0xFF) * 128 + 128) >> 8;
+            blended &= static_cast<int>((got >> shift) & 0xFF) == expected;
+        }
+        EXPECT_TRUE(blended);
+        EXPECT_TRUE(out[l.y * W + cx] == half.borderColor && out[(l.y + 2) * W + l.x + 2] == half.borderColor);
+        EXPECT_TRUE(out[(l.y + 3) * W + l.x + 3] != half.borderColor);
+        EXPECT_TRUE(out[(l.y - 1) * W + cx] == alone[(l.y - 1) * W + cx]);
+    }
+
+    // An inset hanging off the frame is clipped, not written out of bounds
+    {
+        PipCompositor pip;
+        const I420Frame grey = Flat(64, 36, 128);
+        pip.offerSecondary(grey.view(), 0);
+        PipPlacement off;
+        off.marginPermille = -200;
+        std::vector<uint32_t> guarded(W * H + 64, 0x12345678);
+        EXPECT_TRUE(pip.compose(primary.view(), none, none, off, 0, guarded.data(), W));
+        EXPECT_TRUE(guarded[W * H] == 0x12345678 && guarded.back() == 0x12345678);
+    }
+
+    // Rate mismatch: a slower secondary is held, a faster one coalesced, a stale one dropped
+    {
+        PipCompositor pip(100000);
+        const I420Frame dark = Flat(64, 36, 40), bright = Flat(64, 36, 200);
+        PipPlacement p;
+        p.borderPermille = 0;
+        const PipLayout l = PlaceInset(p, W, H, 64, 36);
+        const size_t probe = static_cast<size_t>(l.y + 5) * W + l.x + 5;
+
+        pip.offerSecondary(dark.view(), 0);
+        for (int i = 0; i < 3; ++i) pip.compose(primary.view(), none, none, p, i * 33000, out.data(), W);
+        EXPECT_TRUE(pip.stats().fresh == 1 && pip.stats().held == 2);
+        const uint32_t darkPixel = out[probe];
+
+        pip.offerSecondary(dark.view(), 100000);
+        pip.offerSecondary(bright.view(), 110000);
+        pip.compose(primary.view(), none, none, p, 120000, out.data(), W);
+        EXPECT_TRUE(out[probe] != darkPixel && pip.overwritten() == 1);
+
+        EXPECT_TRUE(!pip.compose(primary.view(), none, none, p, 300000, out.data(), W));
+        EXPECT_TRUE(out == alone && pip.stats().skipped == 1);
+    }
+
+    // Producer and consumer on their own threads: every inset is one whole frame
+    {
+        PipCompositor pip;
+        std::vector<I420Frame> levels;
+        for (int i = 0; i < 8; ++i) levels.push_back(Flat(64, 36, static_cast<uint8_t>(30 + 25 * i)));
+        PipPlacement p;
+        p.borderPermille = 0;
+        const PipLayout l = PlaceInset(p, W, H, 64, 36);
+        std::atomic<bool> stop{false};
+        std::thread producer([&] {
+            for (int i = 0; !stop.load(); ++i) pip.offerSecondary(levels[i % levels.size()].view(), 0);
+        });
+        bool whole = true;
+        for (int n = 0; n < 400; ++n) {
+            if (!pip.compose(primary.view(), none, none, p, 0, out.data(), W)) continue;   // producer not started
+            const uint32_t first = out[static_cast<size_t>(l.y) * W + l.x];
+            for (int y = l.y; y < l.y + l.height; ++y)
+                for (int x = l.x; x < l.x + l.width; ++x) whole &= out[static_cast<size_t>(y) * W + x] == first;
+        }
+        stop.store(true);
+        producer.join();
+        EXPECT_TRUE(whole && pip.stats().fresh > 1);
+    }
+
+    std::printf("pip_compositor_test: OK\n");
+    return 0;
+}
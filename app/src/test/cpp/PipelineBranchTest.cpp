@@ -0,0 +1,105 @@
+// Checks for the dual-rate pipeline helpers: decimated views, pacing and
+// owned frame copies.
+#include <cstdio>
+#include <thread>
+
+#include "PipelineBranch.hpp"
+#include "TestFrames.hpp"
+
+int main()
+{
+    const I420Frame src = MakeSyntheticRecording(640, 360, 1, 3, 32, 0)[0];
+    const YuvFrame full = src.view();
+
+    // A decimated view must equal sampling the full-resolution conversion.
+    std::vector<uint32_t> fullBgra(static_cast<size_t>(full.width) * full.height);
+    ConvertYuvToBgra(full, nullptr, fullBgra.data());
+    for (int k : {1, 2, 4}) {
+        const YuvFrame view = SubsampledView(full, k);
+        EXPECT_TRUE(view.width == 640 / k && view.height == 360 / k);
+
+        std::vector<uint32_t> got(static_cast<size_t>(view.width) * view.height);
+        ConvertYuvToBgra(view, nullptr, got.data());
+        for (int y = 0; y < view.height; ++y) {
+            for (int x = 0; x < view.width; ++x) {
+                EXPECT_TRUE(got[static_cast<size_t>(y) * view.width + x] ==
+                            fullBgra[static_cast<size_t>(y * k) * full.width + x * k]);
+            }
+        }
+    }
+
+    EXPECT_TRUE(ChoosePreviewDecimation(1920, 1080, 1080, 1920) == 1);
+    EXPECT_TRUE(ChoosePreviewDecimation(1920, 1080, 720, 1280) == 2);
+    EXPECT_TRUE(ChoosePreviewDecimation(3840, 2160, 540, 960) == 4);
+
+    // 60 fps camera paced to 30 fps output keeps every other frame, tolerating jitter.
+    FramePacer pacer;
+    pacer.targetFps = 30;
+    int kept = 0;
+    for (int i = 0; i < 120; ++i) {
+        const int64_t jitter = (i % 3) * 700;
+        if (pacer.accept(i * 16667LL + jitter)) kept++;
+    }
+    EXPECT_TRUE(kept >= 58 && kept <= 62);
+
+    // Owned copies survive the source buffer and reuse capacity.
+    OwnedYuvFrame owned;
+    owned.copyFrom(full, 42);
+    const uint8_t* firstY = owned.y.data();
+    owned.copyFrom(full, 43);
+    EXPECT_TRUE(owned.y.data() == firstY);
+    EXPECT_TRUE(owned.frame.y[1234] == src.y[1234] && owned.timestampUs == 43 &&
+                owned.presentationUs == 43);
+
+    // SPSC queue: bounded, FIFO, and safe across one producer and one consumer thread.
+    SpscQueue<int, 4> q;
+    EXPECT_TRUE(q.beginRead() == nullptr);
+    for (int i = 0; i < 4; ++i) {
+        int* slot = q.beginWrite();
+        EXPECT_TRUE(slot != nullptr);
+        *slot = i;
+        q.commitWrite();
+    }
+    EXPECT_TRUE(q.beginWrite() == nullptr && q.size() == 4);
+    EXPECT_TRUE(*q.beginRead() == 0);
+    q.commitRead();
+    EXPECT_TRUE(q.beginWrite() != nullptr);
+    while (q.beginRead()) q.commitRead();
+
+    const int kItems = 200000;
+    SpscQueue<int, 8> tq;
+    std::thread producer([&] {
+        for (int i = 0; i < kItems;) {
+            int* slot = tq.beginWrite();
+            if (!slot) { std::this_thread::yield(); continue; }
+            *slot = i++;
+            tq.commitWrite();
+        }
+    });
+    int expected = 0;
+    bool ordered = true;
+    while (expected < kItems) {
+        const int* slot = tq.beginRead();
+        if (!slot) { std::this_thread::yield(); continue; }
+        ordered &= *slot == expected++;
+        tq.commitRead();
+    }
+    producer.join();
+    EXPECT_TRUE(ordered && tq.size() == 0);
+
+    // NV12 packing honours stride / slice height and leaves the padding alone.
+    const int w = 4, h = 2, stride = 8, slice = 4;
+    const uint32_t red = 0xFF0000FF, white = 0xFFFFFFFF;   // memory order R,G,B,A
+    const uint32_t px[w * h] = {red, red, white, white, red, red, white, white};
+    std::vector<uint8_t> nv12(static_cast<size_t>(stride) * slice * 3 / 2, 0xEE);
+    BgraToNv12(px, w, h, nv12.data(), stride, slice);
+    EXPECT_TRUE(nv12[0] == 82 && nv12[2] == 235 && nv12[stride] == 82);
+    EXPECT_TRUE(nv12[4] == 0xEE && nv12[static_cast<size_t>(2) * stride] == 0xEE);
+    const uint8_t* uv = nv12.data() + static_cast<size_t>(stride) * slice;
+    EXPECT_TRUE(uv[0] == 90 && uv[1] == 240);      // red: U low, V high
+    EXPECT_TRUE(uv[2] == 128 && uv[3] == 128);     // white: neutral chroma
+    EXPECT_TRUE(uv[stride] == 0xEE);
+
+    std::printf("pipeline_branch_test: OK\n");
+    return 0;
+}
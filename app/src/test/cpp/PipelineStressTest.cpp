@@ -0,0 +1,166 @@
+// Pipeline contexts: N pipelines with different filters, rotations, sizes
+// and static-scene settings replay the same recording at once, each on its
+// own thread, while another thread keeps touching their settings and stats.
+// Every pipeline must present exactly what it presents when run alone, so
+// no state leaks between instances. Also prints the concurrent wall time
+// against running the same pipelines one after another.
+//
+// Usage: pipeline_stress_test [pipelines [passes]]
+#include <atomic>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <memory>
+#include <thread>
+#include <vector>
+
+#include "FilterRegistry.hpp"
+#include "Pipeline.hpp"
+#include "TestFrames.hpp"
+
+/** Keeps one hash per presented frame. */
+class HashSink : public FrameSink {
+public:
+    void present(const uint32_t* pixels, int width, int height) override
+    {
+        uint64_t h = 1469598103934665603ull ^ (static_cast<uint64_t>(width) << 32 | static_cast<uint32_t>(height));
+        for (size_t i = 0, n = static_cast<size_t>(width) * height; i < n; ++i) h = (h ^ pixels[i]) * 1099511628211ull;
+        hashes.push_back(h);
+    }
+    std::vector<uint64_t> hashes;
+};
+
+struct Config {
+    ColorFilter filter;
+    int degrees;
+    int maxW, maxH;
+    bool staticScene;
+};
+
+static void Configure(Pipeline& p, const Config& c)
+{
+    p.setFilter(c.filter);
+    p.setRotation(c.degrees);
+    p.setMaxSize(c.maxW, c.maxH);
+    p.setStaticScene(c.staticScene, 4);
+}
+
+static void Replay(Pipeline& p, const std::vector<I420Frame>& frames, int passes)
+{
+    for (int pass = 0; pass < passes; ++pass)
+        for (const I420Frame& f : frames) {
+            p.takeCaptureRequest();     // the camera thread polls this every frame
+            p.process(f.view());
+        }
+}
+
+static double ElapsedMs(std::chrono::steady_clock::time_point t0)
+{
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+}
+
+int main(int argc, char** argv)
+{
+    const int count = argc > 1 ? std::atoi(argv[1]) : 6;
+    const int passes = argc > 2 ? std::atoi(argv[2]) : 2;
+    const std::vector<I420Frame> frames = MakeSyntheticRecording(640, 360, 24, 3, 48, 6);
+
+    ChannelCurves curves;
+    BuildChannelCurves(3, curves);
+    std::vector<Config> configs;
+    for (int i = 0; i < count; ++i) {
+        Config c;
+        switch (i % 3) {
+            case 0:  c.filter = ColorFilter(kBundledLuts[i % (sizeof(kBundledLuts) / sizeof(kBundledLuts[0]))].lut); break;
+            case 1:  c.filter = ColorFilter::FromChannelCurves(&curves); break;
+            default: c.filter = ColorFilter(); break;
+        }
+        c.degrees = (i * 90) % 360;
+        c.maxW = i % 2 ? 320 : 640;
+        c.maxH = i % 2 ? 180 : 360;
+        c.staticScene = i % 4 == 1;
+        configs.push_back(c);
+    }
+
+    // Each pipeline alone, one after another: the reference output
+    std::vector<std::vector<uint64_t>> reference(count);
+    const auto serialStart = std::chrono::steady_clock::now();
+    for (int i = 0; i < count; ++i) {
+        Pipeline p;
+        Configure(p, configs[i]);
+        auto sink = std::make_shared<HashSink>();
+        p.setSink(sink);
+        Replay(p, frames, passes);
+        reference[i] = sink->hashes;
+    }
+    const double serialMs = ElapsedMs(serialStart);
+
+    // All at once, one thread each, settings and stats touched from another thread meanwhile
+    std::vector<std::unique_ptr<Pipeline>> pipelines;
+    std::vector<std::shared_ptr<HashSink>> sinks;
+    for (int i = 0; i < count; ++i) {
+        pipelines.emplace_back(new Pipeline());
+        Configure(*pipelines[i], configs[i]);
+        sinks.push_back(std::make_shared<HashSink>());
+        pipelines[i]->setSink(sinks[i]);
+    }
+    std::atomic<bool> done{false};
+    std::thread controller([&] {
+        uint64_t polls = 0;
+        while (!done.load()) {
+            for (int i = 0; i < count; ++i) {
+                Pipeline& p = *pipelines[i];
+                // Same values again: the output must not change
+                p.setFilter(configs[i].filter);
+                p.setRotation(configs[i].degrees);
+                p.setMaxSize(configs[i].maxW, configs[i].maxH);
+                p.requestCapture();
+                polls += p.stats().preview.frames;
+                (void) p.hasSink();
+            }
+            std::this_thread::yield();
+        }
+        std::printf("controller: %llu frames seen in stats\n", static_cast<unsigned long long>(polls));
+    });
+    const auto concurrentStart = std::chrono::steady_clock::now();
+    std::vector<std::thread> workers;
+    for (int i = 0; i < count; ++i) workers.emplace_back([&, i] { Replay(*pipelines[i], frames, passes); });
+    for (std::thread& t : workers) t.join();
+    const double concurrentMs = ElapsedMs(concurrentStart);
+    done.store(true);
+    controller.join();
+
+    const size_t expected = frames.size() * passes;
+    for (int i = 0; i < count; ++i) {
+        EXPECT_TRUE(sinks[i]->hashes.size() == expected);
+        EXPECT_TRUE(sinks[i]->hashes == reference[i]);
+        const PipelineStats s = pipelines[i]->stats();
+        EXPECT_TRUE(s.preview.frames == expected);
+        const int w = 640 / s.decimation, h = 360 / s.decimation;
+        const bool swap = configs[i].degrees == 90 || configs[i].degrees == 270;
+        EXPECT_TRUE(s.outputWidth == (swap ? h : w) && s.outputHeight == (swap ? w : h));
+        EXPECT_TRUE(configs[i].staticScene == (s.staticScene.frames == expected));
+    }
+
+    // The presented frame is the plain conversion, rotated
+    {
+        Pipeline p;
+        p.setFilter(ColorFilter(&Amy));
+        p.setRotation(90);
+        p.setMaxSize(640, 360);
+        const YuvFrame f = frames[5].view();
+        p.process(f);
+        std::vector<uint32_t> plain(static_cast<size_t>(f.width) * f.height), rotated(plain.size()), out(plain.size());
+        ConvertYuvToBgra(f, ColorFilter(&Amy), plain.data());
+        RotateARGB90(plain.data(), rotated.data(), f.width, f.height);
+        EXPECT_TRUE(p.readOutput(out.data(), out.size()));
+        EXPECT_TRUE(out == rotated);
+        EXPECT_TRUE(!p.readOutput(out.data(), out.size() - 1));
+        EXPECT_TRUE(!p.hasSink());
+    }
+
+    std::printf("%d pipelines x %zu frames: %.1f ms concurrent vs %.1f ms one after another (%u hardware threads)\n",
+                count, expected, concurrentMs, serialMs, std::thread::hardware_concurrency());
+    std::printf("pipeline_stress_test: OK\n");
+    return 0;
+}
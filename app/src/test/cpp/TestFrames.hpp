@@ -0,0 +1,172 @@
+// Frame sources shared by the host tests and benchmarks.
+//
+// Frames are stored as planar I420 (pixel stride 1), which is one of the
+// layouts ImageReader hands us for YUV_420_888. A "recording" is either a
+// raw .yuv dump (concatenated I420 frames, e.g. from `ffmpeg -pix_fmt yuv420p`)
+// or a deterministic synthetic sequence when no dump is supplied.
+#pragma once
+
+#include <cstdint>
+#include <cstdio>
+#include <cstdlib>
+#include <string>
+#include <vector>
+
+#include "FrameConvert.hpp"
+
+struct I420Frame {
+    int width = 0;
+    int height = 0;
+    std::vector<uint8_t> y, u, v;
+
+    I420Frame() = default;
+    I420Frame(int w, int h)
+            : width(w), height(h),
+              y(static_cast<size_t>(w) * h),
+              u(static_cast<size_t>(w / 2) * (h / 2)),
+              v(static_cast<size_t>(w / 2) * (h / 2)) {}
+
+    YuvFrame view() const {
+        YuvFrame f;
+        f.y = y.data(); f.u = u.data(); f.v = v.data();
+        f.yRowStride = width;
+        f.uRowStride = f.vRowStride = width / 2;
+        f.uPixelStride = f.vPixelStride = 1;
+        f.width = width;
+        f.height = height;
+        return f;
+    }
+};
+
+// Small deterministic PRNG so test runs are reproducible across platforms.
+struct TestRng {
+    uint32_t s;
+    explicit TestRng(uint32_t seed) : s(seed ? seed : 1u) {}
+    uint32_t next() { s ^= s << 13; s ^= s >> 17; s ^= s << 5; return s; }
+    int range(int lo, int hi) { return lo + static_cast<int>(next() % static_cast<uint32_t>(hi - lo + 1)); }
+};
+
+/**
+ * Static textured background with +-noise sensor noise and, when
+ * moverSize > 0, a bright square moving moverSpeed px/frame to the right.
+ */
+static inline std::vector<I420Frame> MakeSyntheticRecording(
+        int w, int h, int frames, int noise, int moverSize, int moverSpeed, uint32_t seed = 7)
+{
+    std::vector<I420Frame> out;
+    TestRng rng(seed);
+    for (int n = 0; n < frames; ++n) {
+        I420Frame f(w, h);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                int base = 40 + ((x * 3 + y * 5) % 160);
+                int val = base + (noise ? rng.range(-noise, noise) : 0);
+                const int mx = (n * moverSpeed) % w;
+                if (moverSize > 0 && x >= mx && x < mx + moverSize &&
+                    y >= h / 3 && y < h / 3 + moverSize) {
+                    val = 235;
+                }
+                f.y[static_cast<size_t>(y) * w + x] = static_cast<uint8_t>(std::clamp(val, 0, 255));
+            }
+        }
+        for (int y = 0; y < h / 2; ++y) {
+            for (int x = 0; x < w / 2; ++x) {
+                f.u[static_cast<size_t>(y) * (w / 2) + x] = static_cast<uint8_t>(96 + (x % 64));
+                f.v[static_cast<size_t>(y) * (w / 2) + x] = static_cast<uint8_t>(160 - (y % 64));
+            }
+        }
+        out.push_back(std::move(f));
+    }
+    return out;
+}
+
+/** Load up to maxFrames I420 frames from a raw dump; empty on failure. */
+static inline std::vector<I420Frame> LoadI420Recording(const std::string& path, int w, int h, int maxFrames)
+{
+    std::vector<I420Frame> out;
+    FILE* fp = std::fopen(path.c_str(), "rb");
+    if (!fp) return out;
+    while (static_cast<int>(out.size()) < maxFrames) {
+        I420Frame f(w, h);
+        if (std::fread(f.y.data(), 1, f.y.size(), fp) != f.y.size() ||
+            std::fread(f.u.data(), 1, f.u.size(), fp) != f.u.size() ||
+            std::fread(f.v.data(), 1, f.v.size(), fp) != f.v.size()) {
+            break;
+        }
+        out.push_back(std::move(f));
+    }
+    std::fclose(fp);
+    return out;
+}
+
+/**
+ * P010 frame (YCBCR_P010): 16-bit little-endian samples with 10 significant
+ * bits at the top, full-size luma plane plus one interleaved U/V plane.
+ */
+struct P010Frame {
+    int width = 0;
+    int height = 0;
+    std::vector<uint16_t> y, uv;
+
+    P010Frame() = default;
+    P010Frame(int w, int h)
+            : width(w), height(h),
+              y(static_cast<size_t>(w) * h),
+              uv(static_cast<size_t>(w) * (h / 2)) {}
+
+    YuvFrame view() const {
+        YuvFrame f;
+        const uint8_t* uvBytes = reinterpret_cast<const uint8_t*>(uv.data());
+        f.y = reinterpret_cast<const uint8_t*>(y.data());
+        f.u = uvBytes;
+        f.v = uvBytes + 2;
+        f.yRowStride = width * 2;
+        f.uRowStride = f.vRowStride = width * 2;
+        f.yPixelStride = 2;
+        f.uPixelStride = f.vPixelStride = 4;
+        f.sampleBytes = 2;
+        f.width = width;
+        f.height = height;
+        return f;
+    }
+};
+
+/** Widen an 8-bit frame to P010; the two extra bits come from the noise-free position. */
+static inline P010Frame ToP010(const I420Frame& src)
+{
+    P010Frame f(src.width, src.height);
+    for (size_t i = 0; i < src.y.size(); ++i) {
+        f.y[i] = static_cast<uint16_t>(((src.y[i] << 2) | (i & 3)) << 6);
+    }
+    const int cw = src.width / 2;
+    for (int y = 0; y < src.height / 2; ++y) {
+        for (int x = 0; x < cw; ++x) {
+            const size_t c = static_cast<size_t>(y) * cw + x;
+            f.uv[static_cast<size_t>(y) * src.width + 2 * x] = static_cast<uint16_t>(src.u[c] << 8);
+            f.uv[static_cast<size_t>(y) * src.width + 2 * x + 1] = static_cast<uint16_t>(src.v[c] << 8);
+        }
+    }
+    return f;
+}
+
+/** Load up to maxFrames P010 frames from a raw dump (`ffmpeg -pix_fmt p010le`); empty on failure. */
+static inline std::vector<P010Frame> LoadP010Recording(const std::string& path, int w, int h, int maxFrames)
+{
+    std::vector<P010Frame> out;
+    FILE* fp = std::fopen(path.c_str(), "rb");
+    if (!fp) return out;
+    while (static_cast<int>(out.size()) < maxFrames) {
+        P010Frame f(w, h);
+        if (std::fread(f.y.data(), 2, f.y.size(), fp) != f.y.size() ||
+            std::fread(f.uv.data(), 2, f.uv.size(), fp) != f.uv.size()) {
+            break;
+        }
+        out.push_back(std::move(f));
+    }
+    std::fclose(fp);
+    return out;
+}
+
+#define EXPECT_TRUE(cond) do { \
+        if (!(cond)) { std::fprintf(stderr, "%s:%d: expectation failed: %s\n", __FILE__, __LINE__, #cond); \
+                       std::exit(1); } } while (0)
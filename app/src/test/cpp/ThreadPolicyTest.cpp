@@ -0,0 +1,164 @@
+// Thread scheduling policy: the policy table, core classification from
+// capacity scores, parsing of the kernel's per-thread counters, and the
+// registry applying affinity to registered threads (including one other than
+// the caller), sampling, and unregistering.
+#include <chrono>
+#include <condition_variable>
+#include <cstdio>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+#include "ThreadPolicy.hpp"
+#include "TestFrames.hpp"
+
+static uint64_t AffinityOf(pid_t tid)
+{
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    if (sched_getaffinity(tid, sizeof(set), &set) != 0) return 0;
+    uint64_t mask = 0;
+    for (int cpu = 0; cpu < 64; ++cpu) {
+        if (CPU_ISSET(cpu, &set)) mask |= 1ull << cpu;
+    }
+    return mask;
+}
+
+static void Spin(std::chrono::milliseconds d)
+{
+    const auto end = std::chrono::steady_clock::now() + d;
+    volatile uint64_t x = 0;
+    while (std::chrono::steady_clock::now() < end) x = x + 1;
+}
+
+int main()
+{
+    // Policy table
+    {
+        EXPECT_TRUE(ScheduleFor(kPolicySystem, kRoleCamera).nice == 0);
+        EXPECT_TRUE(ScheduleFor(kPolicySystem, kRoleCamera).cores == kAnyCore);
+        EXPECT_TRUE(ScheduleFor(kPolicyPriority, kRoleRecord).nice < 0);
+        EXPECT_TRUE(ScheduleFor(kPolicyPriority, kRoleRecord).cores == kAnyCore);
+        EXPECT_TRUE(ScheduleFor(kPolicyPriority, kRoleAudio).nice < ScheduleFor(kPolicyPriority, kRoleCamera).nice);
+        EXPECT_TRUE(ScheduleFor(kPolicyPriority, kRoleBackground).nice > 0);
+        EXPECT_TRUE(ScheduleFor(kPolicyBigCores, kRoleCamera).cores == kPerformanceCores);
+        EXPECT_TRUE(ScheduleFor(kPolicyBigCores, kRoleRecord).cores == kPerformanceCores);
+        EXPECT_TRUE(ScheduleFor(kPolicyBigCores, kRoleBackground).cores == kEfficiencyCores);
+        EXPECT_TRUE(ScheduleFor(kPolicyBigCores, kRoleAudio).cores == kAnyCore);
+        EXPECT_TRUE(ScheduleFor(kPolicyLittleCores, kRoleRecord).cores == kEfficiencyCores);
+        EXPECT_TRUE(ScheduleFor(kPolicyBigCores, 99).nice == 0);
+    }
+
+    // Core classification: 4 little + 3 mid + 1 prime, with a missing CPU
+    {
+        const CpuTopology t = ClassifyCores({160, 160, 160, 160, 512, 512, 0, 1024});
+        EXPECT_TRUE(t.all == 0xBF);
+        EXPECT_TRUE(t.efficiency == 0x0F);
+        EXPECT_TRUE(t.performance == 0xB0);
+        EXPECT_TRUE(t.mask(kAnyCore) == t.all && t.mask(kPerformanceCores) == t.performance);
+
+        // Homogeneous: every set is every core, so pinning changes nothing
+        const CpuTopology same = ClassifyCores({1000, 1000, 1000, 1000});
+        EXPECT_TRUE(same.all == 0xF && same.performance == 0xF && same.efficiency == 0xF);
+    }
+
+    // Kernel counters
+    {
+        EXPECT_TRUE(ParseSchedstatRuntimeNs("123456789 2000 17\n") == 123456789);
+        EXPECT_TRUE(ParseSchedstatRuntimeNs("") == -1);
+        const char* sched =
+                "RecordWorker (1234, #threads: 30)\n"
+                "-------------------------------------------------------------------\n"
+                "se.exec_start                                :      81624.123456\n"
+                "se.nr_migrations                             :                  42\n"
+                "nr_switches                                  :                 900\n";
+        EXPECT_TRUE(ParseSchedMigrations(sched) == 42);
+        EXPECT_TRUE(ParseSchedMigrations("nr_switches : 3\n") == -1);
+    }
+
+    // Registry on this machine: a worker registered under the big-core role is
+    // re-pinned from the caller when the policy changes
+    {
+        const CpuTopology host = ReadCpuTopology();
+        EXPECT_TRUE(host.all != 0);
+        const uint64_t allowed = AffinityOf(0);
+        // Pretend the allowed CPUs split into two clusters so pinning is observable
+        std::vector<long> score;
+        for (int cpu = 0; cpu < 64; ++cpu) score.push_back(allowed >> cpu & 1 ? 1 : 0);
+        int seen = 0;
+        for (int cpu = 0; cpu < 64 && seen < 2; ++cpu) {
+            if (allowed >> cpu & 1) score[cpu] = ++seen == 1 ? 1 : 2;
+        }
+        const CpuTopology topology = ClassifyCores(score);
+        ThreadPolicyRegistry registry(topology);
+
+        std::mutex m;
+        std::condition_variable cv;
+        pid_t workerTid = 0;
+        bool stop = false;
+        std::thread worker([&] {
+            registry.registerCurrentThread(kRoleRecord, "RecordWorker");
+            {
+                std::lock_guard<std::mutex> lock(m);
+                workerTid = CurrentTid();
+            }
+            cv.notify_all();
+            for (;;) {
+                registry.sample();
+                Spin(std::chrono::milliseconds(2));
+                std::lock_guard<std::mutex> lock(m);
+                if (stop) break;
+            }
+            registry.unregisterCurrentThread();
+        });
+        {
+            std::unique_lock<std::mutex> lock(m);
+            cv.wait(lock, [&] { return workerTid != 0; });
+        }
+        char name[16] = {};
+        pthread_getname_np(worker.native_handle(), name, sizeof(name));
+        EXPECT_TRUE(std::string(name) == "RecordWorker");
+        EXPECT_TRUE(AffinityOf(workerTid) == allowed);       // system policy: untouched
+
+        registry.setPolicy(kPolicyBigCores);
+        EXPECT_TRUE(registry.policy() == kPolicyBigCores);
+        EXPECT_TRUE(AffinityOf(workerTid) == topology.performance);
+        Spin(std::chrono::milliseconds(1));
+        std::this_thread::sleep_for(std::chrono::milliseconds(50));
+
+        std::vector<ThreadStats> stats = registry.stats();
+        EXPECT_TRUE(stats.size() == 1);
+        EXPECT_TRUE(stats[0].role == kRoleRecord && stats[0].tid == workerTid);
+        EXPECT_TRUE(std::string(stats[0].name) == "RecordWorker");
+        EXPECT_TRUE(stats[0].cpuNs > 0);
+        EXPECT_TRUE(stats[0].samples > 0);
+        // A negative nice may be refused without privileges; affinity never is
+        EXPECT_TRUE(stats[0].applyErrors <= 1);
+
+        registry.setPolicy(kPolicyLittleCores);
+        EXPECT_TRUE(AffinityOf(workerTid) == topology.efficiency);
+        registry.resetSamples();
+        std::this_thread::sleep_for(std::chrono::milliseconds(30));
+        stats = registry.stats();
+        // Sampled after the move: every sample is on an efficiency core
+        EXPECT_TRUE(stats[0].samples > 0 && stats[0].samplesOnPerformance == 0);
+        const int64_t cpuBefore = stats[0].cpuNs;
+        std::this_thread::sleep_for(std::chrono::milliseconds(30));
+        EXPECT_TRUE(registry.stats()[0].cpuNs >= cpuBefore);
+
+        registry.setPolicy(kPolicySystem);
+        EXPECT_TRUE(AffinityOf(workerTid) == topology.all);
+        registry.setPolicy(99);                              // ignored
+        EXPECT_TRUE(registry.policy() == kPolicySystem);
+
+        {
+            std::lock_guard<std::mutex> lock(m);
+            stop = true;
+        }
+        worker.join();
+        EXPECT_TRUE(registry.stats().empty());
+    }
+
+    std::printf("ThreadPolicyTest: OK\n");
+    return 0;
+}
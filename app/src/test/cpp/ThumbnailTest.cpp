@@ -0,0 +1,53 @@
+// Thumbnail side output: sizes, rotation/mirror matching the photo path
+// (mirror, then rotate clockwise), and box-filter averaging.
+#include <cstdio>
+#include <vector>
+
+#include "Thumbnail.hpp"
+#include "TestFrames.hpp"
+
+static uint32_t Px(int r, int g, int b) { return 0xFF000000u | (b << 16) | (g << 8) | r; }
+
+int main()
+{
+    int tw, th;
+    ThumbnailSize(1920, 1080, 0, 160, tw, th);
+    EXPECT_TRUE(tw == 160 && th == 90);
+    ThumbnailSize(1920, 1080, 90, 160, tw, th);
+    EXPECT_TRUE(tw == 90 && th == 160);
+    ThumbnailSize(100, 50, 0, 160, tw, th);
+    EXPECT_TRUE(tw == 100 && th == 50);
+
+    // 4x2 source: left half red, right half blue, top row brighter than bottom
+    const int w = 4, h = 2;
+    std::vector<uint32_t> src(w * h);
+    for (int y = 0; y < h; ++y)
+        for (int x = 0; x < w; ++x)
+            src[y * w + x] = x < 2 ? Px(200 - 100 * y, 0, 0) : Px(0, 0, 200 - 100 * y);
+
+    // Box average 4x2 -> 2x1: each output averages a 2x2 block
+    std::vector<uint32_t> dst(2);
+    MakeThumbnail(src.data(), w, h, 0, false, dst.data(), 2, 1, 2);
+    EXPECT_TRUE(dst[0] == Px(150, 0, 0) && dst[1] == Px(0, 0, 150));
+
+    // Full-size transforms must agree with a direct per-pixel rotation
+    for (int degrees : {0, 90, 180, 270}) {
+        for (bool mirror : {false, true}) {
+            ThumbnailSize(w, h, degrees, 160, tw, th);
+            std::vector<uint32_t> out(tw * th);
+            MakeThumbnail(src.data(), w, h, degrees, mirror, out.data(), tw, th, tw);
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    const int mx = mirror ? w - 1 - x : x;
+                    int ox = mx, oy = y;   // clockwise rotation of (mx, y)
+                    if (degrees == 90)  { ox = h - 1 - y; oy = mx; }
+                    if (degrees == 180) { ox = w - 1 - mx; oy = h - 1 - y; }
+                    if (degrees == 270) { ox = y; oy = w - 1 - mx; }
+                    EXPECT_TRUE(out[oy * tw + ox] == src[y * w + x]);
+                }
+            }
+        }
+    }
+    std::printf("thumbnail_test: OK\n");
+    return 0;
+}
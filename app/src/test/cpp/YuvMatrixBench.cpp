@@ -0,0 +1,103 @@
+// Throughput of the table-driven YUV <-> RGB kernels against the fixed
+// BT.601 arithmetic they replaced, both directions, unfiltered; plus the
+// table kernels on a BT.709 full-range stream to show the matrix is free.
+//
+// Usage: yuv_matrix_bench [width height iterations]
+#include <chrono>
+#include <cstdio>
+
+#include "FrameConvert.hpp"
+#include "TestFrames.hpp"
+
+template <typename Fn>
+static double TimeMs(Fn fn)
+{
+    const auto t0 = std::chrono::steady_clock::now();
+    fn();
+    return std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - t0).count();
+}
+
+// The kernels as they were before colour spaces were tracked
+static void ArithmeticYuvToBgra(const YuvFrame& f, uint32_t* dst)
+{
+    for (int y = 0; y < f.height; y++) {
+        const uint8_t* yRow = f.y + static_cast<size_t>(y) * f.yRowStride;
+        const uint8_t* uRow = f.u + static_cast<size_t>(y >> 1) * f.uRowStride;
+        const uint8_t* vRow = f.v + static_cast<size_t>(y >> 1) * f.vRowStride;
+        uint32_t* dRow = dst + static_cast<size_t>(y) * f.width;
+        for (int x = 0; x < f.width; x++) {
+            const int C = yRow[x] - 16;
+            const int D = uRow[(x >> 1) * f.uPixelStride] - 128;
+            const int E = vRow[(x >> 1) * f.vPixelStride] - 128;
+            const int R = std::clamp((298 * C + 409 * E + 128) >> 8, 0, 255);
+            const int G = std::clamp((298 * C - 100 * D - 208 * E + 128) >> 8, 0, 255);
+            const int B = std::clamp((298 * C + 516 * D + 128) >> 8, 0, 255);
+            dRow[x] = 0xFF000000 | (static_cast<uint32_t>(B) << 16) | (static_cast<uint32_t>(G) << 8) |
+                      static_cast<uint32_t>(R);
+        }
+    }
+}
+
+static void ArithmeticBgraToNv12(const uint32_t* src, int width, int height, uint8_t* dst)
+{
+    uint8_t* uvPlane = dst + static_cast<size_t>(width) * height;
+    for (int y = 0; y < height; ++y) {
+        const uint32_t* row = src + static_cast<size_t>(y) * width;
+        uint8_t* yRow = dst + static_cast<size_t>(y) * width;
+        uint8_t* uvRow = uvPlane + static_cast<size_t>(y >> 1) * width;
+        for (int x = 0; x < width; ++x) {
+            const uint32_t p = row[x];
+            const int r = p & 0xFF, g = (p >> 8) & 0xFF, b = (p >> 16) & 0xFF;
+            yRow[x] = static_cast<uint8_t>(std::clamp(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16, 0, 255));
+            if (((x | y) & 1) == 0 && x + 1 < width) {
+                uvRow[x]     = static_cast<uint8_t>(std::clamp(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128, 0, 255));
+                uvRow[x + 1] = static_cast<uint8_t>(std::clamp(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128, 0, 255));
+            }
+        }
+    }
+}
+
+int main(int argc, char** argv)
+{
+    const int w = argc > 2 ? std::atoi(argv[1]) : 1280;
+    const int h = argc > 2 ? std::atoi(argv[2]) : 720;
+    const int iterations = argc > 3 ? std::atoi(argv[3]) : 20;
+    const I420Frame frame = MakeSyntheticRecording(w, h, 1, 20, 0, 0)[0];
+    const size_t pixels = static_cast<size_t>(w) * h;
+    const YuvColorSpace hd{kColorStandardBt709, kColorRangeFull};
+
+    const YuvFrame legacy = frame.view();
+    YuvFrame tagged = frame.view();
+    tagged.matrix = &YuvToRgbTableFor(hd);
+    const ColorFilter none;
+    std::vector<uint32_t> bgra(pixels), check(pixels);
+    std::vector<uint8_t> nv12(pixels * 3 / 2), nv12Check(pixels * 3 / 2);
+
+    ArithmeticYuvToBgra(legacy, check.data());
+    ConvertYuvToBgra(legacy, none, bgra.data());
+    ArithmeticBgraToNv12(check.data(), w, h, nv12Check.data());
+    BgraToNv12(check.data(), w, h, nv12.data(), w, h);
+    if (bgra != check || nv12 != nv12Check) {
+        std::fprintf(stderr, "table kernels differ from the arithmetic ones\n");
+        return 1;
+    }
+
+    // Interleaved, best of each: single runs are too noisy to compare
+    double toRgbArith = 1e9, toRgbTable = 1e9, toRgbHd = 1e9;
+    double toYuvArith = 1e9, toYuvTable = 1e9, toYuvHd = 1e9;
+    for (int i = 0; i < iterations; ++i) {
+        toRgbArith = std::min(toRgbArith, TimeMs([&] { ArithmeticYuvToBgra(legacy, bgra.data()); }));
+        toRgbTable = std::min(toRgbTable, TimeMs([&] { ConvertYuvToBgra(legacy, none, bgra.data()); }));
+        toRgbHd = std::min(toRgbHd, TimeMs([&] { ConvertYuvToBgra(tagged, none, bgra.data()); }));
+        toYuvArith = std::min(toYuvArith, TimeMs([&] { ArithmeticBgraToNv12(check.data(), w, h, nv12.data()); }));
+        toYuvTable = std::min(toYuvTable, TimeMs([&] { BgraToNv12(check.data(), w, h, nv12.data(), w, h); }));
+        toYuvHd = std::min(toYuvHd, TimeMs([&] {
+            BgraToNv12(check.data(), w, h, nv12.data(), w, h, RgbToYuvTableFor(hd));
+        }));
+    }
+    std::printf("%dx%d, best of %d\n", w, h, iterations);
+    std::printf("%-12s %14s %14s %14s\n", "", "arith BT.601", "table BT.601", "table BT.709F");
+    std::printf("%-12s %11.2f ms %11.2f ms %11.2f ms\n", "YUV -> BGRA", toRgbArith, toRgbTable, toRgbHd);
+    std::printf("%-12s %11.2f ms %11.2f ms %11.2f ms\n", "BGRA -> NV12", toYuvArith, toYuvTable, toYuvHd);
+    return 0;
+}
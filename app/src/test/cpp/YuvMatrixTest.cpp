@@ -0,0 +1,111 @@
+// Table-driven YUV <-> RGB: every colour space stays within one level of
+// the float reference across the cube, the default (BT.601 limited) is
+// bit-identical to the arithmetic kernels it replaced, and the frame
+// conversions pick up the matrix a frame or encoder asks for.
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+#include "FrameConvert.hpp"
+#include "TestFrames.hpp"
+
+static const YuvColorSpace kSpaces[] = {
+        {kColorStandardBt601Ntsc, kColorRangeLimited}, {kColorStandardBt601Ntsc, kColorRangeFull},
+        {kColorStandardBt709, kColorRangeLimited},     {kColorStandardBt709, kColorRangeFull},
+        {kColorStandardBt2020, kColorRangeLimited},    {kColorStandardBt2020, kColorRangeFull},
+};
+
+static int MaxDiff(int a0, int a1, int a2, int b0, int b1, int b2)
+{
+    return std::max({std::abs(a0 - b0), std::abs(a1 - b1), std::abs(a2 - b2)});
+}
+
+int main()
+{
+    for (const YuvColorSpace& cs : kSpaces) {
+        const YuvToRgbTable& toRgb = YuvToRgbTableFor(cs);
+        const RgbToYuvTable& toYuv = RgbToYuvTableFor(cs);
+        int rgbErr = 0, yuvErr = 0;
+        // Every third code value, both ends included, keeps the float reference affordable
+        for (int a = 0; a < 256; a += 3)
+            for (int b = 0; b < 256; b += 3)
+                for (int c = 0; c < 256; c += 3) {
+                    int r, g, bl, rr, rg, rb;
+                    YuvToRgb(toRgb, a, b, c, r, g, bl);
+                    YuvToRgbReference(cs, a, b, c, rr, rg, rb);
+                    rgbErr = std::max(rgbErr, MaxDiff(r, g, bl, rr, rg, rb));
+                    int y, u, v, ry, ru, rv;
+                    RgbToYuv(toYuv, a, b, c, y, u, v);
+                    RgbToYuvReference(cs, a, b, c, ry, ru, rv);
+                    yuvErr = std::max(yuvErr, MaxDiff(y, u, v, ry, ru, rv));
+                }
+        std::printf("standard %d range %d: max error %d (to RGB), %d (to YUV)\n",
+                    cs.standard, cs.range, rgbErr, yuvErr);
+        EXPECT_TRUE(rgbErr <= 1 && yuvErr <= 1);
+
+        // Reference white and black land on the range's end points
+        int y, u, v;
+        RgbToYuv(toYuv, 255, 255, 255, y, u, v);
+        EXPECT_TRUE(y == (cs.range == kColorRangeFull ? 255 : 235) && u == 128 && v == 128);
+        RgbToYuv(toYuv, 0, 0, 0, y, u, v);
+        EXPECT_TRUE(y == (cs.range == kColorRangeFull ? 0 : 16) && u == 128 && v == 128);
+    }
+
+    // Unknown or PAL standards share the BT.601 matrix; unknown ranges are limited
+    EXPECT_TRUE(&YuvToRgbTableFor({kColorStandardBt601Pal, kColorRangeLimited}) == &YuvToRgbTableFor(YuvColorSpace()));
+    EXPECT_TRUE(&RgbToYuvTableFor({0, 0}) == &RgbToYuvTableFor(YuvColorSpace()));
+
+    // The default is the old integer arithmetic, bit for bit
+    {
+        const YuvToRgbTable& t = YuvToRgbTableFor(YuvColorSpace());
+        const RgbToYuvTable& f = RgbToYuvTableFor(YuvColorSpace());
+        bool same = true;
+        for (int a = 0; a < 256; ++a)
+            for (int b = 0; b < 256; ++b)
+                for (int c = 0; c < 256; ++c) {
+                    const int C = a - 16, D = b - 128, E = c - 128;
+                    int r, g, bl;
+                    YuvToRgb(t, a, b, c, r, g, bl);
+                    same &= r == std::clamp((298 * C + 409 * E + 128) >> 8, 0, 255);
+                    same &= g == std::clamp((298 * C - 100 * D - 208 * E + 128) >> 8, 0, 255);
+                    same &= bl == std::clamp((298 * C + 516 * D + 128) >> 8, 0, 255);
+                    int y, u, v;
+                    RgbToYuv(f, a, b, c, y, u, v);
+                    same &= y == std::clamp(((66 * a + 129 * b + 25 * c + 128) >> 8) + 16, 0, 255);
+                    same &= u == std::clamp(((-38 * a - 74 * b + 112 * c + 128) >> 8) + 128, 0, 255);
+                    same &= v == std::clamp(((112 * a - 94 * b - 18 * c + 128) >> 8) + 128, 0, 255);
+                }
+        EXPECT_TRUE(same);
+    }
+
+    // Frames convert with their own matrix, NV12 packing with the encoder's
+    const I420Frame frame = MakeSyntheticRecording(64, 32, 1, 20, 8, 0)[0];
+    const ColorFilter none;
+    std::vector<uint32_t> legacy(64 * 32), hd(64 * 32);
+    ConvertYuvToBgra(frame.view(), none, legacy.data());
+    YuvFrame view = frame.view();
+    view.matrix = &YuvToRgbTableFor({kColorStandardBt709, kColorRangeFull});
+    ConvertYuvToBgra(view, none, hd.data());
+    EXPECT_TRUE(legacy != hd);
+    bool matches = true;
+    for (int y = 0; y < 32; ++y)
+        for (int x = 0; x < 64; ++x) {
+            int r, g, b;
+            YuvToRgb(*view.matrix, frame.y[y * 64 + x], frame.u[(y / 2) * 32 + x / 2], frame.v[(y / 2) * 32 + x / 2],
+                     r, g, b);
+            matches &= hd[y * 64 + x] == (0xFF000000u | (b << 16) | (g << 8) | r);
+        }
+    EXPECT_TRUE(matches);
+
+    const uint32_t red = 0xFF0000FF;   // memory order R,G,B,A
+    const uint32_t px[4] = {red, red, red, red};
+    uint8_t nv12[6];
+    BgraToNv12(px, 2, 2, nv12, 2, 2, RgbToYuvTableFor({kColorStandardBt709, kColorRangeLimited}));
+    int y, u, v;
+    RgbToYuvReference({kColorStandardBt709, kColorRangeLimited}, 255, 0, 0, y, u, v);
+    EXPECT_TRUE(nv12[0] == y && nv12[4] == u && nv12[5] == v);
+    EXPECT_TRUE(y == 63 && u == 102 && v == 240);      // BT.709 red, not BT.601's 82 / 90 / 240
+
+    std::printf("yuv_matrix_test: OK\n");
+    return 0;
+}
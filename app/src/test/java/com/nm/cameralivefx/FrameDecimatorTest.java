@@ -0,0 +1,109 @@
+package com.nm.cameralivefx;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameDecimator against synthetic camera timestamp sequences (host JVM).
+ */
+public class FrameDecimatorTest {
+
+    private static final long FRAME_30_NS = 33_333_333L;
+
+    /** Counts per kind over seconds of a camera at 30 fps, optionally with timestamp jitter. */
+    private static int[] run(FrameDecimator d, int seconds, long jitterNs) {
+        Random random = new Random(5);
+        int[] counts = new int[3];
+        for (int i = 0; i < seconds * 30; i++) {
+            long jitter = jitterNs > 0 ? (long) (random.nextGaussian() * jitterNs) : 0;
+            counts[d.classify(1_000_000_000L + i * FRAME_30_NS + jitter)]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void keepsTheTargetRateOnASchedule() {
+        int[] half = run(FrameDecimator.atRate(15), 10, 0);
+        assertEquals(150, half[FrameDecimator.RECORD]);
+        assertEquals(150, half[FrameDecimator.DROP]);
+        assertEquals(0, half[FrameDecimator.PREVIEW]);
+
+        // 30 -> 12 is not an integer ratio: the schedule still lands on 12 a second
+        int[] twelve = run(FrameDecimator.atRate(12), 10, 0);
+        assertEquals(120, twelve[FrameDecimator.RECORD]);
+
+        // A camera slower than the target keeps everything
+        assertEquals(300, run(FrameDecimator.atRate(30), 10, 2_000_000L)[FrameDecimator.RECORD]);
+        assertEquals(300, run(FrameDecimator.atRate(60), 10, 0)[FrameDecimator.RECORD]);
+    }
+
+    @Test
+    public void toleratesTimestampJitter() {
+        int kept = run(FrameDecimator.atRate(15), 20, 1_500_000L)[FrameDecimator.RECORD];
+        assertTrue("kept " + kept, Math.abs(kept - 300) <= 3);
+    }
+
+    @Test
+    public void realTimeRatesKeepThePipelineClock() {
+        FrameDecimator d = FrameDecimator.atRate(15);
+        assertEquals(FrameDecimator.RECORD, d.classify(0));
+        assertEquals(-1, d.presentationTimeUs());
+        assertFalse(d.isTimeLapse());
+        assertEquals(1.0, d.speedup(), 0.0);
+        assertEquals(15, d.cameraFps());
+    }
+
+    @Test
+    public void timeLapseRecordsSparselyPreviewsSmoothlyAndRetimes() {
+        FrameDecimator d = FrameDecimator.timeLapse(1000, 30, 15);
+        assertTrue(d.isTimeLapse());
+        assertEquals(30.0, d.speedup(), 1e-9);
+        assertEquals(15, d.cameraFps());
+
+        int recorded = 0, previewed = 0;
+        for (int i = 0; i < 300; i++) {
+            int kind = d.classify(i * FRAME_30_NS);
+            if (kind == FrameDecimator.RECORD) {
+                // Frame n of the output at 30 fps, computed from n so rounding never drifts
+                assertEquals(recorded * 1_000_000L / 30, d.presentationTimeUs());
+                recorded++;
+            } else if (kind == FrameDecimator.PREVIEW) {
+                previewed++;
+            }
+        }
+        // One recorded frame per second; the display keeps ~15 fps including those
+        assertEquals(10, recorded);
+        assertEquals(150, recorded + previewed);
+        assertEquals(300_000, d.presentationTimeUs());
+    }
+
+    @Test
+    public void restartCountsFromZeroAtTheNextFrame() {
+        FrameDecimator d = FrameDecimator.timeLapse(500, 30, 15);
+        for (int i = 0; i < 90; i++) d.classify(i * FRAME_30_NS);
+        d.restart();
+        assertEquals(FrameDecimator.RECORD, d.classify(90 * FRAME_30_NS + 1));
+        assertEquals(0, d.presentationTimeUs());
+    }
+
+    @Test
+    public void reanchorsAfterACameraStall() {
+        FrameDecimator d = FrameDecimator.atRate(10);
+        for (int i = 0; i < 30; i++) d.classify(i * FRAME_30_NS);
+        // Two seconds without frames: no burst of catch-up frames afterwards
+        long resume = 32 * FRAME_30_NS * 3;
+        int kept = 0;
+        for (int i = 0; i < 30; i++) {
+            if (d.classify(resume + i * FRAME_30_NS) == FrameDecimator.RECORD) kept++;
+        }
+        assertEquals(10, kept);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRates() {
+        FrameDecimator.atRate(0);
+    }
+}
@@ -0,0 +1,144 @@
+package com.nm.cmaeralivefx.encoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nm.cmaeralivefx.encoder.EncodedSampleRing.TRACK_AUDIO;
+import static com.nm.cmaeralivefx.encoder.EncodedSampleRing.TRACK_VIDEO;
+import static org.junit.Assert.*;
+
+/**
+ * Keyframe-aligned trimming and byte-budget checks for EncodedSampleRing (host JVM).
+ */
+public class EncodedSampleRingTest {
+
+    private static final long FRAME_US = 33_333;
+    private static final int GOP = 30;
+
+    private static final class Sample {
+        final int track;
+        final long pts;
+        final boolean key;
+        final byte[] data;
+
+        Sample(int track, long pts, boolean key, ByteBuffer b) {
+            this.track = track;
+            this.pts = pts;
+            this.key = key;
+            this.data = new byte[b.remaining()];
+            b.get(this.data);
+        }
+    }
+
+    private static ByteBuffer payload(int size, int tag) {
+        ByteBuffer b = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) b.put((byte) (tag + i));
+        b.flip();
+        return b;
+    }
+
+    /** 30 fps video with a keyframe every GOP frames and one audio sample per frame. */
+    private static void feed(EncodedSampleRing ring, int fromFrame, int frames, int videoBytes) {
+        for (int f = fromFrame; f < fromFrame + frames; f++) {
+            long pts = f * FRAME_US;
+            ring.add(TRACK_VIDEO, payload(f % GOP == 0 ? videoBytes * 4 : videoBytes, f), pts, f % GOP == 0);
+            ring.add(TRACK_AUDIO, payload(100, f), pts + 1000, true);
+        }
+    }
+
+    private static List<Sample> drain(EncodedSampleRing ring) {
+        List<Sample> out = new ArrayList<>();
+        ring.drainTo((track, data, pts, key) -> out.add(new Sample(track, pts, key, data)));
+        return out;
+    }
+
+    @Test
+    public void dropsEverythingBeforeTheFirstKeyframe() {
+        EncodedSampleRing ring = new EncodedSampleRing(1 << 20, 1024, 10_000_000);
+        assertFalse(ring.add(TRACK_AUDIO, payload(100, 0), 0, true));
+        assertFalse(ring.add(TRACK_VIDEO, payload(100, 0), 0, false));
+        assertTrue(ring.add(TRACK_VIDEO, payload(100, 0), FRAME_US, true));
+        assertTrue(ring.add(TRACK_AUDIO, payload(100, 0), FRAME_US, true));
+        assertEquals(2, ring.getSampleCount());
+    }
+
+    @Test
+    public void windowTrimsWholeGopsAndKeepsAtLeastTheWindow() {
+        long windowUs = 2_000_000;
+        EncodedSampleRing ring = new EncodedSampleRing(4 << 20, 4096, windowUs);
+        feed(ring, 0, 30 * 10, 1000);
+        assertTrue(ring.getBufferedUs() >= windowUs - FRAME_US);
+        assertTrue(ring.getBufferedUs() < windowUs + GOP * FRAME_US);
+
+        List<Sample> out = drain(ring);
+        assertEquals(TRACK_VIDEO, out.get(0).track);
+        assertTrue(out.get(0).key);
+        assertEquals(0, Math.round(out.get(0).pts / (double) FRAME_US) % GOP);
+        assertEquals(0, ring.getSampleCount());
+    }
+
+    @Test
+    public void byteBudgetEvictsOldestGopAndStaysWithinBudget() {
+        // One GOP is 4000 + 29 * 1000 video + 30 * 100 audio = 36000 bytes
+        int budget = 100_000;
+        EncodedSampleRing ring = new EncodedSampleRing(budget, 4096, Long.MAX_VALUE);
+        for (int f = 0; f < 30 * 20; f++) {
+            feed(ring, f, 1, 1000);
+            assertTrue(ring.getBytesUsed() <= budget);
+        }
+        List<Sample> out = drain(ring);
+        assertTrue(out.get(0).key);
+        assertEquals(TRACK_VIDEO, out.get(0).track);
+        // Whole GOPs only: 2 complete ones fit, the one being filled is cut at the end
+        assertTrue(out.size() > 2 * GOP);
+    }
+
+    @Test
+    public void contentsSurviveWrapAroundInOrder() {
+        EncodedSampleRing ring = new EncodedSampleRing(50_000, 4096, Long.MAX_VALUE);
+        feed(ring, 0, 30 * 7, 700);
+        List<Sample> out = drain(ring);
+        long lastPts = -1;
+        for (Sample s : out) {
+            assertTrue(s.pts > lastPts);
+            lastPts = s.pts;
+            int frame = (int) ((s.pts - (s.track == TRACK_AUDIO ? 1000 : 0)) / FRAME_US);
+            assertArrayEquals(payload(s.data.length, frame).array(), s.data);
+        }
+        assertEquals(30 * 7 - 1, (int) (out.get(out.size() - 1).pts / FRAME_US));
+    }
+
+    @Test
+    public void sampleCountLimitAlsoEvictsByGop() {
+        EncodedSampleRing ring = new EncodedSampleRing(1 << 20, 100, Long.MAX_VALUE);
+        feed(ring, 0, 30 * 4, 10);
+        assertTrue(ring.getSampleCount() <= 100);
+        List<Sample> out = drain(ring);
+        assertTrue(out.get(0).key);
+        assertEquals(TRACK_VIDEO, out.get(0).track);
+    }
+
+    @Test
+    public void oversizedSampleEmptiesTheRing() {
+        EncodedSampleRing ring = new EncodedSampleRing(10_000, 64, Long.MAX_VALUE);
+        feed(ring, 0, 3, 100);
+        assertFalse(ring.add(TRACK_VIDEO, payload(20_000, 0), 10 * FRAME_US, false));
+        assertEquals(0, ring.getSampleCount());
+        // Nothing is kept until the next keyframe
+        assertFalse(ring.add(TRACK_VIDEO, payload(100, 0), 11 * FRAME_US, false));
+        assertTrue(ring.add(TRACK_VIDEO, payload(100, 0), 12 * FRAME_US, true));
+    }
+
+    @Test
+    public void addLeavesTheCallersBufferPositionAlone() {
+        EncodedSampleRing ring = new EncodedSampleRing(10_000, 64, Long.MAX_VALUE);
+        ByteBuffer b = payload(100, 3);
+        b.position(10);
+        assertTrue(ring.add(TRACK_VIDEO, b, 0, true));
+        assertEquals(10, b.position());
+        assertEquals(90, ring.getBytesUsed());
+    }
+}
@@ -0,0 +1,182 @@
+package com.nm.cmaeralivefx.encoder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.nm.cmaeralivefx.encoder.EncoderCapabilities.*;
+import static org.junit.Assert.*;
+
+/**
+ * EncoderSelector against hand-written capability tables (host JVM).
+ */
+public class EncoderSelectorTest {
+
+    private static final int ALL_MODES = (1 << BITRATE_MODE_CQ) | (1 << BITRATE_MODE_VBR) | (1 << BITRATE_MODE_CBR);
+
+    private static List<SizeRate> rates(double fps720, double fps1080, double fps2160) {
+        List<SizeRate> r = new ArrayList<>();
+        r.add(new SizeRate(1280, 720, fps720));
+        r.add(new SizeRate(1920, 1080, fps1080));
+        if (fps2160 > 0) r.add(new SizeRate(3840, 2160, fps2160));
+        return r;
+    }
+
+    private static EncoderCapabilities codec(String name, String mime, boolean hw, int maxW, int maxH,
+                                             int modes, int maxBitrate, double fps1080) {
+        return new EncoderCapabilities(name, mime, hw,
+                new int[]{COLOR_FormatYUV420SemiPlanar, COLOR_FormatYUV420Flexible},
+                modes, 1, maxBitrate, maxW, maxH, 2, 2,
+                mime.equals(MIME_AVC) ? new int[]{AVCProfileBaseline, AVCProfileMain, AVCProfileHigh}
+                        : new int[]{HEVCProfileMain},
+                false, rates(120, fps1080, maxW >= 3840 ? 30 : 0));
+    }
+
+    private static EncoderCatalog catalog(EncoderCapabilities... codecs) {
+        List<EncoderCapabilities> list = Collections.unmodifiableList(Arrays.asList(codecs));
+        return () -> list;
+    }
+
+    private static final EncoderCapabilities HW_AVC = codec("c2.vendor.avc.encoder", MIME_AVC, true, 4096, 2176, ALL_MODES, 100_000_000, 60);
+    private static final EncoderCapabilities HW_HEVC = codec("c2.vendor.hevc.encoder", MIME_HEVC, true, 4096, 2176, ALL_MODES, 100_000_000, 60);
+    private static final EncoderCapabilities SW_AVC = codec("c2.android.avc.encoder", MIME_AVC, false, 2048, 2048, 1 << BITRATE_MODE_VBR, 12_000_000, 30);
+
+    @Test
+    public void prefersHardwareHevcWhenAllowed() {
+        EncoderProfile p = EncoderSelector.select(catalog(SW_AVC, HW_AVC, HW_HEVC), 1920, 1080, 30, false, true);
+        assertEquals(HW_HEVC.name, p.codecName);
+        assertEquals(MIME_HEVC, p.mime);
+        assertEquals(HEVCProfileMain, p.profile);
+    }
+
+    @Test
+    public void fallsBackToAvcWhenHevcIsNotAllowed() {
+        EncoderProfile p = EncoderSelector.select(catalog(SW_AVC, HW_AVC, HW_HEVC), 1920, 1080, 30, false, false);
+        assertEquals(HW_AVC.name, p.codecName);
+        assertEquals(AVCProfileHigh, p.profile);
+    }
+
+    @Test
+    public void hardwareBeatsSoftwareAndSizeLimitsAreRespected() {
+        EncoderCapabilities smallHw = codec("c2.vendor.small.avc", MIME_AVC, true, 1920, 1088, ALL_MODES, 40_000_000, 30);
+        assertEquals(smallHw.name, EncoderSelector.select(catalog(SW_AVC, smallHw), 1920, 1080, 30, false, true).codecName);
+        // 4K is beyond both: nothing matches, the platform default is used
+        EncoderProfile p = EncoderSelector.select(catalog(SW_AVC, smallHw), 3840, 2160, 30, false, true);
+        assertNull(p.codecName);
+        assertEquals(MIME_AVC, p.mime);
+    }
+
+    @Test
+    public void portraitSizesAreAccepted() {
+        EncoderProfile p = EncoderSelector.select(catalog(HW_AVC), 1080, 1920, 30, false, false);
+        assertEquals(HW_AVC.name, p.codecName);
+    }
+
+    @Test
+    public void skipsEncodersWithoutYuv420Input() {
+        EncoderCapabilities surfaceOnly = new EncoderCapabilities("c2.vendor.surface.avc", MIME_AVC, true,
+                new int[]{0x7F000789}, ALL_MODES, 1, 100_000_000, 4096, 2176, 2, 2,
+                new int[]{AVCProfileHigh}, false, rates(120, 60, 30));
+        EncoderProfile p = EncoderSelector.select(catalog(surfaceOnly, SW_AVC), 1280, 720, 30, false, true);
+        assertEquals(SW_AVC.name, p.codecName);
+        assertEquals(COLOR_FormatYUV420Flexible, p.colorFormat);
+    }
+
+    @Test
+    public void bitrateScalesWithResolutionAndCodecAndIsClamped() {
+        int avc1080 = EncoderSelector.select(catalog(HW_AVC), 1920, 1080, 30, false, false).bitRate;
+        int avc720 = EncoderSelector.select(catalog(HW_AVC), 1280, 720, 30, false, false).bitRate;
+        int hevc1080 = EncoderSelector.select(catalog(HW_HEVC), 1920, 1080, 30, false, true).bitRate;
+        assertTrue(avc1080 > avc720);
+        assertEquals(avc1080 * EncoderSelector.HEVC_BITRATE_FACTOR, hevc1080, avc1080 * 0.01);
+        int sw = EncoderSelector.select(catalog(SW_AVC), 1920, 1080, 60, false, false).bitRate;
+        assertEquals(12_000_000, sw);
+        assertEquals(EncoderSelector.MIN_BIT_RATE,
+                EncoderSelector.select(catalog(HW_AVC), 320, 240, 15, false, false).bitRate);
+    }
+
+    @Test
+    public void bitrateModeFollowsUseCase() {
+        assertEquals(BITRATE_MODE_VBR, EncoderSelector.select(catalog(HW_AVC), 1920, 1080, 30, false, false).bitrateMode);
+        assertEquals(BITRATE_MODE_CBR, EncoderSelector.select(catalog(HW_AVC), 1920, 1080, 30, true, false).bitrateMode);
+        // Only VBR available: used even for low latency
+        assertEquals(BITRATE_MODE_VBR, EncoderSelector.select(catalog(SW_AVC), 1280, 720, 30, true, false).bitrateMode);
+    }
+
+    @Test
+    public void operatingRateOnlyWhenTheCodecReportsTheFrameRate() {
+        assertEquals(30, EncoderSelector.select(catalog(HW_AVC), 1920, 1080, 30, false, false).operatingRate);
+        assertEquals(0, EncoderSelector.select(catalog(SW_AVC), 1920, 1080, 60, false, false).operatingRate);
+        // Between probed sizes the next larger one counts
+        assertEquals(0, EncoderSelector.select(catalog(HW_AVC), 2560, 1440, 60, false, false).operatingRate);
+    }
+
+    @Test
+    public void frameRateBreaksTiesBetweenEqualCodecs() {
+        EncoderCapabilities slow = codec("c2.vendor.slow.avc", MIME_AVC, true, 4096, 2176, ALL_MODES, 100_000_000, 30);
+        EncoderCapabilities fast = codec("c2.vendor.fast.avc", MIME_AVC, true, 4096, 2176, ALL_MODES, 100_000_000, 60);
+        assertEquals(fast.name, EncoderSelector.select(catalog(slow, fast), 1920, 1080, 60, false, false).codecName);
+        assertEquals(slow.name, EncoderSelector.select(catalog(slow, fast), 1920, 1080, 30, false, false).codecName);
+    }
+
+    @Test
+    public void hdrNeedsHevcMain10WithP010Input() {
+        // The regular HEVC encoder has neither Main 10 nor P010
+        assertNull(EncoderSelector.selectHdr(catalog(HW_AVC, HW_HEVC), 1920, 1080, 30));
+
+        EncoderCapabilities noP010 = new EncoderCapabilities("c2.vendor.hevc.main10", MIME_HEVC, true,
+                new int[]{COLOR_FormatYUV420Flexible}, ALL_MODES, 1, 100_000_000, 4096, 2176, 2, 2,
+                new int[]{HEVCProfileMain, HEVCProfileMain10}, false, rates(120, 60, 30));
+        assertNull(EncoderSelector.selectHdr(catalog(noP010), 1920, 1080, 30));
+
+        EncoderCapabilities swHdr = new EncoderCapabilities("c2.android.hevc.encoder", MIME_HEVC, false,
+                new int[]{COLOR_FormatYUV420Flexible, COLOR_FormatYUVP010}, 1 << BITRATE_MODE_VBR, 1, 10_000_000,
+                1920, 1088, 2, 2, new int[]{HEVCProfileMain, HEVCProfileMain10}, false, rates(30, 15, 0));
+        EncoderCapabilities hwHdr = new EncoderCapabilities("c2.vendor.hevc.hdr", MIME_HEVC, true,
+                new int[]{COLOR_FormatYUV420Flexible, COLOR_FormatYUVP010}, ALL_MODES, 1, 100_000_000,
+                4096, 2176, 2, 2, new int[]{HEVCProfileMain, HEVCProfileMain10}, false, rates(120, 60, 30));
+        EncoderProfile p = EncoderSelector.selectHdr(catalog(swHdr, noP010, hwHdr), 1920, 1080, 30);
+        assertEquals(hwHdr.name, p.codecName);
+        assertEquals(HEVCProfileMain10, p.profile);
+        assertEquals(COLOR_FormatYUVP010, p.colorFormat);
+        assertEquals(EncoderProfile.COLOR_TRANSFER_HLG, p.colorTransfer);
+        assertEquals(EncoderProfile.COLOR_STANDARD_BT2020, p.colorStandard);
+        assertTrue(p.isHdr());
+        assertTrue(p.withBitRate(1_000_000).isHdr());
+        assertFalse(EncoderSelector.select(catalog(hwHdr), 1920, 1080, 30, false, true).isHdr());
+    }
+
+    @Test
+    public void sdrRecordingsAreTaggedByResolution() {
+        EncoderProfile hd = EncoderSelector.select(catalog(HW_AVC), 1920, 1080, 30, false, false);
+        assertEquals(EncoderProfile.COLOR_STANDARD_BT709, hd.colorStandard);
+        assertEquals(EncoderProfile.COLOR_TRANSFER_SDR_VIDEO, hd.colorTransfer);
+        assertEquals(EncoderProfile.COLOR_RANGE_LIMITED, hd.colorRange);
+        assertFalse(hd.isHdr());
+        assertEquals(EncoderProfile.COLOR_STANDARD_BT709,
+                EncoderSelector.select(catalog(HW_AVC), 720, 1280, 30, false, false).colorStandard);
+        assertEquals(EncoderProfile.COLOR_STANDARD_BT601_NTSC,
+                EncoderSelector.select(catalog(HW_AVC), 640, 480, 30, false, false).colorStandard);
+        // The unprobed fallback is tagged too, and a bitrate change keeps the tags
+        EncoderProfile fallback = EncoderSelector.select(catalog(), 1280, 720, 30, false, false);
+        assertNull(fallback.codecName);
+        assertEquals(EncoderProfile.COLOR_STANDARD_BT709, fallback.withBitRate(1_000_000).colorStandard);
+    }
+
+    @Test
+    public void capabilitiesSurviveTheCacheFormat() {
+        EncoderCapabilities back = EncoderCapabilities.parse(HW_HEVC.serialize());
+        assertEquals(HW_HEVC.serialize(), back.serialize());
+        assertEquals(HW_HEVC.maxFrameRate(1920, 1080), back.maxFrameRate(1920, 1080), 0.0);
+        assertTrue(back.supportsBitrateMode(BITRATE_MODE_CQ));
+        assertTrue(back.hardware);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedCacheLineIsRejected() {
+        EncoderCapabilities.parse("c2.vendor.avc|video/avc|1");
+    }
+}
@@ -0,0 +1,327 @@
+package com.nm.cmaeralivefx.encoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Box-structure and throughput checks for FragmentedMp4Writer (host JVM).
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x08};   // AAC-LC, 44.1 kHz, mono
+
+    private static final long FRAME_US = 33_333;
+    private static final long AUDIO_US = 1024L * 1_000_000 / 44100;
+
+    /** Minimal box view over the written bytes. */
+    private static final class Box {
+        final String type;
+        final int start, size;
+
+        Box(String type, int start, int size) {
+            this.type = type;
+            this.start = start;
+            this.size = size;
+        }
+
+        int payload(int headerExtra) {
+            return start + 8 + headerExtra;
+        }
+    }
+
+    private static List<Box> children(ByteBuffer b, int from, int to) {
+        List<Box> out = new ArrayList<>();
+        int p = from;
+        while (p + 8 <= to) {
+            int size = b.getInt(p);
+            byte[] t = new byte[4];
+            for (int i = 0; i < 4; i++) t[i] = b.get(p + 4 + i);
+            assertTrue("box size", size >= 8 && p + size <= to);
+            out.add(new Box(new String(t, StandardCharsets.US_ASCII), p, size));
+            p += size;
+        }
+        assertEquals("boxes must tile their parent exactly", to, p);
+        return out;
+    }
+
+    private static Box child(ByteBuffer b, Box parent, int headerExtra, String type) {
+        for (Box c : children(b, parent.payload(headerExtra), parent.start + parent.size)) {
+            if (c.type.equals(type)) return c;
+        }
+        fail("missing " + type + " in " + parent.type);
+        return null;
+    }
+
+    private static String types(List<Box> boxes) {
+        StringBuilder sb = new StringBuilder();
+        for (Box x : boxes) sb.append(x.type).append(' ');
+        return sb.toString().trim();
+    }
+
+    /** Video frame i: Annex-B with one NAL whose bytes encode the frame index. */
+    private static ByteBuffer videoFrame(int i, int payload) {
+        ByteBuffer b = ByteBuffer.allocate(4 + payload);
+        b.putInt(1);
+        b.put((byte) (i % 30 == 0 ? 0x65 : 0x41));
+        for (int k = 1; k < payload; k++) b.put((byte) i);
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer audioFrame(int i) {
+        ByteBuffer b = ByteBuffer.allocate(200);
+        for (int k = 0; k < 200; k++) b.put((byte) (0x80 | (i & 0x7F)));
+        b.flip();
+        return b;
+    }
+
+    /** Interleaved A/V recording of the given length, written into memory. */
+    private static ByteBuffer record(long durationUs, long fragmentUs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FragmentedMp4Writer w = new FragmentedMp4Writer(Channels.newChannel(bytes), fragmentUs);
+        int video = w.addTrack(FragmentedMp4Writer.Track.avc(640, 480, SPS, PPS));
+        int audio = w.addTrack(FragmentedMp4Writer.Track.aac(44100, 1, ASC));
+        w.setOrientationHint(90);
+        w.start();
+        long base = 5_000_000;
+        int vi = 0, ai = 0;
+        while (true) {
+            long vt = vi * FRAME_US, at = ai * AUDIO_US;
+            if (vt >= durationUs && at >= durationUs) break;
+            if (vt <= at) {
+                w.writeSample(video, videoFrame(vi, 100), base + vt, vi % 30 == 0);
+                vi++;
+            } else {
+                w.writeSample(audio, audioFrame(ai), base + at, true);
+                ai++;
+            }
+        }
+        w.finish();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Test
+    public void topLevelLayoutIsHeaderThenFragmentPairs() throws IOException {
+        ByteBuffer file = record(3_000_000, 1_000_000);
+        List<Box> top = children(file, 0, file.limit());
+        assertEquals("ftyp", top.get(0).type);
+        assertEquals("moov", top.get(1).type);
+        assertTrue("expected several fragments, got " + types(top), top.size() >= 2 + 2 * 3);
+        for (int i = 2; i < top.size(); i += 2) {
+            assertEquals("moof", top.get(i).type);
+            assertEquals("mdat", top.get(i + 1).type);
+        }
+    }
+
+    @Test
+    public void moovDescribesBothTracksForFragments() throws IOException {
+        ByteBuffer file = record(1_000_000, 1_000_000);
+        Box moov = children(file, 0, file.limit()).get(1);
+        assertEquals("mvhd trak trak mvex", types(children(file, moov.payload(0), moov.start + moov.size)));
+
+        Box mvex = child(file, moov, 0, "mvex");
+        List<Box> trex = children(file, mvex.payload(0), mvex.start + mvex.size);
+        assertEquals("trex trex", types(trex));
+        assertEquals(1, file.getInt(trex.get(0).payload(4)));
+        assertEquals(2, file.getInt(trex.get(1).payload(4)));
+
+        // avcC carries SPS/PPS without start codes
+        Box trak = children(file, moov.payload(0), moov.start + moov.size).get(1);
+        Box stsd = child(file, child(file, child(file, child(file, trak, 0, "mdia"), 0, "minf"), 0, "stbl"), 0, "stsd");
+        Box avc1 = children(file, stsd.payload(8), stsd.start + stsd.size).get(0);
+        assertEquals("avc1", avc1.type);
+        Box avcC = child(file, avc1, 78, "avcC");
+        int p = avcC.payload(0);
+        assertEquals(1, file.get(p));
+        assertEquals(0x42, file.get(p + 1));
+        assertEquals(SPS.length - 4, file.getShort(p + 6));
+        assertEquals(0x67, file.get(p + 8));
+
+        // 90 degree rotation matrix in the video tkhd
+        Box tkhd = child(file, trak, 0, "tkhd");
+        int matrix = tkhd.payload(4) + 36;
+        assertEquals(0, file.getInt(matrix));
+        assertEquals(0x00010000, file.getInt(matrix + 4));
+        assertEquals(-0x00010000, file.getInt(matrix + 12));
+    }
+
+    @Test
+    public void trunOffsetsPointAtLengthPrefixedSamples() throws IOException {
+        ByteBuffer file = record(2_000_000, 1_000_000);
+        List<Box> top = children(file, 0, file.limit());
+        int nextVideo = 0;
+        for (int i = 2; i < top.size(); i += 2) {
+            Box moof = top.get(i), mdat = top.get(i + 1);
+            for (Box traf : children(file, moof.payload(0), moof.start + moof.size)) {
+                if (!traf.type.equals("traf")) continue;
+                Box tfhd = child(file, traf, 0, "tfhd");
+                Box trun = child(file, traf, 0, "trun");
+                int count = file.getInt(trun.payload(4));
+                int offset = moof.start + file.getInt(trun.payload(8));
+                assertTrue(offset >= mdat.start + 8);
+                int entry = trun.payload(12);
+                boolean video = file.getInt(tfhd.payload(4)) == 1;
+                for (int s = 0; s < count; s++, entry += 12) {
+                    int size = file.getInt(entry + 4);
+                    assertTrue(offset + size <= mdat.start + mdat.size);
+                    if (video) {
+                        assertEquals("NAL length prefix", size - 4, file.getInt(offset));
+                        assertEquals((byte) nextVideo, file.get(offset + 5));
+                        boolean sync = file.getInt(entry + 8) == 0x02000000;
+                        assertEquals(nextVideo % 30 == 0, sync);
+                        nextVideo++;
+                    }
+                    offset += size;
+                }
+            }
+        }
+        assertEquals((2_000_000 + FRAME_US - 1) / FRAME_US, nextVideo);
+    }
+
+    @Test
+    public void tfdtContinuesWhereThePreviousFragmentEnded() throws IOException {
+        ByteBuffer file = record(4_000_000, 1_000_000);
+        List<Box> top = children(file, 0, file.limit());
+        long[] expected = {-1, -1};
+        for (int i = 2; i < top.size(); i += 2) {
+            Box moof = top.get(i);
+            for (Box traf : children(file, moof.payload(0), moof.start + moof.size)) {
+                if (!traf.type.equals("traf")) continue;
+                int track = file.getInt(child(file, traf, 0, "tfhd").payload(4)) - 1;
+                long tfdt = file.getLong(child(file, traf, 0, "tfdt").payload(4));
+                if (expected[track] >= 0) assertEquals(expected[track], tfdt);
+                Box trun = child(file, traf, 0, "trun");
+                int count = file.getInt(trun.payload(4));
+                long sum = 0;
+                for (int s = 0; s < count; s++) sum += file.getInt(trun.payload(12) + 12 * s);
+                expected[track] = tfdt + sum;
+            }
+        }
+        // ~4 s of video at 90 kHz and of audio at 44.1 kHz
+        assertEquals(4 * 90000, expected[0], 90000 / 30 + 1);
+        assertEquals(4 * 44100, expected[1], 1024 + 1);
+    }
+
+    @Test
+    public void hevcTrackGetsHvcCFromCsd() throws IOException {
+        byte[] vps = {0x40, 0x01, 0x0C, 0x01};
+        // SPS with emulation-prevention bytes inside the general constraint flags
+        byte[] sps = {0x42, 0x01, 0x01, 0x01, 0x60, 0, 0, 0, (byte) 0x90, 0, 0, 3, 0, 0, 3, 0, 0x5D, (byte) 0xA0};
+        byte[] pps = {0x44, 0x01, (byte) 0xC1, 0x72};
+        ByteBuffer csd = ByteBuffer.allocate(4 * 3 + vps.length + sps.length + pps.length);
+        csd.putInt(1).put(vps).putInt(1).put(sps).putInt(1).put(pps);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FragmentedMp4Writer w = new FragmentedMp4Writer(Channels.newChannel(bytes), 1_000_000);
+        int video = w.addTrack(FragmentedMp4Writer.Track.hevc(1920, 1080, csd.array()));
+        w.start();
+        w.writeSample(video, videoFrame(0, 50), 0, true);
+        w.finish();
+
+        ByteBuffer file = ByteBuffer.wrap(bytes.toByteArray());
+        Box moov = children(file, 0, file.limit()).get(1);
+        Box trak = child(file, moov, 0, "trak");
+        Box stsd = child(file, child(file, child(file, child(file, trak, 0, "mdia"), 0, "minf"), 0, "stbl"), 0, "stsd");
+        Box hvc1 = children(file, stsd.payload(8), stsd.start + stsd.size).get(0);
+        assertEquals("hvc1", hvc1.type);
+        Box hvcC = child(file, hvc1, 78, "hvcC");
+        int p = hvcC.payload(0);
+        byte[] ptl = {0x01, 0x60, 0, 0, 0, (byte) 0x90, 0, 0, 0, 0, 0, 0x5D};
+        for (int i = 0; i < ptl.length; i++) assertEquals("ptl byte " + i, ptl[i], file.get(p + 1 + i));
+        assertEquals((byte) 0xF8, file.get(p + 17));   // 8-bit luma and chroma
+        assertEquals((byte) 0xF8, file.get(p + 18));
+        assertEquals(0x0F, file.get(p + 21));
+        assertEquals(3, file.get(p + 22));
+        int a = p + 23;
+        byte[][] nals = {vps, sps, pps};
+        for (int i = 0; i < 3; i++) {
+            assertEquals((byte) (0x80 | (32 + i)), file.get(a));
+            assertEquals(1, file.getShort(a + 1));
+            assertEquals(nals[i].length, file.getShort(a + 3));
+            assertEquals(nals[i][0], file.get(a + 5));
+            a += 5 + nals[i].length;
+        }
+        assertEquals(hvcC.start + hvcC.size, a);
+    }
+
+    @Test
+    public void hevcMain10TrackSignalsTenBitDepth() throws IOException {
+        byte[] vps = {0x40, 0x01, 0x0C, 0x01};
+        byte[] sps = {0x42, 0x01, 0x01, 0x02, 0x20, 0, 0, 0, (byte) 0x90, 0, 0, 0, 0, 0, 0x5D, (byte) 0xA0};
+        byte[] pps = {0x44, 0x01, (byte) 0xC1, 0x72};
+        ByteBuffer csd = ByteBuffer.allocate(4 * 3 + vps.length + sps.length + pps.length);
+        csd.putInt(1).put(vps).putInt(1).put(sps).putInt(1).put(pps);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FragmentedMp4Writer w = new FragmentedMp4Writer(Channels.newChannel(bytes), 1_000_000);
+        int video = w.addTrack(FragmentedMp4Writer.Track.hevc(1920, 1080, csd.array()));
+        w.start();
+        w.writeSample(video, videoFrame(0, 50), 0, true);
+        w.finish();
+
+        ByteBuffer file = ByteBuffer.wrap(bytes.toByteArray());
+        Box moov = children(file, 0, file.limit()).get(1);
+        Box trak = child(file, moov, 0, "trak");
+        Box stsd = child(file, child(file, child(file, child(file, trak, 0, "mdia"), 0, "minf"), 0, "stbl"), 0, "stsd");
+        Box hvcC = child(file, children(file, stsd.payload(8), stsd.start + stsd.size).get(0), 78, "hvcC");
+        int p = hvcC.payload(0);
+        assertEquals(2, file.get(p + 1) & 0x1F);
+        assertEquals((byte) 0xFA, file.get(p + 17));
+        assertEquals((byte) 0xFA, file.get(p + 18));
+    }
+
+    @Test
+    public void finishOnlyFlushesTheOpenFragment() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FragmentedMp4Writer w = new FragmentedMp4Writer(Channels.newChannel(bytes), 1_000_000);
+        int video = w.addTrack(FragmentedMp4Writer.Track.avc(640, 480, SPS, PPS));
+        w.start();
+        for (int i = 0; i < 30 * 20; i++) {
+            w.writeSample(video, videoFrame(i, 1000), i * FRAME_US, i % 30 == 0);
+        }
+        long beforeFinish = w.getBytesWritten();
+        w.finish();
+        long flushed = w.getBytesWritten() - beforeFinish;
+        // One second of 1 KB frames plus headers, however long the recording was
+        assertTrue("finish wrote " + flushed, flushed < 31 * 1008 + 512);
+        assertEquals(20, w.getFragmentCount());
+    }
+
+    @Test
+    public void writesLongRecordingToDisk() throws IOException {
+        File out = File.createTempFile("fmp4", ".mp4");
+        out.deleteOnExit();
+        int frames = 30 * 60;
+        int frameBytes = 80_000;   // ~19 Mbit/s at 30 fps
+        ByteBuffer frame = videoFrame(1, frameBytes);
+        FragmentedMp4Writer w;
+        try (FileChannel channel = new FileOutputStream(out).getChannel()) {
+            w = new FragmentedMp4Writer(channel, 1_000_000);
+            int video = w.addTrack(FragmentedMp4Writer.Track.avc(1920, 1080, SPS, PPS));
+            w.start();
+            for (int i = 0; i < frames; i++) {
+                frame.rewind();
+                w.writeSample(video, frame, i * FRAME_US, i % 30 == 0);
+            }
+            w.finish();
+        }
+        // Throughput is measured by jvmbench's Mp4WriteBenchmark
+        assertEquals(60, w.getFragmentCount());
+        assertEquals(w.getBytesWritten(), out.length());
+        assertTrue(out.length() > (long) frames * frameBytes);
+    }
+}
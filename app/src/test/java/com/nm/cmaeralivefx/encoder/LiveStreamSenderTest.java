@@ -0,0 +1,276 @@
+package com.nm.cmaeralivefx.encoder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * LiveStreamSender end to end against a loopback ingest server (host JVM):
+ * everything arrives in order when the receiver keeps up;
+ * when it does not, non-reference frames go first, the bitrate comes down,
+ * what arrives stays decodable, and the bitrate recovers afterwards.
+ */
+public class LiveStreamSenderTest {
+
+    private static final long FRAME_US = 33_333;
+    private static final int IDR = 0, REFERENCE = 1, NON_REFERENCE = 2;
+
+    /** Synthetic encoder: frame sizes follow the requested bitrate, keyframes come when asked. */
+    private static final class FakeEncoder implements LiveStreamSender.EncoderControl {
+        final List<Integer> bitRates = Collections.synchronizedList(new ArrayList<>());
+        volatile int bitRate;
+        volatile boolean keyFrameRequested;
+        final List<Integer> kinds = new ArrayList<>();
+
+        FakeEncoder(int bitRate) {
+            this.bitRate = bitRate;
+        }
+
+        @Override
+        public void setBitrate(int bitRate) {
+            this.bitRate = bitRate;
+            bitRates.add(bitRate);
+        }
+
+        @Override
+        public void requestKeyFrame() {
+            keyFrameRequested = true;
+        }
+
+        /** Frame i: a GOP of 30 alternating reference and non-reference P frames after the IDR. */
+        ByteBuffer frame(int i) {
+            int kind = i % 30 == 0 || keyFrameRequested ? IDR : i % 2 == 1 ? NON_REFERENCE : REFERENCE;
+            if (kind == IDR) keyFrameRequested = false;
+            kinds.add(kind);
+            int size = bitRate / 8 / 30;
+            if (kind == IDR) size *= 3;
+            else if (kind == NON_REFERENCE) size /= 2;
+            ByteBuffer b = ByteBuffer.allocate(Math.max(size, 8));
+            b.putInt(1);
+            b.put((byte) (kind == IDR ? 0x65 : kind == REFERENCE ? 0x41 : 0x01));
+            // Frame index in two bytes that never form a start code
+            b.put((byte) (0x80 | (i >> 7 & 0x7F))).put((byte) (0x80 | (i & 0x7F)));
+            while (b.hasRemaining()) b.put((byte) 0x5A);
+            b.flip();
+            return b;
+        }
+
+        /** Frame index of a received access unit, read from behind its slice NAL header. */
+        static int index(byte[] payload) {
+            for (int i = 0; i + 5 < payload.length; i++) {
+                int header = payload[i + 3] & 0x1F;
+                if (payload[i] == 0 && payload[i + 1] == 0 && payload[i + 2] == 1 && (header == 1 || header == 5)) {
+                    return (payload[i + 4] & 0x7F) << 7 | (payload[i + 5] & 0x7F);
+                }
+            }
+            throw new AssertionError("no slice in access unit");
+        }
+    }
+
+    /** Accepts one connection and demuxes it, reading at most bytesPerSecond (0: as fast as it can). */
+    private static final class LoopbackServer {
+        final ServerSocket server;
+        final MpegTsWriterTest.Demux demux = new MpegTsWriterTest.Demux();
+        volatile int bytesPerSecond;
+        final Thread thread;
+        volatile Throwable error;
+
+        LoopbackServer(int bytesPerSecond) throws IOException {
+            this.bytesPerSecond = bytesPerSecond;
+            server = new ServerSocket();
+            server.setReceiveBufferSize(16 * 1024);    // keep the backlog on the sender's side
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            thread = new Thread(this::serve, "LoopbackServer");
+            thread.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void serve() {
+            try (Socket s = server.accept(); InputStream in = s.getInputStream()) {
+                byte[] buf = new byte[4096];
+                long budgetStartNs = System.nanoTime();
+                long budgetBytes = 0;
+                int n;
+                while ((n = in.read(buf, 0, bytesPerSecond > 0 ? 1024 : buf.length)) > 0) {
+                    synchronized (demux) {
+                        demux.feed(buf, n, System.nanoTime());
+                    }
+                    int rate = bytesPerSecond;
+                    if (rate > 0) {
+                        budgetBytes += n;
+                        long dueNs = budgetStartNs + budgetBytes * 1_000_000_000L / rate;
+                        long sleepNs = dueNs - System.nanoTime();
+                        if (sleepNs > 0) Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
+                    } else {
+                        budgetStartNs = System.nanoTime();
+                        budgetBytes = 0;
+                    }
+                }
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+
+        MpegTsWriterTest.Demux finish() throws Exception {
+            thread.join(5000);
+            server.close();
+            if (error != null) throw new AssertionError("server: " + error, error);
+            synchronized (demux) {
+                demux.finish();
+                return demux;
+            }
+        }
+    }
+
+    /** Offer frames at real-time pace from startNs, one audio frame per video frame. */
+    private static void produce(LiveStreamSender sender, FakeEncoder encoder, int video, int audio,
+                                  int from, int count, long startNs, LiveStreamSender.Stats[] firstDrop)
+            throws InterruptedException {
+        for (int i = from; i < from + count; i++) {
+            long dueNs = startNs + i * FRAME_US * 1000;
+            long sleepNs = dueNs - System.nanoTime();
+            if (sleepNs > 0) Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
+            ByteBuffer frame = encoder.frame(i);
+            boolean key = frame.get(4) == 0x65;
+            if (!sender.offer(video, frame, i * FRAME_US, key) && firstDrop != null && firstDrop[0] == null) {
+                firstDrop[0] = sender.stats();
+            }
+            sender.offer(audio, ByteBuffer.wrap(new byte[200]), i * FRAME_US, false);
+        }
+    }
+
+    @Test
+    public void fastReceiverGetsEverythingInOrder() throws Exception {
+        LoopbackServer server = new LoopbackServer(0);
+        LiveStreamSender sender = new LiveStreamSender("127.0.0.1", server.port(), 256 * 1024);
+        FakeEncoder encoder = new FakeEncoder(2_000_000);
+        int video = sender.addTrack(MpegTsWriterTest.videoTrack());
+        int audio = sender.addTrack(MpegTsWriterTest.audioTrack());
+        sender.setEncoderControl(encoder, 2_000_000);
+        sender.start();
+
+        int frames = 60;
+        produce(sender, encoder, video, audio, 0, frames, System.nanoTime(), null);
+        sender.close();
+        MpegTsWriterTest.Demux demux = server.finish();
+        LiveStreamSender.Stats stats = sender.stats();
+        assertNull(sender.failure());
+
+        List<MpegTsWriterTest.Pes> received = demux.stream(MpegTsWriter.PID_VIDEO);
+        assertEquals(frames, received.size());
+        assertEquals(frames, demux.stream(MpegTsWriter.PID_AUDIO).size());
+        assertEquals(0, stats.videoDropped());
+        assertEquals(0, stats.droppedAudio);
+        assertTrue(encoder.bitRates.isEmpty());
+        for (int i = 0; i < frames; i++) {
+            MpegTsWriterTest.Pes p = received.get(i);
+            assertEquals("in order", i, FakeEncoder.index(p.payload));
+            assertEquals(MpegTsWriter.START_PTS_90K + i * FRAME_US * 9 / 100, p.pts90k);
+        }
+    }
+
+    @Test
+    public void slowReceiverDropsNonReferenceFirstLowersBitrateAndStaysDecodable() throws Exception {
+        int nominal = 4_000_000;                                // ~500 KB/s against a 150 KB/s reader
+        LoopbackServer server = new LoopbackServer(150 * 1024);
+        LiveStreamSender sender = new LiveStreamSender("127.0.0.1", server.port(), 128 * 1024);
+        FakeEncoder encoder = new FakeEncoder(nominal);
+        int video = sender.addTrack(MpegTsWriterTest.videoTrack());
+        int audio = sender.addTrack(MpegTsWriterTest.audioTrack());
+        sender.setEncoderControl(encoder, nominal);
+        sender.start();
+
+        int congested = 90, recovering = 150;
+        LiveStreamSender.Stats[] firstDrop = new LiveStreamSender.Stats[1];
+        long startNs = System.nanoTime();
+        produce(sender, encoder, video, audio, 0, congested, startNs, firstDrop);
+        LiveStreamSender.Stats underPressure = sender.stats();
+        int lowest = encoder.bitRate;
+        server.bytesPerSecond = 0;                              // the link clears up
+        produce(sender, encoder, video, audio, congested, recovering, startNs, null);
+        sender.close();
+        MpegTsWriterTest.Demux demux = server.finish();
+        LiveStreamSender.Stats stats = sender.stats();
+
+        assertNotNull("frames were dropped", firstDrop[0]);
+        assertEquals("non-reference frames go first", 1, firstDrop[0].droppedNonReference);
+        assertEquals(0, firstDrop[0].droppedUntilKeyFrame);
+        assertTrue(underPressure.bitrateReductions > 0);
+        assertTrue("bitrate lowered", lowest < nominal);
+        assertTrue("never below the floor", lowest >= nominal / 4);
+        assertTrue("bitrate recovers", encoder.bitRate > lowest);
+        assertTrue("audio keeps flowing", stats.audioSent > stats.audioFrames * 9 / 10);
+
+        // Every delivered frame's reference is the last reference frame delivered before it
+        List<MpegTsWriterTest.Pes> received = demux.stream(MpegTsWriter.PID_VIDEO);
+        assertEquals(stats.videoSent, received.size());
+        int lastReference = -1, previous = -1;
+        for (MpegTsWriterTest.Pes p : received) {
+            boolean key = p.randomAccess;
+            int i = FakeEncoder.index(p.payload);
+            assertTrue("in order", i > previous);
+            previous = i;
+            int kind = encoder.kinds.get(i);
+            assertEquals(kind == IDR, key);
+            if (kind != IDR) {
+                int reference = i - 1;
+                while (encoder.kinds.get(reference) == NON_REFERENCE) reference--;
+                assertEquals("frame " + i + " references a delivered frame", reference, lastReference);
+            }
+            if (kind != NON_REFERENCE) lastReference = i;
+        }
+    }
+
+    @Test
+    public void unreachableServerFailsTheStream() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = s.getLocalPort();
+        }
+        LiveStreamSender sender = new LiveStreamSender("127.0.0.1", port, 64 * 1024);
+        sender.addTrack(MpegTsWriterTest.videoTrack());
+        sender.start();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (sender.failure() == null && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertNotNull(sender.failure());
+        assertFalse(sender.offer(0, new FakeEncoder(1_000_000).frame(0), 0, true));
+        sender.close();
+        assertTrue(sender.isClosed());
+    }
+
+    @Test
+    public void invalidPortFailsTheStream() throws Exception {
+        LiveStreamSender sender = new LiveStreamSender("127.0.0.1", 70000, 64 * 1024);
+        sender.addTrack(MpegTsWriterTest.videoTrack());
+        sender.start();
+        long deadline = System.currentTimeMillis() + 3000;
+        while (sender.failure() == null && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertNotNull(sender.failure());
+        assertFalse(sender.offer(0, new FakeEncoder(1_000_000).frame(0), 0, true));
+        sender.close();
+    }
+
+    @Test
+    public void referenceDetectionReadsNalRefIdc() {
+        assertTrue(LiveStreamSender.isReference(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1})));
+        assertTrue(LiveStreamSender.isReference(ByteBuffer.wrap(new byte[]{0, 0, 1, 0x41, 1})));
+        assertFalse(LiveStreamSender.isReference(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x01, 1})));
+        // AUD and SEI ahead of the slice are skipped
+        assertFalse(LiveStreamSender.isReference(ByteBuffer.wrap(
+                new byte[]{0, 0, 0, 1, 0x09, (byte) 0xF0, 0, 0, 0, 1, 0x06, 5, 0, 0, 1, 0x01, 2})));
+    }
+}
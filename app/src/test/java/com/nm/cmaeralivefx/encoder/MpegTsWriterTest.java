@@ -0,0 +1,301 @@
+package com.nm.cmaeralivefx.encoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packet structure, PSI tables and PES reassembly for MpegTsWriter (host JVM).
+ */
+public class MpegTsWriterTest {
+
+    static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11, 0x22};
+    static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    static final byte[] ASC = {0x12, 0x08};   // AAC-LC, 44.1 kHz, mono
+
+    private static final byte[] AUD = {0, 0, 0, 1, 0x09, (byte) 0xF0};
+
+    /** One reassembled PES packet. */
+    static final class Pes {
+        int pid;
+        int streamId;
+        long pts90k;
+        boolean randomAccess;
+        boolean pcr;
+        long arrivalNs;                 // when its first TS packet was read
+        byte[] payload;
+    }
+
+    /**
+     * Minimal TS demuxer that checks what it reads: packet size and sync,
+     * continuity counters, adaptation field stuffing, PSI CRCs, PES headers.
+     */
+    static final class Demux {
+        final List<Pes> pes = new ArrayList<>();
+        final Map<Integer, Integer> streamTypes = new HashMap<>();
+        int pats, pmts, pcrPid = -1, pmtPid = -1;
+        private final int[] continuity = new int[0x2000];
+        private final Map<Integer, Pes> open = new HashMap<>();
+        private final Map<Integer, ByteArrayOutputStream> openData = new HashMap<>();
+        private final byte[] pending = new byte[MpegTsWriter.PACKET_SIZE];
+        private int pendingBytes;
+
+        Demux() {
+            Arrays.fill(continuity, -1);
+        }
+
+        /** Feed stream bytes in any chunking. */
+        void feed(byte[] data, int length, long arrivalNs) {
+            for (int i = 0; i < length; i++) {
+                pending[pendingBytes++] = data[i];
+                if (pendingBytes == pending.length) {
+                    packet(pending, arrivalNs);
+                    pendingBytes = 0;
+                }
+            }
+        }
+
+        /** Close the PES packets still open. */
+        void finish() {
+            assertEquals("stream ends on a packet boundary", 0, pendingBytes);
+            for (Integer pid : new ArrayList<>(open.keySet())) close(pid);
+        }
+
+        List<Pes> stream(int pid) {
+            List<Pes> out = new ArrayList<>();
+            for (Pes p : pes) if (p.pid == pid) out.add(p);
+            return out;
+        }
+
+        private void packet(byte[] p, long arrivalNs) {
+            assertEquals("sync byte", 0x47, p[0] & 0xFF);
+            boolean start = (p[1] & 0x40) != 0;
+            int pid = (p[1] & 0x1F) << 8 | (p[2] & 0xFF);
+            int control = (p[3] >> 4) & 3;
+            int cc = p[3] & 0x0F;
+            assertTrue("payload present", (control & 1) != 0);
+            if (continuity[pid] >= 0) assertEquals("continuity on pid " + pid, (continuity[pid] + 1) & 0xF, cc);
+            continuity[pid] = cc;
+
+            int pos = 4;
+            boolean randomAccess = false, pcr = false;
+            if ((control & 2) != 0) {
+                int length = p[4] & 0xFF;
+                assertTrue("adaptation field fits", 5 + length <= p.length);
+                int end = 5 + length;
+                if (length > 0) {
+                    int flags = p[5] & 0xFF;
+                    randomAccess = (flags & 0x40) != 0;
+                    pcr = (flags & 0x10) != 0;
+                    for (int i = 6 + (pcr ? 6 : 0); i < end; i++) assertEquals("stuffing", 0xFF, p[i] & 0xFF);
+                }
+                pos = end;
+            }
+
+            if (pid == MpegTsWriter.PID_PAT || pid == pmtPid) {
+                assertTrue("tables start in their packet", start);
+                int section = pos + 1 + (p[pos] & 0xFF);
+                int length = (p[section + 1] & 0x0F) << 8 | (p[section + 2] & 0xFF);
+                assertEquals("section CRC", 0, MpegTsWriter.crc32(p, section, 3 + length));
+                if (pid == MpegTsWriter.PID_PAT) {
+                    pats++;
+                    pmtPid = (p[section + 10] & 0x1F) << 8 | (p[section + 11] & 0xFF);
+                } else {
+                    pmts++;
+                    pcrPid = (p[section + 8] & 0x1F) << 8 | (p[section + 9] & 0xFF);
+                    for (int i = section + 12; i < section + 3 + length - 4; i += 5) {
+                        streamTypes.put((p[i + 1] & 0x1F) << 8 | (p[i + 2] & 0xFF), p[i] & 0xFF);
+                    }
+                }
+                return;
+            }
+
+            if (start) {
+                close(pid);
+                Pes pes = new Pes();
+                pes.pid = pid;
+                pes.randomAccess = randomAccess;
+                pes.pcr = pcr;
+                pes.arrivalNs = arrivalNs;
+                open.put(pid, pes);
+                openData.put(pid, new ByteArrayOutputStream());
+            }
+            ByteArrayOutputStream data = openData.get(pid);
+            assertNotNull("payload without a PES start on pid " + pid, data);
+            data.write(p, pos, p.length - pos);
+        }
+
+        private void close(int pid) {
+            Pes p = open.remove(pid);
+            if (p == null) return;
+            byte[] b = openData.remove(pid).toByteArray();
+            assertTrue("PES start code", b[0] == 0 && b[1] == 0 && b[2] == 1);
+            p.streamId = b[3] & 0xFF;
+            int length = (b[4] & 0xFF) << 8 | (b[5] & 0xFF);
+            assertEquals("PTS only", 0x80, b[7] & 0xFF);
+            int headerLength = b[8] & 0xFF;
+            p.pts90k = ((long) (b[9] & 0x0E) << 29) | ((long) (b[10] & 0xFF) << 22) | ((long) (b[11] & 0xFE) << 14)
+                    | ((long) (b[12] & 0xFF) << 7) | ((b[13] & 0xFF) >> 1);
+            int payloadStart = 9 + headerLength;
+            if (length != 0) assertEquals("PES length", b.length, 6 + length);
+            p.payload = Arrays.copyOfRange(b, payloadStart, b.length);
+            pes.add(p);
+        }
+    }
+
+    static FragmentedMp4Writer.Track videoTrack() {
+        return FragmentedMp4Writer.Track.avc(640, 360, SPS, PPS);
+    }
+
+    static FragmentedMp4Writer.Track audioTrack() {
+        return FragmentedMp4Writer.Track.aac(44100, 1, ASC);
+    }
+
+    private static Demux demux(ByteArrayOutputStream out) {
+        Demux d = new Demux();
+        byte[] bytes = out.toByteArray();
+        assertEquals("whole packets", 0, bytes.length % MpegTsWriter.PACKET_SIZE);
+        d.feed(bytes, bytes.length, 0);
+        d.finish();
+        return d;
+    }
+
+    private static byte[] sample(int size, int seed) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) b[i] = (byte) (seed * 31 + i);
+        return b;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void everySampleSizeReassemblesExactly() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MpegTsWriter w = new MpegTsWriter(Channels.newChannel(out));
+        int video = w.addTrack(videoTrack());
+        int audio = w.addTrack(audioTrack());
+
+        // Sizes around one and two packets hit every stuffing length, including 1 and 2 bytes
+        List<byte[]> videoSamples = new ArrayList<>();
+        List<byte[]> audioSamples = new ArrayList<>();
+        for (int size = 1; size <= 420; size++) {
+            byte[] v = sample(size, size);
+            ByteBuffer vb = ByteBuffer.wrap(v);
+            w.writeSample(video, vb, size * 33_333L, size % 50 == 1);
+            assertEquals("sample left as is", 0, vb.position());
+            videoSamples.add(v);
+            byte[] a = sample(size, -size);
+            w.writeSample(audio, ByteBuffer.wrap(a), size * 33_333L + 10_000, false);
+            audioSamples.add(a);
+        }
+        w.flush();
+        assertEquals(out.size(), w.bytesWritten());
+
+        Demux d = demux(out);
+        List<Pes> vp = d.stream(MpegTsWriter.PID_VIDEO);
+        List<Pes> ap = d.stream(MpegTsWriter.PID_AUDIO);
+        assertEquals(videoSamples.size(), vp.size());
+        assertEquals(audioSamples.size(), ap.size());
+        for (int i = 0; i < vp.size(); i++) {
+            int size = i + 1;
+            boolean key = size % 50 == 1;
+            Pes p = vp.get(i);
+            assertEquals(0xE0, p.streamId);
+            assertEquals(MpegTsWriter.START_PTS_90K + (size - 1) * 33_333L * 9 / 100, p.pts90k);
+            assertTrue("PCR on video", p.pcr);
+            assertEquals("random access on keyframes", key, p.randomAccess);
+            byte[] expected = key
+                    ? concat(AUD, SPS, PPS, videoSamples.get(i))
+                    : concat(AUD, videoSamples.get(i));
+            assertArrayEquals(expected, p.payload);
+        }
+        for (int i = 0; i < ap.size(); i++) {
+            Pes p = ap.get(i);
+            assertEquals(0xC0, p.streamId);
+            assertFalse("PCR stays on the video PID", p.pcr);
+            byte[] adts = Arrays.copyOf(p.payload, 7);
+            assertEquals(0xFF, adts[0] & 0xFF);
+            assertEquals(0xF1, adts[1] & 0xFF);
+            assertEquals("AAC-LC, 44.1 kHz", 0x50, adts[2] & 0xFF);
+            int frameLength = (adts[3] & 0x03) << 11 | (adts[4] & 0xFF) << 3 | (adts[5] & 0xFF) >> 5;
+            assertEquals(audioSamples.get(i).length + 7, frameLength);
+            assertArrayEquals(audioSamples.get(i), Arrays.copyOfRange(p.payload, 7, p.payload.length));
+        }
+    }
+
+    @Test
+    public void tablesLeadTheStreamAndEveryKeyFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MpegTsWriter w = new MpegTsWriter(Channels.newChannel(out));
+        int video = w.addTrack(videoTrack());
+        int audio = w.addTrack(audioTrack());
+        int keyFrames = 0;
+        for (int i = 0; i < 90; i++) {
+            boolean key = i % 30 == 0;
+            if (key) keyFrames++;
+            w.writeSample(video, ByteBuffer.wrap(sample(3000, i)), i * 33_333L, key);
+            w.writeSample(audio, ByteBuffer.wrap(sample(200, i)), i * 33_333L, false);
+        }
+        w.flush();
+
+        byte[] bytes = out.toByteArray();
+        assertEquals("PAT first", 0, ((bytes[1] & 0x1F) << 8) | (bytes[2] & 0xFF));
+        Demux d = demux(out);
+        assertEquals(keyFrames, d.pats);
+        assertEquals(keyFrames, d.pmts);
+        assertEquals(MpegTsWriter.PID_PMT, d.pmtPid);
+        assertEquals(MpegTsWriter.PID_VIDEO, d.pcrPid);
+        assertEquals(MpegTsWriter.STREAM_TYPE_AVC, (int) d.streamTypes.get(MpegTsWriter.PID_VIDEO));
+        assertEquals(MpegTsWriter.STREAM_TYPE_AAC_ADTS, (int) d.streamTypes.get(MpegTsWriter.PID_AUDIO));
+        // Large video PES (> 64 KB) are written unbounded
+        ByteArrayOutputStream big = new ByteArrayOutputStream();
+        MpegTsWriter wb = new MpegTsWriter(Channels.newChannel(big));
+        wb.addTrack(videoTrack());
+        byte[] frame = sample(100_000, 7);
+        wb.writeSample(0, ByteBuffer.wrap(frame), 0, true);
+        wb.flush();
+        Demux db = demux(big);
+        assertArrayEquals(concat(AUD, SPS, PPS, frame), db.stream(MpegTsWriter.PID_VIDEO).get(0).payload);
+    }
+
+    @Test
+    public void audioOnlyStreamsCarryPcrOnAudio() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MpegTsWriter w = new MpegTsWriter(Channels.newChannel(out));
+        w.addTrack(audioTrack());
+        for (int i = 0; i < 10; i++) w.writeSample(0, ByteBuffer.wrap(sample(150, i)), i * 23_220L, false);
+        w.flush();
+        Demux d = demux(out);
+        assertEquals(MpegTsWriter.PID_AUDIO, d.pcrPid);
+        for (Pes p : d.stream(MpegTsWriter.PID_AUDIO)) assertTrue(p.pcr);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHevc() {
+        byte[] csd = {0, 0, 0, 1, 0x40, 1, 0, 0, 0, 1, 0x42, 1, 0, 0, 0, 1, 0x44, 1};
+        new MpegTsWriter(Channels.newChannel(new ByteArrayOutputStream()))
+                .addTrack(FragmentedMp4Writer.Track.hevc(640, 360, csd));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsTracksAfterTheFirstSample() throws IOException {
+        MpegTsWriter w = new MpegTsWriter(Channels.newChannel(new ByteArrayOutputStream()));
+        w.addTrack(videoTrack());
+        w.writeSample(0, ByteBuffer.wrap(sample(10, 0)), 0, true);
+        w.addTrack(audioTrack());
+    }
+}
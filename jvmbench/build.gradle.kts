@@ -0,0 +1,38 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+// Android-free copies of the app's Java media hot paths plus a JMH suite for
+// them, so Java-side changes come with numbers from a plain JVM. Run with:
+//   ./gradlew :jvmbench:jmh                        (all benchmarks)
+//   ./gradlew :jvmbench:jmh -PjmhIncludes=Swizzle  (a subset, by regex)
+// Results land in build/results/jmh/results.json.
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+sourceSets {
+    main {
+        java {
+            // The muxing and ring classes are already Android-free: benchmark the app's own code
+            srcDir("../app/src/main/java")
+            include("com/nm/cameralivefx/jvmbench/**")
+            include("com/nm/cmaeralivefx/encoder/FragmentedMp4Writer.java")
+            include("com/nm/cmaeralivefx/encoder/EncodedSampleRing.java")
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Allocation rate per operation next to the timings
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
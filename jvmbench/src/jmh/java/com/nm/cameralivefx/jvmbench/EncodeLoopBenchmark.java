@@ -0,0 +1,75 @@
+package com.nm.cameralivefx.jvmbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Java side of encoding per call, with the codec's own work taken out
+ * (LoopbackCodec only copies): a 1080p NV12 frame through
+ * VideoEncoder.encodeFrame + drainEncoder, and one AudioEncoder.recordLoop
+ * pass. What remains is the input copy, the drain loop and its allocations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeLoopBenchmark {
+
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+    private static final long FRAME_US = 33_333;
+
+    /** Counts what arrives; the muxer has its own benchmark. */
+    static final class CountingSink implements SampleSink {
+        long samples, bytes;
+
+        @Override
+        public int addTrack(String mime) {
+            return 0;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+            samples++;
+            bytes += info.size;
+        }
+    }
+
+    private final CountingSink sink = new CountingSink();
+    private VideoEncodeLoop video;
+    private AudioEncodeLoop audio;
+    private byte[] frame;
+    private long ptsUs;
+
+    @Setup
+    public void setUp() {
+        frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        video = new VideoEncodeLoop(new LoopbackCodec("video/avc", 4, frame.length, 50, 30), sink);
+        audio = new AudioEncodeLoop(new LoopbackCodec("audio/mp4a-latm", 4, 4096, 8, 1),
+                new TonePcmSource(44100, 440), sink);
+    }
+
+    @Benchmark
+    public long videoFrame() {
+        video.encodeFrame(frame, ptsUs += FRAME_US);
+        return sink.samples;
+    }
+
+    @Benchmark
+    public long audioStep() {
+        audio.step();
+        return sink.samples;
+    }
+}
@@ -0,0 +1,111 @@
+package com.nm.cameralivefx.jvmbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MediaMuxerWrapper.writeSampleData under its lock. The "recording" group
+ * runs a video and an audio writer against one muxer, as the two encoder
+ * threads do; the *Alone benchmarks are the same writes without the other
+ * thread, so the difference is what contention costs each side.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MuxerContentionBenchmark {
+
+    private static final int VIDEO_SAMPLE_BYTES = 40_000;      // ~10 Mbit/s at 30 fps
+    private static final int AUDIO_SAMPLE_BYTES = 200;         // 64 kbit/s AAC frame
+    private static final long FRAME_US = 33_333;
+    private static final long AUDIO_FRAME_US = 1024L * 1_000_000 / 44100;
+
+    /** A started two-track muxer writing to nowhere. */
+    public abstract static class MuxerState {
+        LockedMuxer muxer;
+        int videoTrack, audioTrack;
+
+        void open() {
+            muxer = new LockedMuxer(new CountingChannel(), 1_000_000, 1920, 1080, 2);
+            videoTrack = muxer.addTrack("video/avc");
+            audioTrack = muxer.addTrack("audio/mp4a-latm");
+        }
+    }
+
+    @State(Scope.Group)
+    public static class SharedMuxer extends MuxerState {
+        @Setup
+        public void setUp() {
+            open();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnMuxer extends MuxerState {
+        @Setup
+        public void setUp() {
+            open();
+        }
+    }
+
+    /** One encoder thread's sample buffer and clock. */
+    @State(Scope.Thread)
+    public static class Writer {
+        final ByteBuffer video = ByteBuffer.allocateDirect(VIDEO_SAMPLE_BYTES);
+        final ByteBuffer audio = ByteBuffer.allocateDirect(AUDIO_SAMPLE_BYTES);
+        final SampleInfo info = new SampleInfo();
+        long frames;
+
+        void writeVideo(MuxerState s) {
+            info.set(0, VIDEO_SAMPLE_BYTES, frames * FRAME_US, frames % 30 == 0 ? CodecPort.BUFFER_FLAG_KEY_FRAME : 0);
+            frames++;
+            video.clear();
+            s.muxer.writeSampleData(s.videoTrack, video, info);
+        }
+
+        void writeAudio(MuxerState s) {
+            info.set(0, AUDIO_SAMPLE_BYTES, frames * AUDIO_FRAME_US, CodecPort.BUFFER_FLAG_KEY_FRAME);
+            frames++;
+            audio.clear();
+            s.muxer.writeSampleData(s.audioTrack, audio, info);
+        }
+    }
+
+    @Benchmark
+    @Group("recording")
+    @GroupThreads(1)
+    public void video(SharedMuxer s, Writer w) {
+        w.writeVideo(s);
+    }
+
+    @Benchmark
+    @Group("recording")
+    @GroupThreads(1)
+    public void audio(SharedMuxer s, Writer w) {
+        w.writeAudio(s);
+    }
+
+    @Benchmark
+    public void videoAlone(OwnMuxer s, Writer w) {
+        w.writeVideo(s);
+    }
+
+    @Benchmark
+    public void audioAlone(OwnMuxer s, Writer w) {
+        w.writeAudio(s);
+    }
+}
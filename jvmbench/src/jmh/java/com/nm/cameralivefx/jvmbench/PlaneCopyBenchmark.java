@@ -0,0 +1,65 @@
+package com.nm.cameralivefx.jvmbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One YUV_420_888 frame's three planes out of direct buffers, laid out as
+ * camera HALs deliver them (chroma pixel stride 2), per frame as the camera
+ * thread copies them: a new array per plane against reused arrays.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaneCopyBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    private final PlaneCopier allocating = new AllocatingPlaneCopier();
+    private final PlaneCopier pooled = new PooledPlaneCopier();
+    private final ByteBuffer[] planes = new ByteBuffer[3];
+
+    @Setup
+    public void setUp() {
+        String[] wh = size.split("x");
+        int w = Integer.parseInt(wh[0]), h = Integer.parseInt(wh[1]);
+        planes[0] = ByteBuffer.allocateDirect(w * h);
+        // U and V views overlap in one interleaved plane, each one byte short of w * h / 2
+        planes[1] = ByteBuffer.allocateDirect(w * h / 2 - 1);
+        planes[2] = ByteBuffer.allocateDirect(w * h / 2 - 1);
+    }
+
+    @Benchmark
+    public void allocating(Blackhole bh) {
+        copyFrame(allocating, bh);
+    }
+
+    @Benchmark
+    public void pooled(Blackhole bh) {
+        copyFrame(pooled, bh);
+    }
+
+    private void copyFrame(PlaneCopier copier, Blackhole bh) {
+        for (int i = 0; i < 3; i++) {
+            planes[i].rewind();
+            bh.consume(copier.copy(i, planes[i]));
+        }
+    }
+}
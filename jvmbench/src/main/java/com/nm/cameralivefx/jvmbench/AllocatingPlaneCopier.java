@@ -0,0 +1,14 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/** What the camera thread does today: a fresh array per plane per frame. */
+public final class AllocatingPlaneCopier implements PlaneCopier {
+
+    @Override
+    public byte[] copy(int plane, ByteBuffer src) {
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return data;
+    }
+}
@@ -0,0 +1,63 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AudioEncoder.recordLoop / drain against a CodecPort and a PcmSource;
+ * step() is one pass of the app's while (isEncoding) loop.
+ */
+public final class AudioEncodeLoop {
+
+    private final CodecPort codec;
+    private final PcmSource audioRecord;
+    private final SampleSink sink;
+    private final SampleInfo bufferInfo = new SampleInfo();
+    private final byte[] buffer = new byte[2048];
+    private int trackIndex = -1;
+
+    public AudioEncodeLoop(CodecPort codec, PcmSource audioRecord, SampleSink sink) {
+        this.codec = codec;
+        this.audioRecord = audioRecord;
+        this.sink = sink;
+    }
+
+    public void step() {
+        int inputBufferIndex = codec.dequeueInputBuffer(10000);
+        if (inputBufferIndex >= 0) {
+            int length = audioRecord.read(buffer, 0, buffer.length);
+            if (length > 0) {
+                ByteBuffer inputBuffer = codec.getInputBuffer(inputBufferIndex);
+                inputBuffer.clear();
+                inputBuffer.put(buffer, 0, length);
+                codec.queueInputBuffer(inputBufferIndex, 0, length,
+                        System.nanoTime() / 1000, 0);
+            }
+        }
+
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            int outputBufferIndex = codec.dequeueOutputBuffer(bufferInfo, 0);
+            if (outputBufferIndex == CodecPort.INFO_TRY_AGAIN_LATER) break;
+            if (outputBufferIndex >= 0) {
+                ByteBuffer outputBuffer = codec.getOutputBuffer(outputBufferIndex);
+
+                if ((bufferInfo.flags & CodecPort.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    bufferInfo.size = 0;
+                }
+
+                if (bufferInfo.size != 0) {
+                    outputBuffer.position(bufferInfo.offset);
+                    outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                    sink.writeSampleData(trackIndex, outputBuffer, bufferInfo);
+                }
+
+                codec.releaseOutputBuffer(outputBufferIndex);
+            } else if (outputBufferIndex == CodecPort.INFO_OUTPUT_FORMAT_CHANGED) {
+                trackIndex = sink.addTrack(codec.outputMime());
+            }
+        }
+    }
+}
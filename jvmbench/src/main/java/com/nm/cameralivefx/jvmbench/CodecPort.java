@@ -0,0 +1,31 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The part of MediaCodec's buffer-queue API the encoders use, with the
+ * same index and flag conventions, so their loops run unchanged off-device.
+ */
+public interface CodecPort {
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int BUFFER_FLAG_KEY_FRAME = 1;
+    int BUFFER_FLAG_CODEC_CONFIG = 2;
+
+    /** Index of a free input buffer, or INFO_TRY_AGAIN_LATER. */
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    /** Index of an output buffer (info filled in), INFO_TRY_AGAIN_LATER or INFO_OUTPUT_FORMAT_CHANGED. */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    /** MIME type of the output, valid once INFO_OUTPUT_FORMAT_CHANGED was returned. */
+    String outputMime();
+}
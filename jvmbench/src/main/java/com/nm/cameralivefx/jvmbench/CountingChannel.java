@@ -0,0 +1,33 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/** Discards what is written and counts it; stands in for the recording's file. */
+public final class CountingChannel implements WritableByteChannel {
+
+    private long bytes;
+    private boolean open = true;
+
+    @Override
+    public int write(ByteBuffer src) {
+        int n = src.remaining();
+        src.position(src.limit());
+        bytes += n;
+        return n;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
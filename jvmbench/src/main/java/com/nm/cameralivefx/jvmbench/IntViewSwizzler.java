@@ -0,0 +1,16 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bytes B,G,R,A read as a little-endian int are already 0xAARRGGBB, so the
+ * whole conversion is one bulk get from an int view of the array.
+ */
+public final class IntViewSwizzler implements PixelSwizzler {
+
+    @Override
+    public void toArgb(byte[] bgra, int[] argb, int pixels) {
+        ByteBuffer.wrap(bgra, 0, pixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(argb, 0, pixels);
+    }
+}
@@ -0,0 +1,87 @@
+package com.nm.cameralivefx.jvmbench;
+
+import com.nm.cmaeralivefx.encoder.FragmentedMp4Writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MediaMuxerWrapper's fragmented backend: the app's FragmentedMp4Writer
+ * behind the same single lock, so the audio and video encoder threads
+ * contend for it exactly as they do while recording.
+ */
+public final class LockedMuxer implements SampleSink {
+
+    // Minimal parameter sets; the writer only copies them into the sample entries
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1F, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x08};   // AAC-LC, 44.1 kHz, mono
+
+    private final Object muxerLock = new Object();
+    private final FragmentedMp4Writer fragmented;
+    private final int width, height;
+    private final AtomicInteger trackCount = new AtomicInteger(0);
+    private final int expectedTrackCount;
+    private volatile boolean isStarted = false;
+
+    public LockedMuxer(WritableByteChannel channel, long fragmentDurationUs, int width, int height,
+                       int expectedTrackCount) {
+        this.fragmented = new FragmentedMp4Writer(channel, fragmentDurationUs);
+        this.width = width;
+        this.height = height;
+        this.expectedTrackCount = expectedTrackCount;
+    }
+
+    @Override
+    public int addTrack(String mime) {
+        synchronized (muxerLock) {
+            FragmentedMp4Writer.Track track = mime.startsWith("video/")
+                    ? FragmentedMp4Writer.Track.avc(width, height, SPS, PPS)
+                    : FragmentedMp4Writer.Track.aac(44100, 1, ASC);
+            int trackIndex = fragmented.addTrack(track);
+            if (trackCount.incrementAndGet() == expectedTrackCount && !isStarted) {
+                try {
+                    fragmented.start();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to write MP4 header", e);
+                }
+                isStarted = true;
+            }
+            return trackIndex;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+        synchronized (muxerLock) {
+            if (isStarted && info != null && info.size > 0) {
+                ByteBuffer sample = buffer.duplicate();
+                sample.limit(info.offset + info.size).position(info.offset);
+                boolean key = (info.flags & CodecPort.BUFFER_FLAG_KEY_FRAME) != 0;
+                try {
+                    fragmented.writeSample(trackIndex, sample, info.presentationTimeUs, key);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to write MP4 fragment", e);
+                }
+            }
+        }
+    }
+
+    public void finish() throws IOException {
+        synchronized (muxerLock) {
+            if (isStarted) fragmented.finish();
+        }
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public int getFragmentCount() {
+        synchronized (muxerLock) {
+            return fragmented.getFragmentCount();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory CodecPort that "encodes" synchronously: each queued input turns
+ * into one output of size / compression bytes (its leading bytes, copied),
+ * every keyFrameInterval-th one flagged as a keyframe. Like a real encoder it
+ * reports the output format first, then a codec-config buffer, and hands out
+ * no input buffer while all output buffers are waiting to be drained. It does
+ * not allocate per call, so the gc profiler sees only the loop under test.
+ */
+public final class LoopbackCodec implements CodecPort {
+
+    private static final int CONFIG_BYTES = 32;
+
+    private final String mime;
+    private final int compression;
+    private final int keyFrameInterval;
+    private final ByteBuffer[] inputs;
+    private final ByteBuffer[] outputs;
+    private final SampleInfo[] outputInfo;
+    private final int[] pendingOutputs;       // FIFO of filled output indices
+    private int pendingHead, pendingCount;
+    private final boolean[] inputBusy;
+    private final boolean[] outputBusy;
+    private boolean formatReported, configReported;
+    private long frames;
+
+    public LoopbackCodec(String mime, int bufferCount, int inputCapacity, int compression, int keyFrameInterval) {
+        this.mime = mime;
+        this.compression = Math.max(1, compression);
+        this.keyFrameInterval = Math.max(1, keyFrameInterval);
+        inputs = new ByteBuffer[bufferCount];
+        outputs = new ByteBuffer[bufferCount];
+        outputInfo = new SampleInfo[bufferCount];
+        pendingOutputs = new int[bufferCount];
+        inputBusy = new boolean[bufferCount];
+        outputBusy = new boolean[bufferCount];
+        int outputCapacity = Math.max(CONFIG_BYTES, inputCapacity / this.compression + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            inputs[i] = ByteBuffer.allocateDirect(inputCapacity);
+            outputs[i] = ByteBuffer.allocateDirect(outputCapacity);
+            outputInfo[i] = new SampleInfo();
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        if (freeOutput() < 0) return INFO_TRY_AGAIN_LATER;
+        for (int i = 0; i < inputs.length; i++) {
+            if (!inputBusy[i]) {
+                inputBusy[i] = true;
+                return i;
+            }
+        }
+        return INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        if (!configReported) {
+            // Parameter sets go out ahead of the first frame
+            emit(inputs[index], offset, CONFIG_BYTES, presentationTimeUs, BUFFER_FLAG_CODEC_CONFIG);
+            configReported = true;
+        }
+        int flagsOut = frames++ % keyFrameInterval == 0 ? BUFFER_FLAG_KEY_FRAME : 0;
+        emit(inputs[index], offset, Math.max(1, size / compression), presentationTimeUs, flagsOut);
+        inputBusy[index] = false;
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        if (!formatReported && pendingCount > 0) {
+            formatReported = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        if (pendingCount == 0) return INFO_TRY_AGAIN_LATER;
+        int index = pendingOutputs[pendingHead];
+        pendingHead = (pendingHead + 1) % pendingOutputs.length;
+        pendingCount--;
+        SampleInfo src = outputInfo[index];
+        info.set(src.offset, src.size, src.presentationTimeUs, src.flags);
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputs[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        outputBusy[index] = false;
+    }
+
+    @Override
+    public String outputMime() {
+        return mime;
+    }
+
+    private int freeOutput() {
+        for (int i = 0; i < outputs.length; i++) {
+            if (!outputBusy[i]) return i;
+        }
+        return -1;
+    }
+
+    private void emit(ByteBuffer input, int offset, int size, long ptsUs, int flags) {
+        int index = freeOutput();
+        if (index < 0) return;   // the caller overran the drain; a real codec would stall instead
+        ByteBuffer out = outputs[index];
+        // The codec owns the input until queueInputBuffer returns, so its limit and position are free to use
+        input.limit(offset + Math.min(Math.min(size, out.capacity()), input.capacity() - offset)).position(offset);
+        out.clear();
+        out.put(input);
+        outputInfo[index].set(0, out.position(), ptsUs, flags);
+        outputBusy[index] = true;
+        pendingOutputs[(pendingHead + pendingCount) % pendingOutputs.length] = index;
+        pendingCount++;
+    }
+}
@@ -0,0 +1,7 @@
+package com.nm.cameralivefx.jvmbench;
+
+/** AudioRecord.read(byte[], int, int): 16-bit PCM, returns the bytes read. */
+public interface PcmSource {
+
+    int read(byte[] buffer, int offset, int length);
+}
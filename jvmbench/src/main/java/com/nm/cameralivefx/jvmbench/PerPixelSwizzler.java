@@ -0,0 +1,16 @@
+package com.nm.cameralivefx.jvmbench;
+
+/** The app's loop: four byte loads and a repack per pixel. */
+public final class PerPixelSwizzler implements PixelSwizzler {
+
+    @Override
+    public void toArgb(byte[] bgra, int[] argb, int pixels) {
+        for (int i = 0; i < pixels; i++) {
+            int b = bgra[i * 4] & 0xFF;
+            int g = bgra[i * 4 + 1] & 0xFF;
+            int r = bgra[i * 4 + 2] & 0xFF;
+            int a = bgra[i * 4 + 3] & 0xFF;
+            argb[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+}
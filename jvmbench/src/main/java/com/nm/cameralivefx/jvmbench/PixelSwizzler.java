@@ -0,0 +1,7 @@
+package com.nm.cameralivefx.jvmbench;
+
+/** Native BGRA photo bytes -> ARGB ints for Bitmap.setPixels (PipelineHost.createBitmapFromBgra). */
+public interface PixelSwizzler {
+
+    void toArgb(byte[] bgra, int[] argb, int pixels);
+}
@@ -0,0 +1,10 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/** Copies an Image plane out to a byte[] for the JNI call (CameraHandler.onImageAvailable). */
+public interface PlaneCopier {
+
+    /** Copy what remains of src; plane (0..2) tells the copier which plane it is. */
+    byte[] copy(int plane, ByteBuffer src);
+}
@@ -0,0 +1,24 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One array per plane, reused while the plane size stays the same. The
+ * caller must be done with the previous frame's array before the next copy,
+ * which holds for the camera thread: the JNI call returns before it.
+ */
+public final class PooledPlaneCopier implements PlaneCopier {
+
+    private final byte[][] planes = new byte[3][];
+
+    @Override
+    public byte[] copy(int plane, ByteBuffer src) {
+        byte[] data = planes[plane];
+        if (data == null || data.length != src.remaining()) {
+            data = new byte[src.remaining()];
+            planes[plane] = data;
+        }
+        src.get(data);
+        return data;
+    }
+}
@@ -0,0 +1,16 @@
+package com.nm.cameralivefx.jvmbench;
+
+/** Stand-in for MediaCodec.BufferInfo. */
+public final class SampleInfo {
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+}
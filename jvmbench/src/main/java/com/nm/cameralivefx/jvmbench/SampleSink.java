@@ -0,0 +1,13 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/** EncodedSampleSink with the MediaFormat reduced to its MIME type. */
+public interface SampleSink {
+
+    /** Register a track once its output format is known; returns the index to write with. */
+    int addTrack(String mime);
+
+    /** buffer is positioned on the sample; it is only valid during the call. */
+    void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info);
+}
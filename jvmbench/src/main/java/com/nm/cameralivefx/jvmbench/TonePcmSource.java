@@ -0,0 +1,23 @@
+package com.nm.cameralivefx.jvmbench;
+
+/** Endless 16-bit mono square wave; never blocks, unlike a microphone. */
+public final class TonePcmSource implements PcmSource {
+
+    private final int halfPeriodSamples;
+    private long sample;
+
+    public TonePcmSource(int sampleRate, int frequencyHz) {
+        halfPeriodSamples = Math.max(1, sampleRate / (2 * frequencyHz));
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int n = length & ~1;
+        for (int i = 0; i < n; i += 2) {
+            short v = (sample++ / halfPeriodSamples) % 2 == 0 ? (short) 8000 : (short) -8000;
+            buffer[offset + i] = (byte) v;
+            buffer[offset + i + 1] = (byte) (v >> 8);
+        }
+        return n;
+    }
+}
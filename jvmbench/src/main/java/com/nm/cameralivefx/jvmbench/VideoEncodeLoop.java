@@ -0,0 +1,68 @@
+package com.nm.cameralivefx.jvmbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * VideoEncoder.encodeFrame / drainEncoder against a CodecPort: one filtered
+ * frame in from the native record worker, everything the codec has ready out
+ * to the sink. Kept line for line with the app, per-drain BufferInfo included.
+ */
+public final class VideoEncodeLoop {
+
+    private final CodecPort encoder;
+    private final SampleSink sink;
+    private int trackIndex = -1;
+    private boolean isMuxerStarted = false;
+
+    public VideoEncodeLoop(CodecPort encoder, SampleSink sink) {
+        this.encoder = encoder;
+        this.sink = sink;
+    }
+
+    public void encodeFrame(byte[] data, long presentationTimeUs) {
+        int inputBufferIndex = encoder.dequeueInputBuffer(10000);
+        if (inputBufferIndex >= 0) {
+            ByteBuffer inputBuffer = encoder.getInputBuffer(inputBufferIndex);
+            inputBuffer.clear();
+            inputBuffer.put(data);
+            encoder.queueInputBuffer(inputBufferIndex, 0, data.length, presentationTimeUs, 0);
+        }
+
+        drainEncoder();
+    }
+
+    private void drainEncoder() {
+        SampleInfo bufferInfo = new SampleInfo();
+
+        while (true) {
+            int outputBufferIndex = encoder.dequeueOutputBuffer(bufferInfo, 0);
+            if (outputBufferIndex == CodecPort.INFO_TRY_AGAIN_LATER) {
+                break;
+            } else if (outputBufferIndex == CodecPort.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (isMuxerStarted) {
+                    throw new IllegalStateException("Format changed twice");
+                }
+                trackIndex = sink.addTrack(encoder.outputMime());
+                isMuxerStarted = true;
+            } else if (outputBufferIndex >= 0) {
+                if (!isMuxerStarted) {
+                    throw new IllegalStateException("Muxer not started yet");
+                }
+
+                ByteBuffer outputBuffer = encoder.getOutputBuffer(outputBufferIndex);
+
+                if ((bufferInfo.flags & CodecPort.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    bufferInfo.size = 0;
+                }
+
+                if (bufferInfo.size > 0) {
+                    outputBuffer.position(bufferInfo.offset);
+                    outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                    sink.writeSampleData(trackIndex, outputBuffer, bufferInfo);
+                }
+
+                encoder.releaseOutputBuffer(outputBufferIndex);
+            }
+        }
+    }
+}
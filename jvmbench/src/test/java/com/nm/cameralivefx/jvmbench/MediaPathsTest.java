@@ -0,0 +1,139 @@
+package com.nm.cameralivefx.jvmbench;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * The Android-free paths behave like the app code they stand for, so the
+ * benchmarks measure the real thing.
+ */
+public class MediaPathsTest {
+
+    /** Records what arrives, copying the samples out. */
+    private static final class RecordingSink implements SampleSink {
+        final List<String> tracks = new ArrayList<>();
+        final List<Long> pts = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        final List<Boolean> keys = new ArrayList<>();
+
+        @Override
+        public int addTrack(String mime) {
+            tracks.add(mime);
+            return tracks.size() - 1;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer buffer, SampleInfo info) {
+            assertEquals(info.size, buffer.remaining());
+            pts.add(info.presentationTimeUs);
+            sizes.add(info.size);
+            keys.add((info.flags & CodecPort.BUFFER_FLAG_KEY_FRAME) != 0);
+        }
+    }
+
+    @Test
+    public void swizzlersAgree() {
+        int pixels = 1001;
+        byte[] bgra = new byte[pixels * 4];
+        new Random(7).nextBytes(bgra);
+        int[] a = new int[pixels], b = new int[pixels];
+        new PerPixelSwizzler().toArgb(bgra, a, pixels);
+        new IntViewSwizzler().toArgb(bgra, b, pixels);
+        assertArrayEquals(a, b);
+        assertEquals(0x44332211, packed(new byte[]{0x11, 0x22, 0x33, 0x44}));
+    }
+
+    private static int packed(byte[] bgra) {
+        int[] out = new int[1];
+        new IntViewSwizzler().toArgb(bgra, out, 1);
+        return out[0];
+    }
+
+    @Test
+    public void pooledCopierReusesArraysUntilThePlaneSizeChanges() {
+        PlaneCopier pooled = new PooledPlaneCopier();
+        ByteBuffer plane = ByteBuffer.allocateDirect(64);
+        for (int i = 0; i < 64; i++) plane.put(i, (byte) i);
+        byte[] first = pooled.copy(0, plane);
+        plane.rewind();
+        byte[] second = pooled.copy(0, plane);
+        assertSame(first, second);
+        assertEquals(63, second[63]);
+        plane.rewind();
+        assertArrayEquals(second, new AllocatingPlaneCopier().copy(0, plane));
+        assertNotSame(first, pooled.copy(0, ByteBuffer.allocateDirect(32)));
+    }
+
+    @Test
+    public void videoLoopDeliversEveryFrameAfterTheFormat() {
+        RecordingSink sink = new RecordingSink();
+        VideoEncodeLoop loop = new VideoEncodeLoop(new LoopbackCodec("video/avc", 4, 3000, 10, 30), sink);
+        byte[] frame = new byte[3000];
+        for (int i = 0; i < 100; i++) loop.encodeFrame(frame, i * 33_333L);
+        assertEquals(1, sink.tracks.size());
+        assertEquals("video/avc", sink.tracks.get(0));
+        // The codec-config buffer is dropped, every frame is written once, in order
+        assertEquals(100, sink.pts.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 33_333L, (long) sink.pts.get(i));
+            assertEquals(300, (int) sink.sizes.get(i));
+            assertEquals(i % 30 == 0, sink.keys.get(i));
+        }
+    }
+
+    @Test
+    public void audioLoopEncodesWhatTheSourceReads() {
+        RecordingSink sink = new RecordingSink();
+        AudioEncodeLoop loop = new AudioEncodeLoop(new LoopbackCodec("audio/mp4a-latm", 4, 4096, 8, 1),
+                new TonePcmSource(44100, 440), sink);
+        for (int i = 0; i < 50; i++) loop.step();
+        assertEquals(1, sink.tracks.size());
+        assertEquals(50, sink.sizes.size());
+        for (int size : sink.sizes) assertEquals(2048 / 8, size);
+    }
+
+    @Test
+    public void lockedMuxerStartsOnTheLastTrackAndTakesBothThreads() throws Exception {
+        CountingChannel channel = new CountingChannel();
+        LockedMuxer muxer = new LockedMuxer(channel, 500_000, 1280, 720, 2);
+        int video = muxer.addTrack("video/avc");
+        assertFalse(muxer.isStarted());
+        int audio = muxer.addTrack("audio/mp4a-latm");
+        assertTrue(muxer.isStarted());
+        long header = channel.getBytes();
+        assertTrue(header > 0);
+
+        AtomicReference<Throwable> audioFailure = new AtomicReference<>();
+        Thread audioThread = new Thread(() -> {
+            ByteBuffer b = ByteBuffer.allocate(200);
+            SampleInfo info = new SampleInfo();
+            for (int i = 0; i < 200; i++) {
+                info.set(0, 200, i * 23_220L, CodecPort.BUFFER_FLAG_KEY_FRAME);
+                b.clear();
+                muxer.writeSampleData(audio, b, info);
+            }
+        });
+        audioThread.setUncaughtExceptionHandler((t, e) -> audioFailure.set(e));
+        audioThread.start();
+        ByteBuffer b = ByteBuffer.allocate(5000);
+        SampleInfo info = new SampleInfo();
+        for (int i = 0; i < 150; i++) {
+            info.set(0, 5000, i * 33_333L, i % 15 == 0 ? CodecPort.BUFFER_FLAG_KEY_FRAME : 0);
+            b.clear();
+            muxer.writeSampleData(video, b, info);
+        }
+        audioThread.join();
+        assertNull(audioFailure.get());
+        muxer.finish();
+        // Where fragments are cut depends on how the two threads interleave; that every sample landed does not
+        assertTrue(muxer.getFragmentCount() > 0);
+        assertTrue(channel.getBytes() - header >= 150 * 5000 + 200 * 200);
+    }
+}
@@ -0,0 +1,70 @@
+package com.nm.cameralivefx.benchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Cold-start time to first camera frame.
+ *
+ * timeToInitialDisplayMs is the first activity frame; timeToFullDisplayMs
+ * is the first camera frame on screen (MainActivity reports fully drawn
+ * from there). The per-stage breakdown is in logcat under StartupTrace.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final String PACKAGE = "com.nm.cameralivefx";
+    private static final int ITERATIONS = 10;
+    // Upper bound for the camera to deliver its first frame after the activity draws
+    private static final long FIRST_FRAME_WAIT_MS = 3000;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void coldStartToFirstFrame() {
+        benchmarkRule.measureRepeated(
+                PACKAGE,
+                Collections.singletonList(new StartupTimingMetric()),
+                CompilationMode.DEFAULT,
+                StartupMode.COLD,
+                ITERATIONS,
+                scope -> {
+                    grantPermissions(scope);
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    try {
+                        Thread.sleep(FIRST_FRAME_WAIT_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+
+    // Without these the permission dialog covers the preview on every launch
+    private static void grantPermissions(MacrobenchmarkScope scope) {
+        try {
+            scope.getDevice().executeShellCommand("pm grant " + PACKAGE + " android.permission.CAMERA");
+            scope.getDevice().executeShellCommand("pm grant " + PACKAGE + " android.permission.RECORD_AUDIO");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "Camera LiveFX"
 include(":app")
+include(":macrobenchmark")
+include(":jvmbench")
  
\ No newline at end of file